@@ -1,8 +1,11 @@
 package me.salamander.why.debug;
 
-import com.google.gson.*;
 import com.mojang.datafixers.util.Pair;
 import me.salamander.why.debug.patterns.*;
+import me.salamander.why.v2.FrameRemapper;
+import me.salamander.why.v2.classpath.ClassPath;
+import me.salamander.why.v2.config.Remaps;
+import me.salamander.why.v2.output.DirectorySink;
 import net.minecraft.world.chunk.light.ChunkBlockLightProvider;
 import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
@@ -12,83 +15,64 @@ import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceMethodVisitor;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class MethodModifier {
-    private static Printer printer = new Textifier();
-    private static TraceMethodVisitor mp = new TraceMethodVisitor(printer);
-
     public static void main(String[] args) {
-        JsonParser parser = new JsonParser();
         createClassNode(ChunkBlockLightProvider.class);
 
-        try {
-            String data = new String(MethodModifier.class.getResourceAsStream("/remaps.json").readAllBytes(), StandardCharsets.UTF_8);
-            JsonElement root = parser.parse(data);
-            JsonArray classesToTransform = root.getAsJsonArray();
-            for(JsonElement classInfoElement : classesToTransform){
-                JsonObject classInfo = classInfoElement.getAsJsonObject();
-                String className = classInfo.get("class").getAsString();
-                ClassNode classNode = createClassNode(className);
-                for(JsonElement methodInfoElement : classInfo.get("methods").getAsJsonArray()){
-                    JsonObject methodInfo = methodInfoElement.getAsJsonObject();
-                    JsonElement disable = methodInfo.get("disable");
-                    if(disable != null) if(disable.getAsBoolean()) continue;
-                    String name = methodInfo.get("name").getAsString();
-                    String descriptor = methodInfo.get("descriptor").getAsString();
-
-                    List<Integer> expandedVariables = new ArrayList<>();
-                    methodInfo.get("expanded_variables").getAsJsonArray().forEach((e) -> expandedVariables.add(e.getAsInt()));
-
-                    Map<String, String> transformedMethods = new HashMap<>();
-                    methodInfo.get("transformed_methods").getAsJsonObject().entrySet().forEach((entry) -> transformedMethods.put(entry.getKey(), entry.getValue().getAsString()));
-
-                    List<String> patternNames = new ArrayList<>();
-                    methodInfo.get("patterns").getAsJsonArray().forEach((e) -> patternNames.add(e.getAsString()));
-
-                    List<BytecodePattern> patterns = new ArrayList<>();
-                    patternNames.forEach(patternName -> {
-                        BytecodePattern pattern = Patterns.getPattern(patternName, transformedMethods);
-                        if(pattern != null){
-                            patterns.add(pattern);
-                            return;
-                        }
-
-                        System.out.println("Warning: Unknown Pattern: " + patternName);
-                    });
-
-                    boolean copy = true;
-                    JsonElement copyElement = methodInfo.get("copy");
-                    if(copyElement != null){
-                        copy = copyElement.getAsBoolean();
+        for(Remaps.ClassRemap classRemap : Remaps.load()){
+            ClassNode classNode = createClassNode(classRemap.className());
+            for(Remaps.MethodRemap methodRemap : classRemap.methods()){
+                if(methodRemap.disabled()) continue;
+                String name = methodRemap.name();
+                String descriptor = methodRemap.descriptor();
+
+                List<BytecodePattern> patterns = new ArrayList<>();
+                methodRemap.patterns().forEach(patternName -> {
+                    BytecodePattern pattern = Patterns.getPattern(patternName, methodRemap.transformedMethods());
+                    if(pattern != null){
+                        patterns.add(pattern);
+                        return;
                     }
 
-                    MethodNode newMethod = null;
-                    for(MethodNode methodNode : classNode.methods){
-                        if(methodNode.name.equals(name) && methodNode.desc.equals(descriptor)){
-                            newMethod = modifyMethod(classNode, methodNode, patterns, expandedVariables, copy);
-                        }
-                    }
+                    System.out.println("Warning: Unknown Pattern: " + patternName);
+                });
 
-                    if(newMethod != null && copy){
-                        classNode.methods.add(newMethod);
-                    }else if(copy){
-                        System.out.println("Warning: Couldn't find method " + name + " " + descriptor);
+                MethodNode original = null;
+                for(MethodNode methodNode : classNode.methods){
+                    if(methodNode.name.equals(name) && methodNode.desc.equals(descriptor)){
+                        original = methodNode;
                     }
                 }
-                byte[] bytes = saveClass(classNode, "");
-                ClassReader classReader = new ClassReader(bytes);
-                ClassNode node = new ClassNode();
-                classReader.accept(node, 0);
+
+                if(original == null){
+                    System.out.println("Warning: Couldn't find method " + name + " " + descriptor);
+                    continue;
+                }
+
+                //Always work on a copy so that a method that fails half way through doesn't end up in the class
+                MethodNode newMethod;
+                try {
+                    newMethod = modifyMethod(classNode, original, patterns, methodRemap.expandedVariables(), true);
+                }catch (RuntimeException e){
+                    System.out.println("Warning: Couldn't modify " + name + " " + descriptor + ". Keeping the original");
+                    e.printStackTrace();
+                    continue;
+                }
+
+                if(methodRemap.copy()){
+                    classNode.methods.add(newMethod);
+                }else{
+                    classNode.methods.set(classNode.methods.indexOf(original), newMethod);
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            byte[] bytes = saveClass(classNode, "");
+            ClassReader classReader = new ClassReader(bytes);
+            ClassNode node = new ClassNode();
+            classReader.accept(node, 0);
         }
     }
 
@@ -96,29 +80,24 @@ public class MethodModifier {
         ClassWriter classWriter = new ClassWriter(0);
 
         classNode.accept(classWriter);
-        Path savePath = Path.of(classNode.name + suffix + ".class");
+        return saveClass(classNode.name, classWriter.toByteArray(), suffix);
+    }
 
+    public static byte[] saveClass(String className, byte[] bytes, String suffix){
+        DirectorySink sink = new DirectorySink(Path.of(""));
         try {
-            if(!savePath.toFile().exists()){
-                savePath.toFile().getParentFile().mkdirs();
-                Files.createFile(savePath);
-            }
-
-            FileOutputStream fout = new FileOutputStream(savePath.toAbsolutePath().toString());
-            byte[] bytes;
-            fout.write(bytes = classWriter.toByteArray());
-            fout.close();
-            System.out.println("Saved class at " + savePath.toAbsolutePath());
-            return bytes;
+            sink.writeClass(className + suffix, bytes);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Couldn't save " + className, e);
         }
-        return null;
+        System.out.println("Saved class at " + Path.of(className + suffix + ".class").toAbsolutePath());
+        return bytes;
     }
 
     public static MethodNode modifyMethod(ClassNode classNode, MethodNode methodNode, List<BytecodePattern> patterns, List<Integer> expandedVariables, boolean copy){
         System.out.println("Modifying " + methodNode.name);
         MethodNode newMethod = copy ? copy(methodNode) : methodNode;
+        FrameRemapper.expandFrames(classNode.name, newMethod);
 
         var currentDescriptor = ParameterInfo.parseDescriptor(methodNode.desc);
         System.out.println("New Descriptor: " + (newMethod.desc = modifyDescriptor(methodNode, currentDescriptor, expandedVariables)));
@@ -150,6 +129,9 @@ public class MethodModifier {
         newMethod.localVariables = localVariables;
         newMethod.parameters = null;
 
+        //The patterns don't say what they changed so assume they expanded longs on the stack
+        FrameRemapper.remapFrames(classNode.name, newMethod, mapper, !patterns.isEmpty());
+
         return newMethod;
     }
 
@@ -167,12 +149,6 @@ public class MethodModifier {
     }
 
     private static InsnList modifyCodeV3(InsnList insnList, LocalVariableMapper varMapper, List<BytecodePattern> patterns){
-        for(AbstractInsnNode instruction : insnList){
-            if(instruction instanceof FrameNode){
-                insnList.remove(instruction);
-            }
-        }
-
         remapLocalVariables(insnList, varMapper);
         applyPatterns(insnList, varMapper, patterns);
 
@@ -241,43 +217,19 @@ public class MethodModifier {
     }
 
     public static String insnToString(AbstractInsnNode instruction){
-        instruction.accept(mp);
+        //A Textifier collects text as it goes so every call needs its own to be usable from several threads
+        Printer printer = new Textifier();
+        instruction.accept(new TraceMethodVisitor(printer));
         StringWriter sw = new StringWriter();
         printer.print(new PrintWriter(sw));
-        printer.getText().clear();
         return sw.toString();
     }
 
     public static ClassNode createClassNode(String path){
-        ClassNode node = new ClassNode();
-        try
-        {
-            System.out.println("Loading: " + path);
-            ClassReader reader = new ClassReader(ClassLoader.getSystemResourceAsStream(path));
-            reader.accept(node, 0);
-
-            return node;
-        } catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-
-        throw new RuntimeException("Couldn't create ClassNode for class " + path);
+        System.out.println("Loading: " + path);
+        return ClassPath.system().createClassNode(path.substring(0, path.length() - ".class".length()), 0);
     }
     public static ClassNode createClassNode(Class<?> clazz){
-        ClassNode node = new ClassNode();
-        try
-        {
-            String fileName = clazz.getName().replace('.', '/') + ".class";
-            ClassReader reader = new ClassReader(ClassLoader.getSystemResourceAsStream(fileName));
-            reader.accept(node, 0);
-
-            return node;
-        } catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-
-        throw new RuntimeException("Couldn't create ClassNode for class " + clazz.getName());
+        return ClassPath.system().createClassNode(Type.getInternalName(clazz), 0);
     }
 }
@@ -0,0 +1,91 @@
+package me.salamander.why.v2;
+
+/**
+ * Limits how long the analysis and transformation of a single method can take, so that one pathological method can't hold up everything else.
+ * The analyzers call {@link #tick()} every time they revisit a block or instruction and get aborted with an {@link Exceeded} once the method uses up
+ * its iterations or its time.
+ * <br>
+ * The limits are read from the {@code why.methodTimeBudgetMs} and {@code why.methodIterationBudget} system properties. Zero or less means no limit.
+ * Only the iteration limit is on by default: whether a method runs out of time depends on the machine and its load, so a time limit makes the output
+ * differ between runs, and caches and indices would keep whichever result they got first. The agent without a cache and the daemon keep nothing,
+ * and they transform classes while something waits for them, so they turn on a limit of {@link #LOAD_TIME_BUDGET_MS} with
+ * {@link #useDefaultTimeBudget(long)} unless the property sets one
+ */
+public final class AnalysisBudget {
+    public static final AnalysisBudget UNLIMITED = new AnalysisBudget(0, 0);
+
+    public static final long LOAD_TIME_BUDGET_MS = 250;
+
+    private static final String TIME_BUDGET_PROPERTY = "why.methodTimeBudgetMs";
+    private static volatile long timeBudgetMs = Long.getLong(TIME_BUDGET_PROPERTY, 0);
+    private static final long ITERATION_BUDGET = Long.getLong("why.methodIterationBudget", 5_000_000);
+
+    //Reading the clock on every tick would cost more than some of the work being limited
+    private static final int TICKS_PER_TIME_CHECK = 1024;
+
+    private final long start = System.nanoTime();
+    private final long timeLimitNanos;
+    private final long maxIterations;
+    private long iterations = 0;
+
+    /**
+     * @param timeLimitMillis How long the budget lasts, starting now
+     * @param maxIterations How many times {@link #tick()} can be called
+     */
+    public AnalysisBudget(long timeLimitMillis, long maxIterations) {
+        this.timeLimitNanos = timeLimitMillis > 0 ? timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+        this.maxIterations = maxIterations > 0 ? maxIterations : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return A new budget for a single method, using the limits from the system properties
+     */
+    public static AnalysisBudget forMethod(){
+        return new AnalysisBudget(timeBudgetMs, ITERATION_BUDGET);
+    }
+
+    /**
+     * Limits the time of every method from now on, unless {@code why.methodTimeBudgetMs} was set. Only for processes whose results aren't kept
+     */
+    public static void useDefaultTimeBudget(long millis){
+        if(System.getProperty(TIME_BUDGET_PROPERTY) == null) timeBudgetMs = millis;
+    }
+
+    /**
+     * @return The limits from the system properties. Whether a method gets transformed at all depends on them, so everything that keeps results
+     * between runs has to hash them
+     */
+    public static String getSettings(){
+        return Math.max(timeBudgetMs, 0) + " ms, " + Math.max(ITERATION_BUDGET, 0) + " iterations";
+    }
+
+    public void tick(){
+        if(++iterations > maxIterations){
+            throw new Exceeded("Used up all " + maxIterations + " iterations");
+        }
+        if(iterations % TICKS_PER_TIME_CHECK == 0){
+            check();
+        }
+    }
+
+    /**
+     * Only checks the time. Should be called between steps that don't tick
+     */
+    public void check(){
+        if(timeLimitNanos != Long.MAX_VALUE && System.nanoTime() - start > timeLimitNanos){
+            throw new Exceeded("Took longer than " + timeLimitNanos / 1_000_000 + " ms");
+        }
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public static class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Exceeded(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+/**
+ * Holds the analyzers and interpreters that get reused for every method analyzed on a thread. Use {@link #get()} instead of creating new ones
+ */
+public class AnalysisEngine {
+    private static final ThreadLocal<AnalysisEngine> engines = ThreadLocal.withInitial(AnalysisEngine::new);
+
+    private final BasicSourceInterpreter interpreter = new BasicSourceInterpreter(Opcodes.ASM9);
+    private final Analyzer<BasicSourceValue> analyzer = new Analyzer<>(interpreter){
+        @Override
+        protected void newControlFlowEdge(int insnIndex, int successorIndex) {
+            budget.tick();
+        }
+    };
+    private final LongSourceAnalyzer sparseAnalyzer = new LongSourceAnalyzer();
+
+    public static AnalysisEngine get(){
+        return engines.get();
+    }
+
+    private AnalysisBudget budget = AnalysisBudget.UNLIMITED;
+
+    public SourceAnalysis analyze(String owner, MethodNode method, Mode mode) throws AnalyzerException {
+        return analyze(owner, method, mode, AnalysisBudget.UNLIMITED);
+    }
+
+    /**
+     * @throws AnalysisBudget.Exceeded If the analysis doesn't finish within the budget
+     */
+    public SourceAnalysis analyze(String owner, MethodNode method, Mode mode, AnalysisBudget budget) throws AnalyzerException {
+        if(mode == Mode.SPARSE){
+            return sparseAnalyzer.analyze(owner, method, budget);
+        }
+
+        this.budget = budget;
+
+        interpreter.clearCache();
+        interpreter.setInstructions(method.instructions);
+        analyzer.analyze(owner, method);
+
+        //Def-use info allows for easy lookup of what a value gets consumed by
+        DefUseTable defUse = interpreter.buildDefUseTable();
+        if(mode == Mode.FULL_FRAMES){
+            return new FrameSourceAnalysis(analyzer.getFrames(), defUse);
+        }
+        return new BlockFrameStore(method, analyzer.getFrames(), defUse);
+    }
+
+    public enum Mode {
+        /**
+         * Keep the frame of every instruction
+         */
+        FULL_FRAMES,
+        /**
+         * Only keep frames at the start of basic blocks and rebuild the others when they are needed
+         */
+        BLOCK_FRAMES,
+        /**
+         * Only track longs with a {@link LongSourceAnalyzer}
+         */
+        SPARSE;
+
+        /**
+         * Reads the mode from the {@code why.analysis} system property: {@code frames}, {@code blocks} (default) or {@code sparse}
+         */
+        public static Mode fromSystemProperties(){
+            String mode = System.getProperty("why.analysis", "blocks");
+            return switch (mode) {
+                case "frames" -> FULL_FRAMES;
+                case "blocks" -> BLOCK_FRAMES;
+                case "sparse" -> SPARSE;
+                default -> throw new IllegalArgumentException("Unknown analysis mode " + mode);
+            };
+        }
+    }
+}
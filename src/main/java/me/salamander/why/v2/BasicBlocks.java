@@ -0,0 +1,92 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.tree.*;
+
+import java.util.BitSet;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Splits the instructions of a method into basic blocks. A block starts at the first instruction, at every jump, switch or exception handler target
+ * and after every instruction that doesn't fall through.
+ */
+public class BasicBlocks {
+    private final int[] blockOf;
+    private final int[] blockStarts;
+
+    private BasicBlocks(int[] blockOf, int[] blockStarts) {
+        this.blockOf = blockOf;
+        this.blockStarts = blockStarts;
+    }
+
+    public static BasicBlocks of(MethodNode method){
+        InsnList insnList = method.instructions;
+        AbstractInsnNode[] instructions = insnList.toArray();
+        int numInstructions = instructions.length;
+
+        BitSet leaders = new BitSet(numInstructions);
+        leaders.set(0);
+
+        if(method.tryCatchBlocks != null){
+            for(TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks){
+                leaders.set(insnList.indexOf(tryCatchBlock.handler));
+            }
+        }
+
+        for(int i = 0; i < numInstructions; i++){
+            AbstractInsnNode instruction = instructions[i];
+            if(instruction instanceof JumpInsnNode jump){
+                leaders.set(insnList.indexOf(jump.label));
+                leaders.set(i + 1);
+            }else if(instruction instanceof TableSwitchInsnNode tableSwitch){
+                leaders.set(insnList.indexOf(tableSwitch.dflt));
+                for(LabelNode label : tableSwitch.labels) leaders.set(insnList.indexOf(label));
+                leaders.set(i + 1);
+            }else if(instruction instanceof LookupSwitchInsnNode lookupSwitch){
+                leaders.set(insnList.indexOf(lookupSwitch.dflt));
+                for(LabelNode label : lookupSwitch.labels) leaders.set(insnList.indexOf(label));
+                leaders.set(i + 1);
+            }else if(isExit(instruction.getOpcode())){
+                leaders.set(i + 1);
+            }
+        }
+        leaders.clear(numInstructions);
+
+        int[] blockOf = new int[numInstructions];
+        int[] blockStarts = new int[leaders.cardinality() + 1];
+
+        int block = -1;
+        for(int i = 0; i < numInstructions; i++){
+            if(leaders.get(i)){
+                blockStarts[++block] = i;
+            }
+            blockOf[i] = block;
+        }
+        blockStarts[blockStarts.length - 1] = numInstructions;
+
+        return new BasicBlocks(blockOf, blockStarts);
+    }
+
+    public static boolean isExit(int opcode){
+        return (opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW;
+    }
+
+    public int getNumBlocks(){
+        return blockStarts.length - 1;
+    }
+
+    public int getBlockOf(int insnIndex){
+        return blockOf[insnIndex];
+    }
+
+    public int getStart(int block){
+        return blockStarts[block];
+    }
+
+    /**
+     * @return The index after the last instruction of the block
+     */
+    public int getEnd(int block){
+        return blockStarts[block + 1];
+    }
+}
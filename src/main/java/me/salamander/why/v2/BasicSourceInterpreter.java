@@ -13,66 +13,98 @@ import java.util.*;
 import static org.objectweb.asm.Opcodes.*;
 
 public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
-    private final Map<BasicSourceValue, Set<AbstractInsnNode>> consumers = new HashMap<>();
+    //Values without sources are immutable so the common ones can be shared instead of allocated for every empty local and return value
+    private static final BasicSourceValue UNINITIALIZED = new BasicSourceValue(null);
+    private static final BasicSourceValue[] EMPTY_PRIMITIVES = new BasicSourceValue[Type.DOUBLE + 1];
 
-    protected BasicSourceInterpreter(int api) {
+    private final DefUseTable.Builder defUse = new DefUseTable.Builder();
+    private final boolean recordDefUse;
+    private InsnList instructions;
+
+    public BasicSourceInterpreter(int api) {
+        this(api, true);
+    }
+
+    private BasicSourceInterpreter(int api, boolean recordDefUse) {
         super(api);
+        this.recordDefUse = recordDefUse;
+    }
+
+    /**
+     * Creates an interpreter for re-executing instructions of a method that has already been analyzed. It produces the same values but doesn't
+     * record any def-use information
+     */
+    public static BasicSourceInterpreter forReplay(int api, InsnList instructions){
+        BasicSourceInterpreter interpreter = new BasicSourceInterpreter(api, false);
+        interpreter.setInstructions(instructions);
+        return interpreter;
+    }
+
+    /**
+     * Must be called before analyzing a method so that sources can be recorded as instruction indices
+     * @param instructions The instructions of the method that is about to be analyzed
+     */
+    public void setInstructions(InsnList instructions) {
+        this.instructions = instructions;
     }
 
     @Override
     public BasicSourceValue newValue(Type type) {
         if(type == null){
-            return new BasicSourceValue(null);
+            return UNINITIALIZED;
         }
         if(type.getSort() == Type.VOID) return null;
         if(type.getSort() == Type.METHOD) throw new AssertionError();
+        if(type.getSort() <= Type.DOUBLE){
+            return EMPTY_PRIMITIVES[type.getSort()];
+        }
         return new BasicSourceValue(type);
     }
 
     @Override
     public BasicSourceValue newParameterValue(boolean isInstanceMethod, int local, Type type) {
         if(type == Type.VOID_TYPE) return null;
-        return new BasicSourceValue(type, local);
+        return new BasicSourceValue(type, IndexSet.EMPTY, IndexSet.of(local));
     }
 
     @Override
     public BasicSourceValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
         return switch (insn.getOpcode()){
-            case Opcodes.ACONST_NULL -> new BasicSourceValue(BasicInterpreter.NULL_TYPE, insn);
+            case Opcodes.ACONST_NULL -> new BasicSourceValue(BasicInterpreter.NULL_TYPE, source(insn));
             case Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2, Opcodes.ICONST_3,
-                    Opcodes.ICONST_4, Opcodes.ICONST_5 -> new BasicSourceValue(Type.INT_TYPE, insn);
-            case Opcodes.LCONST_0, Opcodes.LCONST_1 -> new BasicSourceValue(Type.LONG_TYPE, insn);
-            case Opcodes.FCONST_0, Opcodes.FCONST_1, Opcodes.FCONST_2 -> new BasicSourceValue(Type.FLOAT_TYPE, insn);
-            case Opcodes.DCONST_0, Opcodes.DCONST_1 -> new BasicSourceValue(Type.DOUBLE_TYPE, insn);
-            case Opcodes.BIPUSH -> new BasicSourceValue(Type.BYTE_TYPE, insn);
-            case Opcodes.SIPUSH -> new BasicSourceValue(Type.SHORT_TYPE, insn);
+                    Opcodes.ICONST_4, Opcodes.ICONST_5 -> new BasicSourceValue(Type.INT_TYPE, source(insn));
+            case Opcodes.LCONST_0, Opcodes.LCONST_1 -> new BasicSourceValue(Type.LONG_TYPE, source(insn));
+            case Opcodes.FCONST_0, Opcodes.FCONST_1, Opcodes.FCONST_2 -> new BasicSourceValue(Type.FLOAT_TYPE, source(insn));
+            case Opcodes.DCONST_0, Opcodes.DCONST_1 -> new BasicSourceValue(Type.DOUBLE_TYPE, source(insn));
+            case Opcodes.BIPUSH -> new BasicSourceValue(Type.BYTE_TYPE, source(insn));
+            case Opcodes.SIPUSH -> new BasicSourceValue(Type.SHORT_TYPE, source(insn));
             case Opcodes.LDC -> {
                 Object value = ((LdcInsnNode) insn).cst;
                 if (value instanceof Integer) {
-                    yield  new BasicSourceValue(Type.INT_TYPE, insn);
+                    yield  new BasicSourceValue(Type.INT_TYPE, source(insn));
                 } else if (value instanceof Float) {
-                    yield  new BasicSourceValue(Type.FLOAT_TYPE, insn);
+                    yield  new BasicSourceValue(Type.FLOAT_TYPE, source(insn));
                 } else if (value instanceof Long) {
-                    yield  new BasicSourceValue(Type.LONG_TYPE, insn);
+                    yield  new BasicSourceValue(Type.LONG_TYPE, source(insn));
                 } else if (value instanceof Double) {
-                    yield  new BasicSourceValue(Type.DOUBLE_TYPE, insn);
+                    yield  new BasicSourceValue(Type.DOUBLE_TYPE, source(insn));
                 } else if (value instanceof String) {
-                    yield  new BasicSourceValue(Type.getObjectType("java/lang/String"), insn);
+                    yield  new BasicSourceValue(Type.getObjectType("java/lang/String"), source(insn));
                 } else if (value instanceof Type) {
                     int sort = ((Type) value).getSort();
                     if (sort == Type.OBJECT || sort == Type.ARRAY) {
-                        yield new BasicSourceValue(Type.getObjectType("java/lang/Class"), insn);
+                        yield new BasicSourceValue(Type.getObjectType("java/lang/Class"), source(insn));
                     } else if (sort == Type.METHOD) {
-                        yield new BasicSourceValue(Type.getObjectType("java/lang/invoke/MethodType"), insn);
+                        yield new BasicSourceValue(Type.getObjectType("java/lang/invoke/MethodType"), source(insn));
                     } else {
                         throw new AnalyzerException(insn, "Illegal LDC value " + value);
                     }
                 }
                 throw new IllegalStateException("This shouldn't happen");
             }
-            case Opcodes.JSR -> new BasicSourceValue(Type.VOID_TYPE, insn);
-            case Opcodes.GETSTATIC -> new BasicSourceValue(Type.getType(((FieldInsnNode) insn).desc), insn);
-            case Opcodes.NEW -> new BasicSourceValue(Type.getObjectType(((TypeInsnNode) insn).desc), insn);
+            case Opcodes.JSR -> new BasicSourceValue(Type.VOID_TYPE, source(insn));
+            case Opcodes.GETSTATIC -> new BasicSourceValue(Type.getType(((FieldInsnNode) insn).desc), source(insn));
+            case Opcodes.NEW -> new BasicSourceValue(Type.getObjectType(((TypeInsnNode) insn).desc), source(insn));
             default -> throw new IllegalStateException("Unexpected value: " + insn.getType());
         };
     }
@@ -83,7 +115,7 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
             if(OpcodeUtil.isLocalVarStore(varInsn.getOpcode())){
                 consumeBy(value, insn);
             }
-            return new BasicSourceValue(value.getType(), insn, varInsn.var);
+            return new BasicSourceValue(value.getType(), source(insn), IndexSet.of(varInsn.var));
         }
         return value;
     }
@@ -101,22 +133,22 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
             case I2B:
             case I2C:
             case I2S:
-                return new BasicSourceValue(Type.INT_TYPE, insn);
+                return new BasicSourceValue(Type.INT_TYPE, source(insn));
             case FNEG:
             case I2F:
             case L2F:
             case D2F:
-                return new BasicSourceValue(Type.FLOAT_TYPE, insn);
+                return new BasicSourceValue(Type.FLOAT_TYPE, source(insn));
             case LNEG:
             case I2L:
             case F2L:
             case D2L:
-                return new BasicSourceValue(Type.LONG_TYPE, insn);
+                return new BasicSourceValue(Type.LONG_TYPE, source(insn));
             case DNEG:
             case I2D:
             case L2D:
             case F2D:
-                return new BasicSourceValue(Type.DOUBLE_TYPE, insn);
+                return new BasicSourceValue(Type.DOUBLE_TYPE, source(insn));
             case IFEQ:
             case IFNE:
             case IFLT:
@@ -133,39 +165,39 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
             case PUTSTATIC:
                 return null;
             case GETFIELD:
-                return new BasicSourceValue(Type.getType(((FieldInsnNode) insn).desc), insn);
+                return new BasicSourceValue(Type.getType(((FieldInsnNode) insn).desc), source(insn));
             case NEWARRAY:
                 switch (((IntInsnNode) insn).operand) {
                     case T_BOOLEAN:
-                        return new BasicSourceValue(Type.getType("[Z"), insn);
+                        return new BasicSourceValue(Type.getType("[Z"), source(insn));
                     case T_CHAR:
-                        return new BasicSourceValue(Type.getType("[C"), insn);
+                        return new BasicSourceValue(Type.getType("[C"), source(insn));
                     case T_BYTE:
-                        return new BasicSourceValue(Type.getType("[B"), insn);
+                        return new BasicSourceValue(Type.getType("[B"), source(insn));
                     case T_SHORT:
-                        return new BasicSourceValue(Type.getType("[S"), insn);
+                        return new BasicSourceValue(Type.getType("[S"), source(insn));
                     case T_INT:
-                        return new BasicSourceValue(Type.getType("[I"), insn);
+                        return new BasicSourceValue(Type.getType("[I"), source(insn));
                     case T_FLOAT:
-                        return new BasicSourceValue(Type.getType("[F"), insn);
+                        return new BasicSourceValue(Type.getType("[F"), source(insn));
                     case T_DOUBLE:
-                        return new BasicSourceValue(Type.getType("[D"), insn);
+                        return new BasicSourceValue(Type.getType("[D"), source(insn));
                     case T_LONG:
-                        return new BasicSourceValue(Type.getType("[J"), insn);
+                        return new BasicSourceValue(Type.getType("[J"), source(insn));
                     default:
                         break;
                 }
                 throw new AnalyzerException(insn, "Invalid array type");
             case ANEWARRAY:
-                return new BasicSourceValue(Type.getType("[" + Type.getObjectType(((TypeInsnNode) insn).desc)), insn);
+                return new BasicSourceValue(Type.getType("[" + Type.getObjectType(((TypeInsnNode) insn).desc)), source(insn));
             case ARRAYLENGTH:
-                return new BasicSourceValue(Type.INT_TYPE, insn);
+                return new BasicSourceValue(Type.INT_TYPE, source(insn));
             case ATHROW:
                 return null;
             case CHECKCAST:
-                return new BasicSourceValue(Type.getObjectType(((TypeInsnNode) insn).desc), insn);
+                return new BasicSourceValue(Type.getObjectType(((TypeInsnNode) insn).desc), source(insn));
             case INSTANCEOF:
-                return new BasicSourceValue(Type.INT_TYPE, insn);
+                return new BasicSourceValue(Type.INT_TYPE, source(insn));
             case MONITORENTER:
             case MONITOREXIT:
             case IFNULL:
@@ -196,14 +228,14 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
             case IAND:
             case IOR:
             case IXOR:
-                return new BasicSourceValue(Type.INT_TYPE, insn);
+                return new BasicSourceValue(Type.INT_TYPE, source(insn));
             case FALOAD:
             case FADD:
             case FSUB:
             case FMUL:
             case FDIV:
             case FREM:
-                return new BasicSourceValue(Type.FLOAT_TYPE, insn);
+                return new BasicSourceValue(Type.FLOAT_TYPE, source(insn));
             case LALOAD:
             case LADD:
             case LSUB:
@@ -216,22 +248,22 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
             case LAND:
             case LOR:
             case LXOR:
-                return new BasicSourceValue(Type.LONG_TYPE, insn);
+                return new BasicSourceValue(Type.LONG_TYPE, source(insn));
             case DALOAD:
             case DADD:
             case DSUB:
             case DMUL:
             case DDIV:
             case DREM:
-                return new BasicSourceValue(Type.DOUBLE_TYPE, insn);
+                return new BasicSourceValue(Type.DOUBLE_TYPE, source(insn));
             case AALOAD:
-                return new BasicSourceValue(Type.getObjectType("java/lang/Object"), insn);
+                return new BasicSourceValue(Type.getObjectType("java/lang/Object"), source(insn));
             case LCMP:
             case FCMPL:
             case FCMPG:
             case DCMPL:
             case DCMPG:
-                return new BasicSourceValue(Type.INT_TYPE, insn);
+                return new BasicSourceValue(Type.INT_TYPE, source(insn));
             case IF_ICMPEQ:
             case IF_ICMPNE:
             case IF_ICMPLT:
@@ -263,15 +295,15 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
 
         int opcode = insn.getOpcode();
         if (opcode == MULTIANEWARRAY) {
-            return new BasicSourceValue(Type.getType(((MultiANewArrayInsnNode) insn).desc), insn);
+            return new BasicSourceValue(Type.getType(((MultiANewArrayInsnNode) insn).desc), source(insn));
         } else if (opcode == INVOKEDYNAMIC) {
             Type type = Type.getReturnType(((InvokeDynamicInsnNode) insn).desc);
             if(type.getSort() == Type.VOID) return null;
-            return new BasicSourceValue(type, insn);
+            return new BasicSourceValue(type, source(insn));
         } else {
             Type type = Type.getReturnType(((MethodInsnNode) insn).desc);
             if(type.getSort() == Type.VOID) return null;
-            return new BasicSourceValue(type, insn);
+            return new BasicSourceValue(type, source(insn));
         }
     }
 
@@ -285,21 +317,44 @@ public class BasicSourceInterpreter extends Interpreter<BasicSourceValue> {
         return value1.merge(value2);
     }
 
-    private void consumeBy(BasicSourceValue value, AbstractInsnNode consumer){
-        assert value != null;
-        consumers.computeIfAbsent(value, key -> new HashSet<>(2)).add(consumer);
+    private IndexSet source(AbstractInsnNode insn){
+        return IndexSet.of(instructions.indexOf(insn));
     }
 
-    public Set<AbstractInsnNode> getConsumersFor(BasicSourceValue value){
+    private void consumeBy(BasicSourceValue value, AbstractInsnNode consumer){
         assert value != null;
-        return consumers.get(value);
+        IndexSet source = value.getSource();
+        if(source.isEmpty() || !recordDefUse) return;
+
+        int use = instructions.indexOf(consumer);
+        for(int def = source.nextSetBit(0); def >= 0; def = source.nextSetBit(def + 1)){
+            defUse.add(def, use);
+        }
     }
 
-    public Map<BasicSourceValue, Set<AbstractInsnNode>> getConsumers() {
-        return consumers;
+    /**
+     * @return The def-use chains of the method that was last analyzed
+     */
+    public DefUseTable buildDefUseTable(){
+        return defUse.build(instructions.size());
     }
 
     public void clearCache() {
-        consumers.clear();
+        defUse.clear();
+    }
+
+    static {
+        for(int sort = Type.BOOLEAN; sort <= Type.DOUBLE; sort++){
+            EMPTY_PRIMITIVES[sort] = new BasicSourceValue(switch (sort){
+                case Type.BOOLEAN -> Type.BOOLEAN_TYPE;
+                case Type.CHAR -> Type.CHAR_TYPE;
+                case Type.BYTE -> Type.BYTE_TYPE;
+                case Type.SHORT -> Type.SHORT_TYPE;
+                case Type.INT -> Type.INT_TYPE;
+                case Type.FLOAT -> Type.FLOAT_TYPE;
+                case Type.LONG -> Type.LONG_TYPE;
+                default -> Type.DOUBLE_TYPE;
+            });
+        }
     }
 }
@@ -1,56 +1,28 @@
 package me.salamander.why.v2;
 
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.analysis.Value;
 
-import java.util.HashSet;
 import java.util.Objects;
-import java.util.Set;
 
+/**
+ * A value that remembers which instructions (by index) may have emitted it and which local variables it may have been stored in or loaded from.
+ * Values are immutable so {@link #merge(BasicSourceValue)} can hand back an existing instance when nothing changes
+ */
 public class BasicSourceValue implements Value {
-    private static int IDCounter = 0;
-
     private final Type type;
-    private final Set<AbstractInsnNode> source;
-    private final Set<Integer> localVars;
+    private final IndexSet source;
+    private final IndexSet localVars;
 
     public BasicSourceValue(Type type){
-        this.type = type;
-        this.source = new HashSet<>();
-        this.localVars = new HashSet<>();
-    }
-
-    public BasicSourceValue(Type type, int localVar){
-        this.type = type;
-        this.source = new HashSet<>();
-        this.localVars = new HashSet<>();
-        localVars.add(localVar);
-    }
-
-    public BasicSourceValue(Type type, AbstractInsnNode source){
-        this(type);
-        this.source.add(source);
-    }
-
-    public BasicSourceValue(Type type, AbstractInsnNode source, int localVar){
-        this.type = type;
-        this.source = new HashSet<>();
-        this.localVars = new HashSet<>();
-
-        this.source.add(source);
-        this.localVars.add(localVar);
+        this(type, IndexSet.EMPTY, IndexSet.EMPTY);
     }
 
-    public BasicSourceValue(Type type, AbstractInsnNode source, Set<Integer> localVars){
-        this.type = type;
-        this.source = new HashSet<>();
-        this.localVars = localVars;
-
-        this.source.add(source);
+    public BasicSourceValue(Type type, IndexSet source){
+        this(type, source, IndexSet.EMPTY);
     }
 
-    public BasicSourceValue(Type type, Set<AbstractInsnNode> source, Set<Integer> localVars) {
+    public BasicSourceValue(Type type, IndexSet source, IndexSet localVars) {
         this.type = type;
         this.source = source;
         this.localVars = localVars;
@@ -65,33 +37,53 @@ public class BasicSourceValue implements Value {
         return type;
     }
 
-    public Set<AbstractInsnNode> getSource() {
+    /**
+     * @return The indices of the instructions that may have emitted this value
+     */
+    public IndexSet getSource() {
         return source;
     }
 
-    public Set<Integer> getLocalVars() {
+    public IndexSet getLocalVars() {
         return localVars;
     }
 
+    /**
+     * Merges two values
+     * @return {@code this} if {@code other} doesn't add any sources or local variables, otherwise a new value
+     */
     public BasicSourceValue merge(BasicSourceValue other){
         /*if(!Objects.equals(this.type, other.type)){ //TODO: Somehow manage this
             System.out.println("Combining two types");
         }*/
-        return new BasicSourceValue(this.type, union(this.source, other.source), union(this.localVars, other.localVars));
-    }
+        if(this == other) return this;
+
+        IndexSet mergedSource = source.union(other.source);
+        IndexSet mergedLocalVars = localVars.union(other.localVars);
+
+        if(mergedSource == source && mergedLocalVars == localVars){
+            return this;
+        }
 
-    public static <T> Set<T> union(Set<T> first, Set<T> second){
-        Set<T> union = new HashSet<>(first);
-        union.addAll(second);
-        return second;
+        return new BasicSourceValue(this.type, mergedSource, mergedLocalVars);
     }
 
     @Override
     public boolean equals(Object obj) {
-        if(!(obj instanceof BasicSourceValue)){
+        if(this == obj) return true;
+        if(!(obj instanceof BasicSourceValue sourceValue)){
             return false;
         }
-        BasicSourceValue sourceValue = (BasicSourceValue) obj;
         return Objects.equals(this.type, sourceValue.type) && this.source.equals(sourceValue.source) && this.localVars.equals(sourceValue.localVars);
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Objects.hashCode(type) + source.hashCode()) + localVars.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "BasicSourceValue{type=" + type + ", source=" + source + ", localVars=" + localVars + "}";
+    }
 }
@@ -0,0 +1,92 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * A {@link SourceAnalysis} that only keeps the frames at the start of each basic block. Frames inside a block are rebuilt on demand by executing
+ * the block from its entry frame. Since queries mostly move forward through a method the last rebuilt frame is kept and reused when possible.
+ * <br><br>
+ * Not thread safe
+ */
+public class BlockFrameStore implements SourceAnalysis {
+    private final AbstractInsnNode[] instructions;
+    private final BasicBlocks blocks;
+    private final Frame<BasicSourceValue>[] entryFrames;
+    private final BasicSourceInterpreter replayInterpreter;
+    private final DefUseTable defUse;
+
+    //The frame before instruction currentIndex
+    private Frame<BasicSourceValue> current;
+    private int currentIndex = -1;
+
+    @SuppressWarnings("unchecked")
+    public BlockFrameStore(MethodNode method, Frame<BasicSourceValue>[] frames, DefUseTable defUse) {
+        this.instructions = method.instructions.toArray();
+        this.blocks = BasicBlocks.of(method);
+        this.defUse = defUse;
+        this.replayInterpreter = BasicSourceInterpreter.forReplay(Opcodes.ASM9, method.instructions);
+
+        entryFrames = (Frame<BasicSourceValue>[]) new Frame<?>[blocks.getNumBlocks()];
+        for(int block = 0; block < entryFrames.length; block++){
+            entryFrames[block] = frames[blocks.getStart(block)];
+        }
+    }
+
+    @Override
+    public boolean isReachable(int insnIndex) {
+        //Either every instruction in a block is reachable or none are
+        return entryFrames[blocks.getBlockOf(insnIndex)] != null;
+    }
+
+    @Override
+    public int getStackSize(int insnIndex) {
+        return getFrame(insnIndex).getStackSize();
+    }
+
+    @Override
+    public BasicSourceValue getStack(int insnIndex, int stackIndex) {
+        return getFrame(insnIndex).getStack(stackIndex);
+    }
+
+    @Override
+    public DefUseTable getDefUse() {
+        return defUse;
+    }
+
+    /**
+     * @return The frame before the instruction executes. It may be modified by the next call so it should not be kept
+     */
+    public Frame<BasicSourceValue> getFrame(int insnIndex){
+        int block = blocks.getBlockOf(insnIndex);
+
+        if(current == null || currentIndex > insnIndex || blocks.getBlockOf(currentIndex) != block){
+            Frame<BasicSourceValue> entry = entryFrames[block];
+            if(entry == null){
+                throw new IllegalStateException("Instruction " + insnIndex + " is not reachable");
+            }
+            if(current == null){
+                current = new Frame<>(entry);
+            }else{
+                current.init(entry);
+            }
+            currentIndex = blocks.getStart(block);
+        }
+
+        try {
+            for(; currentIndex < insnIndex; currentIndex++){
+                AbstractInsnNode instruction = instructions[currentIndex];
+                if(instruction.getOpcode() != -1){
+                    current.execute(instruction, replayInterpreter);
+                }
+            }
+        }catch (AnalyzerException e){
+            throw new IllegalStateException("Couldn't rebuild frame for an instruction that was already analyzed", e);
+        }
+
+        return current;
+    }
+}
@@ -0,0 +1,192 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.*;
+
+/**
+ * Removes int comparisons whose outcome an {@link IntervalAnalysis} can prove. This mostly gets rid of the three {@code Integer.MAX_VALUE}
+ * checks that a {@code Long.MAX_VALUE} sentinel check turns into when the coordinates can't be the sentinel, or were already checked
+ */
+public class BranchFolder {
+    /**
+     * Folds every provable int comparison in the method and removes the code that becomes unreachable. Leaves the method alone if it can't be analyzed
+     * @return The number of comparisons that were folded
+     */
+    public static int fold(MethodNode method){
+        return fold(method, AnalysisBudget.UNLIMITED);
+    }
+
+    /**
+     * @throws AnalysisBudget.Exceeded If the analysis doesn't finish within the budget
+     */
+    public static int fold(MethodNode method, AnalysisBudget budget){
+        List<Fold> folds = findFolds(method, budget);
+        applyFolds(method, folds);
+        return folds.size();
+    }
+
+    /**
+     * Finds the comparisons that can be folded without changing the method. Returns nothing if the method can't be analyzed
+     * @throws AnalysisBudget.Exceeded If the analysis doesn't finish within the budget
+     */
+    public static List<Fold> findFolds(MethodNode method, AnalysisBudget budget){
+        IntervalAnalysis analysis;
+        try {
+            analysis = IntervalAnalysis.analyze(method, budget);
+        }catch (AnalysisBudget.Exceeded e){
+            throw e;
+        }catch (AnalyzerException | RuntimeException e){
+            System.out.println("Warning: Couldn't find int ranges of " + method.name + " " + method.desc + ": " + e.getMessage());
+            return List.of();
+        }
+
+        AbstractInsnNode[] instructions = method.instructions.toArray();
+        List<Fold> folds = new ArrayList<>();
+        for(int i = 0; i < instructions.length; i++){
+            if(!isIntComparison(instructions[i].getOpcode()) || !analysis.isReachable(i)) continue;
+
+            boolean canJump = analysis.canJump(i);
+            boolean canFallThrough = analysis.canFallThrough(i);
+            if(canJump != canFallThrough){
+                folds.add(new Fold(i, canJump));
+            }
+        }
+        return folds;
+    }
+
+    /**
+     * Folds the given comparisons and removes the code that becomes unreachable
+     * @param folds Comparisons found by {@link #findFolds(MethodNode, AnalysisBudget)} on this method, or on a method with the same instructions
+     * @throws IllegalArgumentException If one of the folds isn't at an int comparison
+     */
+    public static void applyFolds(MethodNode method, List<Fold> folds){
+        if(folds.isEmpty()) return;
+
+        AbstractInsnNode[] instructions = method.instructions.toArray();
+        for(Fold fold : folds){
+            if(fold.index >= instructions.length || !isIntComparison(instructions[fold.index].getOpcode())){
+                throw new IllegalArgumentException("Instruction " + fold.index + " of " + method.name + " isn't an int comparison");
+            }
+        }
+
+        for(Fold fold : folds){
+            JumpInsnNode jump = (JumpInsnNode) instructions[fold.index];
+            int operands = jump.getOpcode() >= Opcodes.IF_ICMPEQ ? 2 : 1;
+
+            //Remove the instructions that pushed the operands if they don't do anything else. Otherwise pop the operands
+            while (operands > 0 && isSimplePush(jump.getPrevious())){
+                method.instructions.remove(jump.getPrevious());
+                operands--;
+            }
+            if(operands == 2){
+                method.instructions.insertBefore(jump, new InsnNode(Opcodes.POP2));
+            }else if(operands == 1){
+                method.instructions.insertBefore(jump, new InsnNode(Opcodes.POP));
+            }
+
+            if(fold.jumps){
+                method.instructions.set(jump, new JumpInsnNode(Opcodes.GOTO, jump.label));
+            }else{
+                method.instructions.remove(jump);
+            }
+        }
+
+        removeUnreachableCode(method);
+    }
+
+    private static boolean isIntComparison(int opcode){
+        return (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE) || (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE);
+    }
+
+    private static boolean isSimplePush(AbstractInsnNode instruction){
+        if(instruction == null) return false;
+
+        int opcode = instruction.getOpcode();
+        return opcode == Opcodes.ILOAD || (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) || opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH
+                || (opcode == Opcodes.LDC && ((LdcInsnNode) instruction).cst instanceof Integer);
+    }
+
+    /**
+     * Removes instructions that can't be reached anymore. Labels, line numbers and frames are kept so that everything that refers to them stays valid
+     */
+    static void removeUnreachableCode(MethodNode method){
+        InsnList insnList = method.instructions;
+        AbstractInsnNode[] instructions = insnList.toArray();
+        if(instructions.length == 0) return;
+
+        boolean[] reachable = new boolean[instructions.length];
+        Deque<Integer> queue = new ArrayDeque<>();
+        reachable[0] = true;
+        queue.add(0);
+
+        while (!queue.isEmpty()){
+            int i = queue.poll();
+            AbstractInsnNode instruction = instructions[i];
+            int opcode = instruction.getOpcode();
+
+            if(opcode != -1){
+                for(TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks){
+                    if(insnList.indexOf(tryCatchBlock.start) <= i && i < insnList.indexOf(tryCatchBlock.end)){
+                        mark(reachable, queue, insnList.indexOf(tryCatchBlock.handler));
+                    }
+                }
+            }
+
+            if(instruction instanceof JumpInsnNode jump){
+                mark(reachable, queue, insnList.indexOf(jump.label));
+                if(opcode == Opcodes.GOTO) continue;
+            }else if(instruction instanceof TableSwitchInsnNode tableSwitch){
+                mark(reachable, queue, insnList.indexOf(tableSwitch.dflt));
+                tableSwitch.labels.forEach(label -> mark(reachable, queue, insnList.indexOf(label)));
+                continue;
+            }else if(instruction instanceof LookupSwitchInsnNode lookupSwitch){
+                mark(reachable, queue, insnList.indexOf(lookupSwitch.dflt));
+                lookupSwitch.labels.forEach(label -> mark(reachable, queue, insnList.indexOf(label)));
+                continue;
+            }else if(BasicBlocks.isExit(opcode) || opcode == Opcodes.RET){
+                continue;
+            }
+
+            if(i + 1 < instructions.length){
+                mark(reachable, queue, i + 1);
+            }
+        }
+
+        for(int i = 0; i < instructions.length; i++){
+            if(!reachable[i] && instructions[i].getOpcode() != -1){
+                insnList.remove(instructions[i]);
+            }
+        }
+
+        //A try block without any instructions left in it isn't allowed
+        Iterator<TryCatchBlockNode> iterator = method.tryCatchBlocks.iterator();
+        while (iterator.hasNext()){
+            TryCatchBlockNode tryCatchBlock = iterator.next();
+            boolean isEmpty = true;
+            for(AbstractInsnNode instruction = tryCatchBlock.start; instruction != tryCatchBlock.end; instruction = instruction.getNext()){
+                if(instruction.getOpcode() != -1){
+                    isEmpty = false;
+                    break;
+                }
+            }
+            if(isEmpty) iterator.remove();
+        }
+    }
+
+    private static void mark(boolean[] reachable, Deque<Integer> queue, int insnIndex){
+        if(!reachable[insnIndex]){
+            reachable[insnIndex] = true;
+            queue.add(insnIndex);
+        }
+    }
+
+    /**
+     * A comparison with only one possible outcome
+     * @param index The index of the comparison in the method's instructions
+     * @param jumps Whether it always jumps. Otherwise it never does
+     */
+    public record Fold(int index, boolean jumps) {}
+}
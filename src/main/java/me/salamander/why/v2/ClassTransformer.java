@@ -0,0 +1,148 @@
+package me.salamander.why.v2;
+
+import me.salamander.why.v2.plan.ClassPlan;
+import me.salamander.why.v2.plan.MethodPlan;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Transforms all methods of a class in parallel. Each method gets analyzed and rewritten on its own, using the analyzers of whichever worker
+ * thread picked it up (see {@link AnalysisEngine#get()}) and the shared {@link TransformContext}. The transformed methods are added to the class in
+ * the same order as their originals so the result is the same as transforming one method after the other.
+ * <br>
+ * The number of threads can be set with the {@code why.threads} system property. {@code 1} transforms everything on the calling thread
+ */
+public class ClassTransformer {
+    private static final int THREADS = Integer.getInteger("why.threads", Runtime.getRuntime().availableProcessors());
+
+    private final TransformContext context;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool The pool to transform methods on or null to transform them on the calling thread
+     */
+    public ClassTransformer(TransformContext context, ForkJoinPool pool) {
+        this.context = context;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a transformer that uses the common pool, or the calling thread if {@code why.threads} is 1
+     */
+    public ClassTransformer(TransformContext context) {
+        this(context, THREADS == 1 ? null : ForkJoinPool.commonPool());
+    }
+
+    public TransformContext getContext() {
+        return context;
+    }
+
+    /**
+     * Adds the transformed versions of the methods of a class to it, plus bridges for methods that couldn't be transformed
+     * @return The methods that were added
+     */
+    public List<MethodNode> transform(ClassNode classNode){
+        return transform(classNode, methodNode -> true);
+    }
+
+    /**
+     * Same as {@link #transform(ClassNode)} but only transforms some of the methods. The others are only looked at to find out which bridges are
+     * missing, so they don't need any code
+     * @param filter Whether a method should be transformed
+     */
+    public List<MethodNode> transform(ClassNode classNode, Predicate<MethodNode> filter){
+        return transform(classNode, methodNode -> filter.test(methodNode) ? Main.planAndTransformMethod(context, classNode.name, methodNode) : null, null);
+    }
+
+    /**
+     * Same as {@link #transform(ClassNode)} but also records how each method was transformed
+     * @param plans Gets the plans of the methods that were transformed, in the order of the methods in the class
+     */
+    public List<MethodNode> transform(ClassNode classNode, List<MethodPlan> plans){
+        return transform(classNode, methodNode -> Main.planAndTransformMethod(context, classNode.name, methodNode), plans);
+    }
+
+    /**
+     * Transforms a class the way its plan says, without analyzing any method that the plan fits. Methods the plan doesn't mention weren't changed
+     * when the plan was made and stay as they are
+     * @return The methods that were added
+     */
+    public List<MethodNode> replay(ClassNode classNode, ClassPlan plan){
+        Map<String, MethodPlan> methodPlans = new HashMap<>();
+        for(MethodPlan methodPlan : plan.methods()){
+            methodPlans.put(methodPlan.name() + " " + methodPlan.descriptor(), methodPlan);
+        }
+
+        return transform(classNode, methodNode -> {
+            MethodPlan methodPlan = methodPlans.get(methodNode.name + " " + methodNode.desc);
+            if(methodPlan == null) return null;
+
+            MethodNode newMethod = Main.replayMethod(context, classNode.name, methodNode, methodPlan);
+            return newMethod == null ? null : new Main.PlannedMethod(newMethod, methodPlan);
+        }, null);
+    }
+
+    /**
+     * Transforms the methods that have a plan they may keep by replaying it and analyzes all others from scratch
+     * @param previous The plan each method may keep, by {@code name descriptor}. A method without one that was accepted is left as it is
+     * @param reuse Whether a method may keep what {@code previous} says about it
+     * @param plans Gets the plans of the methods that were transformed, in the order of the methods in the class
+     * @return The methods that were added
+     */
+    public List<MethodNode> update(ClassNode classNode, Map<String, MethodPlan> previous, Predicate<MethodNode> reuse, List<MethodPlan> plans){
+        return transform(classNode, methodNode -> {
+            if(!reuse.test(methodNode)) return Main.planAndTransformMethod(context, classNode.name, methodNode);
+
+            MethodPlan methodPlan = previous.get(methodNode.name + " " + methodNode.desc);
+            if(methodPlan == null) return null;
+
+            MethodNode newMethod = Main.replayMethod(context, classNode.name, methodNode, methodPlan);
+            return newMethod == null ? null : new Main.PlannedMethod(newMethod, methodPlan);
+        }, plans);
+    }
+
+    private List<MethodNode> transform(ClassNode classNode, Function<MethodNode, Main.PlannedMethod> transformation, List<MethodPlan> plans){
+        List<MethodNode> originals = new ArrayList<>(classNode.methods);
+        List<Main.PlannedMethod> transformed = new ArrayList<>();
+
+        if(pool == null){
+            for(MethodNode methodNode : originals){
+                Main.PlannedMethod newMethod = transformation.apply(methodNode);
+                if(newMethod != null) transformed.add(newMethod);
+            }
+        }else{
+            List<ForkJoinTask<Main.PlannedMethod>> tasks = new ArrayList<>();
+            for(MethodNode methodNode : originals){
+                tasks.add(pool.submit(() -> transformation.apply(methodNode)));
+            }
+
+            //Joining in order keeps the output independent of which method finishes first
+            for(ForkJoinTask<Main.PlannedMethod> task : tasks){
+                Main.PlannedMethod newMethod = task.join();
+                if(newMethod != null) transformed.add(newMethod);
+            }
+        }
+
+        List<MethodNode> newMethods = new ArrayList<>();
+        for(Main.PlannedMethod planned : transformed){
+            newMethods.add(planned.method());
+            if(plans != null) plans.add(planned.plan());
+        }
+
+        //Methods that failed still get called by the ones that didn't
+        List<MethodNode> added = new ArrayList<>(newMethods);
+        added.addAll(MethodBridges.createMissingBridges(classNode, newMethods));
+
+        classNode.methods.addAll(added);
+        return added;
+    }
+}
@@ -0,0 +1,142 @@
+package me.salamander.why.v2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides from nothing but the constant pool of a class file whether the class can contain anything to transform. A class can only be transformed
+ * if it refers to one of the config's methods, which needs a {@code Methodref} or {@code InterfaceMethodref} to it, or if it is one of the classes
+ * that own a config method. Everything is compared as raw bytes, so rejecting a class doesn't create a single string
+ */
+public class ConstantPoolFilter {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELDREF = 9;
+    private static final int METHODREF = 10;
+    private static final int INTERFACE_METHODREF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    private final byte[][] owners;
+    private final byte[][] names;
+    private final byte[][] descriptors;
+    private final byte[][] classes;
+
+    public ConstantPoolFilter(TransformContext context) {
+        List<String> methodIDs = new ArrayList<>(context.getMethodInfo().keySet());
+        for(int axis = 0; axis < 3; axis++){
+            if(!methodIDs.contains(context.getUnpackingMethod(axis))) methodIDs.add(context.getUnpackingMethod(axis));
+        }
+
+        owners = new byte[methodIDs.size()][];
+        names = new byte[methodIDs.size()][];
+        descriptors = new byte[methodIDs.size()][];
+        for(int i = 0; i < methodIDs.size(); i++){
+            String methodID = methodIDs.get(i);
+            int hash = methodID.indexOf('#');
+            int space = methodID.indexOf(' ', hash);
+            owners[i] = methodID.substring(0, hash).getBytes(StandardCharsets.UTF_8);
+            names[i] = methodID.substring(hash + 1, space).getBytes(StandardCharsets.UTF_8);
+            descriptors[i] = methodID.substring(space + 1).getBytes(StandardCharsets.UTF_8);
+        }
+
+        classes = context.getOwners().stream().map(owner -> owner.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+    }
+
+    /**
+     * @return Whether the class may contain something to transform. Also true if the class file is too broken to tell, so that whatever reads it
+     * next can report the problem
+     */
+    public boolean mayTransform(byte[] classFile){
+        try {
+            return scan(classFile);
+        }catch (IndexOutOfBoundsException e){
+            return true;
+        }
+    }
+
+    private boolean scan(byte[] b){
+        int count = readUnsignedShort(b, 8);
+        int[] offsets = new int[count];
+
+        //Find where every constant starts. Method refs are checked once all of them are known since they can refer forward
+        int offset = 10;
+        int methodRefs = 0;
+        for(int i = 1; i < count; i++){
+            offsets[i] = offset + 1;
+            int tag = b[offset];
+            switch (tag) {
+                case UTF8 -> offset += 3 + readUnsignedShort(b, offset + 1);
+                case CLASS, STRING, METHOD_TYPE, MODULE, PACKAGE -> offset += 3;
+                case METHOD_HANDLE -> offset += 4;
+                case INTEGER, FLOAT, FIELDREF, NAME_AND_TYPE, DYNAMIC, INVOKE_DYNAMIC -> offset += 5;
+                case METHODREF, INTERFACE_METHODREF -> {
+                    offset += 5;
+                    methodRefs++;
+                }
+                case LONG, DOUBLE -> {
+                    offset += 9;
+                    i++;
+                }
+                default -> throw new IndexOutOfBoundsException("Unknown constant tag " + tag);
+            }
+        }
+
+        //The class itself may own config methods
+        int thisClass = readUnsignedShort(b, offset + 2);
+        if(matchesAny(b, offsets[readUnsignedShort(b, offsets[thisClass])], classes)) return true;
+        if(methodRefs == 0) return false;
+
+        for(int i = 1; i < count; i++){
+            int tag = b[offsets[i] - 1];
+            if(tag == LONG || tag == DOUBLE){
+                i++;
+                continue;
+            }
+            if(tag != METHODREF && tag != INTERFACE_METHODREF) continue;
+
+            int owner = offsets[readUnsignedShort(b, offsets[readUnsignedShort(b, offsets[i])])];
+            int nameAndType = offsets[readUnsignedShort(b, offsets[i] + 2)];
+            int name = offsets[readUnsignedShort(b, nameAndType)];
+            int descriptor = offsets[readUnsignedShort(b, nameAndType + 2)];
+
+            for(int method = 0; method < owners.length; method++){
+                if(equals(b, owner, owners[method]) && equals(b, name, names[method]) && equals(b, descriptor, descriptors[method])) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(byte[] b, int utf8Offset, byte[][] candidates){
+        for(byte[] candidate : candidates){
+            if(equals(b, utf8Offset, candidate)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param utf8Offset The offset of the length of a {@code CONSTANT_Utf8}
+     */
+    private static boolean equals(byte[] b, int utf8Offset, byte[] expected){
+        if(readUnsignedShort(b, utf8Offset) != expected.length) return false;
+        for(int i = 0; i < expected.length; i++){
+            if(b[utf8Offset + 2 + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] b, int offset){
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+}
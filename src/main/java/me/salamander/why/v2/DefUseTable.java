@@ -0,0 +1,101 @@
+package me.salamander.why.v2;
+
+import java.util.Arrays;
+
+/**
+ * Def-use chains of a single method in compressed sparse row form. A value is identified by the index of the instruction that emitted it and
+ * its uses are the indices of the instructions that consume it. The uses of {@code def} are {@code targets[offsets[def]]} up to (but excluding)
+ * {@code targets[offsets[def + 1]]}, sorted and without duplicates.
+ */
+public final class DefUseTable {
+    private final int[] offsets;
+    private final int[] targets;
+
+    private DefUseTable(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    public int getNumInstructions(){
+        return offsets.length - 1;
+    }
+
+    public int getConsumerCount(int def){
+        return offsets[def + 1] - offsets[def];
+    }
+
+    /**
+     * @param def Index of the instruction that emitted the value
+     * @param n Which consumer to get. Must be less than {@code getConsumerCount(def)}
+     * @return The index of the n-th instruction that consumes the value
+     */
+    public int getConsumer(int def, int n){
+        return targets[offsets[def] + n];
+    }
+
+    public boolean isConsumedBy(int def, int use){
+        return Arrays.binarySearch(targets, offsets[def], offsets[def + 1], use) >= 0;
+    }
+
+    /**
+     * Collects def-use pairs while a method is being analyzed. The same pair may be added any number of times.
+     */
+    public static class Builder {
+        private int[] defs = new int[64];
+        private int[] uses = new int[64];
+        private int size = 0;
+
+        public void add(int def, int use){
+            //The analyzer visits the same instruction many times in a row while it looks for a fixpoint
+            if(size != 0 && defs[size - 1] == def && uses[size - 1] == use) return;
+
+            if(size == defs.length){
+                defs = Arrays.copyOf(defs, size * 2);
+                uses = Arrays.copyOf(uses, size * 2);
+            }
+            defs[size] = def;
+            uses[size] = use;
+            size++;
+        }
+
+        public void clear(){
+            size = 0;
+        }
+
+        public DefUseTable build(int numInstructions){
+            //Counting sort by def
+            int[] offsets = new int[numInstructions + 1];
+            for(int i = 0; i < size; i++){
+                offsets[defs[i] + 1]++;
+            }
+            for(int i = 0; i < numInstructions; i++){
+                offsets[i + 1] += offsets[i];
+            }
+
+            int[] targets = new int[size];
+            int[] position = Arrays.copyOf(offsets, numInstructions);
+            for(int i = 0; i < size; i++){
+                targets[position[defs[i]]++] = uses[i];
+            }
+
+            //Sort each row and remove duplicates, compacting the rows as we go
+            int written = 0;
+            int rowStart = 0;
+            for(int def = 0; def < numInstructions; def++){
+                int rowEnd = offsets[def + 1];
+                Arrays.sort(targets, rowStart, rowEnd);
+
+                offsets[def] = written;
+                for(int i = rowStart; i < rowEnd; i++){
+                    if(i == rowStart || targets[i] != targets[i - 1]){
+                        targets[written++] = targets[i];
+                    }
+                }
+                rowStart = rowEnd;
+            }
+            offsets[numInstructions] = written;
+
+            return new DefUseTable(offsets, Arrays.copyOf(targets, written));
+        }
+    }
+}
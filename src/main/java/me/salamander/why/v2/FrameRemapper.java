@@ -0,0 +1,196 @@
+package me.salamander.why.v2;
+
+import me.salamander.why.debug.LocalVariableMapper;
+import me.salamander.why.v2.classpath.ClassHierarchyIndex;
+import me.salamander.why.v2.classpath.HierarchyClassWriter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the stack map frames of a method valid while its packed longs get expanded, so that transformed classes can be written without
+ * {@link ClassWriter#COMPUTE_FRAMES} and still verify quickly when they are loaded.
+ * <br>
+ * {@link #expandFrames(String, MethodNode)} has to be called on the method before anything is changed, because compressed frames are relative to
+ * the original descriptor. {@link #remapFrames(String, MethodNode, LocalVariableMapper, boolean)} then moves the locals of every frame the same way
+ * {@link LocalVariableMapper} moves the variables: an expanded long becomes three ints and every later local moves up by one slot
+ */
+public class FrameRemapper {
+    //Stands for the second slot of a long or double while the locals of a frame are looked at slot by slot
+    private static final Object SECOND_HALF = new Object();
+
+    /**
+     * Turns every frame of the method into an {@link Opcodes#F_NEW} frame, which lists all the locals and the whole stack. The frames stay where
+     * they are so instruction indices don't change
+     * @param owner The internal name of the class the method is in
+     * @param method The method as it was read, before any of its code or its descriptor has been changed
+     */
+    public static void expandFrames(String owner, MethodNode method){
+        List<Object> locals = initialLocals(owner, method);
+
+        for(AbstractInsnNode instruction : method.instructions){
+            if(!(instruction instanceof FrameNode frame)) continue;
+
+            List<Object> stack;
+            switch (frame.type){
+                case Opcodes.F_NEW, Opcodes.F_FULL -> {
+                    locals = new ArrayList<>(frame.local);
+                    stack = new ArrayList<>(frame.stack);
+                }
+                case Opcodes.F_APPEND -> {
+                    locals.addAll(frame.local);
+                    stack = new ArrayList<>();
+                }
+                case Opcodes.F_CHOP -> {
+                    //A chop frame only records how many locals are gone
+                    locals.subList(Math.max(locals.size() - frame.local.size(), 0), locals.size()).clear();
+                    stack = new ArrayList<>();
+                }
+                case Opcodes.F_SAME -> stack = new ArrayList<>();
+                case Opcodes.F_SAME1 -> stack = new ArrayList<>(frame.stack);
+                default -> throw new IllegalStateException("Unknown frame type " + frame.type + " in " + method.name);
+            }
+
+            frame.type = Opcodes.F_NEW;
+            frame.local = new ArrayList<>(locals);
+            frame.stack = stack;
+        }
+    }
+
+    /**
+     * Moves the locals of every frame to where the mapper put the variables and updates {@code maxLocals} and {@code maxStack}. Frames that end
+     * up at the same place because the code between them was removed are merged. The method's frames have to have been expanded with
+     * {@link #expandFrames(String, MethodNode)}
+     * @param owner The internal name of the class the method is in
+     * @param expandedStack Whether longs on the stack may have been turned into three ints, which makes the stack up to half as deep again.
+     *                      If a frame has a long on its stack the frames of the whole method are computed from scratch instead
+     */
+    public static void remapFrames(String owner, MethodNode method, LocalVariableMapper mapper, boolean expandedStack){
+        int expandedVariables = mapper.getLocalVariableOffset();
+
+        boolean longOnStack = false;
+        for(AbstractInsnNode instruction : method.instructions){
+            if(instruction instanceof FrameNode frame){
+                if(expandedVariables != 0) frame.local = remapLocals(frame.local, mapper);
+                longOnStack |= frame.stack.contains(Opcodes.LONG);
+            }
+        }
+        removeRedundantFrames(method.instructions);
+
+        //Every expanded variable takes one more slot. Every long on the stack takes one more slot and an emitter might need one more while expanding
+        method.maxLocals += expandedVariables;
+        if(expandedStack){
+            method.maxStack += method.maxStack / 2 + 1;
+        }
+
+        if(expandedStack && longOnStack){
+            //There is no way to tell which longs on the stack were expanded without analyzing the method again
+            if(Main.isVerbose()) System.out.println("Info: Computing the frames of " + method.name + " because a long on its stack might have been expanded");
+            computeFrames(owner, method);
+        }
+    }
+
+    /**
+     * @return The locals at the start of the method, as they would be listed in an {@link Opcodes#F_NEW} frame
+     */
+    private static List<Object> initialLocals(String owner, MethodNode method){
+        List<Object> locals = new ArrayList<>();
+        if((method.access & Opcodes.ACC_STATIC) == 0){
+            locals.add(method.name.equals("<init>") ? Opcodes.UNINITIALIZED_THIS : owner);
+        }
+
+        for(Type argument : Type.getArgumentTypes(method.desc)){
+            locals.add(switch (argument.getSort()){
+                case Type.BOOLEAN, Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> Opcodes.INTEGER;
+                case Type.FLOAT -> Opcodes.FLOAT;
+                case Type.LONG -> Opcodes.LONG;
+                case Type.DOUBLE -> Opcodes.DOUBLE;
+                default -> argument.getInternalName();
+            });
+        }
+        return locals;
+    }
+
+    private static List<Object> remapLocals(List<Object> locals, LocalVariableMapper mapper){
+        List<Object> slots = new ArrayList<>();
+        for(Object local : locals){
+            slots.add(local);
+            if(local == Opcodes.LONG || local == Opcodes.DOUBLE) slots.add(SECOND_HALF);
+        }
+
+        Object[] mapped = new Object[slots.size() + mapper.getLocalVariableOffset() + 2];
+        Arrays.fill(mapped, Opcodes.TOP);
+        for(int slot = 0; slot < slots.size(); slot++){
+            int mappedSlot = mapper.mapLocalVariable(slot);
+            if(mapper.isATransformedLong(slot) && slots.get(slot) == Opcodes.LONG){
+                mapped[mappedSlot] = Opcodes.INTEGER;
+                mapped[mappedSlot + 1] = Opcodes.INTEGER;
+                mapped[mappedSlot + 2] = Opcodes.INTEGER;
+                slot++;
+            }else{
+                //An expanded variable that doesn't hold anything here leaves its extra slot empty
+                mapped[mappedSlot] = slots.get(slot);
+            }
+        }
+
+        int size = mapped.length;
+        while (size > 0 && mapped[size - 1] == Opcodes.TOP) size--;
+
+        List<Object> remapped = new ArrayList<>();
+        for(int slot = 0; slot < size; slot++){
+            if(mapped[slot] != SECOND_HALF) remapped.add(mapped[slot]);
+        }
+        return remapped;
+    }
+
+    /**
+     * Removing unreachable code can leave several frames without any instructions between them, or a frame at the very end. Only the last frame
+     * before an instruction describes it
+     */
+    private static void removeRedundantFrames(InsnList instructions){
+        FrameNode pending = null;
+        for(AbstractInsnNode instruction : instructions){
+            if(instruction instanceof FrameNode frame){
+                if(pending != null) instructions.remove(pending);
+                pending = frame;
+            }else if(instruction.getOpcode() != -1){
+                pending = null;
+            }
+        }
+        if(pending != null) instructions.remove(pending);
+    }
+
+    /**
+     * Replaces the frames, the maximums and the code of the method with what a {@link ClassWriter} computes for it on its own. Common
+     * superclasses come from {@link ClassHierarchyIndex#system()}, so no class gets loaded
+     * @throws TypeNotPresentException If a class the frames need isn't in the index
+     */
+    static void computeFrames(String owner, MethodNode method){
+        for(AbstractInsnNode instruction : method.instructions){
+            if(instruction instanceof FrameNode) method.instructions.remove(instruction);
+        }
+
+        ClassWriter classWriter = new HierarchyClassWriter(ClassHierarchyIndex.system(), ClassWriter.COMPUTE_FRAMES);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, owner, null, "java/lang/Object", null);
+        method.accept(classWriter);
+        classWriter.visitEnd();
+
+        ClassNode computed = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(computed, 0);
+        MethodNode computedMethod = computed.methods.get(0);
+
+        method.instructions = computedMethod.instructions;
+        method.tryCatchBlocks = computedMethod.tryCatchBlocks;
+        method.localVariables = computedMethod.localVariables;
+        method.visibleLocalVariableAnnotations = computedMethod.visibleLocalVariableAnnotations;
+        method.invisibleLocalVariableAnnotations = computedMethod.invisibleLocalVariableAnnotations;
+        method.maxLocals = computedMethod.maxLocals;
+        method.maxStack = computedMethod.maxStack;
+    }
+}
@@ -0,0 +1,36 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * A {@link SourceAnalysis} backed by the frames of an {@code Analyzer<BasicSourceValue>}
+ */
+public class FrameSourceAnalysis implements SourceAnalysis {
+    private final Frame<BasicSourceValue>[] frames;
+    private final DefUseTable defUse;
+
+    public FrameSourceAnalysis(Frame<BasicSourceValue>[] frames, DefUseTable defUse) {
+        this.frames = frames;
+        this.defUse = defUse;
+    }
+
+    @Override
+    public boolean isReachable(int insnIndex) {
+        return frames[insnIndex] != null;
+    }
+
+    @Override
+    public int getStackSize(int insnIndex) {
+        return frames[insnIndex].getStackSize();
+    }
+
+    @Override
+    public BasicSourceValue getStack(int insnIndex, int stackIndex) {
+        return frames[insnIndex].getStack(stackIndex);
+    }
+
+    @Override
+    public DefUseTable getDefUse() {
+        return defUse;
+    }
+}
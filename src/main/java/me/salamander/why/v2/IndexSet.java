@@ -0,0 +1,146 @@
+package me.salamander.why.v2;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of small non-negative integers backed by a bitset. Used for instruction indices and local variable slots.
+ * Because instances are never modified they can be shared between values and frames without copying.
+ */
+public final class IndexSet {
+    public static final IndexSet EMPTY = new IndexSet(new long[0]);
+
+    //Most sets hold a single instruction index or local variable so those are shared
+    private static final IndexSet[] singletons = new IndexSet[4096];
+
+    private final long[] words; //Never has trailing zero words so that equal sets have equal arrays
+    private final int hash;
+
+    private IndexSet(long[] words) {
+        this.words = words;
+        this.hash = Arrays.hashCode(words);
+    }
+
+    public static IndexSet of(int index){
+        if(index < 0) throw new IllegalArgumentException("Negative index " + index);
+
+        if(index < singletons.length){
+            IndexSet set = singletons[index];
+            if(set == null){
+                set = singletons[index] = createSingleton(index);
+            }
+            return set;
+        }
+
+        return createSingleton(index);
+    }
+
+    public static IndexSet of(int... indices){
+        if(indices.length == 0) return EMPTY;
+        if(indices.length == 1) return of(indices[0]);
+
+        int max = 0;
+        for(int index : indices){
+            if(index < 0) throw new IllegalArgumentException("Negative index " + index);
+            max = Math.max(max, index);
+        }
+
+        long[] words = new long[(max >> 6) + 1];
+        for(int index : indices){
+            words[index >> 6] |= 1L << index;
+        }
+        return new IndexSet(words);
+    }
+
+    private static IndexSet createSingleton(int index){
+        long[] words = new long[(index >> 6) + 1];
+        words[index >> 6] = 1L << index;
+        return new IndexSet(words);
+    }
+
+    public boolean contains(int index){
+        int word = index >> 6;
+        return index >= 0 && word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    public boolean isEmpty(){
+        return words.length == 0;
+    }
+
+    public int size(){
+        int size = 0;
+        for(long word : words){
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    public boolean containsAll(IndexSet other){
+        if(other.words.length > words.length) return false;
+        for(int i = 0; i < other.words.length; i++){
+            if((other.words[i] & ~words[i]) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the union of two sets. If one of the sets already contains the other that set is returned as is, so callers can
+     * detect that nothing changed with a reference comparison.
+     */
+    public IndexSet union(IndexSet other){
+        if(this == other || containsAll(other)) return this;
+        if(other.containsAll(this)) return other;
+
+        long[] longer = words.length >= other.words.length ? words : other.words;
+        long[] shorter = longer == words ? other.words : words;
+
+        long[] union = Arrays.copyOf(longer, longer.length);
+        for(int i = 0; i < shorter.length; i++){
+            union[i] |= shorter[i];
+        }
+        return new IndexSet(union);
+    }
+
+    /**
+     * Works like {@link java.util.BitSet#nextSetBit(int)}
+     * @return The first index in this set that is >= {@code fromIndex} or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex){
+        int word = fromIndex >> 6;
+        if(fromIndex < 0 || word >= words.length) return -1;
+
+        long bits = words[word] & (-1L << fromIndex);
+        while(true){
+            if(bits != 0){
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if(++word == words.length) return -1;
+            bits = words[word];
+        }
+    }
+
+    public int[] toArray(){
+        int[] array = new int[size()];
+        int i = 0;
+        for(int index = nextSetBit(0); index >= 0; index = nextSetBit(index + 1)){
+            array[i++] = index;
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) return true;
+        if(!(obj instanceof IndexSet other)) return false;
+        return hash == other.hash && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,323 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the range of every int in a method. Unlike an {@link org.objectweb.asm.tree.analysis.Analyzer} the two sides of an int comparison
+ * get different frames: after {@code if(x == Integer.MAX_VALUE)} falls through, x is known to not be {@code Integer.MAX_VALUE}. Sides of a
+ * comparison that can never happen don't get a frame at all, which is how {@link BranchFolder} knows what it can remove
+ */
+public class IntervalAnalysis {
+    //After this many merges into the same instruction the ranges get widened so that loops finish
+    private static final int WIDENING_THRESHOLD = 8;
+
+    private final InsnList insnList;
+    private final AbstractInsnNode[] instructions;
+    private final Frame<IntervalValue>[] frames;
+    private final boolean[] canJump;
+    private final boolean[] canFallThrough;
+
+    private final IntervalInterpreter interpreter = new IntervalInterpreter(Opcodes.ASM9);
+    private final int[] mergeCounts;
+    private final int[] queue;
+    private final boolean[] queued;
+    private int queueSize = 0;
+
+    @SuppressWarnings("unchecked")
+    private IntervalAnalysis(MethodNode method){
+        this.insnList = method.instructions;
+        this.instructions = method.instructions.toArray();
+        this.frames = (Frame<IntervalValue>[]) new Frame<?>[instructions.length];
+        this.canJump = new boolean[instructions.length];
+        this.canFallThrough = new boolean[instructions.length];
+        this.mergeCounts = new int[instructions.length];
+        this.queue = new int[instructions.length];
+        this.queued = new boolean[instructions.length];
+        interpreter.setInstructions(method.instructions);
+    }
+
+    public static IntervalAnalysis analyze(MethodNode method) throws AnalyzerException {
+        return analyze(method, AnalysisBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget Ticked for every instruction that gets interpreted
+     * @throws AnalysisBudget.Exceeded If the method takes too long to analyze
+     */
+    public static IntervalAnalysis analyze(MethodNode method, AnalysisBudget budget) throws AnalyzerException {
+        IntervalAnalysis analysis = new IntervalAnalysis(method);
+        analysis.run(method, budget);
+        return analysis;
+    }
+
+    public boolean isReachable(int insnIndex){
+        return frames[insnIndex] != null;
+    }
+
+    /**
+     * @return The frame before the instruction executes or null if it is unreachable
+     */
+    public Frame<IntervalValue> getFrame(int insnIndex){
+        return frames[insnIndex];
+    }
+
+    /**
+     * @return Whether the conditional jump at this index can ever jump
+     */
+    public boolean canJump(int insnIndex){
+        return canJump[insnIndex];
+    }
+
+    /**
+     * @return Whether the conditional jump at this index can ever fall through
+     */
+    public boolean canFallThrough(int insnIndex){
+        return canFallThrough[insnIndex];
+    }
+
+    private void run(MethodNode method, AnalysisBudget budget) throws AnalyzerException {
+        if(instructions.length == 0) return;
+
+        List<TryCatchBlockNode>[] handlers = findHandlers(method);
+
+        merge(0, createEntryFrame(method));
+        while (queueSize > 0){
+            budget.tick();
+            int i = queue[--queueSize];
+            queued[i] = false;
+
+            Frame<IntervalValue> frame = frames[i];
+            AbstractInsnNode instruction = instructions[i];
+            int opcode = instruction.getOpcode();
+
+            if(opcode == -1){
+                mergeNext(i, frame);
+                continue;
+            }
+
+            mergeHandlers(handlers[i], frame);
+
+            Frame<IntervalValue> after = new Frame<>(frame);
+            if(opcode == Opcodes.JSR || opcode == Opcodes.RET){
+                throw new AnalyzerException(instruction, "Subroutines are not supported");
+            }
+            after.execute(instruction, interpreter);
+            mergeHandlers(handlers[i], after);
+
+            if(instruction instanceof JumpInsnNode jump){
+                int target = insnList.indexOf(jump.label);
+                if(opcode == Opcodes.GOTO){
+                    merge(target, after);
+                    continue;
+                }
+
+                Frame<IntervalValue> taken = refine(i, frame, after, true);
+                if(taken != null){
+                    canJump[i] = true;
+                    merge(target, taken);
+                }
+
+                Frame<IntervalValue> notTaken = refine(i, frame, after, false);
+                if(notTaken != null){
+                    canFallThrough[i] = true;
+                    mergeNext(i, notTaken);
+                }
+            }else if(instruction instanceof TableSwitchInsnNode tableSwitch){
+                merge(insnList.indexOf(tableSwitch.dflt), after);
+                for(LabelNode label : tableSwitch.labels){
+                    merge(insnList.indexOf(label), after);
+                }
+            }else if(instruction instanceof LookupSwitchInsnNode lookupSwitch){
+                merge(insnList.indexOf(lookupSwitch.dflt), after);
+                for(LabelNode label : lookupSwitch.labels){
+                    merge(insnList.indexOf(label), after);
+                }
+            }else if(!BasicBlocks.isExit(opcode)){
+                mergeNext(i, after);
+            }
+        }
+    }
+
+    /**
+     * Narrows down the compared ints for one side of a conditional jump
+     * @param frame The frame before the jump
+     * @param after The frame after the jump, with the operands popped
+     * @return The frame for that side of the jump or null if it can't be taken
+     */
+    private Frame<IntervalValue> refine(int insnIndex, Frame<IntervalValue> frame, Frame<IntervalValue> after, boolean taken){
+        int opcode = instructions[insnIndex].getOpcode();
+        int stackSize = frame.getStackSize();
+
+        IntervalValue left, right;
+        int relation;
+        if(opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE){
+            left = frame.getStack(stackSize - 1);
+            right = IntervalValue.constant(0);
+            relation = opcode - Opcodes.IFEQ;
+        }else if(opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE){
+            left = frame.getStack(stackSize - 2);
+            right = frame.getStack(stackSize - 1);
+            relation = opcode - Opcodes.IF_ICMPEQ;
+        }else{
+            //Reference comparisons, nothing to learn
+            return new Frame<>(after);
+        }
+
+        //EQ, NE, LT, GE, GT and LE come in pairs of opposites
+        if(!taken) relation ^= 1;
+
+        long leftMin = left.getMin(), leftMax = left.getMax();
+        long rightMin = right.getMin(), rightMax = right.getMax();
+        switch (relation) {
+            case 0 -> { //==
+                leftMin = rightMin = Math.max(leftMin, rightMin);
+                leftMax = rightMax = Math.min(leftMax, rightMax);
+            }
+            case 1 -> { //!=
+                if(rightMin == rightMax){
+                    if(leftMin == rightMin) leftMin++;
+                    if(leftMax == rightMin) leftMax--;
+                }
+                if(leftMin == leftMax){
+                    if(rightMin == leftMin) rightMin++;
+                    if(rightMax == leftMin) rightMax--;
+                }
+            }
+            case 2 -> { //<
+                leftMax = Math.min(leftMax, rightMax - 1);
+                rightMin = Math.max(rightMin, leftMin + 1);
+            }
+            case 3 -> { //>=
+                leftMin = Math.max(leftMin, rightMin);
+                rightMax = Math.min(rightMax, leftMax);
+            }
+            case 4 -> { //>
+                leftMin = Math.max(leftMin, rightMin + 1);
+                rightMax = Math.min(rightMax, leftMax - 1);
+            }
+            case 5 -> { //<=
+                leftMax = Math.min(leftMax, rightMax);
+                rightMin = Math.max(rightMin, leftMin);
+            }
+        }
+
+        if(leftMin > leftMax || rightMin > rightMax) return null;
+
+        Frame<IntervalValue> refined = new Frame<>(after);
+        narrowLocal(refined, left, insnIndex, leftMin, leftMax);
+        narrowLocal(refined, right, insnIndex, rightMin, rightMax);
+        return refined;
+    }
+
+    /**
+     * If the value is still what its local variable holds, narrow the variable down to the given range
+     */
+    private void narrowLocal(Frame<IntervalValue> frame, IntervalValue value, int insnIndex, long min, long max){
+        int local = value.getLocal();
+        if(local == -1 || value.getLoadIndex() >= insnIndex) return;
+        if(min == value.getMin() && max == value.getMax()) return;
+
+        for(int i = value.getLoadIndex() + 1; i < insnIndex; i++){
+            AbstractInsnNode instruction = instructions[i];
+            if(instruction instanceof VarInsnNode varNode && varNode.getOpcode() >= Opcodes.ISTORE && (varNode.var == local || varNode.var == local - 1)){
+                return;
+            }else if(instruction instanceof IincInsnNode iincNode && iincNode.var == local){
+                return;
+            }
+        }
+
+        frame.setLocal(local, IntervalValue.range(min, max));
+    }
+
+    private Frame<IntervalValue> createEntryFrame(MethodNode method){
+        boolean isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
+        Type[] argumentTypes = Type.getArgumentTypes(method.desc);
+
+        //The method may have been changed after maxLocals and maxStack were computed so work them out again
+        int maxLocals = isStatic ? 0 : 1;
+        for(Type argumentType : argumentTypes){
+            maxLocals += argumentType.getSize();
+        }
+        for(AbstractInsnNode instruction : instructions){
+            if(instruction instanceof VarInsnNode varNode){
+                int size = varNode.getOpcode() == Opcodes.LLOAD || varNode.getOpcode() == Opcodes.LSTORE
+                        || varNode.getOpcode() == Opcodes.DLOAD || varNode.getOpcode() == Opcodes.DSTORE ? 2 : 1;
+                maxLocals = Math.max(maxLocals, varNode.var + size);
+            }else if(instruction instanceof IincInsnNode iincNode){
+                maxLocals = Math.max(maxLocals, iincNode.var + 1);
+            }
+        }
+        int maxStack = Math.max(method.maxStack, 1) * 2 + 4;
+
+        Frame<IntervalValue> frame = new Frame<>(maxLocals, maxStack);
+        int local = 0;
+        if(!isStatic){
+            frame.setLocal(local++, IntervalValue.OTHER);
+        }
+        for(Type argumentType : argumentTypes){
+            frame.setLocal(local++, interpreter.newValue(argumentType));
+            if(argumentType.getSize() == 2){
+                frame.setLocal(local++, IntervalValue.OTHER);
+            }
+        }
+        while (local < maxLocals){
+            frame.setLocal(local++, IntervalValue.OTHER);
+        }
+        return frame;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<TryCatchBlockNode>[] findHandlers(MethodNode method){
+        List<TryCatchBlockNode>[] handlers = (List<TryCatchBlockNode>[]) new List<?>[instructions.length];
+        for(TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks){
+            int start = insnList.indexOf(tryCatchBlock.start);
+            int end = insnList.indexOf(tryCatchBlock.end);
+            for(int i = start; i < end; i++){
+                if(handlers[i] == null) handlers[i] = new ArrayList<>();
+                handlers[i].add(tryCatchBlock);
+            }
+        }
+        return handlers;
+    }
+
+    private void mergeHandlers(List<TryCatchBlockNode> handlers, Frame<IntervalValue> frame) throws AnalyzerException {
+        if(handlers == null) return;
+
+        Frame<IntervalValue> handlerFrame = new Frame<>(frame);
+        handlerFrame.clearStack();
+        handlerFrame.push(IntervalValue.OTHER);
+        for(TryCatchBlockNode tryCatchBlock : handlers){
+            merge(insnList.indexOf(tryCatchBlock.handler), handlerFrame);
+        }
+    }
+
+    private void mergeNext(int insnIndex, Frame<IntervalValue> frame) throws AnalyzerException {
+        if(insnIndex + 1 >= instructions.length){
+            throw new AnalyzerException(instructions[insnIndex], "Execution can fall off the end of the code");
+        }
+        merge(insnIndex + 1, frame);
+    }
+
+    private void merge(int insnIndex, Frame<IntervalValue> frame) throws AnalyzerException {
+        boolean changed;
+        if(frames[insnIndex] == null){
+            frames[insnIndex] = new Frame<>(frame);
+            changed = true;
+        }else{
+            interpreter.setWiden(++mergeCounts[insnIndex] > WIDENING_THRESHOLD);
+            changed = frames[insnIndex].merge(frame, interpreter);
+        }
+
+        if(changed && !queued[insnIndex]){
+            queued[insnIndex] = true;
+            queue[queueSize++] = insnIndex;
+        }
+    }
+}
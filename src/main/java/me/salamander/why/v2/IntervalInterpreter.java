@@ -0,0 +1,187 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Interpreter;
+
+import java.util.List;
+
+/**
+ * Tracks the range of every int. Knows the ranges of the coordinates that {@code BlockPos.unpackLong*} return and of {@code Direction} offsets
+ */
+public class IntervalInterpreter extends Interpreter<IntervalValue> {
+    private static final IntervalValue HORIZONTAL_COORDINATE = IntervalValue.range(-(1 << 25), (1 << 25) - 1);
+    private static final IntervalValue VERTICAL_COORDINATE = IntervalValue.range(-(1 << 11), (1 << 11) - 1);
+    private static final IntervalValue OFFSET = IntervalValue.range(-1, 1);
+    private static final IntervalValue BOOLEAN = IntervalValue.range(0, 1);
+    private static final IntervalValue COMPARISON = IntervalValue.range(-1, 1);
+
+    private InsnList instructions;
+    private boolean widen = false;
+
+    public IntervalInterpreter(int api) {
+        super(api);
+    }
+
+    public void setInstructions(InsnList instructions){
+        this.instructions = instructions;
+    }
+
+    /**
+     * When set, merging two different ranges jumps straight to the bounds of an int in the direction the range grew. This makes loops finish
+     */
+    public void setWiden(boolean widen){
+        this.widen = widen;
+    }
+
+    @Override
+    public IntervalValue newValue(Type type) {
+        if(type == null) return IntervalValue.OTHER;
+
+        return switch (type.getSort()){
+            case Type.VOID -> null;
+            case Type.BOOLEAN -> BOOLEAN;
+            case Type.BYTE -> IntervalValue.range(Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case Type.CHAR -> IntervalValue.range(Character.MIN_VALUE, Character.MAX_VALUE);
+            case Type.SHORT -> IntervalValue.range(Short.MIN_VALUE, Short.MAX_VALUE);
+            case Type.INT -> IntervalValue.ANY_INT;
+            case Type.LONG, Type.DOUBLE -> IntervalValue.OTHER_WIDE;
+            default -> IntervalValue.OTHER;
+        };
+    }
+
+    @Override
+    public IntervalValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
+        return switch (insn.getOpcode()){
+            case Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2, Opcodes.ICONST_3, Opcodes.ICONST_4, Opcodes.ICONST_5 ->
+                    IntervalValue.constant(insn.getOpcode() - Opcodes.ICONST_0);
+            case Opcodes.BIPUSH, Opcodes.SIPUSH -> IntervalValue.constant(((IntInsnNode) insn).operand);
+            case Opcodes.LCONST_0, Opcodes.LCONST_1, Opcodes.DCONST_0, Opcodes.DCONST_1 -> IntervalValue.OTHER_WIDE;
+            case Opcodes.LDC -> {
+                Object constant = ((LdcInsnNode) insn).cst;
+                if(constant instanceof Integer value) yield IntervalValue.constant(value);
+                if(constant instanceof Long || constant instanceof Double) yield IntervalValue.OTHER_WIDE;
+                yield IntervalValue.OTHER;
+            }
+            case Opcodes.GETSTATIC -> newValue(Type.getType(((FieldInsnNode) insn).desc));
+            default -> IntervalValue.OTHER;
+        };
+    }
+
+    @Override
+    public IntervalValue copyOperation(AbstractInsnNode insn, IntervalValue value) throws AnalyzerException {
+        if(insn.getOpcode() == Opcodes.ILOAD){
+            return value.withLocal(((VarInsnNode) insn).var, instructions.indexOf(insn));
+        }
+        return value.withoutLocal();
+    }
+
+    @Override
+    public IntervalValue unaryOperation(AbstractInsnNode insn, IntervalValue value) throws AnalyzerException {
+        return switch (insn.getOpcode()){
+            case Opcodes.INEG -> IntervalValue.range(-(long) value.getMax(), -(long) value.getMin());
+            case Opcodes.IINC -> {
+                int increment = ((IincInsnNode) insn).incr;
+                yield IntervalValue.range((long) value.getMin() + increment, (long) value.getMax() + increment);
+            }
+            case Opcodes.I2B -> clamp(value, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case Opcodes.I2C -> clamp(value, Character.MIN_VALUE, Character.MAX_VALUE);
+            case Opcodes.I2S -> clamp(value, Short.MIN_VALUE, Short.MAX_VALUE);
+            case Opcodes.L2I, Opcodes.F2I, Opcodes.D2I -> IntervalValue.ANY_INT;
+            case Opcodes.ARRAYLENGTH -> IntervalValue.range(0, Integer.MAX_VALUE);
+            case Opcodes.INSTANCEOF -> BOOLEAN;
+            case Opcodes.LNEG, Opcodes.DNEG, Opcodes.I2L, Opcodes.I2D, Opcodes.L2D, Opcodes.F2L, Opcodes.F2D, Opcodes.D2L -> IntervalValue.OTHER_WIDE;
+            case Opcodes.GETFIELD -> newValue(Type.getType(((FieldInsnNode) insn).desc));
+            case Opcodes.IFEQ, Opcodes.IFNE, Opcodes.IFLT, Opcodes.IFGE, Opcodes.IFGT, Opcodes.IFLE, Opcodes.TABLESWITCH, Opcodes.LOOKUPSWITCH,
+                    Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN, Opcodes.DRETURN, Opcodes.ARETURN, Opcodes.PUTSTATIC, Opcodes.ATHROW,
+                    Opcodes.MONITORENTER, Opcodes.MONITOREXIT, Opcodes.IFNULL, Opcodes.IFNONNULL -> null;
+            default -> IntervalValue.OTHER;
+        };
+    }
+
+    @Override
+    public IntervalValue binaryOperation(AbstractInsnNode insn, IntervalValue value1, IntervalValue value2) throws AnalyzerException {
+        long min1 = value1.getMin(), max1 = value1.getMax();
+        long min2 = value2.getMin(), max2 = value2.getMax();
+
+        return switch (insn.getOpcode()){
+            case Opcodes.IADD -> IntervalValue.range(min1 + min2, max1 + max2);
+            case Opcodes.ISUB -> IntervalValue.range(min1 - max2, max1 - min2);
+            case Opcodes.IMUL -> {
+                long a = min1 * min2, b = min1 * max2, c = max1 * min2, d = max1 * max2;
+                yield IntervalValue.range(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+            }
+            case Opcodes.IAND -> {
+                //Anding with something that isn't negative can't give a bigger number
+                if(min1 >= 0 && min2 >= 0) yield IntervalValue.range(0, Math.min(max1, max2));
+                if(min1 >= 0) yield IntervalValue.range(0, max1);
+                if(min2 >= 0) yield IntervalValue.range(0, max2);
+                yield IntervalValue.ANY_INT;
+            }
+            case Opcodes.IDIV, Opcodes.IREM, Opcodes.ISHL, Opcodes.ISHR, Opcodes.IUSHR, Opcodes.IOR, Opcodes.IXOR, Opcodes.IALOAD -> IntervalValue.ANY_INT;
+            case Opcodes.BALOAD -> IntervalValue.range(Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case Opcodes.CALOAD -> IntervalValue.range(Character.MIN_VALUE, Character.MAX_VALUE);
+            case Opcodes.SALOAD -> IntervalValue.range(Short.MIN_VALUE, Short.MAX_VALUE);
+            case Opcodes.LCMP, Opcodes.FCMPL, Opcodes.FCMPG, Opcodes.DCMPL, Opcodes.DCMPG -> COMPARISON;
+            case Opcodes.LALOAD, Opcodes.DALOAD, Opcodes.LADD, Opcodes.DADD, Opcodes.LSUB, Opcodes.DSUB, Opcodes.LMUL, Opcodes.DMUL,
+                    Opcodes.LDIV, Opcodes.DDIV, Opcodes.LREM, Opcodes.DREM, Opcodes.LSHL, Opcodes.LSHR, Opcodes.LUSHR, Opcodes.LAND,
+                    Opcodes.LOR, Opcodes.LXOR -> IntervalValue.OTHER_WIDE;
+            case Opcodes.IF_ICMPEQ, Opcodes.IF_ICMPNE, Opcodes.IF_ICMPLT, Opcodes.IF_ICMPGE, Opcodes.IF_ICMPGT, Opcodes.IF_ICMPLE,
+                    Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE, Opcodes.PUTFIELD -> null;
+            default -> IntervalValue.OTHER;
+        };
+    }
+
+    @Override
+    public IntervalValue ternaryOperation(AbstractInsnNode insn, IntervalValue value1, IntervalValue value2, IntervalValue value3) throws AnalyzerException {
+        return null;
+    }
+
+    @Override
+    public IntervalValue naryOperation(AbstractInsnNode insn, List<? extends IntervalValue> values) throws AnalyzerException {
+        if(insn instanceof MethodInsnNode methodCall){
+            String methodID = methodCall.owner + "#" + methodCall.name + " " + methodCall.desc;
+            switch (methodID) {
+                case "net/minecraft/util/math/BlockPos#unpackLongX (J)I", "net/minecraft/util/math/BlockPos#unpackLongZ (J)I":
+                    return HORIZONTAL_COORDINATE;
+                case "net/minecraft/util/math/BlockPos#unpackLongY (J)I":
+                    return VERTICAL_COORDINATE;
+                case "net/minecraft/util/math/Direction#getOffsetX ()I", "net/minecraft/util/math/Direction#getOffsetY ()I",
+                        "net/minecraft/util/math/Direction#getOffsetZ ()I":
+                    return OFFSET;
+            }
+            return newValue(Type.getReturnType(methodCall.desc));
+        }else if(insn instanceof InvokeDynamicInsnNode invokeDynamic){
+            return newValue(Type.getReturnType(invokeDynamic.desc));
+        }
+        return IntervalValue.OTHER;
+    }
+
+    @Override
+    public void returnOperation(AbstractInsnNode insn, IntervalValue value, IntervalValue expected) throws AnalyzerException {
+
+    }
+
+    @Override
+    public IntervalValue merge(IntervalValue value1, IntervalValue value2) {
+        if(value1.equals(value2)) return value1;
+        if(!value1.isInt() || !value2.isInt()){
+            return value1.getSize() == value2.getSize() && !value1.isInt() && !value2.isInt() ? value1 : IntervalValue.OTHER;
+        }
+
+        long min = Math.min(value1.getMin(), value2.getMin());
+        long max = Math.max(value1.getMax(), value2.getMax());
+        if(widen){
+            if(min < value1.getMin()) min = Integer.MIN_VALUE;
+            if(max > value1.getMax()) max = Integer.MAX_VALUE;
+        }
+        return IntervalValue.range(min, max);
+    }
+
+    private static IntervalValue clamp(IntervalValue value, int min, int max){
+        if(value.getMin() >= min && value.getMax() <= max) return value.withoutLocal();
+        return IntervalValue.range(min, max);
+    }
+}
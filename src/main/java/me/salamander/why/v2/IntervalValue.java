@@ -0,0 +1,116 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.tree.analysis.Value;
+
+/**
+ * A value in an {@link IntervalAnalysis}. Ints know the range of values they could have, everything else is only tracked by its size.
+ * Ints that were just loaded from a local variable also remember which variable and which instruction loaded them so that a comparison
+ * can narrow the variable down as well
+ */
+public final class IntervalValue implements Value {
+    public static final IntervalValue OTHER = new IntervalValue(1, false, 0, 0, -1, -1);
+    public static final IntervalValue OTHER_WIDE = new IntervalValue(2, false, 0, 0, -1, -1);
+    public static final IntervalValue ANY_INT = new IntervalValue(1, true, Integer.MIN_VALUE, Integer.MAX_VALUE, -1, -1);
+
+    private final int size;
+    private final boolean isInt;
+    private final int min;
+    private final int max;
+    private final int local;
+    private final int loadIndex;
+
+    private IntervalValue(int size, boolean isInt, int min, int max, int local, int loadIndex) {
+        this.size = size;
+        this.isInt = isInt;
+        this.min = min;
+        this.max = max;
+        this.local = local;
+        this.loadIndex = loadIndex;
+    }
+
+    /**
+     * @return An int between min and max (inclusive) or {@link #ANY_INT} if the range doesn't fit in an int
+     */
+    public static IntervalValue range(long min, long max){
+        if(min > max) throw new IllegalArgumentException("Empty range " + min + " to " + max);
+        if(min < Integer.MIN_VALUE || max > Integer.MAX_VALUE) return ANY_INT;
+        return new IntervalValue(1, true, (int) min, (int) max, -1, -1);
+    }
+
+    public static IntervalValue constant(int value){
+        return new IntervalValue(1, true, value, value, -1, -1);
+    }
+
+    public IntervalValue withLocal(int local, int loadIndex){
+        return new IntervalValue(size, isInt, min, max, local, loadIndex);
+    }
+
+    public IntervalValue withoutLocal(){
+        if(local == -1) return this;
+        return new IntervalValue(size, isInt, min, max, -1, -1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isInt() {
+        return isInt;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean isConstant(){
+        return isInt && min == max;
+    }
+
+    public boolean contains(int value){
+        return isInt && min <= value && value <= max;
+    }
+
+    /**
+     * @return The local variable this value was loaded from or -1
+     */
+    public int getLocal() {
+        return local;
+    }
+
+    /**
+     * @return The index of the instruction that loaded this value from {@link #getLocal()}
+     */
+    public int getLoadIndex() {
+        return loadIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IntervalValue that = (IntervalValue) o;
+        return size == that.size && isInt == that.isInt && min == that.min && max == that.max && local == that.local && loadIndex == that.loadIndex;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = size;
+        result = 31 * result + (isInt ? 1 : 0);
+        result = 31 * result + min;
+        result = 31 * result + max;
+        result = 31 * result + local;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if(!isInt) return size == 2 ? "wide" : "other";
+        if(min == max) return String.valueOf(min);
+        return "[" + min + ", " + max + "]";
+    }
+}
@@ -0,0 +1,342 @@
+package me.salamander.why.v2;
+
+import me.salamander.why.v2.cache.TransformCache;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams every entry of a jar through the transformer into a new jar. The calling thread reads entries, a pool of workers transforms the classes
+ * that need it and a writer thread puts the results into the new jar in their original order. No more than {@code 4 * threads} entries are held
+ * in memory at once, however big the jar is.
+ * <br>
+ * Arguments: {@code <input jar> <output jar> [--threads n] [--include prefix]...}. Only classes that refer to one of the methods in the config get
+ * transformed. {@code --include} further limits that to classes whose internal name starts with one of the prefixes. Set {@code why.cacheDir} to
+ * reuse classes transformed by earlier runs, see {@link TransformCache}, and {@code why.selective} to only read the methods that need it, see
+ * {@link SelectiveClassTransformer}
+ */
+public class JarTransformer {
+    private static final Job END = new Job(-1, null, 0, null);
+
+    private final TransformContext context;
+    private final ClassTransformer transformer;
+    private final SelectiveClassTransformer selectiveTransformer;
+    private final List<String> includes;
+    private final ConstantPoolFilter filter;
+    private final int threads;
+    private final TransformCache cache;
+
+    /**
+     * @param includes Prefixes of the internal names of the classes that may be transformed. Empty to allow all classes
+     */
+    public JarTransformer(TransformContext context, List<String> includes, int threads) {
+        this(context, includes, threads, null);
+    }
+
+    /**
+     * @param includes Prefixes of the internal names of the classes that may be transformed. Empty to allow all classes
+     * @param cache Where to look for classes that have been transformed before, or null to always transform them
+     */
+    public JarTransformer(TransformContext context, List<String> includes, int threads, TransformCache cache) {
+        this.context = context;
+        //Every worker transforms one class at a time by itself
+        this.transformer = new ClassTransformer(context, null);
+        this.selectiveTransformer = SelectiveClassTransformer.isEnabled() ? new SelectiveClassTransformer(transformer) : null;
+        this.includes = List.copyOf(includes);
+        this.threads = threads;
+        this.cache = cache;
+
+        this.filter = new ConstantPoolFilter(context);
+    }
+
+    public TransformContext getContext() {
+        return context;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 2){
+            System.out.println("Usage: JarTransformer <input jar> <output jar> [--threads n] [--include prefix]...");
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> includes = new ArrayList<>();
+        for(int i = 2; i < args.length; i++){
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--include" -> includes.add(args[++i].replace('.', '/'));
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        TransformContext context = TransformContext.load();
+        JarTransformer jarTransformer = new JarTransformer(context, includes, threads, TransformCache.fromSystemProperties());
+        Stats stats = jarTransformer.transform(Path.of(args[0]), Path.of(args[1]));
+
+        System.out.printf("Transformed %d of %d classes (%d entries) in %.1f s%n", stats.transformed(), stats.classes(), stats.entries(), (System.nanoTime() - start) / 1e9);
+    }
+
+    public Stats transform(Path input, Path output) throws IOException, InterruptedException {
+        int capacity = threads * 4;
+        Semaphore inFlight = new Semaphore(capacity);
+        BlockingQueue<Job> work = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> done = new ArrayBlockingQueue<>(capacity + 1);
+        AtomicInteger classes = new AtomicInteger();
+        AtomicInteger transformed = new AtomicInteger();
+        AtomicReference<Throwable> workerFailure = new AtomicReference<>();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < threads; i++){
+            futures.add(workers.submit(() -> {
+                Job job;
+                while ((job = work.take()) != END){
+                    try {
+                        if(job.name.endsWith(".class") && !job.isDirectory()){
+                            classes.incrementAndGet();
+                            if(transformClass(job)) transformed.incrementAndGet();
+                        }
+                    }catch (Throwable e){
+                        //A worker that stops would leave the reader waiting for space in the queue forever, so even errors like the
+                        //StackOverflowError ASM can throw on deep methods only cost the class its transformation
+                        System.out.println("Warning: Couldn't transform " + job.name + ". Keeping the original");
+                        e.printStackTrace();
+                        workerFailure.compareAndSet(null, e);
+                    }finally {
+                        //The writer has to get every job or it can't write the ones after it
+                        done.put(job);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        Writer writer = new Writer(output, done, inFlight);
+        Thread writerThread = new Thread(writer, "Jar Writer");
+        writerThread.start();
+
+        int entries = 0;
+        try(ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(input)))){
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null && writer.failure == null){
+                inFlight.acquire();
+                byte[] data = entry.isDirectory() ? null : in.readAllBytes();
+                work.put(new Job(entries++, entry.getName(), entry.getTime(), data));
+            }
+        }finally {
+            for(int i = 0; i < threads; i++) work.put(END);
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+            done.put(END);
+            writerThread.join();
+        }
+
+        for(Future<?> future : futures){
+            try {
+                future.get();
+            }catch (ExecutionException e){
+                workerFailure.compareAndSet(null, e.getCause());
+            }
+        }
+
+        if(writer.failure != null){
+            throw new IOException("Couldn't write " + output, writer.failure);
+        }
+        if(workerFailure.get() != null){
+            throw new IOException("Couldn't transform every class of " + input + ", the ones that failed were kept as they were", workerFailure.get());
+        }
+
+        return new Stats(entries, classes.get(), transformed.get());
+    }
+
+    private boolean transformClass(Job job){
+        byte[] transformed = transformClass(job.name.substring(0, job.name.length() - ".class".length()), job.data);
+        if(transformed == null) return false;
+
+        job.data = transformed;
+        return true;
+    }
+
+    /**
+     * Transforms a single class if it is included and {@link ConstantPoolFilter} lets it through. Anything that goes wrong leaves the class as it was
+     * @param className The internal name of the class
+     * @return The transformed class or null if nothing about it changed
+     */
+    public byte[] transformClass(String className, byte[] data){
+        if(!shouldTransform(className, data)) return null;
+        if(cache == null) return transformUncached(className, data);
+
+        String key = cache.key(className, data);
+        try {
+            TransformCache.Entry entry = cache.get(key);
+            if(entry != null) return entry.toBytes();
+        }catch (IOException e){
+            System.out.println("Warning: Couldn't read the cached " + className + ": " + e.getMessage());
+        }
+
+        byte[] transformed;
+        try {
+            transformed = transform(className, data);
+        }catch (RuntimeException e){
+            //Failures aren't cached so the class gets another chance next time
+            System.out.println("Warning: Couldn't transform " + className + ". Keeping the original");
+            e.printStackTrace();
+            return null;
+        }
+
+        try {
+            cache.put(key, transformed);
+        }catch (IOException e){
+            System.out.println("Warning: Couldn't cache " + className + ": " + e.getMessage());
+        }
+        return transformed;
+    }
+
+    private byte[] transformUncached(String className, byte[] data){
+        try {
+            return transform(className, data);
+        }catch (RuntimeException e){
+            System.out.println("Warning: Couldn't transform " + className + ". Keeping the original");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private byte[] transform(String className, byte[] data){
+        if(selectiveTransformer != null) return selectiveTransformer.transform(data);
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(data).accept(classNode, 0);
+
+        if(transformer.transform(classNode).isEmpty()) return null;
+
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * @return Whether the class is included and refers to anything from the config, see {@link ConstantPoolFilter}. Other classes are never transformed
+     */
+    public boolean shouldTransform(String className, byte[] data){
+        return isIncluded(className) && filter.mayTransform(data);
+    }
+
+    private boolean isIncluded(String className){
+        if(includes.isEmpty()) return true;
+        for(String prefix : includes){
+            if(className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the entry belongs to a jar signature, which won't match anymore once classes are transformed
+     */
+    public static boolean isSignatureFile(String name){
+        if(!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * Writes finished jobs in the order they were read. Jobs that finish early wait in a buffer, which can't grow beyond the number of entries in flight
+     */
+    private static class Writer implements Runnable {
+        private final Path output;
+        private final BlockingQueue<Job> done;
+        private final Semaphore inFlight;
+        private volatile Throwable failure;
+
+        Writer(Path output, BlockingQueue<Job> done, Semaphore inFlight) {
+            this.output = output;
+            this.done = done;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void run() {
+            try {
+                writeAll();
+            }catch (IOException | InterruptedException | RuntimeException e){
+                failure = e;
+
+                //Don't leave the reader waiting for space that will never free up or the workers waiting on a full queue
+                inFlight.release(Integer.MAX_VALUE / 2);
+                try {
+                    while (done.take() != END);
+                }catch (InterruptedException ignored){ }
+            }
+        }
+
+        private void writeAll() throws IOException, InterruptedException {
+            Map<Integer, Job> waiting = new HashMap<>();
+            int next = 0;
+            try(ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))){
+                Job job;
+                while ((job = done.take()) != END){
+                    waiting.put(job.sequence, job);
+                    while ((job = waiting.remove(next)) != null){
+                        write(out, job);
+                        next++;
+                        inFlight.release();
+                    }
+                }
+            }
+        }
+
+        private void write(ZipOutputStream out, Job job) throws IOException {
+            //Signatures won't match the transformed classes anymore
+            if(isSignatureFile(job.name)){
+                System.out.println("Info: Dropping signature file " + job.name);
+                return;
+            }
+
+            ZipEntry entry = new ZipEntry(job.name);
+            entry.setTime(job.time);
+            try {
+                out.putNextEntry(entry);
+            }catch (ZipException e){
+                System.out.println("Warning: Skipping " + job.name + ": " + e.getMessage());
+                return;
+            }
+            if(job.data != null) out.write(job.data);
+            out.closeEntry();
+        }
+    }
+
+    private static class Job {
+        private final int sequence;
+        private final String name;
+        private final long time;
+        private byte[] data;
+
+        Job(int sequence, String name, long time, byte[] data) {
+            this.sequence = sequence;
+            this.name = name;
+            this.time = time;
+            this.data = data;
+        }
+
+        boolean isDirectory(){
+            return data == null;
+        }
+    }
+
+    public record Stats(int entries, int classes, int transformed) {}
+}
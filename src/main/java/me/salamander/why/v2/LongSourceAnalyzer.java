@@ -0,0 +1,524 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * An alternative to running an {@code Analyzer<BasicSourceValue>} that only tracks long values, since those are the only ones that can be packed
+ * block positions. Every other value is represented by one of two shared placeholders so it costs nothing to track.
+ * <br><br>
+ * The method is split into basic blocks and only the states at the start of each block are stored. A worklist over those blocks finds the fixpoint,
+ * then every block is walked once more to record def-use chains and the operands of the instructions that consume longs.
+ * <br><br>
+ * An instance can be reused for any number of methods but not by several threads at once
+ */
+public class LongSourceAnalyzer {
+    /**
+     * Stands in for every value that isn't a long and takes up one slot
+     */
+    public static final BasicSourceValue OTHER = new BasicSourceValue(null);
+    /**
+     * Stands in for doubles
+     */
+    public static final BasicSourceValue OTHER_WIDE = new BasicSourceValue(Type.DOUBLE_TYPE);
+
+    private static final BasicSourceValue[] HANDLER_STACK = {OTHER};
+
+    private InsnList insnList;
+    private AbstractInsnNode[] instructions;
+    private int numInstructions;
+
+    private BasicBlocks blocks;
+    private int numBlocks;
+
+    private BasicSourceValue[][] entryLocals = new BasicSourceValue[0][];
+    private BasicSourceValue[][] entryStacks = new BasicSourceValue[0][];
+    private int[] entryStackSizes = new int[0];
+
+    private int[] tryStarts, tryEnds, tryHandlers;
+
+    private final BitSet inWorklist = new BitSet();
+    private int[] worklist = new int[0];
+    private int worklistSize;
+
+    //The state that is currently being interpreted
+    private BasicSourceValue[] locals;
+    private BasicSourceValue[] stack;
+    private int stackSize;
+
+    //Only used while recording
+    private boolean recording;
+    private final DefUseTable.Builder defUse = new DefUseTable.Builder();
+    private BasicSourceValue[] popped = new BasicSourceValue[8];
+    private int numPopped;
+    private int[] stackSizes;
+    private BasicSourceValue[][] operands;
+
+    private AnalysisBudget budget = AnalysisBudget.UNLIMITED;
+
+    public SparseSourceAnalysis analyze(String owner, MethodNode method) throws AnalyzerException {
+        return analyze(owner, method, AnalysisBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget Ticked for every block that gets interpreted
+     * @throws AnalysisBudget.Exceeded If the method takes too long to analyze
+     */
+    public SparseSourceAnalysis analyze(String owner, MethodNode method, AnalysisBudget budget) throws AnalyzerException {
+        this.budget = budget;
+        insnList = method.instructions;
+        instructions = insnList.toArray();
+        numInstructions = instructions.length;
+
+        stackSizes = new int[numInstructions];
+        operands = new BasicSourceValue[numInstructions][];
+        Arrays.fill(stackSizes, -1);
+        defUse.clear();
+
+        if(numInstructions == 0){
+            return new SparseSourceAnalysis(stackSizes, operands, defUse.build(0));
+        }
+
+        findBlocks(method);
+
+        int maxLocals = Math.max(method.maxLocals, 1);
+        int maxStack = Math.max(method.maxStack, 1);
+        locals = new BasicSourceValue[maxLocals];
+        stack = new BasicSourceValue[maxStack];
+
+        //Set up the state at the start of the method
+        Arrays.fill(locals, OTHER);
+        int slot = 0;
+        if((method.access & Opcodes.ACC_STATIC) == 0){
+            slot++;
+        }
+        for(Type argument : Type.getArgumentTypes(method.desc)){
+            if(argument.getSort() == Type.LONG){
+                locals[slot] = new BasicSourceValue(Type.LONG_TYPE, IndexSet.EMPTY, IndexSet.of(slot));
+            }else if(argument.getSort() == Type.DOUBLE){
+                locals[slot] = OTHER_WIDE;
+            }
+            slot += argument.getSize();
+        }
+        stackSize = 0;
+        mergeInto(0, locals, stack, 0);
+
+        //Find the fixpoint
+        while (worklistSize > 0){
+            int block = worklist[--worklistSize];
+            inWorklist.clear(block);
+            interpretBlock(block);
+        }
+
+        //Record everything that is needed with the final states
+        recording = true;
+        try {
+            for(int block = 0; block < numBlocks; block++){
+                if(entryLocals[block] != null){
+                    interpretBlock(block);
+                }
+            }
+        }finally {
+            recording = false;
+        }
+
+        SparseSourceAnalysis result = new SparseSourceAnalysis(stackSizes, operands, defUse.build(numInstructions));
+
+        //Don't hold on to anything from this method
+        Arrays.fill(entryLocals, 0, numBlocks, null);
+        Arrays.fill(entryStacks, 0, numBlocks, null);
+        insnList = null;
+        instructions = null;
+        blocks = null;
+        stackSizes = null;
+        operands = null;
+
+        return result;
+    }
+
+    private void findBlocks(MethodNode method){
+        blocks = BasicBlocks.of(method);
+        numBlocks = blocks.getNumBlocks();
+
+        List<TryCatchBlockNode> tryCatchBlocks = method.tryCatchBlocks;
+        int numTryCatchBlocks = tryCatchBlocks == null ? 0 : tryCatchBlocks.size();
+        tryStarts = new int[numTryCatchBlocks];
+        tryEnds = new int[numTryCatchBlocks];
+        tryHandlers = new int[numTryCatchBlocks];
+        for(int i = 0; i < numTryCatchBlocks; i++){
+            TryCatchBlockNode tryCatchBlock = tryCatchBlocks.get(i);
+            tryStarts[i] = indexOf(tryCatchBlock.start);
+            tryEnds[i] = indexOf(tryCatchBlock.end);
+            tryHandlers[i] = indexOf(tryCatchBlock.handler);
+        }
+
+        if(entryLocals.length < numBlocks){
+            entryLocals = new BasicSourceValue[numBlocks][];
+            entryStacks = new BasicSourceValue[numBlocks][];
+            entryStackSizes = new int[numBlocks];
+            worklist = new int[numBlocks];
+        }
+        Arrays.fill(entryLocals, 0, numBlocks, null);
+        Arrays.fill(entryStacks, 0, numBlocks, null);
+
+        inWorklist.clear();
+        worklistSize = 0;
+    }
+
+    private void interpretBlock(int block) throws AnalyzerException {
+        budget.tick();
+        System.arraycopy(entryLocals[block], 0, locals, 0, locals.length);
+        System.arraycopy(entryStacks[block], 0, stack, 0, entryStackSizes[block]);
+        stackSize = entryStackSizes[block];
+
+        int end = blocks.getEnd(block);
+        for(int i = blocks.getStart(block); i < end; i++){
+            AbstractInsnNode instruction = instructions[i];
+
+            if(recording){
+                stackSizes[i] = stackSize;
+                numPopped = 0;
+            }
+
+            int opcode = instruction.getOpcode();
+            if(opcode == -1) continue;
+
+            if(!recording && tryStarts.length != 0){
+                mergeIntoHandlers(i);
+            }
+
+            execute(instruction, i);
+
+            if(recording && numPopped != 0){
+                recordOperands(i);
+            }
+
+            //Send the state to the successors of the last instruction
+            if(i == end - 1 && !recording){
+                if(instruction instanceof JumpInsnNode jump){
+                    mergeInto(blocks.getBlockOf(indexOf(jump.label)), locals, stack, stackSize);
+                    if(opcode != GOTO && i + 1 < numInstructions){
+                        mergeInto(blocks.getBlockOf(i + 1), locals, stack, stackSize);
+                    }
+                }else if(instruction instanceof TableSwitchInsnNode tableSwitch){
+                    mergeInto(blocks.getBlockOf(indexOf(tableSwitch.dflt)), locals, stack, stackSize);
+                    for(LabelNode label : tableSwitch.labels) mergeInto(blocks.getBlockOf(indexOf(label)), locals, stack, stackSize);
+                }else if(instruction instanceof LookupSwitchInsnNode lookupSwitch){
+                    mergeInto(blocks.getBlockOf(indexOf(lookupSwitch.dflt)), locals, stack, stackSize);
+                    for(LabelNode label : lookupSwitch.labels) mergeInto(blocks.getBlockOf(indexOf(label)), locals, stack, stackSize);
+                }else if(!BasicBlocks.isExit(opcode) && i + 1 < numInstructions){
+                    mergeInto(blocks.getBlockOf(i + 1), locals, stack, stackSize);
+                }
+            }
+        }
+
+        //A block may end with a label or a line number which still falls through to the next one
+        int last = end - 1;
+        if(!recording && instructions[last].getOpcode() == -1 && last + 1 < numInstructions){
+            mergeInto(blocks.getBlockOf(last + 1), locals, stack, stackSize);
+        }
+    }
+
+    private int indexOf(AbstractInsnNode instruction){
+        //O(1) since the list has already been turned into an array
+        return insnList.indexOf(instruction);
+    }
+
+    /**
+     * Merges the locals before instruction {@code index} into every exception handler that covers it
+     */
+    private void mergeIntoHandlers(int index){
+        for(int i = 0; i < tryStarts.length; i++){
+            if(index >= tryStarts[i] && index < tryEnds[i]){
+                mergeInto(blocks.getBlockOf(tryHandlers[i]), locals, HANDLER_STACK, 1);
+            }
+        }
+    }
+
+    private void mergeInto(int block, BasicSourceValue[] locals, BasicSourceValue[] stack, int stackSize){
+        BasicSourceValue[] currentLocals = entryLocals[block];
+        boolean changed = false;
+
+        if(currentLocals == null){
+            entryLocals[block] = Arrays.copyOf(locals, locals.length);
+            entryStacks[block] = Arrays.copyOf(stack, stackSize);
+            entryStackSizes[block] = stackSize;
+            changed = true;
+        }else{
+            for(int i = 0; i < currentLocals.length; i++){
+                BasicSourceValue merged = mergeValues(currentLocals[i], locals[i]);
+                if(merged != currentLocals[i]){
+                    currentLocals[i] = merged;
+                    changed = true;
+                }
+            }
+
+            BasicSourceValue[] currentStack = entryStacks[block];
+            if(entryStackSizes[block] != stackSize){
+                throw new IllegalStateException("Incompatible stack heights at block " + block);
+            }
+            for(int i = 0; i < stackSize; i++){
+                BasicSourceValue merged = mergeValues(currentStack[i], stack[i]);
+                if(merged != currentStack[i]){
+                    currentStack[i] = merged;
+                    changed = true;
+                }
+            }
+        }
+
+        if(changed && !inWorklist.get(block)){
+            inWorklist.set(block);
+            worklist[worklistSize++] = block;
+        }
+    }
+
+    private static BasicSourceValue mergeValues(BasicSourceValue current, BasicSourceValue other){
+        if(current == other) return current;
+        if(isLong(current) && isLong(other)) return current.merge(other);
+        //A slot that holds different kinds of values on different paths can't be read without being written first
+        return OTHER;
+    }
+
+    private static boolean isLong(BasicSourceValue value){
+        return value.getType() == Type.LONG_TYPE;
+    }
+
+    private void recordOperands(int index){
+        boolean consumesLong = false;
+        for(int i = 0; i < numPopped; i++){
+            if(isLong(popped[i])){
+                consumesLong = true;
+                break;
+            }
+        }
+        if(!consumesLong) return;
+
+        //Values were popped top first
+        BasicSourceValue[] instructionOperands = new BasicSourceValue[numPopped];
+        for(int i = 0; i < numPopped; i++){
+            instructionOperands[numPopped - 1 - i] = popped[i];
+        }
+        operands[index] = instructionOperands;
+    }
+
+    private void execute(AbstractInsnNode instruction, int index) throws AnalyzerException {
+        int opcode = instruction.getOpcode();
+        switch (opcode) {
+            case NOP, GOTO, RETURN -> {}
+            case ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5, FCONST_0, FCONST_1, FCONST_2, BIPUSH, SIPUSH,
+                    ILOAD, FLOAD, ALOAD, NEW -> push(OTHER);
+            case LCONST_0, LCONST_1 -> push(emitted(index));
+            case DCONST_0, DCONST_1, DLOAD -> push(OTHER_WIDE);
+            case LDC -> {
+                Object constant = ((LdcInsnNode) instruction).cst;
+                if(constant instanceof Long){
+                    push(emitted(index));
+                }else if(constant instanceof Double){
+                    push(OTHER_WIDE);
+                }else{
+                    push(OTHER);
+                }
+            }
+            case LLOAD -> push(new BasicSourceValue(Type.LONG_TYPE, IndexSet.of(index), IndexSet.of(((VarInsnNode) instruction).var)));
+            case IALOAD, FALOAD, AALOAD, BALOAD, CALOAD, SALOAD -> {
+                pop(index); pop(index);
+                push(OTHER);
+            }
+            case LALOAD -> {
+                pop(index); pop(index);
+                push(emitted(index));
+            }
+            case DALOAD -> {
+                pop(index); pop(index);
+                push(OTHER_WIDE);
+            }
+            case ISTORE, FSTORE, ASTORE -> {
+                pop(index);
+                setLocal(((VarInsnNode) instruction).var, OTHER);
+            }
+            case DSTORE -> {
+                pop(index);
+                setLocal(((VarInsnNode) instruction).var, OTHER_WIDE);
+            }
+            case LSTORE -> {
+                pop(index);
+                int var = ((VarInsnNode) instruction).var;
+                setLocal(var, new BasicSourceValue(Type.LONG_TYPE, IndexSet.of(index), IndexSet.of(var)));
+            }
+            case IINC -> setLocal(((IincInsnNode) instruction).var, OTHER);
+            case IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE -> {
+                pop(index); pop(index); pop(index);
+            }
+            case POP -> take();
+            case POP2 -> {
+                if(take().getSize() == 1) take();
+            }
+            case DUP -> push(stack[stackSize - 1]);
+            case DUP_X1 -> {
+                BasicSourceValue value1 = take();
+                BasicSourceValue value2 = take();
+                push(value1); push(value2); push(value1);
+            }
+            case DUP_X2 -> {
+                BasicSourceValue value1 = take();
+                BasicSourceValue value2 = take();
+                if(value2.getSize() == 2){
+                    push(value1); push(value2); push(value1);
+                }else{
+                    BasicSourceValue value3 = take();
+                    push(value1); push(value3); push(value2); push(value1);
+                }
+            }
+            case DUP2 -> {
+                BasicSourceValue value1 = take();
+                if(value1.getSize() == 2){
+                    push(value1); push(value1);
+                }else{
+                    BasicSourceValue value2 = take();
+                    push(value2); push(value1); push(value2); push(value1);
+                }
+            }
+            case DUP2_X1 -> {
+                BasicSourceValue value1 = take();
+                BasicSourceValue value2 = take();
+                if(value1.getSize() == 2){
+                    push(value1); push(value2); push(value1);
+                }else{
+                    BasicSourceValue value3 = take();
+                    push(value2); push(value1); push(value3); push(value2); push(value1);
+                }
+            }
+            case DUP2_X2 -> {
+                BasicSourceValue value1 = take();
+                BasicSourceValue value2 = take();
+                if(value1.getSize() == 2){
+                    if(value2.getSize() == 2){
+                        push(value1); push(value2); push(value1);
+                    }else{
+                        BasicSourceValue value3 = take();
+                        push(value1); push(value3); push(value2); push(value1);
+                    }
+                }else{
+                    BasicSourceValue value3 = take();
+                    if(value3.getSize() == 2){
+                        push(value2); push(value1); push(value3); push(value2); push(value1);
+                    }else{
+                        BasicSourceValue value4 = take();
+                        push(value2); push(value1); push(value4); push(value3); push(value2); push(value1);
+                    }
+                }
+            }
+            case SWAP -> {
+                BasicSourceValue value1 = take();
+                BasicSourceValue value2 = take();
+                push(value1); push(value2);
+            }
+            case IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR, FADD, FSUB, FMUL, FDIV, FREM,
+                    LCMP, FCMPL, FCMPG, DCMPL, DCMPG -> {
+                pop(index); pop(index);
+                push(OTHER);
+            }
+            case LADD, LSUB, LMUL, LDIV, LREM, LSHL, LSHR, LUSHR, LAND, LOR, LXOR -> {
+                pop(index); pop(index);
+                push(emitted(index));
+            }
+            case DADD, DSUB, DMUL, DDIV, DREM -> {
+                pop(index); pop(index);
+                push(OTHER_WIDE);
+            }
+            case INEG, FNEG, L2I, L2F, D2I, D2F, I2F, F2I, I2B, I2C, I2S, ARRAYLENGTH, CHECKCAST, INSTANCEOF, NEWARRAY, ANEWARRAY -> {
+                pop(index);
+                push(OTHER);
+            }
+            case LNEG, I2L, F2L, D2L -> {
+                pop(index);
+                push(emitted(index));
+            }
+            case DNEG, I2D, L2D, F2D -> {
+                pop(index);
+                push(OTHER_WIDE);
+            }
+            case IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL, TABLESWITCH, LOOKUPSWITCH,
+                    IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, ATHROW, MONITORENTER, MONITOREXIT, PUTSTATIC -> pop(index);
+            case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE, PUTFIELD -> {
+                pop(index); pop(index);
+            }
+            case GETSTATIC -> pushOfType(Type.getType(((FieldInsnNode) instruction).desc), index);
+            case GETFIELD -> {
+                pop(index);
+                pushOfType(Type.getType(((FieldInsnNode) instruction).desc), index);
+            }
+            case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE, INVOKEDYNAMIC -> {
+                String descriptor = instruction instanceof MethodInsnNode methodCall ? methodCall.desc : ((InvokeDynamicInsnNode) instruction).desc;
+                int numArgs = MethodInfo.getNumArgs(descriptor);
+                if(opcode != INVOKESTATIC && opcode != INVOKEDYNAMIC) numArgs++;
+                for(int i = 0; i < numArgs; i++) pop(index);
+                pushOfType(Type.getReturnType(descriptor), index);
+            }
+            case MULTIANEWARRAY -> {
+                for(int i = 0; i < ((MultiANewArrayInsnNode) instruction).dims; i++) pop(index);
+                push(OTHER);
+            }
+            default -> throw new AnalyzerException(instruction, "Unsupported instruction " + opcode);
+        }
+    }
+
+    private BasicSourceValue emitted(int index){
+        return new BasicSourceValue(Type.LONG_TYPE, IndexSet.of(index));
+    }
+
+    private void pushOfType(Type type, int index){
+        switch (type.getSort()) {
+            case Type.VOID -> {}
+            case Type.LONG -> push(emitted(index));
+            case Type.DOUBLE -> push(OTHER_WIDE);
+            default -> push(OTHER);
+        }
+    }
+
+    private void push(BasicSourceValue value){
+        stack[stackSize++] = value;
+    }
+
+    /**
+     * Pops a value without consuming it, for instructions that only move values around on the stack
+     */
+    private BasicSourceValue take(){
+        return stack[--stackSize];
+    }
+
+    /**
+     * Pops a value that gets consumed by the instruction at {@code index}
+     */
+    private BasicSourceValue pop(int index){
+        BasicSourceValue value = stack[--stackSize];
+        if(recording){
+            if(numPopped == popped.length) popped = Arrays.copyOf(popped, numPopped * 2);
+            popped[numPopped++] = value;
+
+            IndexSet source = value.getSource();
+            for(int def = source.nextSetBit(0); def >= 0; def = source.nextSetBit(def + 1)){
+                defUse.add(def, index);
+            }
+        }
+        return value;
+    }
+
+    private void setLocal(int var, BasicSourceValue value){
+        if(var > 0 && locals[var - 1].getSize() == 2){
+            locals[var - 1] = OTHER;
+        }
+        locals[var] = value;
+        if(value.getSize() == 2){
+            locals[var + 1] = OTHER;
+        }
+    }
+}
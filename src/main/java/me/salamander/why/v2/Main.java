@@ -8,13 +8,18 @@ import me.salamander.why.debug.LocalVariableMapper;
 import me.salamander.why.debug.MethodModifier;
 import me.salamander.why.debug.patterns.BytecodePattern;
 import me.salamander.why.debug.patterns.PackedInequalityPattern;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.classpath.ClassPath;
+import me.salamander.why.v2.output.OutputSink;
 import me.salamander.why.v2.patterns2.BlockPosOffsetPattern;
 import me.salamander.why.v2.patterns2.CheckInvalidPosPattern;
+import me.salamander.why.v2.plan.MethodChecksum;
+import me.salamander.why.v2.plan.MethodPlan;
 import net.minecraft.util.math.Direction;
 import net.minecraft.world.chunk.light.ChunkBlockLightProvider;
 import net.minecraft.world.gen.chunk.NoiseChunkGenerator;
 import org.apache.commons.lang3.NotImplementedException;
-import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -26,90 +31,187 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Main {
-    private static Map<String, MethodInfo> methodInfo = new HashMap<>();
-    private static String[] unpackingMethods = new String[3];
-
-    public static void main(String[] args) {
-        ClassNode testClass = createClassNode(ChunkBlockLightProvider.class);
-
-        BasicSourceInterpreter interpreter = new BasicSourceInterpreter(Opcodes.ASM9);
-        Analyzer<BasicSourceValue> analyzer = new Analyzer<>(interpreter);
-        List<MethodNode> newMethods = new ArrayList<>();
-        for(MethodNode methodNode : testClass.methods){
-            System.out.println("Analyzing " + methodNode.name + " " + methodNode.desc);
-            try {
-                interpreter.clearCache();
-                analyzer.analyze(testClass.name, methodNode);
-                Frame<BasicSourceValue>[] frames = analyzer.getFrames();
-                AbstractInsnNode[] instructions = methodNode.instructions.toArray();
-                Map<AbstractInsnNode, Integer> instructionIndexMap = new HashMap<>(instructions.length);
-
-                //Create a map that can get the index of any instruction
-                for(int i = 0; i < instructions.length; i++){
-                    instructionIndexMap.put(instructions[i], i);
+    private static final boolean VERBOSE = Boolean.getBoolean("why.verbose");
+
+    public static void main(String[] args) throws IOException {
+        TransformContext context = TransformContext.load();
+        TransformCache cache = TransformCache.fromSystemProperties();
+
+        try(OutputSink sink = OutputSink.fromSystemProperties()){
+            String className = Type.getInternalName(ChunkBlockLightProvider.class);
+            String key = null;
+            if(cache != null){
+                key = cache.key(className, ClassPath.system().getClassBytes(className));
+                TransformCache.Entry entry = cache.get(key);
+                if(entry != null && entry.transformed()){
+                    System.out.println("Using cached " + className);
+                    sink.writeClass(className, entry.toBytes());
+                    return;
                 }
+            }
 
-                //Consumer info allows for easy lookup of what a value gets consumed by
-                Map<BasicSourceValue, Set<Integer>> consumers = mapConsumerCache(interpreter.getConsumers(), instructionIndexMap);
+            byte[] bytes;
+            if(SelectiveClassTransformer.isEnabled()){
+                bytes = new SelectiveClassTransformer(new ClassTransformer(context)).transform(ClassPath.system().getClassBytes(className));
+            }else{
+                ClassNode testClass = createClassNode(ChunkBlockLightProvider.class);
 
-                //Figure out what variables should turned into 3ints
-                Set<Integer> expandedVariables = getExpandedVariables(frames, instructions, consumers);
+                new ClassTransformer(context).transform(testClass);
 
-                //Apply those changes
-                MethodNode newMethod = modifyMethod(methodNode, frames, consumers, expandedVariables, instructionIndexMap);
+                ClassWriter classWriter = new ClassWriter(0);
+                testClass.accept(classWriter);
+                bytes = classWriter.toByteArray();
+            }
 
-                if(newMethod != null){
-                    newMethods.add(newMethod);
-                }
+            if(bytes != null){
+                sink.writeClass(className, bytes);
+                System.out.println("Saved " + className);
+            }
+            if(cache != null && bytes != null) cache.put(key, bytes);
+        }
+    }
 
-                if(methodNode.localVariables == null){
-                    System.out.println("\tExpanded Variables: " + expandedVariables);
-                }else{
-                    StringBuilder varNames = new StringBuilder();
-                    Set<Integer> remaining = new HashSet<>(expandedVariables);
-                    for(LocalVariableNode localVar : methodNode.localVariables){
-                        if(remaining.contains(localVar.index)){
-                            varNames.append(localVar.name).append(" ");
-                            remaining.remove(localVar.index);
-                        }
-                    }
+    /**
+     * Analyzes and transforms a single method within its own {@link AnalysisBudget}. Nothing that goes wrong here affects any other method.
+     * Can be called from any thread
+     * @return The transformed copy of the method, or null if nothing changed or the method couldn't be transformed. The original is never modified
+     */
+    static MethodNode transformMethod(TransformContext context, String owner, MethodNode methodNode){
+        PlannedMethod planned = planAndTransformMethod(context, owner, methodNode);
+        return planned == null ? null : planned.method();
+    }
 
-                    for(int index: remaining){
-                        varNames.append("var").append(index).append(" ");
-                    }
+    /**
+     * Same as {@link #transformMethod(TransformContext, String, MethodNode)} but also returns the plan of the transformation, which
+     * {@link #replayMethod(TransformContext, String, MethodNode, MethodPlan)} can apply to the same method again without analyzing it
+     * @return The transformed copy of the method and its plan, or null if nothing changed or the method couldn't be transformed
+     */
+    public static PlannedMethod planAndTransformMethod(TransformContext context, String owner, MethodNode methodNode){
+        //Without a config method there is nothing for the analysis to find, so don't run it
+        if(!mayTransform(context, owner, methodNode)) return null;
 
-                    System.out.println("\tExpanded Variables: { " + varNames + "}");
-                }
-            }catch (AnalyzerException e){
-                e.printStackTrace();
+        if(isVerbose()) System.out.println("Analyzing " + methodNode.name + " " + methodNode.desc);
+        AnalysisBudget budget = AnalysisBudget.forMethod();
+        try {
+            SourceAnalysis analysis = AnalysisEngine.get().analyze(owner, methodNode, context.getMode(), budget);
+            AbstractInsnNode[] instructions = methodNode.instructions.toArray();
+
+            //Figure out what variables should turned into 3ints
+            Set<Integer> expandedVariables = getExpandedVariables(analysis, instructions, context.getMethodInfo());
+            budget.check();
+
+            //Apply those changes
+            MethodPlan plan = planMethod(methodNode, analysis, instructions, expandedVariables);
+            PlannedMethod newMethod = modifyMethod(context, owner, methodNode, plan, budget);
+
+            if(isVerbose()) printExpandedVariables(methodNode, expandedVariables);
+
+            return newMethod;
+        }catch (AnalysisBudget.Exceeded e){
+            System.out.println("Warning: Gave up on " + methodNode.name + " " + methodNode.desc + ": " + e.getMessage() + ". Keeping the original");
+        }catch (AnalyzerException e){
+            System.out.println("Warning: Couldn't analyze " + methodNode.name + " " + methodNode.desc + ". Keeping the original");
+            e.printStackTrace();
+        }catch (RuntimeException e){
+            System.out.println("Warning: Couldn't transform " + methodNode.name + " " + methodNode.desc + ". Keeping the original");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the method is in the config or calls a method that is. Every expanded variable and rewritten call starts at such a call
+     */
+    public static boolean mayTransform(TransformContext context, String owner, MethodNode methodNode){
+        if(context.isConfigMethod(owner + "#" + methodNode.name + " " + methodNode.desc)) return true;
+
+        for(AbstractInsnNode instruction : methodNode.instructions){
+            if(instruction instanceof MethodInsnNode methodCall && context.isConfigMethod(methodCall.owner + "#" + methodCall.name + " " + methodCall.desc)){
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Transforms a method the way a plan made by {@link #planAndTransformMethod(TransformContext, String, MethodNode)} says, without analyzing
+     * it. Falls back to transforming it from scratch if the method isn't the one the plan was made for or the plan doesn't fit it
+     * @return The transformed copy of the method, or null if nothing changed or the method couldn't be transformed
+     */
+    public static MethodNode replayMethod(TransformContext context, String owner, MethodNode methodNode, MethodPlan plan){
+        if(!plan.isComplete() || MethodChecksum.of(methodNode) != plan.checksum()){
+            System.out.println("Warning: The plan of " + methodNode.name + " " + methodNode.desc + " is outdated. Transforming it from scratch");
+            return transformMethod(context, owner, methodNode);
+        }
+
+        try {
+            PlannedMethod replayed = modifyMethod(context, owner, methodNode, plan, AnalysisBudget.UNLIMITED);
+            return replayed == null ? null : replayed.method();
+        }catch (RuntimeException e){
+            System.out.println("Warning: Couldn't replay the plan of " + methodNode.name + " " + methodNode.desc + ": " + e + ". Transforming it from scratch");
+            return transformMethod(context, owner, methodNode);
+        }
+    }
+
+    /**
+     * Records everything {@link #modifyMethod(TransformContext, String, MethodNode, MethodPlan, AnalysisBudget)} needs from the analysis: the
+     * expanded variables and, for every reachable call that takes longs, which instructions may have pushed them
+     */
+    private static MethodPlan planMethod(MethodNode methodNode, SourceAnalysis analysis, AbstractInsnNode[] instructions, Set<Integer> expandedVariables){
+        List<MethodPlan.CallSite> callSites = new ArrayList<>();
+        for(int i = 0; i < instructions.length; i++){
+            if(!(instructions[i] instanceof MethodInsnNode methodCall) || !analysis.isReachable(i)) continue;
 
-        testClass.methods.addAll(newMethods);
+            boolean isStatic = methodCall.getOpcode() == Opcodes.INVOKESTATIC;
+            Type[] argumentTypes = Type.getArgumentTypes(methodCall.desc);
+            int numArgs = argumentTypes.length + (isStatic ? 0 : 1);
+            int firstArgIndex = analysis.getStackSize(i) - numArgs;
 
-        MethodModifier.saveClass(testClass, "");
+            List<Integer> longArguments = new ArrayList<>();
+            for(int arg = 0; arg < argumentTypes.length; arg++){
+                if(argumentTypes[arg].getSort() == Type.LONG){
+                    longArguments.add(isStatic ? arg : arg + 1);
+                }
+            }
+            if(longArguments.isEmpty()) continue;
+
+            int[] arguments = new int[longArguments.size()];
+            int[][] emitters = new int[arguments.length][];
+            for(int arg = 0; arg < arguments.length; arg++){
+                arguments[arg] = longArguments.get(arg);
+                emitters[arg] = analysis.getStack(i, firstArgIndex + arguments[arg]).getSource().toArray();
+            }
+            callSites.add(new MethodPlan.CallSite(i, arguments, emitters));
+        }
+
+        int[] expanded = expandedVariables.stream().mapToInt(Integer::intValue).sorted().toArray();
+        return new MethodPlan(methodNode.name, methodNode.desc, MethodChecksum.of(methodNode), expanded, callSites, null, null);
     }
 
     /**
      * Changes the methods code in order to make it use triple ints where necessary. Will report any changes that could not/should be done
-     * @param frames The frames of the method created by a {@code BasicSourceInterpreter} and {@code Analyzer<BasicSourceNode>}
-     * @param consumers The consumer information generated by the interpreter
-     * @param expandedVariables The variables indices that should be expanded
-     * @param instructionIndexMap
-     * @return A modified copy of the method or null if no changes were done
+     * @param plan What the analysis found out about the original method. If it doesn't say which patterns to apply and which branches to fold,
+     *             they are looked for and added to the plan
+     * @param budget Checked between the steps of the transformation
+     * @return A modified copy of the method and the completed plan or null if no changes were done
      */
-    private static MethodNode modifyMethod(MethodNode methodNode, Frame<BasicSourceValue>[] frames, Map<BasicSourceValue, Set<Integer>> consumers, Set<Integer> expandedVariables, Map<AbstractInsnNode, Integer> instructionIndexMap) {
-        //Copy the whole method
+    private static PlannedMethod modifyMethod(TransformContext context, String owner, MethodNode methodNode, MethodPlan plan, AnalysisBudget budget) {
+        //Copy the whole method and make its frames independent of the descriptor, which is about to change
         MethodNode newMethod = MethodModifier.copy(methodNode);
+        FrameRemapper.expandFrames(owner, newMethod);
         boolean changedAnything = false;
+        boolean expandedStack = false;
 
         //Create the variable mapper
+        Set<Integer> expandedVariables = new HashSet<>();
         LocalVariableMapper variableMapper = new LocalVariableMapper();
-        for(int var : expandedVariables){
+        for(int var : plan.expandedVariables()){
+            expandedVariables.add(var);
             variableMapper.addTransformedParameter(var);
             changedAnything = true;
         }
@@ -146,94 +248,119 @@ public class Main {
         }
 
         //Then change all accesses and uses of packed variables
-        for(int i = 0; i < instructions.length; i++){
-            AbstractInsnNode instruction = instructions[i];
+        for(MethodPlan.CallSite callSite : plan.callSites()){
+            int i = callSite.index();
+            if(!(instructions[i] instanceof MethodInsnNode methodCall)){
+                throw new IllegalStateException("Instruction " + i + " isn't a method call");
+            }
 
-            if(instruction instanceof MethodInsnNode methodCall){
-                String methodID = methodCall.owner + "#" + methodCall.name + " " + methodCall.desc;
-                boolean wasUnpacked = false;
-                for(int axis = 0; axis < 3; axis++){
-                    //Find if this is an unpacking method and if so modify it's emitter
-                    if(unpackingMethods[axis].equals(methodID)){
-                        wasUnpacked = true;
-                        newMethod.instructions.remove(methodCall);
-
-                        Set<AbstractInsnNode> emitters = topOfFrame(frames[i]).getSource();
-                        for(AbstractInsnNode otherEmitter: emitters){ //otherEmitter is an instruction from the original method and should NOT be modified
-                            int emitterIndex = instructionIndexMap.get(otherEmitter);
-                            AbstractInsnNode emitter = instructions[emitterIndex];
-                            modifyPosEmitter(frames, instructions, emitter, emitterIndex, newMethod.instructions, variableMapper, axis, instructionIndexMap, consumers);
-                        }
-                        break;
-                    }
-                }
+            //Figure out the amount of arguments this method call takes
+            boolean isStatic = methodCall.getOpcode() == Opcodes.INVOKESTATIC;
 
-                //Only runs if the previous section changed nothing
-                if(!wasUnpacked){
-                    MethodInfo methodInfo;
-                    String newName = methodCall.name;
-                    String newOwner = methodCall.owner;
-                    String descriptorVerifier = null;
-                    if((methodInfo = Main.methodInfo.get(methodID)) != null){
-                        if(methodInfo.returnsPackedBlockPos()){
-                            continue;
-                        }
+            int numArgs = MethodInfo.getNumArgs(methodCall.desc);
+            if(!isStatic){
+                numArgs++;
+            }
 
-                        newName = methodInfo.getNewName();
-                        newOwner = methodInfo.getNewOwner();
-                        descriptorVerifier = methodInfo.getNewDesc();
+            String methodID = methodCall.owner + "#" + methodCall.name + " " + methodCall.desc;
+            boolean wasUnpacked = false;
+            for(int axis = 0; axis < 3; axis++){
+                //Find if this is an unpacking method and if so modify it's emitter
+                if(context.getUnpackingMethod(axis).equals(methodID)){
+                    wasUnpacked = true;
+                    newMethod.instructions.remove(methodCall);
+
+                    for(int emitterIndex : callSite.getEmitters(numArgs - 1)){
+                        AbstractInsnNode emitter = instructions[emitterIndex];
+                        expandedStack |= modifyPosEmitter(context, instructions, emitter, emitterIndex, newMethod.instructions, variableMapper, axis);
                     }
+                    break;
+                }
+            }
 
-                    //Figure out the amount of arguments this method call takes and their locations on the stack
-                    boolean isStatic = methodCall.getOpcode() == Opcodes.INVOKESTATIC;
-
-                    int numArgs = MethodInfo.getNumArgs(methodCall.desc);
-                    if(!isStatic){
-                        numArgs++;
+            //Only runs if the previous section changed nothing
+            if(!wasUnpacked){
+                MethodInfo methodInfo;
+                String newName = methodCall.name;
+                String newOwner = methodCall.owner;
+                String descriptorVerifier = null;
+                if((methodInfo = context.getMethodInfo(methodID)) != null){
+                    if(methodInfo.returnsPackedBlockPos()){
+                        continue;
                     }
 
-                    int firstArgIndex = frames[i].getStackSize() - numArgs;
-
-                    //This will record what parameters get turned into 3 ints to change the method signature correctly
-                    List<Integer> expandedIndices = new ArrayList<>();
-
+                    newName = methodInfo.getNewName();
+                    newOwner = methodInfo.getNewOwner();
+                    descriptorVerifier = methodInfo.getNewDesc();
+                }
 
-                    for(int offset = 0; offset < numArgs; offset++){
-                        //Get argument value from current frame
-                        BasicSourceValue argument = frames[i].getStack(firstArgIndex + offset);
-                        for(AbstractInsnNode otherEmitter: argument.getSource()){
-                            int emitterIndex = instructionIndexMap.get(otherEmitter);
-                            //Get the emitter
-                            AbstractInsnNode emitter = instructions[emitterIndex];
-                            //Check if the emitter should be turned into a 3int emitter and if so track that and modify the emitter
-                            if(modifyPosEmitter(frames, instructions, emitter, emitterIndex, newMethod.instructions, variableMapper, -1, instructionIndexMap, consumers)){
-                                expandedIndices.add(offset);
-                            }
+                //This will record what parameters get turned into 3 ints to change the method signature correctly
+                List<Integer> expandedIndices = new ArrayList<>();
+
+                //Only longs can be packed positions so the other arguments aren't part of the plan
+                for(int arg = 0; arg < callSite.arguments().length; arg++){
+                    int offset = callSite.arguments()[arg];
+                    for(int emitterIndex : callSite.emitters()[arg]){
+                        //Get the emitter
+                        AbstractInsnNode emitter = instructions[emitterIndex];
+                        //Check if the emitter should be turned into a 3int emitter and if so track that and modify the emitter
+                        if(modifyPosEmitter(context, instructions, emitter, emitterIndex, newMethod.instructions, variableMapper, -1)){
+                            expandedIndices.add(offset);
+                            expandedStack = true;
                         }
                     }
+                }
 
-                    //Modify the descriptor
-                    String newDescriptor = modifyDescriptor(methodCall.desc, expandedIndices, isStatic, false);
-                    assert descriptorVerifier == null || descriptorVerifier.equals(newDescriptor);
+                //Modify the descriptor
+                String newDescriptor = modifyDescriptor(methodCall.desc, expandedIndices, isStatic, false);
+                assert descriptorVerifier == null || descriptorVerifier.equals(newDescriptor);
 
-                    //Log transformation and change method call info
-                    if(!newDescriptor.equals(methodCall.desc)) {
-                        System.out.println("Info: Transforming " + methodID + " into " + newOwner + "#" + newName + " " + newDescriptor);
-                        methodCall.owner = newOwner;
-                        methodCall.name = newName;
-                        methodCall.desc = newDescriptor;
-                    }
+                //Log transformation and change method call info
+                if(!newDescriptor.equals(methodCall.desc)) {
+                    if(isVerbose()) System.out.println("Info: Transforming " + methodID + " into " + newOwner + "#" + newName + " " + newDescriptor);
+                    methodCall.owner = newOwner;
+                    methodCall.name = newName;
+                    methodCall.desc = newDescriptor;
                 }
             }
         }
 
-        //Apply extra patterns for some more precise changes
+        //Apply extra patterns for some more precise changes. A plan refers to them by their position in this list
         List<BytecodePattern> patterns = new ArrayList<>();
         patterns.add(new BlockPosOffsetPattern());
         patterns.add(new CheckInvalidPosPattern());
         patterns.add(new PackedInequalityPattern());
 
-        MethodModifier.applyPatterns(newMethod.instructions, variableMapper, patterns);
+        List<MethodPlan.PatternApplication> applications = plan.patterns();
+        if(applications == null){
+            List<MethodPlan.PatternApplication> found = new ArrayList<>();
+            List<BytecodePattern> recording = new ArrayList<>();
+            for(int id = 0; id < patterns.size(); id++){
+                BytecodePattern pattern = patterns.get(id);
+                int patternID = id;
+                recording.add((insnList, mapper, index) -> {
+                    if(!pattern.apply(insnList, mapper, index)) return false;
+                    found.add(new MethodPlan.PatternApplication(index, patternID));
+                    return true;
+                });
+            }
+            MethodModifier.applyPatterns(newMethod.instructions, variableMapper, recording);
+            applications = found;
+        }else{
+            for(MethodPlan.PatternApplication application : applications){
+                if(!patterns.get(application.pattern()).apply(newMethod.instructions, variableMapper, application.index())){
+                    throw new IllegalStateException("Pattern " + application.pattern() + " doesn't match at " + application.index());
+                }
+            }
+        }
+        budget.check();
+
+        //Remove sentinel and bounds checks that always or never pass now that the coordinates are separate ints
+        List<BranchFolder.Fold> folds = plan.folds() == null ? BranchFolder.findFolds(newMethod, budget) : plan.folds();
+        BranchFolder.applyFolds(newMethod, folds);
+        if(!folds.isEmpty() && isVerbose()){
+            System.out.println("Info: Folded " + folds.size() + " branches in " + newMethod.name);
+        }
 
         //Create local variable name table
         List<LocalVariableNode> localVariables = new ArrayList<>();
@@ -249,17 +376,18 @@ public class Main {
             }
         }
 
-        System.out.println(localVariables.size());
+        if(isVerbose()) System.out.println(localVariables.size());
 
         newMethod.localVariables = localVariables;
         newMethod.parameters = null;
 
-        return changedAnything ? newMethod : null;
+        FrameRemapper.remapFrames(owner, newMethod, variableMapper, expandedStack || !applications.isEmpty());
+
+        return changedAnything ? new PlannedMethod(newMethod, plan.complete(applications, folds)) : null;
     }
 
     /**
      * Modifies an instruction or series of instructions that emit a packed position so as to only emit a single int representing one of the 3 coordinates or emit all 3
-     * @param frames Array of frames generated by an Evaluator
      * @param instructions Array of instructions
      * @param emitter Instruction that emitted that packed block position
      * @param integer Index into {@code instructions} of emitter
@@ -267,7 +395,7 @@ public class Main {
      * @param offset Should be 0 for x-coordinate, 1 for y, 2 for z and -1 for all 3
      * @return Whether or not any modifications occurred i.e If the instruction actually emits a packed pos
      */
-    private static boolean modifyPosEmitter(Frame<BasicSourceValue>[] frames, AbstractInsnNode[] instructions, AbstractInsnNode emitter, Integer integer, InsnList insnList, LocalVariableMapper variableMapper, int offset, Map<AbstractInsnNode, Integer> instructionIndexMap, Map<BasicSourceValue, Set<Integer>> consumers) {
+    private static boolean modifyPosEmitter(TransformContext context, AbstractInsnNode[] instructions, AbstractInsnNode emitter, int integer, InsnList insnList, LocalVariableMapper variableMapper, int offset) {
         if(emitter.getOpcode() == Opcodes.LLOAD){
             VarInsnNode loader = (VarInsnNode) emitter;
             if(!variableMapper.isARemappedTransformedLong(loader.var)){
@@ -287,7 +415,7 @@ public class Main {
         }else if(emitter instanceof VarInsnNode) {
             return false; //Any other VarInsnNode is just a normal local variable
         }else if(emitter instanceof LdcInsnNode constantLoad){
-            System.out.println("Expanding Constant");
+            if(isVerbose()) System.out.println("Expanding Constant");
             //Expand Long.MAX_VALUE to 3 Integer.MAX_VALUE
             if(constantLoad.cst instanceof Long && (Long) constantLoad.cst == Long.MAX_VALUE){
                 int amount = offset == -1 ? 3 : 1;
@@ -303,7 +431,7 @@ public class Main {
             return false;
         }else if(emitter instanceof MethodInsnNode methodCall){
             String methodID = methodCall.owner + "#" + methodCall.name + " " + methodCall.desc;
-            MethodInfo methodInfo = Main.methodInfo.get(methodID);
+            MethodInfo methodInfo = context.getMethodInfo(methodID);
             if(methodInfo != null){
                 //Change BlockPos.asLong() calls to three separate calls to getX, getY and getZ
                 if(methodInfo.returnsPackedBlockPos()){
@@ -379,48 +507,38 @@ public class Main {
         return Type.getMethodDescriptor(returnType, newArgumentTypes.toArray(Type[]::new));
     }
 
-    private static Map<BasicSourceValue, Set<Integer>> mapConsumerCache(Map<BasicSourceValue, Set<AbstractInsnNode>> consumers, Map<AbstractInsnNode, Integer> instructionIndexMap) {
-        Map<BasicSourceValue, Set<Integer>> mapped = new HashMap<>();
-
-        for(Map.Entry<BasicSourceValue, Set<AbstractInsnNode>> entry: consumers.entrySet()){
-            mapped.put(entry.getKey(), entry.getValue().stream().map(instructionIndexMap::get).collect(Collectors.toSet()));
-        }
-
-        return mapped;
-    }
-
-    private static Set<Integer> getExpandedVariables(Frame<BasicSourceValue>[] frames, AbstractInsnNode[] instructions, Map<BasicSourceValue, Set<Integer>> consumerInfo) {
-        Set<Integer> expandedVariables = new HashSet<>();
-        Set<Integer> placesWherePackedBlockPosAreProduced = new HashSet<>();
+    /**
+     * Finds the local variables that hold packed block positions
+     * @param methodInfo What is known about the methods that get called. Only these calls can introduce packed positions
+     * @return The indices of the variables that should be expanded
+     */
+    public static Set<Integer> getExpandedVariables(SourceAnalysis analysis, AbstractInsnNode[] instructions, Map<String, MethodInfo> methodInfo) {
+        DefUseTable defUse = analysis.getDefUse();
+        ExpansionWorklist worklist = new ExpansionWorklist(instructions);
 
         //Inspect ALL method calls. This only has to be done once
-        for(int i = 0; i < frames.length; i++){
+        for(int i = 0; i < instructions.length; i++){
             AbstractInsnNode instruction = instructions[i];
-            if(instruction instanceof MethodInsnNode methodCall){
+            if(instruction instanceof MethodInsnNode methodCall && analysis.isReachable(i)){
                 String methodName = methodCall.owner + "#" + methodCall.name + " " + methodCall.desc;
-                MethodInfo methodInfo = Main.methodInfo.get(methodName);
-                if(methodInfo == null) continue;
-
-                Frame<BasicSourceValue> currentFrame = frames[i];
-                int firstArgIndex = currentFrame.getStackSize() - methodInfo.getNumArgs();
-                if(methodInfo.hasPackedArguments()){
-                    for(int packedArgument : methodInfo.getExpandedIndices()){
-                        BasicSourceValue valueOnStack = currentFrame.getStack(firstArgIndex + packedArgument);
+                MethodInfo calledMethod = methodInfo.get(methodName);
+                if(calledMethod == null) continue;
+
+                int firstArgIndex = analysis.getStackSize(i) - calledMethod.getNumArgs();
+                if(calledMethod.hasPackedArguments()){
+                    for(int packedArgument : calledMethod.getExpandedIndices()){
+                        BasicSourceValue valueOnStack = analysis.getStack(i, firstArgIndex + packedArgument);
                         if(valueOnStack != null){
-                            expandedVariables.addAll(valueOnStack.getLocalVars());
+                            worklist.expandAll(valueOnStack.getLocalVars());
                         }
                     }
                 }
 
-                if(methodInfo.returnsPackedBlockPos()){
-                    Frame<BasicSourceValue> nextFrame = frames[i + 1];
-                    BasicSourceValue top = topOfFrame(nextFrame);
-                    Set<Integer> consumerIndices = consumerInfo.get(top);
-                    placesWherePackedBlockPosAreProduced.add(i);
-                    for(int consumerIndex : consumerIndices){
-                        AbstractInsnNode consumer = instructions[consumerIndex];
+                if(calledMethod.returnsPackedBlockPos()){
+                    for(int n = 0; n < defUse.getConsumerCount(i); n++){
+                        AbstractInsnNode consumer = instructions[defUse.getConsumer(i, n)];
                         if(consumer instanceof VarInsnNode storeInstruction){
-                            expandedVariables.add(storeInstruction.var);
+                            worklist.expand(storeInstruction.var);
                         }else{
                             //System.out.println("Unhandled Consumer Instruction: " + insnToString(instruction));
                         }
@@ -429,45 +547,127 @@ public class Main {
             }
         }
 
-        //Until no more packed local variables are found look at their usages to find more
-        boolean changed = true;
-        while(changed){
-            changed = false;
-            for(int i = 0; i < frames.length; i++){
-                if(instructions[i].getOpcode() == Opcodes.LLOAD){
-                    VarInsnNode loadInsn = (VarInsnNode) instructions[i];
-                    if(expandedVariables.contains(loadInsn.var)){
-                        if(placesWherePackedBlockPosAreProduced.add(i)){
-                            Set<Integer> consumers = consumerInfo.get(topOfFrame(frames[i + 1]));
-                            BasicSourceValue loadedLong = frames[i+1].getStack(frames[i+1].getStackSize() - 1);
-
-                            for(int consumerIndex: consumers){
-                                AbstractInsnNode consumer = instructions[consumerIndex];
-                                Frame<BasicSourceValue> frame = frames[consumerIndex];
-                                if(consumer.getOpcode() == Opcodes.LCMP){
-                                    BasicSourceValue operandOne = frame.getStack(frame.getStackSize() - 1);
-                                    BasicSourceValue operandTwo = frame.getStack(frame.getStackSize() - 2);
-
-                                    if(operandOne != loadedLong){
-                                        if(expandedVariables.addAll(operandOne.getLocalVars())){
-                                            changed = true;
-                                        }
-                                    }else{
-                                        if(expandedVariables.addAll(operandTwo.getLocalVars())){
-                                            changed = true;
-                                        }
-                                    }
-                                }else{
-                                    //System.out.println("Unhandled Consumer Instruction: " + insnToString(consumer));
-                                }
-                            }
+        //Every time a variable gets expanded look at its loads and stores to find more
+        int var;
+        while ((var = worklist.poll()) != -1){
+            for(int n = 0; n < worklist.getAccessCount(var); n++){
+                int i = worklist.getAccess(var, n);
+                if(!analysis.isReachable(i)) continue;
+
+                if(instructions[i].getOpcode() == Opcodes.LSTORE){
+                    //Whatever gets stored in a packed variable is packed too
+                    BasicSourceValue stored = topOfStack(analysis, i);
+                    worklist.expandAll(stored.getLocalVars());
+                    continue;
+                }
+
+                for(int m = 0; m < defUse.getConsumerCount(i); m++){
+                    int consumerIndex = defUse.getConsumer(i, m);
+                    AbstractInsnNode consumer = instructions[consumerIndex];
+                    if(consumer.getOpcode() == Opcodes.LCMP){
+                        int stackSize = analysis.getStackSize(consumerIndex);
+                        BasicSourceValue operandOne = analysis.getStack(consumerIndex, stackSize - 1);
+                        BasicSourceValue operandTwo = analysis.getStack(consumerIndex, stackSize - 2);
+
+                        //Expand whichever operand isn't the long that was just loaded
+                        if(!operandOne.getSource().contains(i)){
+                            worklist.expandAll(operandOne.getLocalVars());
+                        }else{
+                            worklist.expandAll(operandTwo.getLocalVars());
                         }
+                    }else if(consumer.getOpcode() == Opcodes.LSTORE){
+                        worklist.expand(((VarInsnNode) consumer).var);
+                    }else{
+                        //System.out.println("Unhandled Consumer Instruction: " + insnToString(consumer));
                     }
                 }
             }
         }
 
-        return expandedVariables;
+        return worklist.getExpanded();
+    }
+
+    /**
+     * Tracks which local variables are expanded. Each variable goes through the worklist at most once, when it first gets expanded
+     */
+    private static class ExpansionWorklist {
+        private final BitSet expanded = new BitSet();
+        private int[] worklist = new int[8];
+        private int worklistSize = 0;
+
+        //LLOAD and LSTORE instructions of each variable
+        private final int[] accessOffsets;
+        private final int[] accesses;
+
+        ExpansionWorklist(AbstractInsnNode[] instructions){
+            int numVars = 0;
+            int numAccesses = 0;
+            for(AbstractInsnNode instruction : instructions){
+                if(isLongAccess(instruction)){
+                    numVars = Math.max(numVars, ((VarInsnNode) instruction).var + 1);
+                    numAccesses++;
+                }
+            }
+
+            accessOffsets = new int[numVars + 1];
+            for(AbstractInsnNode instruction : instructions){
+                if(isLongAccess(instruction)){
+                    accessOffsets[((VarInsnNode) instruction).var + 1]++;
+                }
+            }
+            for(int var = 0; var < numVars; var++){
+                accessOffsets[var + 1] += accessOffsets[var];
+            }
+
+            accesses = new int[numAccesses];
+            int[] position = Arrays.copyOf(accessOffsets, numVars);
+            for(int i = 0; i < instructions.length; i++){
+                if(isLongAccess(instructions[i])){
+                    accesses[position[((VarInsnNode) instructions[i]).var]++] = i;
+                }
+            }
+        }
+
+        private static boolean isLongAccess(AbstractInsnNode instruction){
+            return instruction.getOpcode() == Opcodes.LLOAD || instruction.getOpcode() == Opcodes.LSTORE;
+        }
+
+        void expand(int var){
+            if(expanded.get(var)) return;
+            expanded.set(var);
+
+            if(worklistSize == worklist.length) worklist = Arrays.copyOf(worklist, worklistSize * 2);
+            worklist[worklistSize++] = var;
+        }
+
+        void expandAll(IndexSet vars){
+            for(int var = vars.nextSetBit(0); var >= 0; var = vars.nextSetBit(var + 1)){
+                expand(var);
+            }
+        }
+
+        /**
+         * @return The next variable to look at or -1 if there are none left
+         */
+        int poll(){
+            return worklistSize == 0 ? -1 : worklist[--worklistSize];
+        }
+
+        int getAccessCount(int var){
+            return var + 1 < accessOffsets.length ? accessOffsets[var + 1] - accessOffsets[var] : 0;
+        }
+
+        int getAccess(int var, int n){
+            return accesses[accessOffsets[var] + n];
+        }
+
+        Set<Integer> getExpanded(){
+            Set<Integer> expandedVariables = new LinkedHashSet<>();
+            for(int var = expanded.nextSetBit(0); var >= 0; var = expanded.nextSetBit(var + 1)){
+                expandedVariables.add(var);
+            }
+            return expandedVariables;
+        }
     }
 
     private static String insnToString(AbstractInsnNode instruction){
@@ -486,47 +686,86 @@ public class Main {
         return instruction.toString() + " " + instruction.getOpcode();
     }
 
-    private static <T extends Value> T topOfFrame(Frame<T> frame) {
-        return frame.getStack(frame.getStackSize() - 1);
+    private static BasicSourceValue topOfStack(SourceAnalysis analysis, int insnIndex) {
+        return analysis.getStack(insnIndex, analysis.getStackSize(insnIndex) - 1);
     }
 
 
 
-    public static ClassNode createClassNode(Class<?> clazz){
-        ClassNode node = new ClassNode();
-        try
-        {
-            String fileName = clazz.getName().replace('.', '/') + ".class";
-            ClassReader reader = new ClassReader(ClassLoader.getSystemResourceAsStream(fileName));
-            reader.accept(node, 0);
-
-            return node;
-        } catch (IOException e)
-        {
-            e.printStackTrace();
+    private static void printExpandedVariables(MethodNode methodNode, Set<Integer> expandedVariables){
+        if(methodNode.localVariables == null){
+            System.out.println("\tExpanded Variables: " + expandedVariables);
+        }else{
+            StringBuilder varNames = new StringBuilder();
+            Set<Integer> remaining = new HashSet<>(expandedVariables);
+            for(LocalVariableNode localVar : methodNode.localVariables){
+                if(remaining.contains(localVar.index)){
+                    varNames.append(localVar.name).append(" ");
+                    remaining.remove(localVar.index);
+                }
+            }
+
+            for(int index: remaining){
+                varNames.append("var").append(index).append(" ");
+            }
+
+            System.out.println("\tExpanded Variables: { " + varNames + "}");
         }
+    }
 
-        throw new RuntimeException("Couldn't create ClassNode for class " + clazz.getName());
+    /**
+     * @return Whether to print what happens to every method and call site, set with the {@code why.verbose} system property. Warnings are
+     * always printed
+     */
+    public static boolean isVerbose(){
+        return VERBOSE;
     }
 
-    static {
-        JsonParser parser = new JsonParser();
-        JsonObject root;
+    /**
+     * Parses a new node of the class from the indexed {@link ClassPath#system() class path}
+     */
+    public static ClassNode createClassNode(Class<?> clazz){
+        return ClassPath.system().createClassNode(Type.getInternalName(clazz), 0);
+    }
+
+    /**
+     * Loads the config from the file given by the {@code why.config} system property, for example one generated by the summary pass.
+     * Falls back to the bundled {@code config.json}
+     */
+    public static JsonObject loadConfig(){
+        return new JsonParser().parse(new String(loadConfigBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    /**
+     * @return The unparsed JSON that {@link #loadConfig()} reads
+     */
+    public static byte[] loadConfigBytes(){
+        String configPath = System.getProperty("why.config");
         try {
-            InputStream is = Main.class.getResourceAsStream("/config.json");
-            root = parser.parse(new String(is.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            if(configPath != null){
+                return Files.readAllBytes(Path.of(configPath));
+            }
+            try(InputStream is = Main.class.getResourceAsStream("/config.json")){
+                return is.readAllBytes();
+            }
         } catch (IOException e) {
             throw new IllegalStateException("Couldn't load config", e);
         }
+    }
 
-        JsonObject methodInfo = root.getAsJsonObject().get("method_info").getAsJsonObject();
-        for(Map.Entry<String, JsonElement> entry: methodInfo.entrySet()){
+    public static Map<String, MethodInfo> readMethodInfo(JsonObject root){
+        Map<String, MethodInfo> methodInfo = new HashMap<>();
+        JsonObject methodInfoJson = root.get("method_info").getAsJsonObject();
+        for(Map.Entry<String, JsonElement> entry: methodInfoJson.entrySet()){
             String[] parts = entry.getKey().split(" ");
             String[] moreParts = parts[0].split("#");
-            Main.methodInfo.put(entry.getKey(), new MethodInfo(entry.getValue().getAsJsonObject(), moreParts[0], moreParts[1], parts[1]));
+            methodInfo.put(entry.getKey(), new MethodInfo(entry.getValue().getAsJsonObject(), moreParts[0], moreParts[1], parts[1]));
         }
-
-        JsonArray unpackers = root.get("unpacking").getAsJsonArray();
-        for(int i = 0; i < 3; i++) unpackingMethods[i] = unpackers.get(i).getAsString();
+        return methodInfo;
     }
+
+    /**
+     * A transformed method and the plan that reproduces it
+     */
+    public record PlannedMethod(MethodNode method, MethodPlan plan) {}
 }
@@ -0,0 +1,135 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * When a method couldn't be transformed, the transformed methods that call it still call its 3-int version. A bridge provides that version by
+ * packing the coordinates back into a long with {@code BlockPos.asLong} and calling the original method
+ */
+public class MethodBridges {
+    /**
+     * @param classNode The class with the original methods
+     * @param newMethods The transformed methods that will be added to the class
+     * @return Bridges for the methods of this class that get called by the new methods but don't exist
+     */
+    public static List<MethodNode> createMissingBridges(ClassNode classNode, Collection<MethodNode> newMethods){
+        Set<String> existing = new HashSet<>();
+        for(MethodNode method : classNode.methods) existing.add(method.name + " " + method.desc);
+        for(MethodNode method : newMethods) existing.add(method.name + " " + method.desc);
+
+        List<MethodNode> bridges = new ArrayList<>();
+        for(MethodNode method : newMethods){
+            for(AbstractInsnNode instruction : method.instructions){
+                if(!(instruction instanceof MethodInsnNode methodCall) || !methodCall.owner.equals(classNode.name)) continue;
+                if(existing.contains(methodCall.name + " " + methodCall.desc)) continue;
+
+                MethodNode bridge = createBridge(classNode, methodCall.name, methodCall.desc);
+                if(bridge == null){
+                    System.out.println("Warning: Couldn't create a bridge for " + classNode.name + "#" + methodCall.name + " " + methodCall.desc);
+                }else{
+                    if(Main.isVerbose()) System.out.println("Info: Created bridge " + classNode.name + "#" + bridge.name + " " + bridge.desc);
+                    bridges.add(bridge);
+                }
+                existing.add(methodCall.name + " " + methodCall.desc);
+            }
+        }
+        return bridges;
+    }
+
+    /**
+     * Looks for an original method that has the given descriptor once some of its long arguments are expanded and creates a bridge to it
+     * @return The bridge or null if there is no such method
+     */
+    private static MethodNode createBridge(ClassNode classNode, String name, String descriptor){
+        for(MethodNode original : classNode.methods){
+            if(!original.name.equals(name)) continue;
+
+            boolean[] expanded = findExpandedArguments(original.desc, descriptor);
+            if(expanded != null){
+                return createBridge(classNode, original, descriptor, expanded);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Which arguments of the original descriptor got expanded into 3 ints to make the new descriptor, or null if it can't be made that way
+     */
+    private static boolean[] findExpandedArguments(String originalDescriptor, String newDescriptor){
+        if(!Type.getReturnType(originalDescriptor).equals(Type.getReturnType(newDescriptor))) return null;
+
+        Type[] originalArguments = Type.getArgumentTypes(originalDescriptor);
+        Type[] newArguments = Type.getArgumentTypes(newDescriptor);
+        boolean[] expanded = new boolean[originalArguments.length];
+
+        int j = 0;
+        for(int i = 0; i < originalArguments.length; i++){
+            if(j >= newArguments.length) return null;
+
+            if(originalArguments[i].equals(newArguments[j])){
+                j++;
+            }else if(originalArguments[i].getSort() == Type.LONG && j + 3 <= newArguments.length && newArguments[j].getSort() == Type.INT
+                    && newArguments[j + 1].getSort() == Type.INT && newArguments[j + 2].getSort() == Type.INT){
+                expanded[i] = true;
+                j += 3;
+            }else{
+                return null;
+            }
+        }
+
+        return j == newArguments.length ? expanded : null;
+    }
+
+    private static MethodNode createBridge(ClassNode classNode, MethodNode original, String descriptor, boolean[] expanded){
+        boolean isStatic = (original.access & Opcodes.ACC_STATIC) != 0;
+        int access = (original.access & ~(Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_VARARGS)) | Opcodes.ACC_SYNTHETIC;
+        MethodNode bridge = new MethodNode(access, original.name, descriptor, null, original.exceptions.toArray(String[]::new));
+
+        int var = 0;
+        int stackSize = 0;
+        int maxStack = 0;
+        if(!isStatic){
+            bridge.instructions.add(new VarInsnNode(Opcodes.ALOAD, var++));
+            stackSize++;
+        }
+
+        Type[] arguments = Type.getArgumentTypes(original.desc);
+        for(int i = 0; i < arguments.length; i++){
+            if(expanded[i]){
+                bridge.instructions.add(new VarInsnNode(Opcodes.ILOAD, var));
+                bridge.instructions.add(new VarInsnNode(Opcodes.ILOAD, var + 1));
+                bridge.instructions.add(new VarInsnNode(Opcodes.ILOAD, var + 2));
+                bridge.instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "asLong", "(III)J", false));
+                maxStack = Math.max(maxStack, stackSize + 3);
+                var += 3;
+                stackSize += 2;
+            }else{
+                bridge.instructions.add(new VarInsnNode(arguments[i].getOpcode(Opcodes.ILOAD), var));
+                var += arguments[i].getSize();
+                stackSize += arguments[i].getSize();
+            }
+        }
+
+        boolean isInterface = (classNode.access & Opcodes.ACC_INTERFACE) != 0;
+        int opcode;
+        if(isStatic){
+            opcode = Opcodes.INVOKESTATIC;
+        }else if((original.access & Opcodes.ACC_PRIVATE) != 0){
+            opcode = Opcodes.INVOKESPECIAL;
+        }else{
+            opcode = isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL;
+        }
+        bridge.instructions.add(new MethodInsnNode(opcode, classNode.name, original.name, original.desc, isInterface));
+
+        Type returnType = Type.getReturnType(original.desc);
+        bridge.instructions.add(new InsnNode(returnType.getOpcode(Opcodes.IRETURN)));
+
+        bridge.maxLocals = var;
+        bridge.maxStack = Math.max(Math.max(maxStack, stackSize), returnType.getSize());
+        return bridge;
+    }
+}
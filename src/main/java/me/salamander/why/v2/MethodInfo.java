@@ -4,6 +4,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,7 +18,6 @@ public class MethodInfo {
     private final String newDesc;
 
     public MethodInfo(JsonObject root, String methodOwner, String methodName, String methodDescriptor){
-        System.out.println(methodDescriptor);
         returnsExpandedLong = root.get("returns_pos").getAsBoolean();
 
         boolean isStatic = false;
@@ -52,6 +52,40 @@ public class MethodInfo {
         this.newOwner = newOwner;
     }
 
+    /**
+     * Creates method info for a method that is not in the config, such as one found by the summary pass. The method does not get renamed
+     * @param blockPosArgs The indices of the packed arguments, not counting {@code this}
+     */
+    public MethodInfo(String methodOwner, String methodName, String methodDescriptor, boolean isStatic, boolean returnsExpandedLong, Collection<Integer> blockPosArgs){
+        this.returnsExpandedLong = returnsExpandedLong;
+
+        int offset = isStatic ? 0 : 1;
+        expandedArgumentIndices = new HashSet<>();
+        for(int argument : blockPosArgs){
+            expandedArgumentIndices.add(argument + offset);
+        }
+
+        numArgs = getNumArgs(methodDescriptor) + offset;
+        newDesc = Main.modifyDescriptor(methodDescriptor, expandedArgumentIndices, isStatic, false);
+
+        this.newName = methodName;
+        this.newOwner = methodOwner;
+    }
+
+    /**
+     * Creates method info from values that have already been worked out, such as those from a compiled config
+     * @param expandedArgumentIndices The indices of the packed arguments, counting {@code this}
+     * @param numArgs The number of arguments, counting {@code this}
+     */
+    public MethodInfo(boolean returnsExpandedLong, Set<Integer> expandedArgumentIndices, int numArgs, String newOwner, String newName, String newDesc){
+        this.returnsExpandedLong = returnsExpandedLong;
+        this.expandedArgumentIndices = new HashSet<>(expandedArgumentIndices);
+        this.numArgs = numArgs;
+        this.newOwner = newOwner;
+        this.newName = newName;
+        this.newDesc = newDesc;
+    }
+
     //ASM doesn't specify a method that does exactly this. However this code is mostly taken from Type.getArgumentAndReturnSizes
     public static int getNumArgs(String methodDescriptor) {
         int numArgs = 0;
@@ -80,7 +114,7 @@ public class MethodInfo {
     }
 
     public Set<Integer> getExpandedIndices(){
-        return expandedArgumentIndices;
+        return Collections.unmodifiableSet(expandedArgumentIndices);
     }
 
     public boolean hasPackedArguments(){
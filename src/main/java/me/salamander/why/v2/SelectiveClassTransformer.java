@@ -0,0 +1,125 @@
+package me.salamander.why.v2;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Transforms a class without turning all of it into a tree. Only the methods that call a method from the config or are in the config themselves
+ * are read into {@link MethodNode}s. The rest of the class, including the code of every other method, is copied from the original class file
+ * byte for byte by a {@link ClassWriter} that shares the {@link ClassReader}'s constant pool.
+ * <br>
+ * Enabled for {@link JarTransformer} and {@link Main} with the {@code why.selective} system property
+ */
+public class SelectiveClassTransformer {
+    private final ClassTransformer transformer;
+    private final TransformContext context;
+
+    /**
+     * @param transformer Transforms the methods that get read
+     */
+    public SelectiveClassTransformer(ClassTransformer transformer) {
+        this.transformer = transformer;
+        this.context = transformer.getContext();
+    }
+
+    public static boolean isEnabled(){
+        return Boolean.getBoolean("why.selective");
+    }
+
+    /**
+     * @return The transformed class or null if nothing about it changed
+     */
+    public byte[] transform(byte[] classBytes){
+        ClassReader classReader = new ClassReader(classBytes);
+
+        //Finding the targets only needs the method calls, so nothing gets allocated for the other instructions
+        TargetFinder targetFinder = new TargetFinder();
+        classReader.accept(targetFinder, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        if(targetFinder.targets.isEmpty()) return null;
+
+        ClassNode classNode = new ClassNode();
+        classReader.accept(new MethodLifter(classNode, targetFinder.targets), 0);
+
+        List<MethodNode> added = transformer.transform(classNode, methodNode -> targetFinder.targets.contains(methodNode.name + " " + methodNode.desc));
+        if(added.isEmpty()) return null;
+
+        //Passing the reader lets the writer copy every method that reaches it unchanged instead of rebuilding it
+        ClassWriter classWriter = new ClassWriter(classReader, 0);
+        classReader.accept(new ClassVisitor(Opcodes.ASM9, classWriter) {
+            @Override
+            public void visitEnd() {
+                for(MethodNode methodNode : added){
+                    methodNode.accept(cv);
+                }
+                super.visitEnd();
+            }
+        }, 0);
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Collects the methods that call a method from the config, plus the methods of this class that are in the config. These are the methods
+     * {@link Main#mayTransform(TransformContext, String, MethodNode)} lets through
+     */
+    private class TargetFinder extends ClassVisitor {
+        private final Set<String> targets = new HashSet<>();
+        private String className;
+
+        TargetFinder() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            String method = name + " " + descriptor;
+            if(context.isConfigMethod(className + "#" + method)){
+                targets.add(method);
+                return null;
+            }
+
+            return new MethodVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    if(context.isConfigMethod(owner + "#" + name + " " + descriptor)) targets.add(method);
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads the targets into full {@link MethodNode}s. Every other method only gets an empty {@link MethodNode} with its signature, which is all
+     * {@link MethodBridges} needs
+     */
+    private static class MethodLifter extends ClassVisitor {
+        private final ClassNode classNode;
+        private final Set<String> targets;
+
+        MethodLifter(ClassNode classNode, Set<String> targets) {
+            super(Opcodes.ASM9);
+            this.classNode = classNode;
+            this.targets = targets;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            classNode.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodNode methodNode = new MethodNode(access, name, descriptor, signature, exceptions);
+            classNode.methods.add(methodNode);
+            return targets.contains(name + " " + descriptor) ? methodNode : null;
+        }
+    }
+}
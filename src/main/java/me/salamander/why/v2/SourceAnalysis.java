@@ -0,0 +1,26 @@
+package me.salamander.why.v2;
+
+/**
+ * What {@link Main} needs to know about a method to decide which variables to expand and how to rewrite it: which values are on the stack
+ * before an instruction runs and which instructions consume the values emitted by others
+ */
+public interface SourceAnalysis {
+    /**
+     * @return Whether the instruction can ever be executed. Nothing else may be queried for instructions that aren't reachable
+     */
+    boolean isReachable(int insnIndex);
+
+    /**
+     * @return The number of values on the stack before the instruction executes
+     */
+    int getStackSize(int insnIndex);
+
+    /**
+     * Gets a value on the stack before the instruction executes. Implementations are only required to support the values that the
+     * instruction consumes
+     * @param stackIndex Index into the stack, 0 being the bottom
+     */
+    BasicSourceValue getStack(int insnIndex, int stackIndex);
+
+    DefUseTable getDefUse();
+}
@@ -0,0 +1,43 @@
+package me.salamander.why.v2;
+
+/**
+ * The result of a {@link LongSourceAnalyzer}. Only the operands of instructions that consume at least one long are kept, every other stack value
+ * is reported as {@link LongSourceAnalyzer#OTHER}
+ */
+public class SparseSourceAnalysis implements SourceAnalysis {
+    private final int[] stackSizes;
+    private final BasicSourceValue[][] operands;
+    private final DefUseTable defUse;
+
+    SparseSourceAnalysis(int[] stackSizes, BasicSourceValue[][] operands, DefUseTable defUse) {
+        this.stackSizes = stackSizes;
+        this.operands = operands;
+        this.defUse = defUse;
+    }
+
+    @Override
+    public boolean isReachable(int insnIndex) {
+        return stackSizes[insnIndex] != -1;
+    }
+
+    @Override
+    public int getStackSize(int insnIndex) {
+        return stackSizes[insnIndex];
+    }
+
+    @Override
+    public BasicSourceValue getStack(int insnIndex, int stackIndex) {
+        BasicSourceValue[] consumed = operands[insnIndex];
+        if(consumed == null) return LongSourceAnalyzer.OTHER;
+
+        int operandIndex = stackIndex - (stackSizes[insnIndex] - consumed.length);
+        if(operandIndex < 0 || operandIndex >= consumed.length) return LongSourceAnalyzer.OTHER;
+
+        return consumed[operandIndex];
+    }
+
+    @Override
+    public DefUseTable getDefUse() {
+        return defUse;
+    }
+}
@@ -0,0 +1,113 @@
+package me.salamander.why.v2;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.config.BinaryConfig;
+
+import java.util.*;
+
+/**
+ * Everything a transformation needs to know that isn't part of the class being transformed. It never changes after it has been created, so any number
+ * of threads can use the same context at once
+ */
+public final class TransformContext {
+    private final Map<String, MethodInfo> methodInfo;
+    private final String[] unpackingMethods;
+    private final AnalysisEngine.Mode mode;
+    private final Set<String> owners;
+
+    public TransformContext(Map<String, MethodInfo> methodInfo, String[] unpackingMethods, AnalysisEngine.Mode mode) {
+        if(unpackingMethods.length != 3) throw new IllegalArgumentException("Need exactly 3 unpacking methods");
+
+        this.methodInfo = Collections.unmodifiableMap(new HashMap<>(methodInfo));
+        this.unpackingMethods = unpackingMethods.clone();
+        this.mode = mode;
+
+        Set<String> owners = new HashSet<>();
+        for(String methodID : this.methodInfo.keySet()){
+            owners.add(methodID.substring(0, methodID.indexOf('#')));
+        }
+        for(String methodID : this.unpackingMethods){
+            owners.add(methodID.substring(0, methodID.indexOf('#')));
+        }
+        this.owners = Collections.unmodifiableSet(owners);
+    }
+
+    /**
+     * Creates a context with the analysis mode from the system properties. The compiled {@code config.bin} is used if it is on the class path
+     * and no other config is given with {@code why.config}, otherwise the config is parsed from {@link Main#loadConfig()}
+     */
+    public static TransformContext load(){
+        AnalysisEngine.Mode mode = AnalysisEngine.Mode.fromSystemProperties();
+        if(System.getProperty("why.config") == null){
+            TransformContext compiled = BinaryConfig.loadContext(mode);
+            if(compiled != null) return compiled;
+        }
+        return fromConfig(Main.loadConfig(), mode);
+    }
+
+    /**
+     * @return The unparsed bytes of the config {@link #load()} reads: the compiled {@code config.bin} or the JSON from {@link Main#loadConfigBytes()}
+     */
+    public static byte[] loadConfigBytes(){
+        if(System.getProperty("why.config") == null){
+            byte[] compiled = BinaryConfig.readConfigBytes();
+            if(compiled != null) return compiled;
+        }
+        return Main.loadConfigBytes();
+    }
+
+    public static TransformContext fromConfig(JsonObject root, AnalysisEngine.Mode mode){
+        JsonArray unpackers = root.get("unpacking").getAsJsonArray();
+        String[] unpackingMethods = new String[3];
+        for(int i = 0; i < 3; i++) unpackingMethods[i] = unpackers.get(i).getAsString();
+
+        return new TransformContext(Main.readMethodInfo(root), unpackingMethods, mode);
+    }
+
+    /**
+     * @param methodID The method as {@code owner#name descriptor}
+     * @return What is known about the method or null if it isn't in the config
+     */
+    public MethodInfo getMethodInfo(String methodID){
+        return methodInfo.get(methodID);
+    }
+
+    /**
+     * @return An unmodifiable view of all the method info
+     */
+    public Map<String, MethodInfo> getMethodInfo(){
+        return methodInfo;
+    }
+
+    /**
+     * @param methodID The method as {@code owner#name descriptor}
+     * @return Whether the method is in the config, either with method info or as an unpacking method
+     */
+    public boolean isConfigMethod(String methodID){
+        if(methodInfo.containsKey(methodID)) return true;
+        for(String unpackingMethod : unpackingMethods){
+            if(unpackingMethod.equals(methodID)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param axis 0 for x, 1 for y and 2 for z
+     * @return The method that unpacks that coordinate from a packed position, as {@code owner#name descriptor}
+     */
+    public String getUnpackingMethod(int axis){
+        return unpackingMethods[axis];
+    }
+
+    /**
+     * @return The internal names of the classes that own a method from the config. Code that never mentions them has nothing to transform
+     */
+    public Set<String> getOwners(){
+        return owners;
+    }
+
+    public AnalysisEngine.Mode getMode() {
+        return mode;
+    }
+}
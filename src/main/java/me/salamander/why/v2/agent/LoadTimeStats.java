@@ -0,0 +1,87 @@
+package me.salamander.why.v2.agent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * How long {@link TransformAgent} took to set up and to look at each class. Classes can be recorded from any number of threads at once
+ */
+public class LoadTimeStats {
+    private final long setupNanos;
+    private final Queue<ClassTiming> timings = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param setupNanos How long it took to load the config and install the agent
+     */
+    public LoadTimeStats(long setupNanos) {
+        this.setupNanos = setupNanos;
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @param nanos How long the class was held up on its way to the JVM
+     * @param transformed Whether the class was changed
+     * @param precomputed Whether the change was made ahead of time, so nothing had to be analyzed
+     */
+    public void record(String className, long nanos, boolean transformed, boolean precomputed){
+        timings.add(new ClassTiming(className, nanos, transformed, precomputed));
+    }
+
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    /**
+     * @return The setup and the time spent on every class so far, which is what the agent added to the startup
+     */
+    public long getTotalNanos(){
+        long total = setupNanos;
+        for(ClassTiming timing : timings){
+            total += timing.nanos();
+        }
+        return total;
+    }
+
+    public List<ClassTiming> getTimings(){
+        return new ArrayList<>(timings);
+    }
+
+    /**
+     * @param slowest How many of the slowest classes that were transformed while loading to list
+     */
+    public String report(int slowest){
+        List<ClassTiming> all = getTimings();
+        long filteredNanos = 0;
+        long precomputedNanos = 0;
+        long transformedNanos = 0;
+        int precomputed = 0;
+        List<ClassTiming> transformed = new ArrayList<>();
+        for(ClassTiming timing : all){
+            if(timing.precomputed()){
+                precomputed++;
+                precomputedNanos += timing.nanos();
+            }else if(timing.transformed()){
+                transformed.add(timing);
+                transformedNanos += timing.nanos();
+            }else{
+                filteredNanos += timing.nanos();
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Startup cost %.1f ms: setup %.1f ms, %d classes left alone in %.1f ms, %d precomputed classes in %.1f ms, %d classes transformed in %.1f ms",
+                getTotalNanos() / 1e6, setupNanos / 1e6, all.size() - transformed.size() - precomputed, filteredNanos / 1e6, precomputed, precomputedNanos / 1e6,
+                transformed.size(), transformedNanos / 1e6));
+
+        transformed.sort(Comparator.comparingLong(ClassTiming::nanos).reversed());
+        for(ClassTiming timing : transformed.subList(0, Math.min(slowest, transformed.size()))){
+            report.append(String.format("%n\t%8.2f ms %s", timing.nanos() / 1e6, timing.className()));
+        }
+        return report.toString();
+    }
+
+    public record ClassTiming(String className, long nanos, boolean transformed, boolean precomputed) {}
+}
@@ -0,0 +1,194 @@
+package me.salamander.why.v2.agent;
+
+import me.salamander.why.v2.AnalysisBudget;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.classpath.ClassHierarchyIndex;
+import me.salamander.why.v2.output.OutputSink;
+import me.salamander.why.v2.plan.PrecomputedClasses;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A java agent that transforms classes in memory as they are loaded, so a game can run with the transformed light engine without patching its jars.
+ * Every class goes through {@link JarTransformer#transformClass(String, byte[])}, so only classes that refer to the config get analyzed and
+ * {@code why.cacheDir} and {@code why.selective} work the same. Set {@code why.output} to also write the transformed classes out for inspection.
+ * Classes that were transformed ahead of time, see {@link PrecomputedClasses}, are handed to the JVM without analyzing them. Without a cache, a
+ * method that takes longer than {@link AnalysisBudget#LOAD_TIME_BUDGET_MS} ms to transform is loaded as it was.
+ * <br>
+ * Usage: {@code -javaagent:<transformer jar>[=prefix,prefix...]}, where the prefixes limit which classes get transformed like {@code --include}
+ * does for {@link JarTransformer}. ASM has to be on the class path of the game, which it is with Fabric. The jar has to bundle a
+ * {@link ClassHierarchyIndex} or {@code why.hierarchy} has to point at one. How long the agent took is printed when the JVM exits.
+ * <br>
+ * The config, the hierarchy index and the precomputed classes all use yarn names, so the agent only finds anything to transform when the game
+ * runs with them too, like Loom's {@code runClient} does. A production Fabric game loads its classes with intermediary names, which the agent
+ * warns about as soon as it sees one, and it also warns when it exits if none of the classes from the config were ever loaded
+ */
+public class TransformAgent implements ClassFileTransformer {
+    //The transformer's own classes get loaded while transforming, and the JDK never refers to the config
+    private static final String[] SKIPPED_PACKAGES = {"me/salamander/why/", "org/objectweb/asm/", "com/google/gson/", "java/", "javax/", "jdk/", "sun/"};
+    private static final int SLOWEST_REPORTED = 10;
+    //Fabric loads the game with these names outside of the development environment, for example net/minecraft/class_2338 for BlockPos
+    private static final String INTERMEDIARY_PREFIX = "net/minecraft/class_";
+
+    private final JarTransformer transformer;
+    private final PrecomputedClasses precomputed;
+    private final LoadTimeStats stats;
+    private final OutputSink dump;
+    private final ThreadLocal<Boolean> transforming = ThreadLocal.withInitial(() -> false);
+
+    private final Set<String> owners;
+    private final boolean intermediaryConfig;
+    private final AtomicBoolean warnedAboutNames = new AtomicBoolean();
+    private volatile boolean loadedOwner = false;
+
+    /**
+     * @param precomputed The classes that were transformed ahead of time or null if there are none
+     * @param dump Where to write the transformed classes or null to keep them in memory only
+     */
+    public TransformAgent(JarTransformer transformer, PrecomputedClasses precomputed, LoadTimeStats stats, OutputSink dump) {
+        this.transformer = transformer;
+        this.precomputed = precomputed;
+        this.stats = stats;
+        this.dump = dump;
+
+        this.owners = transformer.getContext().getOwners();
+        this.intermediaryConfig = owners.stream().anyMatch(owner -> owner.startsWith(INTERMEDIARY_PREFIX));
+    }
+
+    public static void premain(String args, Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    /**
+     * Attaching to a running JVM only affects the classes that are loaded afterwards
+     */
+    public static void agentmain(String args, Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    public static TransformAgent install(String args, Instrumentation instrumentation) throws IOException {
+        long start = System.nanoTime();
+
+        List<String> includes = new ArrayList<>();
+        if(args != null){
+            for(String prefix : args.split(",")){
+                if(!prefix.isBlank()) includes.add(prefix.trim().replace('.', '/'));
+            }
+        }
+
+        //The agent runs inside the class loading of the game, whose classes the JVM's class path doesn't have under Fabric's development
+        //environment, so the frames of transformed methods can only be computed from an index built ahead of time
+        ClassHierarchyIndex.requirePrebuilt();
+        TransformContext context = TransformContext.load();
+        TransformCache cache = TransformCache.fromSystemProperties();
+        //Every class is analyzed while the game waits for it. With a cache the results have to be the same every time, so only the iteration limit
+        //applies then
+        if(cache == null) AnalysisBudget.useDefaultTimeBudget(AnalysisBudget.LOAD_TIME_BUDGET_MS);
+        OutputSink dump = System.getProperty("why.output") == null ? null : OutputSink.fromSystemProperties();
+        PrecomputedClasses precomputed = PrecomputedClasses.fromSystemProperties();
+        if(precomputed != null) System.out.println("Info: Found " + precomputed.size() + " precomputed classes");
+
+        TransformAgent agent = new TransformAgent(new JarTransformer(context, includes, 1, cache), precomputed, new LoadTimeStats(System.nanoTime() - start), dump);
+        instrumentation.addTransformer(agent);
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::close, "Transform Agent Report"));
+
+        System.out.printf("Info: Transform agent installed in %.1f ms%n", agent.stats.getSetupNanos() / 1e6);
+        return agent;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        //Redefined classes already went through here, and the bootstrap loader only loads the JDK
+        if(className == null || loader == null || classBeingRedefined != null || isSkipped(className)) return null;
+        checkNames(className);
+        //Loading a class while transforming another one mustn't start a second transformation on the same thread
+        if(transforming.get()) return null;
+
+        transforming.set(true);
+        long start = System.nanoTime();
+        byte[] transformed = null;
+        boolean wasPrecomputed = false;
+        try {
+            if(precomputed != null && (transformed = precomputed.get(className, classfileBuffer)) != null){
+                wasPrecomputed = true;
+                return transformed;
+            }
+            transformed = transformer.transformClass(className, classfileBuffer);
+        }catch (RuntimeException | LinkageError e){
+            //Anything thrown from here would be swallowed by the JVM, so report it and load the original
+            System.out.println("Warning: Couldn't transform " + className + " while loading it. Keeping the original");
+            e.printStackTrace();
+        }finally {
+            long nanos = System.nanoTime() - start;
+            transforming.set(false);
+            stats.record(className, nanos, transformed != null, wasPrecomputed);
+            if(transformed != null && !wasPrecomputed){
+                System.out.printf("Info: Transformed %s while loading it in %.2f ms%n", className, nanos / 1e6);
+            }
+        }
+
+        if(transformed != null && dump != null){
+            try {
+                dump.writeClass(className, transformed);
+            }catch (IOException e){
+                System.out.println("Warning: Couldn't write out " + className + ": " + e.getMessage());
+            }
+        }
+        return transformed;
+    }
+
+    /**
+     * Nothing could ever be transformed if the game's classes are named differently from the ones in the config, and that should be loud
+     */
+    private void checkNames(String className){
+        if(!loadedOwner && owners.contains(className)) loadedOwner = true;
+
+        if(!intermediaryConfig && className.startsWith(INTERMEDIARY_PREFIX) && !warnedAboutNames.getAndSet(true)){
+            System.out.println("Warning: The game runs with intermediary names (" + className + ") but the config uses yarn names, so no class will be transformed");
+        }
+    }
+
+    /**
+     * @return Whether any class that owns a method from the config has been loaded
+     */
+    public boolean hasLoadedConfigOwner(){
+        return loadedOwner;
+    }
+
+    private static boolean isSkipped(String className){
+        for(String prefix : SKIPPED_PACKAGES){
+            if(className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    public LoadTimeStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Prints the timings and finishes writing out the transformed classes
+     */
+    public void close(){
+        System.out.println("Info: " + stats.report(SLOWEST_REPORTED));
+        if(!loadedOwner){
+            System.out.println("Warning: None of the classes from the config were loaded, so nothing was transformed. The config probably uses different names than the game");
+        }
+        if(dump != null){
+            try {
+                dump.close();
+            }catch (IOException e){
+                System.out.println("Warning: Couldn't write out the transformed classes: " + e.getMessage());
+            }
+        }
+    }
+}
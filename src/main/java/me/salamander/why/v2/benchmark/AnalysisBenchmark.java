@@ -0,0 +1,96 @@
+package me.salamander.why.v2.benchmark;
+
+import me.salamander.why.v2.BasicSourceInterpreter;
+import me.salamander.why.v2.BasicSourceValue;
+import me.salamander.why.v2.classpath.ClassNodeCache;
+import net.minecraft.world.chunk.light.ChunkBlockLightProvider;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how long it takes to analyze every method of {@code ChunkBlockLightProvider} with a {@link BasicSourceInterpreter} and how much gets
+ * allocated while doing so. Run it on two commits to compare them.
+ * <br>
+ * Arguments: {@code [warmup rounds] [measured rounds]}
+ */
+public class AnalysisBenchmark {
+    public static void main(String[] args) throws AnalyzerException {
+        int warmupRounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int measuredRounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        //The analysis only reads the class, so it can share the cached node
+        ClassNode classNode = ClassNodeCache.system().get(Type.getInternalName(ChunkBlockLightProvider.class));
+        BasicSourceInterpreter interpreter = new BasicSourceInterpreter(Opcodes.ASM9);
+        CountingAnalyzer analyzer = new CountingAnalyzer(interpreter);
+
+        for(int i = 0; i < warmupRounds; i++){
+            analyzeAll(classNode, interpreter, analyzer);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        analyzer.edges = 0;
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for(int i = 0; i < measuredRounds; i++){
+            analyzeAll(classNode, interpreter, analyzer);
+        }
+        long time = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.println("Analyzed " + classNode.methods.size() + " methods of " + classNode.name + " " + measuredRounds + " times");
+        System.out.printf("\tTime:            %.3f ms/round%n", time / 1e6 / measuredRounds);
+        System.out.printf("\tAllocated:       %.1f KiB/round%n", allocated / 1024.0 / measuredRounds);
+        System.out.printf("\tFixpoint edges:  %d/round%n", analyzer.edges / measuredRounds);
+
+        //Give the biggest method its own line since that is the one that dominates
+        MethodNode biggest = classNode.methods.stream().max((a, b) -> Integer.compare(a.instructions.size(), b.instructions.size())).orElseThrow();
+        analyzer.edges = 0;
+        allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for(int i = 0; i < measuredRounds; i++){
+            analyze(classNode, biggest, interpreter, analyzer);
+        }
+        time = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.println(biggest.name + " " + biggest.desc + " (" + biggest.instructions.size() + " instructions)");
+        System.out.printf("\tTime:            %.3f ms/round%n", time / 1e6 / measuredRounds);
+        System.out.printf("\tAllocated:       %.1f KiB/round%n", allocated / 1024.0 / measuredRounds);
+        System.out.printf("\tFixpoint edges:  %d/round%n", analyzer.edges / measuredRounds);
+    }
+
+    private static void analyzeAll(ClassNode classNode, BasicSourceInterpreter interpreter, CountingAnalyzer analyzer) throws AnalyzerException {
+        for(MethodNode methodNode : classNode.methods){
+            analyze(classNode, methodNode, interpreter, analyzer);
+        }
+    }
+
+    private static void analyze(ClassNode classNode, MethodNode methodNode, BasicSourceInterpreter interpreter, CountingAnalyzer analyzer) throws AnalyzerException {
+        interpreter.clearCache();
+        interpreter.setInstructions(methodNode.instructions);
+        analyzer.analyze(classNode.name, methodNode);
+    }
+
+    /**
+     * Counts how many control flow edges get processed, which is how many times the analyzer had to revisit an instruction
+     */
+    private static class CountingAnalyzer extends Analyzer<BasicSourceValue> {
+        private long edges;
+
+        public CountingAnalyzer(BasicSourceInterpreter interpreter) {
+            super(interpreter);
+        }
+
+        @Override
+        protected void newControlFlowEdge(int insnIndex, int successorIndex) {
+            edges++;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package me.salamander.why.v2.benchmark;
+
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.SourceAnalysis;
+import me.salamander.why.v2.classpath.ClassNodeCache;
+import net.minecraft.world.chunk.light.ChunkBlockLightProvider;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how much heap the analysis results of every method in {@code ChunkBlockLightProvider} take up with each {@link AnalysisEngine.Mode},
+ * and the peak heap usage while producing them. The results of all methods are kept alive at the same time, like they would be when a whole class
+ * is transformed at once.
+ * <br>
+ * Run with a fixed heap and a simple collector for stable numbers, e.g. {@code -Xmx512m -XX:+UseSerialGC}. The internal name of another class on
+ * the classpath can be passed as the only argument to measure that class instead
+ */
+public class HeapBenchmark {
+    public static void main(String[] args) throws AnalyzerException {
+        //The analysis only reads the class, so it can share the cached node
+        ClassNode classNode = ClassNodeCache.system().get(args.length == 0 ? Type.getInternalName(ChunkBlockLightProvider.class) : args[0]);
+
+        //Make sure everything is loaded so class loading doesn't end up in the numbers
+        for(AnalysisEngine.Mode mode : AnalysisEngine.Mode.values()){
+            analyzeAll(classNode, mode);
+        }
+
+        for(AnalysisEngine.Mode mode : AnalysisEngine.Mode.values()){
+            long baseline = settledHeap();
+            resetPeaks();
+
+            List<SourceAnalysis> results = analyzeAll(classNode, mode);
+
+            long peak = peakHeap() - baseline;
+            long retained = settledHeap() - baseline;
+
+            System.out.println(mode + " (" + results.size() + " methods)");
+            System.out.printf("\tPeak:     %.1f KiB%n", peak / 1024.0);
+            System.out.printf("\tRetained: %.1f KiB%n", retained / 1024.0);
+
+            //Keep the results reachable until after they have been measured
+            results.clear();
+        }
+    }
+
+    private static List<SourceAnalysis> analyzeAll(ClassNode classNode, AnalysisEngine.Mode mode) throws AnalyzerException {
+        List<SourceAnalysis> results = new ArrayList<>();
+        for(MethodNode methodNode : classNode.methods){
+            results.add(AnalysisEngine.get().analyze(classNode.name, methodNode, mode));
+        }
+        return results;
+    }
+
+    private static long settledHeap(){
+        for(int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void resetPeaks(){
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap(){
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
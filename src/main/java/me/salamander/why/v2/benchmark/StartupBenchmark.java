@@ -0,0 +1,89 @@
+package me.salamander.why.v2.benchmark;
+
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.service.StartupTraining;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long it takes from starting a JVM until it has transformed its first class, without class data sharing, with the JDK's default
+ * archive and with the archive made by {@link StartupTraining}. Every run is a new JVM with the same classpath as this one, so run it from the built
+ * jar like the {@code startupBenchmark} Gradle task does.
+ * <br>
+ * Arguments: {@code [archive] [runs]}
+ */
+public class StartupBenchmark {
+    private static final String FIRST_CLASS = "me/salamander/why/debug/TestClass";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length > 0 && args[0].equals("--child")){
+            runChild();
+            return;
+        }
+
+        Path archive = args.length > 0 ? Path.of(args[0]) : null;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        measure("No CDS", List.of("-Xshare:off"), runs);
+        measure("JDK CDS", List.of(), runs);
+        if(archive == null || !Files.exists(archive)){
+            System.out.println("Warning: No archive to measure. Create one with StartupTraining first");
+        }else{
+            measure("App CDS", List.of("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"), runs);
+        }
+    }
+
+    private static void measure(String name, List<String> jvmArgs, int runs) throws IOException, InterruptedException {
+        long[] firstClass = new long[runs];
+        long[] total = new long[runs];
+
+        for(int i = 0; i < runs; i++){
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(StartupBenchmark.class.getName());
+            command.add("--child");
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+                String line;
+                while ((line = reader.readLine()) != null){
+                    if(line.equals("transformed")) firstClass[i] = System.nanoTime() - start;
+                }
+            }
+            process.waitFor();
+            total[i] = System.nanoTime() - start;
+
+            if(firstClass[i] == 0){
+                throw new IllegalStateException(name + " run " + i + " didn't transform anything (exit code " + process.exitValue() + ")");
+            }
+        }
+
+        Arrays.sort(firstClass);
+        Arrays.sort(total);
+        System.out.println(name + " (" + runs + " runs)");
+        System.out.printf("\tFirst class: %.1f ms median, %.1f ms best%n", firstClass[runs / 2] / 1e6, firstClass[0] / 1e6);
+        System.out.printf("\tWhole run:   %.1f ms median, %.1f ms best%n", total[runs / 2] / 1e6, total[0] / 1e6);
+    }
+
+    private static void runChild() throws IOException {
+        byte[] data = StartupTraining.readClass(FIRST_CLASS);
+        byte[] transformed = new JarTransformer(TransformContext.load(), List.of(), 1).transformClass(FIRST_CLASS, data);
+        //The parent only looks for this line
+        if(transformed != null){
+            System.out.println("transformed");
+        }
+        System.out.flush();
+    }
+}
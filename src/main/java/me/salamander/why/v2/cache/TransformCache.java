@@ -0,0 +1,223 @@
+package me.salamander.why.v2.cache;
+
+import me.salamander.why.debug.MethodModifier;
+import me.salamander.why.v2.AnalysisBudget;
+import me.salamander.why.v2.SelectiveClassTransformer;
+import me.salamander.why.v2.TransformContext;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Remembers transformed classes on disk so they don't have to be transformed again. Every entry is named after a SHA-256 hash of everything that
+ * decides what the transformed class looks like: the class itself, the unparsed config, {@code remaps.json}, the code of the transformer and the
+ * version of ASM, the limits of the {@link AnalysisBudget}, and whether {@code why.selective} is set. Nothing ever has to be invalidated because any change to those gives a different name.
+ * <br>
+ * Entries are written to a temporary file first and then moved into place atomically, so any number of processes can share a directory. Two
+ * processes writing the same entry at once is harmless since the transformation is deterministic and both write the same bytes.
+ * <br>
+ * The directory is set with the {@code why.cacheDir} system property for {@link #fromSystemProperties()}
+ */
+public class TransformCache {
+    private static final byte[] MAGIC = {'W', 'H', 'Y', 'C'};
+    private static final byte UNCHANGED = 0;
+    private static final byte TRANSFORMED = 1;
+
+    private final Path directory;
+    private final byte[] inputsDigest;
+
+    /**
+     * @param inputsDigest A hash of everything other than the class that the transformation depends on
+     */
+    public TransformCache(Path directory, byte[] inputsDigest) {
+        this.directory = directory;
+        this.inputsDigest = inputsDigest.clone();
+    }
+
+    /**
+     * Creates a cache for classes transformed with the given config, {@code remaps.json} from the class path and this version of the transformer
+     * @param config The config as it is stored, either compiled or as JSON. It is only hashed, never parsed
+     */
+    public static TransformCache create(Path directory, byte[] config){
+        MessageDigest digest = sha256();
+        digest.update(config);
+        try(InputStream remaps = MethodModifier.class.getResourceAsStream("/remaps.json")){
+            if(remaps != null) digest.update(remaps.readAllBytes());
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read remaps.json", e);
+        }
+        digest.update(CodeVersion.DIGEST);
+        digest.update((byte) (SelectiveClassTransformer.isEnabled() ? 1 : 0));
+        return new TransformCache(directory, digest.digest());
+    }
+
+    /**
+     * @return A hash of the transformer's own classes, the ASM version and the limits of the {@link AnalysisBudget}
+     */
+    public static byte[] codeDigest(){
+        return CodeVersion.DIGEST.clone();
+    }
+
+    /**
+     * @return A cache in the directory given by {@code why.cacheDir} for the config {@link TransformContext#load()} reads, or null if it isn't set
+     */
+    public static TransformCache fromSystemProperties(){
+        String directory = System.getProperty("why.cacheDir");
+        return directory == null ? null : create(Path.of(directory), TransformContext.loadConfigBytes());
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The key of the entry for the class
+     */
+    public String key(String className, byte[] classBytes){
+        MessageDigest digest = sha256();
+        digest.update(inputsDigest);
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(classBytes);
+
+        StringBuilder key = new StringBuilder();
+        for(byte b : digest.digest()){
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return The entry or null if the class hasn't been transformed before
+     */
+    public Entry get(String key) throws IOException {
+        Path file = getFile(key);
+        ByteBuffer data;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }catch (NoSuchFileException e){
+            return null;
+        }
+
+        if(data.remaining() < MAGIC.length + 1) return null;
+        for(byte b : MAGIC){
+            if(data.get() != b) return null;
+        }
+
+        byte status = data.get();
+        return new Entry(status == TRANSFORMED, status == TRANSFORMED ? data.slice() : null);
+    }
+
+    /**
+     * @param transformed The transformed class or null if it didn't need to change
+     */
+    public void put(String key, byte[] transformed) throws IOException {
+        Path file = getFile(key);
+        Files.createDirectories(file.getParent());
+
+        Path temporary = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)){
+                ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1).put(MAGIC).put(transformed == null ? UNCHANGED : TRANSFORMED).flip();
+                while (header.hasRemaining()) channel.write(header);
+                if(transformed != null){
+                    ByteBuffer data = ByteBuffer.wrap(transformed);
+                    while (data.hasRemaining()) channel.write(data);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Path getFile(String key){
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".class");
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * A cached transformation
+     * @param transformed Whether the class was changed
+     * @param data A read only mapping of the transformed class if it was changed, null otherwise
+     */
+    public record Entry(boolean transformed, ByteBuffer data) {
+        /**
+         * @return A copy of the transformed class or null if it wasn't changed
+         */
+        public byte[] toBytes(){
+            if(data == null) return null;
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * The hash of the transformer's own classes and of ASM's, and of the analysis budget they run with, computed once. Every jar they come from is hashed whole, and for an output directory
+     * it is every class file in it. Hashing the contents rather than the paths means an updated ASM jar at the same path still changes the hash
+     */
+    private static class CodeVersion {
+        private static final byte[] DIGEST = compute();
+
+        private static byte[] compute(){
+            //ASM ships as several jars, and the transformer's jar might have them shaded in. Each distinct location is hashed once, by its contents
+            Set<Path> locations = new LinkedHashSet<>();
+            for(Class<?> type : List.of(TransformCache.class, ClassReader.class, ClassNode.class, Analyzer.class)){
+                try {
+                    locations.add(Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()));
+                }catch (URISyntaxException e){
+                    throw new IllegalStateException("Couldn't find the code of " + type.getName(), e);
+                }
+            }
+
+            MessageDigest digest = sha256();
+            try {
+                for(Path location : locations){
+                    hashContents(digest, location);
+                }
+            }catch (IOException e){
+                throw new IllegalStateException("Couldn't hash the transformer", e);
+            }
+
+            //A method that ran out of budget is kept as it was, so raising the budget changes the output as much as changing the code does
+            digest.update(AnalysisBudget.getSettings().getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        }
+
+        private static void hashContents(MessageDigest digest, Path location) throws IOException {
+            if(Files.isDirectory(location)){
+                List<Path> files;
+                try(Stream<Path> walk = Files.walk(location)){
+                    files = walk.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+                }
+                for(Path file : files){
+                    digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            }else{
+                digest.update(Files.readAllBytes(location));
+            }
+        }
+    }
+}
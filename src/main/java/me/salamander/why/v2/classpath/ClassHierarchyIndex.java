@@ -0,0 +1,350 @@
+package me.salamander.why.v2.classpath;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The superclass and interfaces of every class on a class path, read from the headers of the class files. Classes are numbered and their edges are
+ * kept in plain int arrays, so answering {@link #getCommonSuperClass(String, String)} never parses, and never loads, a class. Supertypes that come
+ * from the JDK are read from the system class loader's resources when the index is built.
+ * <br>
+ * Use {@link #system()} for the class path of this JVM. It is read from the file given by the {@code why.hierarchy} system property if there is
+ * one, or from the one bundled at {@link #RESOURCE}. {@link #main(String[])} writes these for a list of jars and directories:
+ * {@code <output file> <jar or directory>...}, and the {@code indexHierarchy} task runs it on the game jar and its libraries for the jar.
+ * <br>
+ * Only the JVM's own class path gets indexed when there is no such file, which is missing the game's classes when they are loaded by a different
+ * class loader, like under Fabric. {@link #requirePrebuilt()} is for when that can't be good enough
+ */
+public class ClassHierarchyIndex {
+    private static final int MAGIC = 0x57485948; //WHYH
+    private static final int VERSION = 1;
+    public static final String RESOURCE = "/META-INF/why/hierarchy.whyh";
+
+    private static final int INTERFACE = 1;
+    //Whether the class file was found. Classes that are only referred to by other classes don't have any edges
+    private static final int RESOLVED = 2;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final byte[] flags;
+    //The id of the superclass of each class, or -1 for java/lang/Object and unresolved classes
+    private final int[] superclasses;
+    //The interfaces of class i are interfaces[interfaceOffsets[i]] up to interfaces[interfaceOffsets[i + 1]]
+    private final int[] interfaceOffsets;
+    private final int[] interfaces;
+
+    private static ClassHierarchyIndex systemIndex;
+
+    private ClassHierarchyIndex(String[] names, byte[] flags, int[] superclasses, int[] interfaceOffsets, int[] interfaces) {
+        this.names = names;
+        this.flags = flags;
+        this.superclasses = superclasses;
+        this.interfaceOffsets = interfaceOffsets;
+        this.interfaces = interfaces;
+
+        this.ids = new HashMap<>(names.length * 2);
+        for(int i = 0; i < names.length; i++){
+            ids.put(names[i], i);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.out.println("Usage: ClassHierarchyIndex <output file> <jar or directory>...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Path> paths = new ArrayList<>();
+        for(int i = 1; i < args.length; i++) paths.add(Path.of(args[i]));
+
+        ClassHierarchyIndex index;
+        try(ClassPath classPath = ClassPath.of(paths)){
+            index = of(classPath);
+        }
+        index.write(Path.of(args[0]));
+        System.out.printf("Indexed %d classes in %.1f ms%n", index.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * @return The index in the file given by {@code why.hierarchy} or the one bundled at {@link #RESOURCE}. Otherwise, the index of
+     * {@link ClassPath#system()}, which is only built the first time it is needed
+     */
+    public static synchronized ClassHierarchyIndex system(){
+        if(systemIndex == null){
+            try {
+                ClassHierarchyIndex prebuilt = prebuilt();
+                systemIndex = prebuilt != null ? prebuilt : of(ClassPath.system());
+            }catch (IOException e){
+                throw new UncheckedIOException("Couldn't index the class hierarchy", e);
+            }
+        }
+        return systemIndex;
+    }
+
+    /**
+     * Makes {@link #system()} use the index in the file given by {@code why.hierarchy} or the one bundled at {@link #RESOURCE}, and never index the
+     * class path instead. For when the classes that get transformed aren't on the class path of this JVM
+     * @throws IllegalStateException If there is no such index
+     */
+    public static synchronized ClassHierarchyIndex requirePrebuilt() throws IOException {
+        //Whatever system() already returned might have come from the class path
+        ClassHierarchyIndex prebuilt = prebuilt();
+        if(prebuilt == null){
+            throw new IllegalStateException("No class hierarchy index. Build the jar with the indexHierarchy task or pass -Dwhy.hierarchy=<file>");
+        }
+        systemIndex = prebuilt;
+        return prebuilt;
+    }
+
+    /**
+     * @return The index in the file given by {@code why.hierarchy}, the one bundled at {@link #RESOURCE} or null if there is neither
+     */
+    private static ClassHierarchyIndex prebuilt() throws IOException {
+        String path = System.getProperty("why.hierarchy");
+        if(path != null) return read(Path.of(path));
+
+        try(InputStream in = ClassHierarchyIndex.class.getResourceAsStream(RESOURCE)){
+            return in == null ? null : read(in);
+        }
+    }
+
+    /**
+     * Reads the header of every class on the class path and of every JDK class they extend or implement
+     */
+    public static ClassHierarchyIndex of(ClassPath classPath) throws IOException {
+        Builder builder = new Builder();
+        for(String className : classPath.getClassNames()){
+            ByteBuffer data = classPath.getClass(className);
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            builder.add(bytes);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param classes Class files to index. Supertypes that aren't among them are looked for in the JDK
+     */
+    public static ClassHierarchyIndex of(Collection<byte[]> classes) throws IOException {
+        Builder builder = new Builder();
+        for(byte[] bytes : classes){
+            builder.add(bytes);
+        }
+        return builder.build();
+    }
+
+    public boolean contains(String className){
+        Integer id = ids.get(className);
+        return id != null && (flags[id] & RESOLVED) != 0;
+    }
+
+    public int size(){
+        return names.length;
+    }
+
+    /**
+     * Answers the same question as {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)} the same way, but from the index
+     * @param type1 The internal name of a class or interface
+     * @param type2 The internal name of another class or interface
+     * @return The internal name of the closest class both are assignable to
+     * @throws TypeNotPresentException If one of the classes, or one of their supertypes, isn't in the index
+     */
+    public String getCommonSuperClass(String type1, String type2){
+        int id1 = getResolvedId(type1);
+        int id2 = getResolvedId(type2);
+
+        if(isAssignableFrom(id1, id2)) return type1;
+        if(isAssignableFrom(id2, id1)) return type2;
+        if((flags[id1] & INTERFACE) != 0 || (flags[id2] & INTERFACE) != 0) return "java/lang/Object";
+
+        int superclass = id1;
+        do {
+            superclass = superclasses[superclass];
+            if(superclass == -1) return "java/lang/Object";
+            checkResolved(superclass);
+        }while (!isAssignableFrom(superclass, id2));
+        return names[superclass];
+    }
+
+    /**
+     * @return Whether a value of class {@code from} can be stored as class {@code to}, meaning {@code to} is {@code from} itself or one of its supertypes
+     */
+    private boolean isAssignableFrom(int to, int from){
+        if(to == from) return true;
+
+        int[] stack = new int[8];
+        int size = 0;
+        stack[size++] = from;
+        BitSet visited = new BitSet();
+        while (size > 0){
+            int current = stack[--size];
+            if(current == to) return true;
+            if(visited.get(current)) continue;
+            visited.set(current);
+            checkResolved(current);
+
+            int superclass = superclasses[current];
+            int needed = size + 1 + interfaceOffsets[current + 1] - interfaceOffsets[current];
+            if(needed > stack.length) stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+            if(superclass != -1) stack[size++] = superclass;
+            for(int i = interfaceOffsets[current]; i < interfaceOffsets[current + 1]; i++){
+                stack[size++] = interfaces[i];
+            }
+        }
+        return false;
+    }
+
+    private int getResolvedId(String className){
+        Integer id = ids.get(className);
+        if(id == null) throw new TypeNotPresentException(className, null);
+        checkResolved(id);
+        return id;
+    }
+
+    private void checkResolved(int id){
+        if((flags[id] & RESOLVED) == 0) throw new TypeNotPresentException(names[id], null);
+    }
+
+    public void write(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(names.length);
+                for(String name : names){
+                    out.writeUTF(name);
+                }
+                out.write(flags);
+                for(int superclass : superclasses){
+                    out.writeInt(superclass);
+                }
+                for(int offset : interfaceOffsets){
+                    out.writeInt(offset);
+                }
+                for(int implemented : interfaces){
+                    out.writeInt(implemented);
+                }
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static ClassHierarchyIndex read(Path path) throws IOException {
+        try(InputStream in = Files.newInputStream(path)){
+            return read(in);
+        }
+    }
+
+    public static ClassHierarchyIndex read(InputStream stream) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(stream))){
+            if(in.readInt() != MAGIC) throw new IOException("Not a class hierarchy index");
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported class hierarchy index version " + version);
+
+            String[] names = new String[in.readInt()];
+            for(int i = 0; i < names.length; i++){
+                names[i] = in.readUTF();
+            }
+            byte[] flags = new byte[names.length];
+            in.readFully(flags);
+            int[] superclasses = readInts(in, names.length);
+            int[] interfaceOffsets = readInts(in, names.length + 1);
+            int[] interfaces = readInts(in, interfaceOffsets[names.length]);
+            return new ClassHierarchyIndex(names, flags, superclasses, interfaceOffsets, interfaces);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for(int i = 0; i < count; i++){
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Numbers classes in the order they are first seen, whether that is as a class file or as the supertype of one
+     */
+    private static class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<String> superclasses = new ArrayList<>();
+        private final List<String[]> interfaces = new ArrayList<>();
+        private final List<Integer> access = new ArrayList<>();
+
+        void add(byte[] classFile){
+            //Only the constant pool and the header get read
+            ClassReader reader = new ClassReader(classFile);
+            add(reader.getClassName(), reader.getSuperName(), reader.getInterfaces(), reader.getAccess());
+        }
+
+        private void add(String className, String superName, String[] implemented, int classAccess){
+            if(ids.containsKey(className)) return;
+
+            ids.put(className, names.size());
+            names.add(className);
+            superclasses.add(superName);
+            interfaces.add(implemented);
+            access.add(classAccess);
+        }
+
+        ClassHierarchyIndex build() throws IOException {
+            //Anything the class files extend that isn't among them is looked for in the JDK, as are the supertypes of those
+            Set<String> missing = new HashSet<>();
+            for(int i = 0; i < names.size(); i++){
+                List<String> supertypes = new ArrayList<>(Arrays.asList(interfaces.get(i)));
+                if(superclasses.get(i) != null) supertypes.add(superclasses.get(i));
+
+                for(String supertype : supertypes){
+                    if(ids.containsKey(supertype) || missing.contains(supertype)) continue;
+                    try(InputStream in = ClassLoader.getSystemResourceAsStream(supertype + ".class")){
+                        if(in == null){
+                            missing.add(supertype);
+                        }else{
+                            add(in.readAllBytes());
+                        }
+                    }
+                }
+            }
+
+            List<String> allNames = new ArrayList<>(names);
+            allNames.addAll(missing);
+            Map<String, Integer> allIds = new HashMap<>(ids);
+            for(String name : missing) allIds.put(name, allIds.size());
+
+            int count = allNames.size();
+            byte[] flags = new byte[count];
+            int[] superclassIds = new int[count];
+            int[] interfaceOffsets = new int[count + 1];
+            List<Integer> interfaceIds = new ArrayList<>();
+            Arrays.fill(superclassIds, -1);
+            for(int i = 0; i < names.size(); i++){
+                flags[i] = (byte) (RESOLVED | ((access.get(i) & Opcodes.ACC_INTERFACE) != 0 ? INTERFACE : 0));
+                if(superclasses.get(i) != null) superclassIds[i] = allIds.get(superclasses.get(i));
+                for(String implemented : interfaces.get(i)){
+                    interfaceIds.add(allIds.get(implemented));
+                }
+                interfaceOffsets[i + 1] = interfaceIds.size();
+            }
+            for(int i = names.size(); i < count; i++){
+                interfaceOffsets[i + 1] = interfaceIds.size();
+            }
+
+            return new ClassHierarchyIndex(allNames.toArray(String[]::new), flags, superclassIds, interfaceOffsets,
+                    interfaceIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+}
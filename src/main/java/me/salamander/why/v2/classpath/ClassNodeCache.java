@@ -0,0 +1,74 @@
+package me.salamander.why.v2.classpath;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used classes of a {@link ClassPath} parsed, for code that only needs to look at classes, like the analysis looking up a
+ * method or a superclass. The nodes are shared between everyone who asks for the same class, so they must never be modified. Anything that
+ * transforms a class should use {@link ClassPath#createClassNode(String, int)} instead. The summary pass looks up classes from outside its jar and
+ * the benchmarks their class through {@link #system()}.
+ * <br>
+ * The number of classes is set with the {@code why.classCacheSize} system property for {@link #system()}
+ */
+public class ClassNodeCache {
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("why.classCacheSize", 256);
+
+    private final ClassPath classPath;
+    private final int readerFlags;
+    private final Map<String, ClassNode> nodes;
+
+    /**
+     * @param capacity How many classes to keep at most
+     * @param readerFlags The flags to parse classes with, e.g. {@link ClassReader#SKIP_DEBUG} if nothing needs line numbers or local variable names
+     */
+    public ClassNodeCache(ClassPath classPath, int capacity, int readerFlags) {
+        this.classPath = classPath;
+        this.readerFlags = readerFlags;
+        this.nodes = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClassNode> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return A cache over {@link ClassPath#system()} that skips debug info and frames
+     */
+    public static ClassNodeCache system(){
+        return SystemCache.INSTANCE;
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The shared node of the class
+     * @throws IllegalArgumentException If the class can't be found
+     */
+    public ClassNode get(String className){
+        synchronized (nodes){
+            ClassNode node = nodes.get(className);
+            if(node != null) return node;
+        }
+
+        //Parsing happens outside of the lock so other classes can be looked up meanwhile. If two threads want the same class, both parse it
+        ClassNode node = classPath.createClassNode(className, readerFlags);
+        synchronized (nodes){
+            ClassNode existing = nodes.putIfAbsent(className, node);
+            return existing == null ? node : existing;
+        }
+    }
+
+    public int size(){
+        synchronized (nodes){
+            return nodes.size();
+        }
+    }
+
+    private static class SystemCache {
+        private static final ClassNodeCache INSTANCE = new ClassNodeCache(ClassPath.system(), DEFAULT_CAPACITY, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+}
@@ -0,0 +1,157 @@
+package me.salamander.why.v2.classpath;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Finds class files in a list of jars and directories. All of them are indexed when the class path is created, so looking up a class is a single
+ * hash lookup instead of a search through every jar. If several of them have the same class, the first one wins like it would for a class loader.
+ * <br>
+ * Jars are read through {@link JarClassSource}, so stored classes are handed out without being copied
+ */
+public class ClassPath implements Closeable {
+    private final List<JarClassSource> jars;
+    /**
+     * Maps the internal name of every class to the {@link JarClassSource} or the file it is in
+     */
+    private final Map<String, Object> index;
+
+    private ClassPath(List<JarClassSource> jars, Map<String, Object> index) {
+        this.jars = jars;
+        this.index = index;
+    }
+
+    public static ClassPath of(List<Path> paths) throws IOException {
+        List<JarClassSource> jars = new ArrayList<>();
+        Map<String, Object> index = new HashMap<>();
+        try {
+            for(Path path : paths){
+                if(Files.isDirectory(path)){
+                    indexDirectory(path, index);
+                }else if(Files.isRegularFile(path)){
+                    JarClassSource jar = JarClassSource.open(path);
+                    jars.add(jar);
+                    for(String name : jar.getEntryNames()){
+                        if(name.endsWith(".class") && !name.startsWith("META-INF/")){
+                            index.putIfAbsent(name.substring(0, name.length() - ".class".length()), jar);
+                        }
+                    }
+                }
+            }
+        }catch (IOException | RuntimeException e){
+            for(JarClassSource jar : jars) jar.close();
+            throw e;
+        }
+        return new ClassPath(jars, index);
+    }
+
+    /**
+     * @return The class path of this JVM. It is only indexed the first time it is needed
+     */
+    public static ClassPath system(){
+        return SystemClassPath.INSTANCE;
+    }
+
+    public boolean contains(String className){
+        return index.containsKey(className);
+    }
+
+    /**
+     * @return The internal names of all the classes on this class path
+     */
+    public Set<String> getClassNames(){
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The class file or null if the class isn't on this class path
+     */
+    public ByteBuffer getClass(String className) throws IOException {
+        Object source = index.get(className);
+        if(source == null) return null;
+        if(source instanceof JarClassSource jar) return jar.read(className + ".class");
+        return ByteBuffer.wrap(Files.readAllBytes((Path) source));
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The class file or null if the class isn't on this class path
+     */
+    public byte[] getClassBytes(String className) throws IOException {
+        Object source = index.get(className);
+        if(source == null) return null;
+        if(source instanceof JarClassSource jar) return jar.readBytes(className + ".class");
+        return Files.readAllBytes((Path) source);
+    }
+
+    /**
+     * Parses a new node every time, so it may be modified. Classes that aren't on this class path, like the ones of the JDK, are read through the
+     * system class loader
+     * @param className The internal name of the class
+     * @param readerFlags The flags for {@link ClassReader#accept(org.objectweb.asm.ClassVisitor, int)}
+     * @throws IllegalArgumentException If the class can't be found anywhere
+     */
+    public ClassNode createClassNode(String className, int readerFlags){
+        byte[] bytes;
+        try {
+            bytes = getClassBytes(className);
+            if(bytes == null){
+                try(InputStream in = ClassLoader.getSystemResourceAsStream(className + ".class")){
+                    if(in == null) throw new IllegalArgumentException("Couldn't find class " + className);
+                    bytes = in.readAllBytes();
+                }
+            }
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read class " + className, e);
+        }
+
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, readerFlags);
+        return node;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(JarClassSource jar : jars) jar.close();
+    }
+
+    private static void indexDirectory(Path directory, Map<String, Object> index) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)){
+            files.forEach(file -> {
+                String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                if(name.endsWith(".class") && !name.startsWith("META-INF/")){
+                    index.putIfAbsent(name.substring(0, name.length() - ".class".length()), file);
+                }
+            });
+        }
+    }
+
+    private static class SystemClassPath {
+        private static final ClassPath INSTANCE = create();
+
+        private static ClassPath create(){
+            List<Path> paths = new ArrayList<>();
+            for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)){
+                if(!entry.isEmpty()) paths.add(Path.of(entry));
+            }
+
+            try {
+                return ClassPath.of(paths);
+            }catch (IOException e){
+                throw new UncheckedIOException("Couldn't index the class path", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package me.salamander.why.v2.classpath;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A {@link ClassWriter} that answers {@link #getCommonSuperClass(String, String)} from a {@link ClassHierarchyIndex} instead of loading both
+ * classes. Computing frames with it is safe inside a class file transformer and never initializes anything
+ */
+public class HierarchyClassWriter extends ClassWriter {
+    private final ClassHierarchyIndex hierarchy;
+
+    public HierarchyClassWriter(ClassHierarchyIndex hierarchy, int flags) {
+        super(flags);
+        this.hierarchy = hierarchy;
+    }
+
+    public HierarchyClassWriter(ClassHierarchyIndex hierarchy, ClassReader classReader, int flags) {
+        super(classReader, flags);
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * @throws TypeNotPresentException If one of the classes isn't in the index, like {@link ClassWriter} does when it can't load one
+     */
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.getCommonSuperClass(type1, type2);
+    }
+}
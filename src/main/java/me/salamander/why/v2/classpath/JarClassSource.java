@@ -0,0 +1,222 @@
+package me.salamander.why.v2.classpath;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A jar that is mapped into memory once. Its central directory is read when it is opened, so finding an entry afterwards is a single hash lookup.
+ * Stored entries are returned as slices of the mapping without copying anything; deflated ones have to be inflated into a new buffer.
+ * Can be used by any number of threads at once
+ */
+public final class JarClassSource implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    private JarClassSource(Path path, FileChannel channel, MappedByteBuffer buffer, Map<String, Entry> entries) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public static JarClassSource open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException(path + " is too big to be mapped");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new JarClassSource(path, channel, buffer, readCentralDirectory(path, buffer));
+        }catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The names of all the entries in the jar
+     */
+    public Set<String> getEntryNames(){
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean contains(String name){
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return The contents of the entry, as a read only view of the mapping if it is stored, or null if there is no such entry
+     */
+    public ByteBuffer read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if(entry == null) return null;
+
+        int headerOffset = entry.headerOffset;
+        if(buffer.getInt(headerOffset) != LOCAL_HEADER){
+            throw new ZipException("Bad local header for " + name + " in " + path);
+        }
+        int dataOffset = headerOffset + 30 + Short.toUnsignedInt(buffer.getShort(headerOffset + 26)) + Short.toUnsignedInt(buffer.getShort(headerOffset + 28));
+        ByteBuffer data = buffer.slice(dataOffset, entry.compressedSize).asReadOnlyBuffer();
+
+        switch (entry.method) {
+            case STORED:
+                return data;
+            case DEFLATED:
+                byte[] inflated = new byte[entry.size];
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(data);
+                    int length = 0;
+                    while (length < inflated.length && !inflater.finished()){
+                        int read = inflater.inflate(inflated, length, inflated.length - length);
+                        if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                        length += read;
+                    }
+                    if(length != inflated.length){
+                        throw new ZipException("Truncated entry " + name + " in " + path);
+                    }
+                }catch (DataFormatException e){
+                    throw new ZipException("Corrupt entry " + name + " in " + path + ": " + e.getMessage());
+                }finally {
+                    inflater.end();
+                }
+                return ByteBuffer.wrap(inflated);
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + name + " in " + path);
+        }
+    }
+
+    /**
+     * @return The contents of the entry or null if there is no such entry
+     */
+    public byte[] readBytes(String name) throws IOException {
+        ByteBuffer data = read(name);
+        if(data == null) return null;
+        if(data.hasArray() && data.arrayOffset() == 0 && data.remaining() == data.array().length) return data.array();
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        //The mapping itself stays valid until it is garbage collected
+        channel.close();
+    }
+
+    private static Map<String, Entry> readCentralDirectory(Path path, ByteBuffer buffer) throws ZipException {
+        int end = findEndOfCentralDirectory(buffer);
+        if(end == -1) throw new ZipException(path + " isn't a zip file");
+
+        long count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+
+        //Jars with too many entries or that are too big keep the real values in the zip64 record
+        int locator = end - 20;
+        if(locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR){
+            int zip64End = checkedOffset(path, buffer.getLong(locator + 8), buffer);
+            if(buffer.getInt(zip64End) != ZIP64_END_OF_CENTRAL_DIRECTORY){
+                throw new ZipException("Bad zip64 end of central directory in " + path);
+            }
+            count = buffer.getLong(zip64End + 32);
+            offset = buffer.getLong(zip64End + 48);
+        }
+
+        Map<String, Entry> entries = new HashMap<>((int) Math.min(count * 2, Integer.MAX_VALUE / 2));
+        int position = checkedOffset(path, offset, buffer);
+        for(long i = 0; i < count; i++){
+            if(buffer.getInt(position) != CENTRAL_HEADER){
+                throw new ZipException("Bad central directory entry in " + path);
+            }
+
+            int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            long compressedSize = Integer.toUnsignedLong(buffer.getInt(position + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            long headerOffset = Integer.toUnsignedLong(buffer.getInt(position + 42));
+
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(position + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            //Values that don't fit are in the zip64 extra field, in this order
+            int extra = position + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd){
+                int id = Short.toUnsignedInt(buffer.getShort(extra));
+                int length = Short.toUnsignedInt(buffer.getShort(extra + 2));
+                if(id == 0x0001){
+                    int field = extra + 4;
+                    if(size == 0xFFFFFFFFL){ size = buffer.getLong(field); field += 8; }
+                    if(compressedSize == 0xFFFFFFFFL){ compressedSize = buffer.getLong(field); field += 8; }
+                    if(headerOffset == 0xFFFFFFFFL){ headerOffset = buffer.getLong(field); }
+                    break;
+                }
+                extra += 4 + length;
+            }
+
+            if(!name.endsWith("/")){
+                Entry entry = new Entry(checkedOffset(path, headerOffset, buffer), method, checkedSize(path, compressedSize), checkedSize(path, size));
+                entries.putIfAbsent(name, entry);
+            }
+
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer){
+        //The record is at least 22 bytes and can be followed by a comment of up to 65535 bytes
+        int lowest = Math.max(0, buffer.limit() - 22 - 65535);
+        for(int position = buffer.limit() - 22; position >= lowest; position--){
+            if(buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY) return position;
+        }
+        return -1;
+    }
+
+    private static int checkedOffset(Path path, long offset, ByteBuffer buffer) throws ZipException {
+        if(offset < 0 || offset >= buffer.limit()) throw new ZipException("Offset " + offset + " is outside of " + path);
+        return (int) offset;
+    }
+
+    private static int checkedSize(Path path, long size) throws ZipException {
+        if(size < 0 || size > Integer.MAX_VALUE - 8) throw new ZipException("An entry in " + path + " is too big");
+        return (int) size;
+    }
+
+    private record Entry(int headerOffset, int method, int compressedSize, int size) {}
+}
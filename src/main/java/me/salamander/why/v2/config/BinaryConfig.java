@@ -0,0 +1,207 @@
+package me.salamander.why.v2.config;
+
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.TransformContext;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The compiled form of {@code config.json} and {@code remaps.json} made by {@link ConfigCompiler}. Everything that the JSON form leaves to be
+ * worked out at load time is already done: method ids are split into owner, name and descriptor, renames are resolved and the new descriptors
+ * and argument counts are computed. Reading it only takes a {@link DataInputStream}, so loading a config doesn't need Gson
+ */
+public class BinaryConfig {
+    public static final String CONFIG_FILE = "config.bin";
+    public static final String REMAPS_FILE = "remaps.bin";
+
+    private static final int CONFIG_MAGIC = 0x57485942; //WHYB
+    private static final int REMAPS_MAGIC = 0x57485952; //WHYR
+    private static final int VERSION = 2;
+
+    private static final int RETURNS_POS = 1;
+    private static final int DISABLED = 1;
+    private static final int COPY = 2;
+
+    /**
+     * Reads the compiled {@code /config.bin} from the class path
+     * @return The context or null if there is no compiled config
+     */
+    public static TransformContext loadContext(AnalysisEngine.Mode mode){
+        byte[] compiled = readConfigBytes();
+        try {
+            return compiled == null ? null : readContext(new ByteArrayInputStream(compiled), mode);
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read the compiled config", e);
+        }
+    }
+
+    /**
+     * @return The bytes of the compiled {@code /config.bin} on the class path or null if there is none
+     */
+    public static byte[] readConfigBytes(){
+        try(InputStream in = BinaryConfig.class.getResourceAsStream("/" + CONFIG_FILE)){
+            return in == null ? null : in.readAllBytes();
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read the compiled config", e);
+        }
+    }
+
+    public static void writeContext(OutputStream output, TransformContext context) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(CONFIG_MAGIC);
+        out.writeShort(VERSION);
+
+        //Sorted so that the same config always compiles to the same bytes
+        Map<String, MethodInfo> methodInfo = new TreeMap<>(context.getMethodInfo());
+        out.writeInt(methodInfo.size());
+        for(Map.Entry<String, MethodInfo> entry : methodInfo.entrySet()){
+            writeMethodID(out, entry.getKey());
+
+            MethodInfo info = entry.getValue();
+            out.writeByte(info.returnsPackedBlockPos() ? RETURNS_POS : 0);
+            out.writeByte(checkRange(info.getNumArgs(), 0xFF, "argument count"));
+            writeInts(out, new TreeSet<>(info.getExpandedIndices()));
+            out.writeUTF(info.getNewOwner());
+            out.writeUTF(info.getNewName());
+            out.writeUTF(info.getNewDesc());
+        }
+
+        for(int axis = 0; axis < 3; axis++){
+            writeMethodID(out, context.getUnpackingMethod(axis));
+        }
+        out.flush();
+    }
+
+    public static TransformContext readContext(InputStream input, AnalysisEngine.Mode mode) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        checkHeader(in, CONFIG_MAGIC);
+
+        int count = in.readInt();
+        Map<String, MethodInfo> methodInfo = new HashMap<>(count * 2);
+        for(int i = 0; i < count; i++){
+            String methodID = readMethodID(in);
+
+            boolean returnsPos = (in.readUnsignedByte() & RETURNS_POS) != 0;
+            int numArgs = in.readUnsignedByte();
+            Set<Integer> expandedIndices = new HashSet<>(readInts(in));
+            methodInfo.put(methodID, new MethodInfo(returnsPos, expandedIndices, numArgs, in.readUTF(), in.readUTF(), in.readUTF()));
+        }
+
+        String[] unpackingMethods = new String[3];
+        for(int axis = 0; axis < 3; axis++){
+            unpackingMethods[axis] = readMethodID(in);
+        }
+        return new TransformContext(methodInfo, unpackingMethods, mode);
+    }
+
+    public static void writeRemaps(OutputStream output, List<Remaps.ClassRemap> remaps) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(REMAPS_MAGIC);
+        out.writeShort(VERSION);
+
+        out.writeInt(remaps.size());
+        for(Remaps.ClassRemap classRemap : remaps){
+            out.writeUTF(classRemap.className());
+            out.writeInt(classRemap.methods().size());
+            for(Remaps.MethodRemap method : classRemap.methods()){
+                out.writeUTF(method.name());
+                out.writeUTF(method.descriptor());
+                out.writeByte((method.disabled() ? DISABLED : 0) | (method.copy() ? COPY : 0));
+                writeInts(out, method.expandedVariables());
+
+                out.writeInt(method.transformedMethods().size());
+                for(Map.Entry<String, String> entry : method.transformedMethods().entrySet()){
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+
+                out.writeInt(method.patterns().size());
+                for(String pattern : method.patterns()){
+                    out.writeUTF(pattern);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    public static List<Remaps.ClassRemap> readRemaps(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        checkHeader(in, REMAPS_MAGIC);
+
+        int classCount = in.readInt();
+        List<Remaps.ClassRemap> remaps = new ArrayList<>(classCount);
+        for(int i = 0; i < classCount; i++){
+            String className = in.readUTF();
+
+            int methodCount = in.readInt();
+            List<Remaps.MethodRemap> methods = new ArrayList<>(methodCount);
+            for(int j = 0; j < methodCount; j++){
+                String name = in.readUTF();
+                String descriptor = in.readUTF();
+                int flags = in.readUnsignedByte();
+                List<Integer> expandedVariables = readInts(in);
+
+                int transformedCount = in.readInt();
+                Map<String, String> transformedMethods = new LinkedHashMap<>();
+                for(int k = 0; k < transformedCount; k++){
+                    transformedMethods.put(in.readUTF(), in.readUTF());
+                }
+
+                int patternCount = in.readInt();
+                List<String> patterns = new ArrayList<>(patternCount);
+                for(int k = 0; k < patternCount; k++){
+                    patterns.add(in.readUTF());
+                }
+
+                methods.add(new Remaps.MethodRemap(name, descriptor, (flags & DISABLED) != 0, (flags & COPY) != 0, expandedVariables, transformedMethods, patterns));
+            }
+            remaps.add(new Remaps.ClassRemap(className, methods));
+        }
+        return remaps;
+    }
+
+    private static void checkHeader(DataInputStream in, int magic) throws IOException {
+        if(in.readInt() != magic) throw new IOException("Not a compiled config");
+        int version = in.readUnsignedShort();
+        if(version != VERSION) throw new IOException("Unsupported compiled config version " + version + ". Compile the config again");
+    }
+
+    private static int checkRange(int value, int max, String what) throws IOException {
+        if(value < 0 || value > max) throw new IOException("Can't compile " + what + " " + value + ". It must be between 0 and " + max);
+        return value;
+    }
+
+    private static void writeMethodID(DataOutputStream out, String methodID) throws IOException {
+        int hash = methodID.indexOf('#');
+        int space = methodID.indexOf(' ', hash);
+        out.writeUTF(methodID.substring(0, hash));
+        out.writeUTF(methodID.substring(hash + 1, space));
+        out.writeUTF(methodID.substring(space + 1));
+    }
+
+    private static String readMethodID(DataInputStream in) throws IOException {
+        String owner = in.readUTF();
+        String name = in.readUTF();
+        String descriptor = in.readUTF();
+        return owner + "#" + name + " " + descriptor;
+    }
+
+    private static void writeInts(DataOutputStream out, Collection<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for(int value : values){
+            //Local variable indices always fit in an unsigned short
+            out.writeShort(checkRange(value, 0xFFFF, "variable index"));
+        }
+    }
+
+    private static List<Integer> readInts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Integer> values = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            values.add(in.readUnsignedShort());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,41 @@
+package me.salamander.why.v2.config;
+
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Compiles the config from {@link Main#loadConfig()} and {@code remaps.json} into {@link BinaryConfig#CONFIG_FILE} and
+ * {@link BinaryConfig#REMAPS_FILE}. The build runs this and puts both files into the jar.
+ * <br>
+ * Arguments: {@code <output directory>}
+ */
+public class ConfigCompiler {
+    public static void main(String[] args) throws IOException {
+        if(args.length != 1){
+            System.out.println("Usage: ConfigCompiler <output directory>");
+            return;
+        }
+
+        Path output = Path.of(args[0]);
+        Files.createDirectories(output);
+
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.fromSystemProperties());
+        try(OutputStream out = Files.newOutputStream(output.resolve(BinaryConfig.CONFIG_FILE))){
+            BinaryConfig.writeContext(out, context);
+        }
+
+        List<Remaps.ClassRemap> remaps = JsonConfig.loadRemaps();
+        try(OutputStream out = Files.newOutputStream(output.resolve(BinaryConfig.REMAPS_FILE))){
+            BinaryConfig.writeRemaps(out, remaps);
+        }
+
+        System.out.println("Compiled " + context.getMethodInfo().size() + " methods and " + remaps.size() + " remapped classes into " + output.toAbsolutePath());
+    }
+}
@@ -0,0 +1,57 @@
+package me.salamander.why.v2.config;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads {@code remaps.json} with Gson. Only {@link ConfigCompiler} and trees without a compiled config need this, which keeps Gson out of
+ * everything else
+ */
+class JsonConfig {
+    static List<Remaps.ClassRemap> loadRemaps(){
+        try(InputStream in = JsonConfig.class.getResourceAsStream("/remaps.json")){
+            if(in == null) throw new IllegalStateException("Couldn't find remaps.json");
+            return readRemaps(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read remaps.json", e);
+        }
+    }
+
+    static List<Remaps.ClassRemap> readRemaps(String json){
+        List<Remaps.ClassRemap> classes = new ArrayList<>();
+        for(JsonElement classElement : new JsonParser().parse(json).getAsJsonArray()){
+            JsonObject classInfo = classElement.getAsJsonObject();
+
+            List<Remaps.MethodRemap> methods = new ArrayList<>();
+            for(JsonElement methodElement : classInfo.get("methods").getAsJsonArray()){
+                JsonObject methodInfo = methodElement.getAsJsonObject();
+
+                List<Integer> expandedVariables = new ArrayList<>();
+                methodInfo.get("expanded_variables").getAsJsonArray().forEach(e -> expandedVariables.add(e.getAsInt()));
+
+                Map<String, String> transformedMethods = new LinkedHashMap<>();
+                methodInfo.get("transformed_methods").getAsJsonObject().entrySet().forEach(entry -> transformedMethods.put(entry.getKey(), entry.getValue().getAsString()));
+
+                List<String> patterns = new ArrayList<>();
+                methodInfo.get("patterns").getAsJsonArray().forEach(e -> patterns.add(e.getAsString()));
+
+                methods.add(new Remaps.MethodRemap(methodInfo.get("name").getAsString(), methodInfo.get("descriptor").getAsString(),
+                        getBoolean(methodInfo, "disable", false), getBoolean(methodInfo, "copy", true), expandedVariables, transformedMethods, patterns));
+            }
+            classes.add(new Remaps.ClassRemap(classInfo.get("class").getAsString(), methods));
+        }
+        return classes;
+    }
+
+    private static boolean getBoolean(JsonObject object, String key, boolean fallback){
+        JsonElement element = object.get(key);
+        return element == null ? fallback : element.getAsBoolean();
+    }
+}
@@ -0,0 +1,37 @@
+package me.salamander.why.v2.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The hand written transformations from {@code remaps.json}
+ */
+public class Remaps {
+    /**
+     * Reads the compiled {@code /remaps.bin} if there is one and parses {@code /remaps.json} otherwise
+     */
+    public static List<ClassRemap> load(){
+        try(InputStream compiled = Remaps.class.getResourceAsStream("/" + BinaryConfig.REMAPS_FILE)){
+            if(compiled != null) return BinaryConfig.readRemaps(compiled);
+        }catch (IOException e){
+            throw new UncheckedIOException("Couldn't read the compiled remaps", e);
+        }
+        return JsonConfig.loadRemaps();
+    }
+
+    /**
+     * @param className The class as it is written in the file
+     */
+    public record ClassRemap(String className, List<MethodRemap> methods) {}
+
+    /**
+     * @param copy Whether the remapped method is added next to the original instead of replacing it
+     * @param transformedMethods The new descriptors of the methods that get called, by {@code owner#name}
+     * @param patterns The names of the patterns to apply, see {@link me.salamander.why.debug.patterns.Patterns}
+     */
+    public record MethodRemap(String name, String descriptor, boolean disabled, boolean copy, List<Integer> expandedVariables,
+                              Map<String, String> transformedMethods, List<String> patterns) {}
+}
@@ -0,0 +1,34 @@
+package me.salamander.why.v2.output;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes every entry to its own file below a directory. This blocks the writing thread, so wrap it in a {@link WriteBehindSink} to write from
+ * transformation threads
+ */
+public class DirectorySink implements OutputSink {
+    private final Path directory;
+
+    public DirectorySink(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        Path path = directory.resolve(name);
+        Path parent = path.toAbsolutePath().getParent();
+        if(parent != null) Files.createDirectories(parent);
+        Files.write(path, data);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -0,0 +1,212 @@
+package me.salamander.why.v2.output;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes entries into a new jar. Entries are compressed in parallel by a pool of threads and written by a single writer thread in the order they
+ * were given, so writing only has to wait for the compression of the entry before it. Entries that don't get smaller are stored.
+ * <br>
+ * All entries get the same timestamp so the same entries always make the same jar. Jars with more than 65535 entries get a zip64 end record, but
+ * the whole jar has to stay below 4 GiB
+ */
+public class JarSink implements OutputSink {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UTF8_NAMES = 0x800;
+    //1980-02-01 00:00, the earliest date every tool agrees on
+    private static final int DOS_TIME = (2 << 5 | 1) << 16;
+
+    private static final Future<Compressed> END = CompletableFuture.completedFuture(null);
+
+    private final ExecutorService compressors;
+    private final BlockingQueue<Future<Compressed>> pending = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private long offset;
+    private int entries;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * @param threads The number of threads that compress entries
+     */
+    public JarSink(Path jar, int threads) throws IOException {
+        Path parent = jar.toAbsolutePath().getParent();
+        if(parent != null) Files.createDirectories(parent);
+
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(jar), 1 << 16));
+        this.compressors = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Jar Compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writerThread = new Thread(this::run, "Jar Writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        Throwable failure = this.failure;
+        if(failure != null) throw new IOException("An earlier write failed", failure);
+
+        pending.add(compressors.submit(() -> compress(name, data)));
+    }
+
+    private static Compressed compress(String name, byte[] data){
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()){
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if(compressed.size() < data.length){
+                return new Compressed(nameBytes, DEFLATED, (int) crc.getValue(), data.length, compressed.toByteArray());
+            }
+            return new Compressed(nameBytes, STORED, (int) crc.getValue(), data.length, data);
+        }finally {
+            deflater.end();
+        }
+    }
+
+    private void run(){
+        try {
+            Future<Compressed> next;
+            while ((next = pending.take()) != END){
+                writeEntry(next.get());
+            }
+        }catch (ExecutionException e){
+            failure = e.getCause();
+        }catch (IOException | RuntimeException | InterruptedException e){
+            failure = e;
+        }
+    }
+
+    private void writeEntry(Compressed entry) throws IOException {
+        if(offset + 30 + entry.name.length + entry.data.length > 0xFFFFFFFFL){
+            throw new IOException("The jar is too big");
+        }
+
+        //Local file header
+        out.writeInt(Integer.reverseBytes(LOCAL_HEADER));
+        writeHeaderFields(out, entry);
+        out.writeShort(0);
+        out.write(entry.name);
+        out.write(entry.data);
+
+        //Its central directory record
+        DataOutputStream central = new DataOutputStream(centralDirectory);
+        central.writeInt(Integer.reverseBytes(CENTRAL_HEADER));
+        central.writeShort(Short.reverseBytes((short) 20));
+        writeHeaderFields(central, entry);
+        central.writeShort(0); //Extra field length
+        central.writeShort(0); //Comment length
+        central.writeShort(0); //Disk number
+        central.writeShort(0); //Internal attributes
+        central.writeInt(0); //External attributes
+        central.writeInt(Integer.reverseBytes((int) offset));
+        central.write(entry.name);
+
+        offset += 30 + entry.name.length + entry.data.length;
+        entries++;
+    }
+
+    /**
+     * Writes everything from the version needed to the name length, which is the same in both headers
+     */
+    private static void writeHeaderFields(DataOutputStream out, Compressed entry) throws IOException {
+        out.writeShort(Short.reverseBytes((short) 20));
+        out.writeShort(Short.reverseBytes((short) UTF8_NAMES));
+        out.writeShort(Short.reverseBytes((short) entry.method));
+        out.writeInt(Integer.reverseBytes(DOS_TIME));
+        out.writeInt(Integer.reverseBytes(entry.crc));
+        out.writeInt(Integer.reverseBytes(entry.data.length));
+        out.writeInt(Integer.reverseBytes(entry.size));
+        out.writeShort(Short.reverseBytes((short) entry.name.length));
+    }
+
+    /**
+     * Waits until every entry is written and finishes the jar
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        pending.add(END);
+        try {
+            writerThread.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the jar writer", e);
+        }finally {
+            compressors.shutdownNow();
+        }
+
+        try(out){
+            if(failure != null) throw new IOException("Couldn't write the jar", failure);
+
+            long centralOffset = offset;
+            centralDirectory.writeTo(out);
+            long centralSize = centralDirectory.size();
+            if(centralOffset + centralSize > 0xFFFFFFFFL) throw new IOException("The jar is too big");
+
+            if(entries >= 0xFFFF){
+                long zip64End = centralOffset + centralSize;
+                out.writeInt(Integer.reverseBytes(ZIP64_END_HEADER));
+                out.writeLong(Long.reverseBytes(44)); //Size of the rest of the record
+                out.writeShort(Short.reverseBytes((short) 45)); //Version made by
+                out.writeShort(Short.reverseBytes((short) 45)); //Version needed
+                out.writeInt(0); //This disk
+                out.writeInt(0); //Disk with the central directory
+                out.writeLong(Long.reverseBytes(entries));
+                out.writeLong(Long.reverseBytes(entries));
+                out.writeLong(Long.reverseBytes(centralSize));
+                out.writeLong(Long.reverseBytes(centralOffset));
+
+                out.writeInt(Integer.reverseBytes(ZIP64_LOCATOR));
+                out.writeInt(0); //Disk with the zip64 end record
+                out.writeLong(Long.reverseBytes(zip64End));
+                out.writeInt(Integer.reverseBytes(1)); //Number of disks
+            }
+
+            int count = Math.min(entries, 0xFFFF);
+            out.writeInt(Integer.reverseBytes(END_HEADER));
+            out.writeShort(0); //This disk
+            out.writeShort(0); //Disk with the central directory
+            out.writeShort(Short.reverseBytes((short) count));
+            out.writeShort(Short.reverseBytes((short) count));
+            out.writeInt(Integer.reverseBytes((int) centralSize));
+            out.writeInt(Integer.reverseBytes((int) centralOffset));
+            out.writeShort(0); //Comment length
+        }
+    }
+
+    /**
+     * @param size The size before compression
+     */
+    private record Compressed(byte[] name, int method, int crc, int size, byte[] data) {}
+}
@@ -0,0 +1,55 @@
+package me.salamander.why.v2.output;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every entry in memory, for when the transformed classes are defined right away instead of being saved
+ */
+public class MemorySink implements OutputSink {
+    private final Map<String, byte[]> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public void write(String name, byte[] data) {
+        entries.put(name, data);
+    }
+
+    /**
+     * @return The data of the entry or null if nothing was written to it
+     */
+    public byte[] get(String name){
+        return entries.get(name);
+    }
+
+    /**
+     * @param className The internal name of the class
+     */
+    public byte[] getClass(String className){
+        return entries.get(className + ".class");
+    }
+
+    /**
+     * Removes an entry, so that classes that have been defined don't stay in memory
+     * @return The data of the entry or null if nothing was written to it
+     */
+    public byte[] remove(String name){
+        return entries.remove(name);
+    }
+
+    /**
+     * @return An unmodifiable view of all entries
+     */
+    public Map<String, byte[]> getEntries(){
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -0,0 +1,37 @@
+package me.salamander.why.v2.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where transformed classes go. Sinks can be written to from any number of threads at once. Writing may return before the data reaches its
+ * destination, so an error can also be reported by a later write or by {@link #close()}, which waits until everything is written
+ */
+public interface OutputSink extends Closeable {
+    /**
+     * @param name The path of the entry within the output, using {@code /} as separator
+     */
+    void write(String name, byte[] data) throws IOException;
+
+    /**
+     * @param className The internal name of the class
+     */
+    default void writeClass(String className, byte[] bytes) throws IOException {
+        write(className + ".class", bytes);
+    }
+
+    /**
+     * Creates the sink given by the {@code why.output} system property: a directory, which is the default with the working directory, or a jar if
+     * it ends with {@code .jar}. Unless {@code why.writeBehind} is {@code false} writes happen on a background thread
+     */
+    static OutputSink fromSystemProperties() throws IOException {
+        String output = System.getProperty("why.output", "");
+        OutputSink sink = output.endsWith(".jar") ? new JarSink(Path.of(output), Runtime.getRuntime().availableProcessors()) : new DirectorySink(Path.of(output));
+
+        if(!System.getProperty("why.writeBehind", "true").equals("false")){
+            sink = new WriteBehindSink(sink);
+        }
+        return sink;
+    }
+}
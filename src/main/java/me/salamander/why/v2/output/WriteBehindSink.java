@@ -0,0 +1,91 @@
+package me.salamander.why.v2.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Hands every write to a background thread that passes them on to another sink in batches, so writing never waits for the other sink. The
+ * queue isn't bounded, which is fine since transformed classes are only kept until they are written
+ */
+public class WriteBehindSink implements OutputSink {
+    private static final Entry END = new Entry(null, null);
+    private static final int BATCH_SIZE = 256;
+
+    private final OutputSink delegate;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    public WriteBehindSink(OutputSink delegate) {
+        this.delegate = delegate;
+        this.thread = new Thread(this::run, "Write Behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        checkFailure();
+        queue.add(new Entry(name, data));
+    }
+
+    private void run(){
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true){
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                for(Entry entry : batch){
+                    if(entry == END) return;
+                    delegate.write(entry.name, entry.data);
+                }
+                batch.clear();
+            }
+        }catch (IOException | RuntimeException e){
+            //Later writes fail right away, so nothing is left to wait for
+            failure = e;
+            queue.clear();
+        }catch (InterruptedException e){
+            failure = e;
+        }
+    }
+
+    /**
+     * @return The number of writes that haven't been passed on yet
+     */
+    public int getPending(){
+        return queue.size();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable failure = this.failure;
+        if(failure != null) throw new IOException("An earlier write failed", failure);
+    }
+
+    /**
+     * Waits until everything has been written and closes the other sink
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        queue.add(END);
+        try {
+            thread.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for writes", e);
+        }finally {
+            delegate.close();
+        }
+        checkFailure();
+    }
+
+    private record Entry(String name, byte[] data) {}
+}
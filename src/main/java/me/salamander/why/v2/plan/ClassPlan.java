@@ -0,0 +1,43 @@
+package me.salamander.why.v2.plan;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The plans of every method of a class that got transformed
+ * @param className The internal name of the class
+ * @param checksum A CRC32 of the class file the plans were made for
+ * @param methods The plans, in the order the methods appear in the class. Methods that weren't transformed don't have one
+ */
+public record ClassPlan(String className, int checksum, List<MethodPlan> methods) {
+    public static int checksum(byte[] classBytes){
+        CRC32 crc = new CRC32();
+        crc.update(classBytes);
+        return (int) crc.getValue();
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(className);
+        out.writeInt(checksum);
+        PlanFile.writeVarInt(out, methods.size());
+        for(MethodPlan method : methods){
+            method.write(out);
+        }
+    }
+
+    static ClassPlan read(DataInputStream in) throws IOException {
+        String className = in.readUTF();
+        int checksum = in.readInt();
+        int count = PlanFile.readVarInt(in);
+        List<MethodPlan> methods = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            methods.add(MethodPlan.read(in));
+        }
+        return new ClassPlan(className, checksum, Collections.unmodifiableList(methods));
+    }
+}
@@ -0,0 +1,313 @@
+package me.salamander.why.v2.plan;
+
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.TransformContext;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * What {@link IncrementalTransformer} remembers between runs: for every class its checksum and what it turned into, and for every method of a class
+ * that may be transformed its {@link MethodChecksum}, the config methods it consults and its plan. A method only has to be analyzed again if its
+ * fingerprint changes, which is a hash of its checksum and the summaries of the methods it consults.
+ * <br>
+ * A method consults itself and every method it calls, since those are what {@code Main} looks up in the config. Methods that aren't in the config
+ * have a summary of 0, so adding one to the config changes the fingerprint of everything that calls it
+ */
+public class IncrementalIndex {
+    private static final int MAGIC = 0x57485949; //WHYI
+    private static final int VERSION = 1;
+
+    private final byte[] codeDigest;
+    private final Map<String, Integer> summaries;
+    private final Map<String, ClassEntry> classes;
+    private Map<String, List<MethodRef>> dependents;
+
+    /**
+     * @param codeDigest A hash of the transformer that made the entries and its analysis budget. Entries made by another version or with another
+     *                   budget are never reused
+     * @param summaries The summaries of the config the entries were made with, see {@link #summarize(TransformContext)}
+     */
+    public IncrementalIndex(byte[] codeDigest, Map<String, Integer> summaries, Map<String, ClassEntry> classes) {
+        this.codeDigest = codeDigest.clone();
+        this.summaries = summaries;
+        this.classes = classes;
+    }
+
+    /**
+     * @return An index that remembers nothing, so everything gets transformed from scratch
+     */
+    public static IncrementalIndex empty(byte[] codeDigest){
+        return new IncrementalIndex(codeDigest, Map.of(), Map.of());
+    }
+
+    /**
+     * Hashes everything the transformation of a caller takes from the config about each config method: its {@link MethodInfo} and whether it
+     * unpacks a coordinate
+     * @return The summary of every config method by {@code owner#name descriptor}
+     */
+    public static Map<String, Integer> summarize(TransformContext context){
+        Map<String, Integer> summaries = new HashMap<>();
+        for(Map.Entry<String, MethodInfo> entry : context.getMethodInfo().entrySet()){
+            MethodInfo info = entry.getValue();
+            CRC32 crc = new CRC32();
+            crc.update(info.returnsPackedBlockPos() ? 1 : 0);
+            crc.update(info.getNumArgs());
+            for(int index : new TreeSet<>(info.getExpandedIndices())) crc.update(index);
+            putString(crc, info.getNewOwner());
+            putString(crc, info.getNewName());
+            putString(crc, info.getNewDesc());
+            summaries.put(entry.getKey(), nonZero(crc));
+        }
+        for(int axis = 0; axis < 3; axis++){
+            CRC32 crc = new CRC32();
+            putString(crc, "unpack");
+            crc.update(axis);
+            summaries.merge(context.getUnpackingMethod(axis), nonZero(crc), (a, b) -> 31 * a + b);
+        }
+        return summaries;
+    }
+
+    /**
+     * @param owner The internal name of the class the method belongs to
+     * @return The methods whose config the transformation of the method depends on, as {@code owner#name descriptor} in ascending order
+     */
+    public static List<String> consultedMethods(String owner, MethodNode methodNode){
+        SortedSet<String> consulted = new TreeSet<>();
+        consulted.add(owner + "#" + methodNode.name + " " + methodNode.desc);
+        for(AbstractInsnNode instruction : methodNode.instructions){
+            if(instruction instanceof MethodInsnNode methodCall){
+                consulted.add(methodCall.owner + "#" + methodCall.name + " " + methodCall.desc);
+            }
+        }
+        return List.copyOf(consulted);
+    }
+
+    public static int fingerprint(int checksum, List<String> consulted, Map<String, Integer> summaries){
+        CRC32 crc = new CRC32();
+        putInt(crc, checksum);
+        for(String methodID : consulted){
+            putInt(crc, summaries.getOrDefault(methodID, 0));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return The config methods whose summary is different in the given summaries, including ones that were added or removed
+     */
+    public Set<String> changedMethods(Map<String, Integer> newSummaries){
+        Set<String> changed = new HashSet<>();
+        for(Map.Entry<String, Integer> entry : newSummaries.entrySet()){
+            if(!entry.getValue().equals(summaries.get(entry.getKey()))) changed.add(entry.getKey());
+        }
+        for(String methodID : summaries.keySet()){
+            if(!newSummaries.containsKey(methodID)) changed.add(methodID);
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the methods that consult any of the given methods with the reverse dependency index, which is built the first time it's needed
+     * @return The names and descriptors of those methods, as {@code name descriptor}, by the internal name of their class
+     */
+    public Map<String, Set<String>> getDependents(Collection<String> methodIDs){
+        if(dependents == null){
+            Map<String, List<MethodRef>> index = new HashMap<>();
+            for(ClassEntry classEntry : classes.values()){
+                for(MethodEntry method : classEntry.methods()){
+                    for(String methodID : method.consulted()){
+                        index.computeIfAbsent(methodID, id -> new ArrayList<>()).add(new MethodRef(classEntry.className(), method));
+                    }
+                }
+            }
+            dependents = index;
+        }
+
+        Map<String, Set<String>> found = new HashMap<>();
+        for(String methodID : methodIDs){
+            for(MethodRef ref : dependents.getOrDefault(methodID, List.of())){
+                found.computeIfAbsent(ref.className(), name -> new HashSet<>()).add(ref.method().name() + " " + ref.method().descriptor());
+            }
+        }
+        return found;
+    }
+
+    public ClassEntry get(String className){
+        return classes.get(className);
+    }
+
+    public boolean matchesCode(byte[] codeDigest){
+        return Arrays.equals(this.codeDigest, codeDigest);
+    }
+
+    public Map<String, Integer> getSummaries(){
+        return summaries;
+    }
+
+    public int size(){
+        return classes.size();
+    }
+
+    /**
+     * Writes the index to a temporary file next to the path and moves it into place, so a run that fails half way leaves the old index
+     */
+    public void write(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))){
+                write(out);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        PlanFile.writeVarInt(out, codeDigest.length);
+        out.write(codeDigest);
+
+        //Every method calls mostly the same few methods, so each id is only written once
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        summaries.keySet().forEach(methodID -> ids.putIfAbsent(methodID, ids.size()));
+        for(ClassEntry classEntry : classes.values()){
+            for(MethodEntry method : classEntry.methods()){
+                method.consulted().forEach(methodID -> ids.putIfAbsent(methodID, ids.size()));
+            }
+        }
+        PlanFile.writeVarInt(out, ids.size());
+        for(String methodID : ids.keySet()){
+            out.writeUTF(methodID);
+        }
+
+        PlanFile.writeVarInt(out, summaries.size());
+        for(Map.Entry<String, Integer> entry : summaries.entrySet()){
+            PlanFile.writeVarInt(out, ids.get(entry.getKey()));
+            out.writeInt(entry.getValue());
+        }
+
+        PlanFile.writeVarInt(out, classes.size());
+        for(ClassEntry classEntry : classes.values()){
+            out.writeUTF(classEntry.className());
+            out.writeInt(classEntry.checksum());
+            out.writeBoolean(classEntry.output() != null);
+            if(classEntry.output() != null){
+                PlanFile.writeVarInt(out, classEntry.output().length);
+                out.write(classEntry.output());
+            }
+
+            PlanFile.writeVarInt(out, classEntry.methods().size());
+            for(MethodEntry method : classEntry.methods()){
+                out.writeUTF(method.name());
+                out.writeUTF(method.descriptor());
+                out.writeInt(method.checksum());
+                out.writeInt(method.fingerprint());
+                PlanFile.writeVarInt(out, method.consulted().size());
+                for(String methodID : method.consulted()){
+                    PlanFile.writeVarInt(out, ids.get(methodID));
+                }
+                out.writeBoolean(method.plan() != null);
+                if(method.plan() != null) method.plan().write(out);
+            }
+        }
+    }
+
+    public static IncrementalIndex read(Path path) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            if(in.readInt() != MAGIC) throw new IOException(path + " isn't an incremental index");
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported incremental index version " + version);
+
+            byte[] codeDigest = new byte[PlanFile.readVarInt(in)];
+            in.readFully(codeDigest);
+
+            String[] ids = new String[PlanFile.readVarInt(in)];
+            for(int i = 0; i < ids.length; i++){
+                ids[i] = in.readUTF();
+            }
+
+            int summaryCount = PlanFile.readVarInt(in);
+            Map<String, Integer> summaries = new HashMap<>(summaryCount * 2);
+            for(int i = 0; i < summaryCount; i++){
+                summaries.put(ids[PlanFile.readVarInt(in)], in.readInt());
+            }
+
+            int classCount = PlanFile.readVarInt(in);
+            Map<String, ClassEntry> classes = new HashMap<>(classCount * 2);
+            for(int i = 0; i < classCount; i++){
+                String className = in.readUTF();
+                int checksum = in.readInt();
+                byte[] output = null;
+                if(in.readBoolean()){
+                    output = new byte[PlanFile.readVarInt(in)];
+                    in.readFully(output);
+                }
+
+                int methodCount = PlanFile.readVarInt(in);
+                List<MethodEntry> methods = new ArrayList<>(methodCount);
+                for(int j = 0; j < methodCount; j++){
+                    String name = in.readUTF();
+                    String descriptor = in.readUTF();
+                    int methodChecksum = in.readInt();
+                    int fingerprint = in.readInt();
+                    String[] consulted = new String[PlanFile.readVarInt(in)];
+                    for(int k = 0; k < consulted.length; k++){
+                        consulted[k] = ids[PlanFile.readVarInt(in)];
+                    }
+                    MethodPlan plan = in.readBoolean() ? MethodPlan.read(in) : null;
+                    methods.add(new MethodEntry(name, descriptor, methodChecksum, fingerprint, List.of(consulted), plan));
+                }
+                classes.put(className, new ClassEntry(className, checksum, output, Collections.unmodifiableList(methods)));
+            }
+            return new IncrementalIndex(codeDigest, summaries, classes);
+        }
+    }
+
+    private static int nonZero(CRC32 crc){
+        int value = (int) crc.getValue();
+        return value == 0 ? 1 : value;
+    }
+
+    private static void putInt(CRC32 crc, int value){
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private static void putString(CRC32 crc, String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(crc, bytes.length);
+        crc.update(bytes);
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @param checksum The {@link ClassPlan#checksum(byte[]) checksum} of the original class
+     * @param output The transformed class or null if it didn't change
+     * @param methods Every method of the class, or none if the class can't be transformed at all
+     */
+    public record ClassEntry(String className, int checksum, byte[] output, List<MethodEntry> methods) {}
+
+    /**
+     * @param checksum The {@link MethodChecksum} of the method
+     * @param fingerprint The {@link #fingerprint(int, List, Map) fingerprint} of the method under the config of the index
+     * @param consulted See {@link #consultedMethods(String, MethodNode)}
+     * @param plan How the method was transformed or null if it wasn't
+     */
+    public record MethodEntry(String name, String descriptor, int checksum, int fingerprint, List<String> consulted, MethodPlan plan) {}
+
+    private record MethodRef(String className, MethodEntry method) {}
+}
@@ -0,0 +1,243 @@
+package me.salamander.why.v2.plan;
+
+import me.salamander.why.v2.*;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.output.JarSink;
+import me.salamander.why.v2.output.OutputSink;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Transforms a jar again after the config or the jar changed, only analyzing the methods whose {@link IncrementalIndex#fingerprint(int, List, Map)
+ * fingerprint} changed. Classes where nothing changed are copied from the last run. Classes with changed methods are rebuilt from the original,
+ * with the unchanged methods replaying their plans from the last run and only the others being analyzed.
+ * <br>
+ * Arguments: {@code <input jar> <output jar> <index file> [--changed-only] [--include prefix]...}. The index file is created by the first run
+ * and updated by every run after it. With {@code --changed-only} the output jar only gets the transformed classes, as {@link PrecomputedClasses}
+ */
+public class IncrementalTransformer {
+    private final ClassTransformer transformer;
+    private final JarTransformer filter;
+    private final IncrementalIndex previous;
+    private final Map<String, Integer> summaries;
+    private final Map<String, Set<String>> dirtyMethods = new HashMap<>();
+
+    private final Map<String, IncrementalIndex.ClassEntry> classes = new LinkedHashMap<>();
+    private int reusedClasses;
+    private int rebuiltClasses;
+    private int analyzedMethods;
+    private int replayedMethods;
+
+    /**
+     * @param previous What the last run remembered
+     * @param includes Prefixes of the internal names of the classes that may be transformed. Empty to allow all classes
+     */
+    public IncrementalTransformer(TransformContext context, IncrementalIndex previous, List<String> includes) {
+        this.transformer = new ClassTransformer(context, null);
+        this.filter = new JarTransformer(context, includes, 1);
+        this.summaries = IncrementalIndex.summarize(context);
+
+        if(previous.matchesCode(TransformCache.codeDigest())){
+            this.previous = previous;
+        }else{
+            if(previous.size() != 0) System.out.println("Warning: The incremental index was made by another version of the transformer. Ignoring it");
+            this.previous = IncrementalIndex.empty(TransformCache.codeDigest());
+        }
+
+        //Only the methods that consult a changed config method can have a different fingerprint now
+        this.previous.getDependents(this.previous.changedMethods(summaries)).forEach((className, methods) -> {
+            IncrementalIndex.ClassEntry classEntry = this.previous.get(className);
+            for(IncrementalIndex.MethodEntry method : classEntry.methods()){
+                String key = method.name() + " " + method.descriptor();
+                if(methods.contains(key) && IncrementalIndex.fingerprint(method.checksum(), method.consulted(), summaries) != method.fingerprint()){
+                    dirtyMethods.computeIfAbsent(className, name -> new HashSet<>()).add(key);
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3){
+            System.out.println("Usage: IncrementalTransformer <input jar> <output jar> <index file> [--changed-only] [--include prefix]...");
+            return;
+        }
+
+        List<String> includes = new ArrayList<>();
+        boolean changedOnly = false;
+        for(int i = 3; i < args.length; i++){
+            switch (args[i]) {
+                case "--include" -> includes.add(args[++i].replace('.', '/'));
+                case "--changed-only" -> changedOnly = true;
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        Path indexFile = Path.of(args[2]);
+        IncrementalIndex index = Files.exists(indexFile) ? IncrementalIndex.read(indexFile) : IncrementalIndex.empty(TransformCache.codeDigest());
+        IncrementalTransformer transformer = new IncrementalTransformer(TransformContext.load(), index, includes);
+        transformer.transform(Path.of(args[0]), Path.of(args[1]), changedOnly);
+        transformer.getIndex().write(indexFile);
+
+        System.out.printf("Reused %d classes and rebuilt %d, analyzing %d methods and replaying %d, in %.1f s%n", transformer.reusedClasses,
+                transformer.rebuiltClasses, transformer.analyzedMethods, transformer.replayedMethods, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @param changedOnly Whether to only write the transformed classes and their checksums, see {@link PrecomputedClasses}
+     */
+    public void transform(Path input, Path output, boolean changedOnly) throws IOException {
+        Map<String, Integer> checksums = new HashMap<>();
+        try(ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(input)));
+            OutputSink sink = new JarSink(output, Runtime.getRuntime().availableProcessors())){
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null){
+                String name = entry.getName();
+                if(entry.isDirectory()){
+                    if(!changedOnly) sink.write(name, new byte[0]);
+                    continue;
+                }
+                if(JarTransformer.isSignatureFile(name)){
+                    if(!changedOnly) System.out.println("Info: Dropping signature file " + name);
+                    continue;
+                }
+
+                byte[] data = in.readAllBytes();
+                if(name.endsWith(".class")){
+                    String className = name.substring(0, name.length() - ".class".length());
+                    byte[] transformed = transformClass(className, data);
+                    if(transformed != null){
+                        checksums.put(className, ClassPlan.checksum(data));
+                        sink.write(name, transformed);
+                        continue;
+                    }
+                }
+                if(!changedOnly) sink.write(name, data);
+            }
+
+            if(changedOnly) PrecomputedClasses.writeChecksums(sink, checksums);
+        }
+    }
+
+    /**
+     * Transforms a class and remembers the result for the next run
+     * @param className The internal name of the class
+     * @return The transformed class or null if nothing about it changed
+     */
+    public byte[] transformClass(String className, byte[] data){
+        int checksum = ClassPlan.checksum(data);
+        IncrementalIndex.ClassEntry old = previous.get(className);
+        //The filter is checked again because a change to the config or the includes can let a class through that wasn't before, or the other way around
+        boolean mayTransform = filter.shouldTransform(className, data);
+        if(old != null && old.checksum() == checksum && mayTransform == !old.methods().isEmpty() && !dirtyMethods.containsKey(className)){
+            classes.put(className, old);
+            reusedClasses++;
+            return old.output();
+        }
+
+        if(!mayTransform){
+            classes.put(className, new IncrementalIndex.ClassEntry(className, checksum, null, List.of()));
+            return null;
+        }
+
+        try {
+            return rebuild(className, data, checksum, old);
+        }catch (RuntimeException e){
+            //Nothing is remembered so the class gets another chance next time
+            System.out.println("Warning: Couldn't transform " + className + ". Keeping the original");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private byte[] rebuild(String className, byte[] data, int checksum, IncrementalIndex.ClassEntry old){
+        ClassNode classNode = new ClassNode();
+        new ClassReader(data).accept(classNode, 0);
+
+        Map<String, IncrementalIndex.MethodEntry> oldMethods = new HashMap<>();
+        Map<String, MethodPlan> oldPlans = new HashMap<>();
+        if(old != null){
+            for(IncrementalIndex.MethodEntry method : old.methods()){
+                String key = method.name() + " " + method.descriptor();
+                oldMethods.put(key, method);
+                if(method.plan() != null) oldPlans.put(key, method.plan());
+            }
+        }
+
+        //The entries of the original methods, without their plans which are only known after transforming
+        Map<MethodNode, IncrementalIndex.MethodEntry> entries = new IdentityHashMap<>();
+        Set<MethodNode> reused = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(MethodNode methodNode : classNode.methods){
+            List<String> consulted = IncrementalIndex.consultedMethods(className, methodNode);
+            int methodChecksum = MethodChecksum.of(methodNode);
+            int fingerprint = IncrementalIndex.fingerprint(methodChecksum, consulted, summaries);
+            entries.put(methodNode, new IncrementalIndex.MethodEntry(methodNode.name, methodNode.desc, methodChecksum, fingerprint, consulted, null));
+
+            IncrementalIndex.MethodEntry oldMethod = oldMethods.get(methodNode.name + " " + methodNode.desc);
+            if(oldMethod != null && oldMethod.fingerprint() == fingerprint){
+                reused.add(methodNode);
+                if(oldMethod.plan() != null) replayedMethods++;
+            }else if(Main.mayTransform(transformer.getContext(), className, methodNode)){
+                analyzedMethods++;
+            }
+        }
+
+        List<MethodNode> originals = new ArrayList<>(classNode.methods);
+        List<MethodPlan> plans = new ArrayList<>();
+        boolean changed = !transformer.update(classNode, oldPlans, reused::contains, plans).isEmpty();
+        rebuiltClasses++;
+
+        Map<String, MethodPlan> newPlans = new HashMap<>();
+        for(MethodPlan plan : plans){
+            newPlans.put(plan.name() + " " + plan.descriptor(), plan);
+        }
+        List<IncrementalIndex.MethodEntry> methods = new ArrayList<>();
+        for(MethodNode methodNode : originals){
+            IncrementalIndex.MethodEntry entry = entries.get(methodNode);
+            methods.add(new IncrementalIndex.MethodEntry(entry.name(), entry.descriptor(), entry.checksum(), entry.fingerprint(), entry.consulted(),
+                    newPlans.get(entry.name() + " " + entry.descriptor())));
+        }
+
+        byte[] output = null;
+        if(changed){
+            ClassWriter classWriter = new ClassWriter(0);
+            classNode.accept(classWriter);
+            output = classWriter.toByteArray();
+        }
+        classes.put(className, new IncrementalIndex.ClassEntry(className, checksum, output, Collections.unmodifiableList(methods)));
+        return output;
+    }
+
+    /**
+     * @return The index for the next run. It only remembers the classes that went through {@link #transformClass(String, byte[])}
+     */
+    public IncrementalIndex getIndex(){
+        return new IncrementalIndex(TransformCache.codeDigest(), summaries, new LinkedHashMap<>(classes));
+    }
+
+    public int getReusedClasses() {
+        return reusedClasses;
+    }
+
+    public int getRebuiltClasses() {
+        return rebuiltClasses;
+    }
+
+    public int getAnalyzedMethods() {
+        return analyzedMethods;
+    }
+
+    public int getReplayedMethods() {
+        return replayedMethods;
+    }
+}
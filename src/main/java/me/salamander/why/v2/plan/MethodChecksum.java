@@ -0,0 +1,162 @@
+package me.salamander.why.v2.plan;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A CRC32 of everything about a method that its analysis depends on: its access flags, descriptor, instructions and try-catch blocks. Line
+ * numbers, local variable names and frames are left out. Labels are numbered in the order they are first seen, so a copy of a method has the
+ * same checksum as the original
+ */
+public class MethodChecksum extends MethodVisitor {
+    private final CRC32 crc = new CRC32();
+    private final Map<Label, Integer> labels = new IdentityHashMap<>();
+
+    private MethodChecksum() {
+        super(Opcodes.ASM9);
+    }
+
+    public static int of(MethodNode method){
+        MethodChecksum checksum = new MethodChecksum();
+        checksum.putInt(method.access);
+        checksum.putString(method.desc);
+        method.instructions.accept(checksum);
+        method.tryCatchBlocks.forEach(tryCatchBlock -> tryCatchBlock.accept(checksum));
+        return (int) checksum.crc.getValue();
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        putInt(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        putInt(opcode);
+        putInt(operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        putInt(opcode);
+        putInt(var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        putInt(opcode);
+        putString(type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        putInt(opcode);
+        putString(owner);
+        putString(name);
+        putString(descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        putInt(opcode);
+        putString(owner);
+        putString(name);
+        putString(descriptor);
+        putInt(isInterface ? 1 : 0);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        putInt(Opcodes.INVOKEDYNAMIC);
+        putString(name);
+        putString(descriptor);
+        putString(bootstrapMethodHandle.toString());
+        for(Object argument : bootstrapMethodArguments) putConstant(argument);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        putInt(opcode);
+        putLabel(label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        putInt(-1);
+        putLabel(label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        putInt(Opcodes.LDC);
+        putConstant(value);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        putInt(Opcodes.IINC);
+        putInt(var);
+        putInt(increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        putInt(Opcodes.TABLESWITCH);
+        putInt(min);
+        putInt(max);
+        putLabel(dflt);
+        for(Label label : labels) putLabel(label);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        putInt(Opcodes.LOOKUPSWITCH);
+        putLabel(dflt);
+        for(int key : keys) putInt(key);
+        for(Label label : labels) putLabel(label);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        putInt(Opcodes.MULTIANEWARRAY);
+        putString(descriptor);
+        putInt(numDimensions);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        putLabel(start);
+        putLabel(end);
+        putLabel(handler);
+        putString(String.valueOf(type));
+    }
+
+    private void putLabel(Label label){
+        putInt(labels.computeIfAbsent(label, l -> labels.size()));
+    }
+
+    private void putConstant(Object value){
+        putString(value.getClass().getName());
+        putString(value.toString());
+    }
+
+    private void putInt(int value){
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private void putString(String value){
+        putInt(value.length());
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            crc.update(c >>> 8);
+            crc.update(c);
+        }
+    }
+}
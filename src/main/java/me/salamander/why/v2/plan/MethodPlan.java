@@ -0,0 +1,132 @@
+package me.salamander.why.v2.plan;
+
+import me.salamander.why.v2.BranchFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything the transformation of one method took from analyzing it, so it can be done again without any analysis. All indices are indices into
+ * the method's instructions at the point the step happens: call sites and emitters into the original instructions, pattern applications into the
+ * instructions after the call sites were rewritten and folds into the instructions after the patterns were applied
+ * @param checksum The {@link MethodChecksum} of the original method. The plan only fits a method with the same checksum
+ * @param expandedVariables The local variables that hold packed positions, in ascending order
+ * @param callSites The reachable method calls that take longs
+ * @param patterns The patterns that matched, in the order they were applied. Null if they haven't been found yet
+ * @param folds The comparisons that got folded. Null if they haven't been found yet
+ */
+public record MethodPlan(String name, String descriptor, int checksum, int[] expandedVariables, List<CallSite> callSites,
+                         List<PatternApplication> patterns, List<BranchFolder.Fold> folds) {
+    /**
+     * @return This plan with the patterns and folds that were found while applying it
+     */
+    public MethodPlan complete(List<PatternApplication> patterns, List<BranchFolder.Fold> folds){
+        return new MethodPlan(name, descriptor, checksum, expandedVariables, callSites, List.copyOf(patterns), List.copyOf(folds));
+    }
+
+    public boolean isComplete(){
+        return patterns != null && folds != null;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        if(!isComplete()) throw new IllegalStateException("Only complete plans can be written");
+
+        out.writeUTF(name);
+        out.writeUTF(descriptor);
+        out.writeInt(checksum);
+
+        PlanFile.writeIndices(out, expandedVariables);
+
+        PlanFile.writeVarInt(out, callSites.size());
+        int previous = 0;
+        for(CallSite callSite : callSites){
+            PlanFile.writeVarInt(out, callSite.index - previous);
+            previous = callSite.index;
+
+            PlanFile.writeVarInt(out, callSite.arguments.length);
+            for(int i = 0; i < callSite.arguments.length; i++){
+                PlanFile.writeVarInt(out, callSite.arguments[i]);
+                PlanFile.writeIndices(out, callSite.emitters[i]);
+            }
+        }
+
+        PlanFile.writeVarInt(out, patterns.size());
+        for(PatternApplication application : patterns){
+            PlanFile.writeVarInt(out, application.index);
+            out.writeByte(application.pattern);
+        }
+
+        PlanFile.writeVarInt(out, folds.size());
+        for(BranchFolder.Fold fold : folds){
+            PlanFile.writeVarInt(out, fold.index());
+            out.writeBoolean(fold.jumps());
+        }
+    }
+
+    static MethodPlan read(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        String descriptor = in.readUTF();
+        int checksum = in.readInt();
+
+        int[] expandedVariables = PlanFile.readIndices(in);
+
+        int callSiteCount = PlanFile.readVarInt(in);
+        List<CallSite> callSites = new ArrayList<>(callSiteCount);
+        int index = 0;
+        for(int n = 0; n < callSiteCount; n++){
+            index += PlanFile.readVarInt(in);
+
+            int argumentCount = PlanFile.readVarInt(in);
+            int[] arguments = new int[argumentCount];
+            int[][] emitters = new int[argumentCount][];
+            for(int i = 0; i < argumentCount; i++){
+                arguments[i] = PlanFile.readVarInt(in);
+                emitters[i] = PlanFile.readIndices(in);
+            }
+            callSites.add(new CallSite(index, arguments, emitters));
+        }
+
+        int patternCount = PlanFile.readVarInt(in);
+        List<PatternApplication> patterns = new ArrayList<>(patternCount);
+        for(int n = 0; n < patternCount; n++){
+            patterns.add(new PatternApplication(PlanFile.readVarInt(in), in.readUnsignedByte()));
+        }
+
+        int foldCount = PlanFile.readVarInt(in);
+        List<BranchFolder.Fold> folds = new ArrayList<>(foldCount);
+        for(int n = 0; n < foldCount; n++){
+            folds.add(new BranchFolder.Fold(PlanFile.readVarInt(in), in.readBoolean()));
+        }
+
+        return new MethodPlan(name, descriptor, checksum, expandedVariables, Collections.unmodifiableList(callSites), Collections.unmodifiableList(patterns),
+                Collections.unmodifiableList(folds));
+    }
+
+    /**
+     * A method call and where the longs it takes come from
+     * @param index The index of the call
+     * @param arguments The positions of the long arguments among all of the call's arguments, counting the receiver of non-static calls as the first
+     * @param emitters For each of those arguments, the indices of the instructions that may have pushed it, in ascending order
+     */
+    public record CallSite(int index, int[] arguments, int[][] emitters) {
+        /**
+         * @return The emitters of the argument at the given position or null if it isn't a long
+         */
+        public int[] getEmitters(int argument){
+            for(int i = 0; i < arguments.length; i++){
+                if(arguments[i] == argument) return emitters[i];
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param index The index the pattern matched at
+     * @param pattern The position of the pattern in the list of patterns that the transformation tries
+     */
+    public record PatternApplication(int index, int pattern) {}
+}
@@ -0,0 +1,86 @@
+package me.salamander.why.v2.plan;
+
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.*;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.classpath.JarClassSource;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Transforms every class of a jar once to find out what has to be done to it, and writes that down as a {@link PlanFile} for {@link PlanReplayer}.
+ * <br>
+ * Arguments: {@code <input jar> <plan file> [--include prefix]...}
+ */
+public class PlanCompiler {
+    private final JarTransformer filter;
+    private final ClassTransformer transformer;
+
+    /**
+     * @param includes Prefixes of the internal names of the classes that may be transformed. Empty to allow all classes
+     */
+    public PlanCompiler(TransformContext context, List<String> includes) {
+        this.filter = new JarTransformer(context, includes, 1);
+        this.transformer = new ClassTransformer(context, null);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.out.println("Usage: PlanCompiler <input jar> <plan file> [--include prefix]...");
+            return;
+        }
+
+        List<String> includes = new ArrayList<>();
+        for(int i = 2; i < args.length; i++){
+            if(args[i].equals("--include")){
+                includes.add(args[++i].replace('.', '/'));
+            }else{
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.fromSystemProperties());
+        PlanFile plans = new PlanCompiler(context, includes).compile(Path.of(args[0]), PlanFile.configHash(config));
+        plans.write(Path.of(args[1]));
+
+        System.out.printf("Planned %d classes in %.1f s%n", plans.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    public PlanFile compile(Path jar, int configHash) throws IOException {
+        Map<String, ClassPlan> classes = new LinkedHashMap<>();
+        try(JarClassSource source = JarClassSource.open(jar)){
+            for(String name : new TreeSet<>(source.getEntryNames())){
+                if(!name.endsWith(".class")) continue;
+
+                String className = name.substring(0, name.length() - ".class".length());
+                ClassPlan plan = compile(className, source.readBytes(name));
+                if(plan != null) classes.put(className, plan);
+            }
+        }
+        return new PlanFile(configHash, TransformCache.codeDigest(), classes);
+    }
+
+    /**
+     * @return The plan of the class or null if it doesn't get transformed at all or couldn't be read
+     */
+    public ClassPlan compile(String className, byte[] data){
+        if(!filter.shouldTransform(className, data)) return null;
+
+        List<MethodPlan> methods = new ArrayList<>();
+        try {
+            ClassNode classNode = new ClassNode();
+            new ClassReader(data).accept(classNode, 0);
+            transformer.transform(classNode, methods);
+        }catch (RuntimeException e){
+            System.out.println("Warning: Couldn't plan " + className + ": " + e);
+            return null;
+        }
+        return new ClassPlan(className, ClassPlan.checksum(data), Collections.unmodifiableList(methods));
+    }
+}
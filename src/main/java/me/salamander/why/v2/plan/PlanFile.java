@@ -0,0 +1,131 @@
+package me.salamander.why.v2.plan;
+
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.cache.TransformCache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The plans of all classes of a jar. A plan file starts with the magic {@code WHYP}, a version, a hash of the config the plans were made with and
+ * {@link TransformCache#codeDigest()} of the transformer that made them, so that plans made with a different config or by a different version of
+ * the transformer are never replayed
+ */
+public class PlanFile {
+    private static final int MAGIC = 0x57485950; //WHYP
+    private static final int VERSION = 2;
+
+    private final int configHash;
+    private final byte[] codeDigest;
+    private final Map<String, ClassPlan> classes;
+
+    /**
+     * @param codeDigest A hash of the transformer that made the plans and its analysis budget, see {@link TransformCache#codeDigest()}
+     */
+    public PlanFile(int configHash, byte[] codeDigest, Map<String, ClassPlan> classes) {
+        this.configHash = configHash;
+        this.codeDigest = codeDigest.clone();
+        this.classes = classes;
+    }
+
+    public static int configHash(JsonObject config){
+        CRC32 crc = new CRC32();
+        crc.update(config.toString().getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+
+    public ClassPlan get(String className){
+        return classes.get(className);
+    }
+
+    public int getConfigHash() {
+        return configHash;
+    }
+
+    public boolean matchesCode(byte[] codeDigest){
+        return Arrays.equals(this.codeDigest, codeDigest);
+    }
+
+    public int size(){
+        return classes.size();
+    }
+
+    public void write(Path path) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(configHash);
+            writeVarInt(out, codeDigest.length);
+            out.write(codeDigest);
+            writeVarInt(out, classes.size());
+            for(ClassPlan plan : classes.values()){
+                plan.write(out);
+            }
+        }
+    }
+
+    public static PlanFile read(Path path) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            if(in.readInt() != MAGIC) throw new IOException(path + " isn't a plan file");
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported plan file version " + version);
+
+            int configHash = in.readInt();
+            byte[] codeDigest = new byte[readVarInt(in)];
+            in.readFully(codeDigest);
+            int count = readVarInt(in);
+            Map<String, ClassPlan> classes = new HashMap<>(count * 2);
+            for(int i = 0; i < count; i++){
+                ClassPlan plan = ClassPlan.read(in);
+                classes.put(plan.className(), plan);
+            }
+            return new PlanFile(configHash, codeDigest, classes);
+        }
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes ascending indices as deltas
+     */
+    static void writeIndices(DataOutputStream out, int[] indices) throws IOException {
+        writeVarInt(out, indices.length);
+        int previous = 0;
+        for(int index : indices){
+            writeVarInt(out, index - previous);
+            previous = index;
+        }
+    }
+
+    static int[] readIndices(DataInputStream in) throws IOException {
+        int[] indices = new int[readVarInt(in)];
+        int previous = 0;
+        for(int i = 0; i < indices.length; i++){
+            previous += readVarInt(in);
+            indices[i] = previous;
+        }
+        return indices;
+    }
+}
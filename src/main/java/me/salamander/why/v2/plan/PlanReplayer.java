@@ -0,0 +1,81 @@
+package me.salamander.why.v2.plan;
+
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.ClassTransformer;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.cache.TransformCache;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transforms classes by replaying their plans from a {@link PlanFile}, which costs little more than reading and writing the class. A class that
+ * has changed since its plan was made, or that has no plan, is transformed from scratch. So is a method whose body doesn't match its plan
+ */
+public class PlanReplayer {
+    private final ClassTransformer transformer;
+    private final PlanFile plans;
+    private final JarTransformer fallback;
+
+    /**
+     * @param includes Prefixes of the internal names of the classes that may be transformed from scratch. Empty to allow all classes
+     */
+    public PlanReplayer(TransformContext context, PlanFile plans, List<String> includes) {
+        this.transformer = new ClassTransformer(context, null);
+        this.plans = plans;
+        this.fallback = new JarTransformer(context, includes, 1);
+    }
+
+    /**
+     * Loads a plan file. Plans made with a different config or by a different version of the transformer are ignored, so everything gets
+     * transformed from scratch
+     */
+    public static PlanReplayer load(TransformContext context, JsonObject config, Path planFile, List<String> includes) throws IOException {
+        PlanFile plans = PlanFile.read(planFile);
+        if(plans.getConfigHash() != PlanFile.configHash(config)){
+            System.out.println("Warning: " + planFile + " was made with a different config. Ignoring it");
+            plans = new PlanFile(PlanFile.configHash(config), TransformCache.codeDigest(), Map.of());
+        }else if(!plans.matchesCode(TransformCache.codeDigest())){
+            System.out.println("Warning: " + planFile + " was made by a different version of the transformer. Ignoring it");
+            plans = new PlanFile(PlanFile.configHash(config), TransformCache.codeDigest(), Map.of());
+        }
+        return new PlanReplayer(context, plans, includes);
+    }
+
+    public PlanFile getPlans() {
+        return plans;
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The transformed class or null if nothing about it changed
+     */
+    public byte[] transformClass(String className, byte[] data){
+        ClassPlan plan = plans.get(className);
+        if(plan == null || plan.checksum() != ClassPlan.checksum(data)){
+            return fallback.transformClass(className, data);
+        }
+        if(plan.methods().isEmpty()) return null;
+
+        try {
+            ClassNode classNode = new ClassNode();
+            new ClassReader(data).accept(classNode, 0);
+
+            if(transformer.replay(classNode, plan).isEmpty()) return null;
+
+            ClassWriter classWriter = new ClassWriter(0);
+            classNode.accept(classWriter);
+            return classWriter.toByteArray();
+        }catch (RuntimeException e){
+            System.out.println("Warning: Couldn't replay the plan of " + className + ". Keeping the original");
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
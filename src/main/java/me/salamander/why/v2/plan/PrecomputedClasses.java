@@ -0,0 +1,104 @@
+package me.salamander.why.v2.plan;
+
+import me.salamander.why.v2.output.OutputSink;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Classes that were transformed ahead of time by {@link IncrementalTransformer} with {@code --changed-only}. Such a jar only holds the transformed
+ * classes and {@link #CHECKSUMS}, which has the {@link ClassPlan#checksum(byte[]) checksum} of each original. A precomputed class is only used
+ * for the exact class it was made from, so a different version of the game never gets the wrong class
+ */
+public class PrecomputedClasses {
+    public static final String CHECKSUMS = "META-INF/why/precomputed.txt";
+    /**
+     * Where the build puts the precomputed jar inside the transformer jar
+     */
+    public static final String RESOURCE = "/META-INF/why/precomputed.jar";
+
+    private final Map<String, byte[]> classes;
+    private final Map<String, Integer> checksums;
+
+    public PrecomputedClasses(Map<String, byte[]> classes, Map<String, Integer> checksums) {
+        this.classes = classes;
+        this.checksums = checksums;
+    }
+
+    /**
+     * Reads the jar given by the {@code why.precomputed} system property, or the one bundled at {@link #RESOURCE}
+     * @return The classes or null if there are none
+     */
+    public static PrecomputedClasses fromSystemProperties() throws IOException {
+        String path = System.getProperty("why.precomputed");
+        if(path != null){
+            try(InputStream in = Files.newInputStream(Path.of(path))){
+                return read(in);
+            }
+        }
+
+        try(InputStream in = PrecomputedClasses.class.getResourceAsStream(RESOURCE)){
+            return in == null ? null : read(in);
+        }
+    }
+
+    public static PrecomputedClasses read(InputStream jar) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        Map<String, Integer> checksums = new HashMap<>();
+        try(ZipInputStream in = new ZipInputStream(new BufferedInputStream(jar))){
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null){
+                String name = entry.getName();
+                if(name.equals(CHECKSUMS)){
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null){
+                        int space = line.indexOf(' ');
+                        if(space == -1) continue;
+                        checksums.put(line.substring(0, space), Integer.parseUnsignedInt(line.substring(space + 1), 16));
+                    }
+                }else if(name.endsWith(".class")){
+                    classes.put(name.substring(0, name.length() - ".class".length()), in.readAllBytes());
+                }
+            }
+        }
+
+        //A class without a checksum can't be checked, so it is never used
+        classes.keySet().retainAll(checksums.keySet());
+        return new PrecomputedClasses(classes, checksums);
+    }
+
+    /**
+     * Writes {@link #CHECKSUMS}, sorted by class name so the same classes always give the same file
+     * @param checksums The checksums of the originals of the precomputed classes, by internal name
+     */
+    public static void writeChecksums(OutputSink sink, Map<String, Integer> checksums) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for(Map.Entry<String, Integer> entry : new TreeMap<>(checksums).entrySet()){
+            text.append(entry.getKey()).append(' ').append(Integer.toHexString(entry.getValue())).append('\n');
+        }
+        sink.write(CHECKSUMS, text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @param original The class as it is about to be loaded
+     * @return The precomputed transformed class, or null if there is none for this exact class
+     */
+    public byte[] get(String className, byte[] original){
+        byte[] transformed = classes.get(className);
+        if(transformed == null || checksums.get(className) != ClassPlan.checksum(original)) return null;
+        return transformed;
+    }
+
+    public int size(){
+        return classes.size();
+    }
+}
@@ -0,0 +1,33 @@
+package me.salamander.why.v2.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Some of the classes of one jar, which a {@link ShardWorker} transforms in one go
+ * @param id Identifies the shard within one run of the coordinator
+ * @param jar The absolute path of the jar
+ * @param entries The names of the class entries in the jar
+ */
+public record Shard(int id, String jar, List<String> entries) {
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(jar);
+        out.writeInt(entries.size());
+        for(String entry : entries) out.writeUTF(entry);
+    }
+
+    /**
+     * Reads a shard after its id
+     */
+    public static Shard read(int id, DataInputStream in) throws IOException {
+        String jar = in.readUTF();
+        int size = in.readInt();
+        List<String> entries = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) entries.add(in.readUTF());
+        return new Shard(id, jar, entries);
+    }
+}
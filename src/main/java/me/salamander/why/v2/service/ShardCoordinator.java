@@ -0,0 +1,358 @@
+package me.salamander.why.v2.service;
+
+import me.salamander.why.v2.JarTransformer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Transforms the classes of many jars with several {@link ShardWorker} processes, so no single JVM has to hold all of them. The classes of every
+ * jar are split into shards of a fixed number of classes. Each worker process has a thread here that hands it the next shard whenever it is done
+ * with the last one, so big jars get spread over all workers and a slow shard doesn't hold up the others.
+ * <br>
+ * When a worker dies, or doesn't answer within the shard timeout and gets killed, its shard goes back to the front of the queue and a new worker
+ * takes its place. A shard that kills {@link #MAX_ATTEMPTS} workers is given up on and its classes are kept as they were. Once all shards of a jar are done, the jar is written to the output directory with
+ * the transformed classes in place of the originals.
+ * <br>
+ * Arguments: {@code <output directory> <input jar>... [--workers n] [--shard-size classes] [--shard-timeout seconds] [--worker-heap size]
+ * [--include prefix]...}
+ */
+public class ShardCoordinator {
+    public static final int DEFAULT_SHARD_SIZE = 256;
+    public static final long DEFAULT_SHARD_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final List<String> workerCommand;
+    private final int workers;
+    private final int shardSize;
+    private final long shardTimeoutMs;
+
+    private final BlockingDeque<Shard> pending = new LinkedBlockingDeque<>();
+    private final Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+    private final Map<String, JarResult> results = new HashMap<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger transformed = new AtomicInteger();
+    private final AtomicInteger restarts = new AtomicInteger();
+    private volatile Throwable failure;
+
+    //Kills workers that take too long with a shard
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Shard Watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardCoordinator(List<String> workerCommand, int workers, int shardSize) {
+        this(workerCommand, workers, shardSize, DEFAULT_SHARD_TIMEOUT_MS);
+    }
+
+    /**
+     * @param workerCommand The command that starts a worker process, see {@link #defaultWorkerCommand(List, List)}
+     * @param workers How many worker processes to run at once
+     * @param shardSize How many classes to put in one shard
+     * @param shardTimeoutMs How long a worker gets to answer for one shard before it is killed and the shard is retried. For the first shard of a
+     *                       worker this includes starting it
+     */
+    public ShardCoordinator(List<String> workerCommand, int workers, int shardSize, long shardTimeoutMs) {
+        this.workerCommand = List.copyOf(workerCommand);
+        this.workers = workers;
+        this.shardSize = shardSize;
+        this.shardTimeoutMs = shardTimeoutMs;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 2){
+            System.out.println("Usage: ShardCoordinator <output directory> <input jar>... [--workers n] [--shard-size classes] [--shard-timeout seconds] [--worker-heap size] [--include prefix]...");
+            return;
+        }
+
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int shardSize = DEFAULT_SHARD_SIZE;
+        long shardTimeoutMs = DEFAULT_SHARD_TIMEOUT_MS;
+        List<String> jvmArgs = new ArrayList<>();
+        List<String> includes = new ArrayList<>();
+        List<Path> jars = new ArrayList<>();
+        for(int i = 1; i < args.length; i++){
+            switch (args[i]) {
+                case "--workers" -> workers = Integer.parseInt(args[++i]);
+                case "--shard-size" -> shardSize = Integer.parseInt(args[++i]);
+                case "--shard-timeout" -> shardTimeoutMs = TimeUnit.SECONDS.toMillis(Long.parseLong(args[++i]));
+                case "--worker-heap" -> jvmArgs.add("-Xmx" + args[++i]);
+                case "--include" -> includes.add(args[++i]);
+                default -> jars.add(Path.of(args[i]));
+            }
+        }
+
+        long start = System.nanoTime();
+        ShardCoordinator coordinator = new ShardCoordinator(defaultWorkerCommand(jvmArgs, includes), workers, shardSize, shardTimeoutMs);
+        Stats stats = coordinator.run(jars, Path.of(args[0]));
+
+        System.out.printf("Transformed %d classes in %d shards of %d jars with %d workers (%d restarts) in %.1f s%n", stats.transformed(), stats.shards(),
+                stats.jars(), workers, stats.restarts(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs workers with the same java and classpath as this process. All {@code why.*} system properties are passed on, so they use the same config
+     * and budgets
+     */
+    public static List<String> defaultWorkerCommand(List<String> jvmArgs, List<String> includes){
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for(String property : System.getProperties().stringPropertyNames()){
+            if(property.startsWith("why.")){
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+        command.addAll(jvmArgs);
+        command.add(ShardWorker.class.getName());
+        for(String prefix : includes){
+            command.add("--include");
+            command.add(prefix);
+        }
+        return command;
+    }
+
+    /**
+     * Transforms all the jars. A coordinator can only be run once
+     * @param outputDirectory Where the transformed jars go. They keep their file names
+     */
+    public Stats run(List<Path> jars, Path outputDirectory) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+
+        int shards = 0;
+        Set<Path> outputs = new HashSet<>();
+        for(Path jar : jars){
+            Path output = outputDirectory.resolve(jar.getFileName().toString());
+            if(!outputs.add(output)){
+                throw new IllegalArgumentException("More than one jar is called " + jar.getFileName());
+            }
+
+            String key = jar.toAbsolutePath().toString();
+
+            List<Shard> jarShards = createShards(key, shards);
+            shards += jarShards.size();
+
+            JarResult result = new JarResult(jar, output, jarShards.size());
+            if(jarShards.isEmpty()){
+                writeJar(result);
+            }else{
+                results.put(key, result);
+                pending.addAll(jarShards);
+            }
+        }
+        remaining.set(shards);
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < Math.min(workers, shards); i++){
+            int worker = i;
+            Thread thread = new Thread(() -> runWorker(worker), "Shard Worker " + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for(Thread thread : threads) thread.join();
+        watchdog.shutdownNow();
+
+        if(failure != null){
+            throw new IOException("Couldn't transform all jars", failure);
+        }
+
+        return new Stats(jars.size(), shards, transformed.get(), restarts.get());
+    }
+
+    private List<Shard> createShards(String jar, int firstID) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        try(ZipFile zip = new ZipFile(jar)){
+            List<String> entries = new ArrayList<>();
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()){
+                ZipEntry entry = zipEntries.nextElement();
+                if(entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+                entries.add(entry.getName());
+                if(entries.size() == shardSize){
+                    shards.add(new Shard(firstID + shards.size(), jar, entries));
+                    entries = new ArrayList<>();
+                }
+            }
+            if(!entries.isEmpty()){
+                shards.add(new Shard(firstID + shards.size(), jar, entries));
+            }
+        }
+        return shards;
+    }
+
+    private void runWorker(int worker){
+        Process process = null;
+        DataOutputStream out = null;
+        DataInputStream in = null;
+        try {
+            while (remaining.get() > 0 && failure == null){
+                Shard shard = pending.poll(100, TimeUnit.MILLISECONDS);
+                if(shard == null) continue;
+
+                if(process == null){
+                    try {
+                        process = startWorker();
+                    }catch (IOException e){
+                        pending.addFirst(shard);
+                        throw e;
+                    }
+                    out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+                    in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+                }
+
+                //Killing a hung worker closes its output, which ends the read below like any other dead worker
+                Process running = process;
+                AtomicBoolean timedOut = new AtomicBoolean();
+                ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                    timedOut.set(true);
+                    running.destroyForcibly();
+                }, shardTimeoutMs, TimeUnit.MILLISECONDS);
+
+                Map<String, byte[]> classes;
+                try {
+                    shard.write(out);
+                    out.flush();
+                    classes = readResult(in, shard.id());
+                }catch (IOException e){
+                    timeout.cancel(false);
+                    String reason = timedOut.get() ? "no answer after " + shardTimeoutMs + " ms" : e.getMessage();
+                    System.out.println("Warning: Worker " + worker + " died while transforming shard " + shard.id() + " of " + shard.jar() + " (" + reason + ")");
+                    process.destroyForcibly();
+                    process = null;
+                    restarts.incrementAndGet();
+                    retry(shard);
+                    continue;
+                }
+
+                if(!timeout.cancel(false)){
+                    //The answer came in just as the worker was being killed, so the next shard needs a new one
+                    process = null;
+                    restarts.incrementAndGet();
+                }
+                complete(shard, classes);
+            }
+        }catch (IOException | InterruptedException | RuntimeException e){
+            failure = e;
+        }finally {
+            if(process != null) stopWorker(process, out);
+        }
+    }
+
+    private Process startWorker() throws IOException {
+        return new ProcessBuilder(workerCommand).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static void stopWorker(Process process, DataOutputStream out){
+        try {
+            out.writeInt(ShardWorker.END);
+            out.flush();
+            if(process.waitFor(10, TimeUnit.SECONDS)) return;
+        }catch (IOException | InterruptedException ignored){ }
+        process.destroyForcibly();
+    }
+
+    private static Map<String, byte[]> readResult(DataInputStream in, int id) throws IOException {
+        int answeredID = in.readInt();
+        if(answeredID != id){
+            throw new IOException("Expected an answer for shard " + id + " but got one for " + answeredID);
+        }
+
+        int size = in.readInt();
+        Map<String, byte[]> classes = new HashMap<>();
+        for(int i = 0; i < size; i++){
+            String name = in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            classes.put(name, data);
+        }
+        return classes;
+    }
+
+    private void retry(Shard shard) throws IOException {
+        int attempt = attempts.merge(shard.id(), 1, Integer::sum);
+        if(attempt >= MAX_ATTEMPTS){
+            System.out.println("Warning: Giving up on shard " + shard.id() + " of " + shard.jar() + ". Keeping its classes as they were");
+            complete(shard, Map.of());
+        }else{
+            //Retry it soon so the jar can be written
+            pending.addFirst(shard);
+        }
+    }
+
+    private void complete(Shard shard, Map<String, byte[]> classes) throws IOException {
+        transformed.addAndGet(classes.size());
+
+        JarResult result;
+        synchronized (results){
+            result = results.get(shard.jar());
+        }
+
+        boolean finished;
+        synchronized (result){
+            result.classes.putAll(classes);
+            finished = --result.remaining == 0;
+        }
+        if(finished){
+            writeJar(result);
+            synchronized (results){
+                results.remove(shard.jar());
+            }
+        }
+
+        remaining.decrementAndGet();
+    }
+
+    /**
+     * Copies the input jar to its output with the transformed classes in place of the original ones
+     */
+    private static void writeJar(JarResult result) throws IOException {
+        try(ZipFile zip = new ZipFile(result.input.toFile()); ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(result.output)))){
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()){
+                ZipEntry entry = entries.nextElement();
+                if(JarTransformer.isSignatureFile(entry.getName()) && !result.classes.isEmpty()) continue;
+
+                ZipEntry newEntry = new ZipEntry(entry.getName());
+                newEntry.setTime(entry.getTime());
+                out.putNextEntry(newEntry);
+
+                byte[] data = result.classes.get(entry.getName());
+                if(data != null){
+                    out.write(data);
+                }else if(!entry.isDirectory()){
+                    try(InputStream in = zip.getInputStream(entry)){
+                        in.transferTo(out);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+        System.out.println("Info: Wrote " + result.output + " with " + result.classes.size() + " transformed classes");
+    }
+
+    private static class JarResult {
+        private final Path input;
+        private final Path output;
+        private final Map<String, byte[]> classes = new HashMap<>();
+        private int remaining;
+
+        JarResult(Path input, Path output, int shards) {
+            this.input = input;
+            this.output = output;
+            this.remaining = shards;
+        }
+    }
+
+    public record Stats(int jars, int shards, int transformed, int restarts) {}
+}
@@ -0,0 +1,95 @@
+package me.salamander.why.v2.service;
+
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.TransformContext;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A worker process started by the {@link ShardCoordinator}. It reads shards from stdin and answers each one on stdout with the classes that it
+ * transformed. Everything the transformer prints goes to stderr instead, so it can't get mixed up with the answers.
+ * <br>
+ * Every message starts with the id of a shard. The coordinator sends {@link #END} instead when there is nothing left to do. An answer is the id,
+ * the number of transformed classes and then the entry name, length and bytes of each of them
+ */
+public class ShardWorker {
+    public static final int END = -1;
+
+    public static void main(String[] args) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+
+        List<String> includes = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--include")){
+                includes.add(args[++i].replace('.', '/'));
+            }else{
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        JarTransformer transformer = new JarTransformer(TransformContext.load(), includes, 1);
+
+        String openJar = null;
+        ZipFile zip = null;
+        try {
+            while (true){
+                int id;
+                try {
+                    id = in.readInt();
+                }catch (EOFException e){
+                    //The coordinator is gone
+                    return;
+                }
+                if(id == END) return;
+
+                Shard shard = Shard.read(id, in);
+                if(!shard.jar().equals(openJar)){
+                    if(zip != null) zip.close();
+                    zip = new ZipFile(shard.jar());
+                    openJar = shard.jar();
+                }
+
+                Map<String, byte[]> transformed = transform(transformer, zip, shard);
+
+                out.writeInt(id);
+                out.writeInt(transformed.size());
+                for(Map.Entry<String, byte[]> entry : transformed.entrySet()){
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+                out.flush();
+            }
+        }finally {
+            if(zip != null) zip.close();
+        }
+    }
+
+    private static Map<String, byte[]> transform(JarTransformer transformer, ZipFile zip, Shard shard) throws IOException {
+        Map<String, byte[]> transformed = new LinkedHashMap<>();
+        for(String name : shard.entries()){
+            ZipEntry entry = zip.getEntry(name);
+            if(entry == null){
+                System.out.println("Warning: " + shard.jar() + " has no entry " + name);
+                continue;
+            }
+
+            byte[] data;
+            try(InputStream in = zip.getInputStream(entry)){
+                data = in.readAllBytes();
+            }
+
+            byte[] result = transformer.transformClass(name.substring(0, name.length() - ".class".length()), data);
+            if(result != null) transformed.put(name, result);
+        }
+        return transformed;
+    }
+}
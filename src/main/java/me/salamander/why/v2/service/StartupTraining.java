@@ -0,0 +1,102 @@
+package me.salamander.why.v2.service;
+
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.TransformContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The training run for the class data sharing archive of the fast startup mode. Running it with {@code -XX:ArchiveClassesAtExit=<archive>} writes
+ * every class it loaded into the archive, and later runs started with {@code -XX:SharedArchiveFile=<archive>} and the same classpath map them in
+ * instead of loading, parsing and verifying them again. The {@code createCdsArchive} Gradle task does this.
+ * <br>
+ * It transforms a few classes the way a real run would, which loads ASM, Gson and the analysis, and then loads every other class of the
+ * transformer so the patterns and entry points the sample classes don't reach end up in the archive too. Only classes loaded from jars get
+ * archived, so it has to run from the built jar rather than the classes directory
+ */
+public class StartupTraining {
+    private static final String[] TRAINING_CLASSES = {
+            "me/salamander/why/debug/TestClass",
+            "net/minecraft/world/chunk/light/ChunkBlockLightProvider"
+    };
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+
+        JarTransformer transformer = new JarTransformer(TransformContext.load(), List.of(), 1);
+        for(String className : TRAINING_CLASSES){
+            byte[] data = readClass(className);
+            if(data == null){
+                System.out.println("Warning: " + className + " isn't on the classpath");
+            }else if(transformer.transformClass(className, data) == null){
+                System.out.println("Warning: " + className + " didn't get transformed");
+            }
+        }
+
+        int loaded = loadTransformerClasses();
+
+        System.out.printf("Trained on %d classes and loaded %d more in %.1f s%n", TRAINING_CLASSES.length, loaded, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The class file from the classpath or null if there is none
+     */
+    public static byte[] readClass(String className) throws IOException {
+        try(InputStream in = ClassLoader.getSystemResourceAsStream(className + ".class")){
+            return in == null ? null : in.readAllBytes();
+        }
+    }
+
+    /**
+     * Loads, without initializing, every class that is in the same jar or directory as this one
+     * @return How many classes were loaded
+     */
+    private static int loadTransformerClasses() throws IOException {
+        Path location;
+        try {
+            location = Path.of(StartupTraining.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }catch (URISyntaxException e){
+            throw new IOException(e);
+        }
+
+        int loaded = 0;
+        if(Files.isDirectory(location)){
+            try(Stream<Path> files = Files.walk(location)){
+                for(Path file : (Iterable<Path>) files::iterator){
+                    if(load(location.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))) loaded++;
+                }
+            }
+        }else{
+            try(ZipFile zip = new ZipFile(location.toFile())){
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()){
+                    if(load(entries.nextElement().getName())) loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static boolean load(String entryName){
+        if(!entryName.endsWith(".class") || entryName.equals("module-info.class")) return false;
+
+        String className = entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+        try {
+            Class.forName(className, false, StartupTraining.class.getClassLoader());
+            return true;
+        }catch (ClassNotFoundException | LinkageError e){
+            //Some classes need Minecraft, which only matters for the ones that get used
+            return false;
+        }
+    }
+}
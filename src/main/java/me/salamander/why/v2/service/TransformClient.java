@@ -0,0 +1,78 @@
+package me.salamander.why.v2.service;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection to a {@link TransformDaemon}. One client sends one request at a time, so threads that want to transform classes at the same time
+ * should each have their own
+ */
+public class TransformClient implements Closeable {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private TransformClient(SocketChannel channel) {
+        this.channel = channel;
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * @param address A {@link UnixDomainSocketAddress} or an {@link java.net.InetSocketAddress}
+     */
+    public static TransformClient connect(SocketAddress address) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(address);
+        return new TransformClient(channel);
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The transformed class or null if it didn't need to change
+     */
+    public byte[] transform(String className, byte[] data) throws IOException {
+        return transform(className, data, null);
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @param configOverride Json that gets merged into the daemon's config for this class or null to use it as it is
+     * @return The transformed class or null if it didn't need to change
+     */
+    public byte[] transform(String className, byte[] data, String configOverride) throws IOException {
+        byte[] override = configOverride == null ? new byte[0] : configOverride.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(TransformDaemon.TRANSFORM);
+        out.writeUTF(className);
+        out.writeInt(override.length);
+        out.write(override);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+
+        int status = in.readInt();
+        switch (status) {
+            case TransformDaemon.UNCHANGED:
+                return null;
+            case TransformDaemon.TRANSFORMED:
+                byte[] result = new byte[in.readInt()];
+                in.readFully(result);
+                return result;
+            case TransformDaemon.FAILED:
+                throw new IOException("Couldn't transform " + className + ": " + in.readUTF());
+            default:
+                throw new IOException("Unknown answer " + status);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,330 @@
+package me.salamander.why.v2.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.salamander.why.v2.AnalysisBudget;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the transformer loaded so classes can be transformed without paying for a new JVM, parsing the config and warming up the JIT every time.
+ * Clients connect over a unix domain socket, a local TCP port or stdin/stdout (see {@link TransformClient}). Every connection is served by its own
+ * thread, so several game or server instances can use the same daemon at once.
+ * <br>
+ * A request is {@link #TRANSFORM}, the internal name of the class, the length and UTF-8 bytes of a config override (0 for none) and the length
+ * and bytes of the class. The answer is {@link #UNCHANGED}, {@link #TRANSFORMED} followed by the length and bytes of the new class, or {@link #FAILED}
+ * followed by a message. An override is merged into the daemon's config: its {@code method_info} entries are added to the existing ones and every
+ * other key replaces the daemon's. Overrides longer than {@link #MAX_OVERRIDE_LENGTH} and classes longer than {@link #MAX_CLASS_LENGTH} are skipped
+ * and answered with {@link #FAILED}. A negative length is answered the same way, but the connection is closed since the request can't be skipped.
+ * <br>
+ * Arguments: {@code [--socket path | --port n | --stdio] [--threads n] [--warmup iterations]}
+ */
+public class TransformDaemon implements Closeable {
+    public static final int TRANSFORM = 1;
+
+    public static final int UNCHANGED = 0;
+    public static final int TRANSFORMED = 1;
+    public static final int FAILED = 2;
+
+    //Lengths come from the client, so they are checked before anything gets allocated for them
+    public static final int MAX_OVERRIDE_LENGTH = 1 << 20;
+    public static final int MAX_CLASS_LENGTH = 1 << 26;
+
+    private static final int MAX_OVERRIDES = 8;
+
+    private final JsonObject config;
+    private final AnalysisEngine.Mode mode;
+    private final JarTransformer transformer;
+    private final ExecutorService connections;
+    private final Map<String, JarTransformer> overrides = new LinkedHashMap<>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JarTransformer> eldest) {
+            return size() > MAX_OVERRIDES;
+        }
+    };
+    private ServerSocketChannel server;
+
+    /**
+     * @param threads How many connections can be served at once
+     */
+    public TransformDaemon(JsonObject config, AnalysisEngine.Mode mode, int threads) {
+        this.config = config;
+        this.mode = mode;
+        this.transformer = new JarTransformer(TransformContext.fromConfig(config, mode), List.of(), 1);
+        this.connections = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Transform Daemon Connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = UnixDomainSocketAddress.of(Path.of(System.getProperty("java.io.tmpdir"), "why-daemon.sock"));
+        boolean stdio = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int warmup = 200;
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]) {
+                case "--socket" -> address = UnixDomainSocketAddress.of(args[++i]);
+                case "--port" -> address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i]));
+                case "--stdio" -> stdio = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        //Answers go to stdout in stdio mode, so everything else has to go somewhere else
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        if(stdio) System.setOut(System.err);
+
+        //Clients wait for every class and nothing is kept between requests, so a time limit can't leave a stale result anywhere
+        AnalysisBudget.useDefaultTimeBudget(AnalysisBudget.LOAD_TIME_BUDGET_MS);
+        TransformDaemon daemon = new TransformDaemon(Main.loadConfig(), AnalysisEngine.Mode.fromSystemProperties(), threads);
+        daemon.warmUp(warmup);
+
+        if(stdio){
+            daemon.serve(System.in, stdout);
+        }else{
+            daemon.start(address);
+            System.out.println("Listening on " + address);
+        }
+    }
+
+    /**
+     * Transforms a made up class over and over so the JIT has compiled the analysis before the first real class arrives
+     */
+    public void warmUp(int iterations){
+        if(iterations <= 0) return;
+
+        long start = System.nanoTime();
+        byte[] warmupClass = createWarmupClass();
+
+        for(int i = 0; i < iterations; i++){
+            transformer.transformClass("why/Warmup", warmupClass);
+        }
+
+        System.out.printf("Warmed up in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Starts accepting connections in the background
+     * @param address A {@link UnixDomainSocketAddress} or an {@link InetSocketAddress}
+     */
+    public void start(SocketAddress address) throws IOException {
+        if(address instanceof UnixDomainSocketAddress unixAddress){
+            Files.deleteIfExists(unixAddress.getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }else{
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true){
+                    SocketChannel channel = server.accept();
+                    connections.submit(() -> {
+                        try(channel){
+                            serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                        }catch (IOException e){
+                            System.out.println("Warning: Lost a client: " + e.getMessage());
+                        }
+                    });
+                }
+            }catch (ClosedChannelException e){
+                //The daemon was closed
+            }catch (IOException e){
+                System.out.println("Warning: Stopped accepting clients: " + e.getMessage());
+            }
+        }, "Transform Daemon");
+        acceptor.start();
+    }
+
+    /**
+     * @return The address the daemon is listening on, which has the actual port if it was started on port 0
+     */
+    public SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Answers requests from one client until it disconnects
+     */
+    public void serve(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+
+        while (true){
+            int request;
+            try {
+                request = in.readInt();
+            }catch (EOFException e){
+                return;
+            }
+            if(request != TRANSFORM){
+                throw new IOException("Unknown request " + request);
+            }
+
+            String className = in.readUTF();
+            int overrideLength = in.readInt();
+            if(overrideLength < 0){
+                fail(out, "Invalid config override length " + overrideLength);
+                return;
+            }
+            byte[] override = readBytes(in, overrideLength, MAX_OVERRIDE_LENGTH);
+            int classLength = in.readInt();
+            if(classLength < 0){
+                fail(out, "Invalid class length " + classLength);
+                return;
+            }
+            byte[] data = readBytes(in, classLength, MAX_CLASS_LENGTH);
+
+            if(override == null){
+                fail(out, "The config override is " + overrideLength + " bytes long, the most is " + MAX_OVERRIDE_LENGTH);
+                continue;
+            }
+            if(data == null){
+                fail(out, className + " is " + classLength + " bytes long, the most is " + MAX_CLASS_LENGTH);
+                continue;
+            }
+
+            byte[] result;
+            try {
+                result = getTransformer(override).transformClass(className, data);
+            }catch (RuntimeException e){
+                fail(out, String.valueOf(e));
+                continue;
+            }
+
+            if(result == null){
+                out.writeInt(UNCHANGED);
+            }else{
+                out.writeInt(TRANSFORMED);
+                out.writeInt(result.length);
+                out.write(result);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @return The bytes, or null if there are more than {@code maxLength} of them. Those are skipped so the next request can still be read
+     */
+    private static byte[] readBytes(DataInputStream in, int length, int maxLength) throws IOException {
+        if(length > maxLength){
+            in.skipNBytes(length);
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void fail(DataOutputStream out, String message) throws IOException {
+        out.writeInt(FAILED);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    private JarTransformer getTransformer(byte[] override){
+        if(override.length == 0) return transformer;
+
+        String key = new String(override, StandardCharsets.UTF_8);
+        synchronized (overrides){
+            JarTransformer existing = overrides.get(key);
+            if(existing != null) return existing;
+        }
+
+        JarTransformer created = new JarTransformer(TransformContext.fromConfig(mergeConfig(key), mode), List.of(), 1);
+        synchronized (overrides){
+            overrides.put(key, created);
+        }
+        return created;
+    }
+
+    private JsonObject mergeConfig(String override){
+        JsonObject overrideJson = JsonParser.parseString(override).getAsJsonObject();
+        JsonObject merged = config.deepCopy();
+        for(Map.Entry<String, JsonElement> entry : overrideJson.entrySet()){
+            if(entry.getKey().equals("method_info") && merged.has("method_info")){
+                JsonObject methodInfo = merged.getAsJsonObject("method_info");
+                for(Map.Entry<String, JsonElement> method : entry.getValue().getAsJsonObject().entrySet()){
+                    methodInfo.add(method.getKey(), method.getValue());
+                }
+            }else{
+                merged.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(server != null){
+            server.close();
+        }
+        connections.shutdownNow();
+    }
+
+    private static byte[] createWarmupClass(){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "why/Warmup", null, "java/lang/Object", null);
+
+        //static int sum(long pos, int i) { while(i > 0) { i -= BlockPos.unpackLongX(pos) + BlockPos.unpackLongY(pos) + BlockPos.unpackLongZ(pos); } return i; }
+        MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "sum", "(JI)I", null, null);
+        method.visitCode();
+        Label loop = new Label();
+        Label end = new Label();
+        method.visitLabel(loop);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitJumpInsn(Opcodes.IFLE, end);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        String[] unpackers = {"unpackLongX", "unpackLongY", "unpackLongZ"};
+        for(int i = 0; i < 3; i++){
+            method.visitVarInsn(Opcodes.LLOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", unpackers[i], "(J)I", false);
+            if(i > 0) method.visitInsn(Opcodes.IADD);
+        }
+        method.visitInsn(Opcodes.ISUB);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitJumpInsn(Opcodes.GOTO, loop);
+        method.visitLabel(end);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(5, 3);
+        method.visitEnd();
+
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,61 @@
+package me.salamander.why.v2.summary;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.MethodInfo;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What the summary pass found out about a single method. Holds the same information as a {@code method_info} entry in the config
+ * @param packedArguments The indices of the arguments that are packed block positions, not counting {@code this}
+ */
+public record MethodSummary(String owner, String name, String descriptor, boolean isStatic, boolean returnsPos, Set<Integer> packedArguments) {
+    public String getKey(){
+        return owner + "#" + name + " " + descriptor;
+    }
+
+    /**
+     * @return Whether this summary says anything at all. Trivial summaries are left out of the config
+     */
+    public boolean isTrivial(){
+        return !returnsPos && packedArguments.isEmpty();
+    }
+
+    /**
+     * @return A summary that has everything both summaries have
+     */
+    public MethodSummary merge(MethodSummary other){
+        if(other == null || other.equals(this)) return this;
+
+        Set<Integer> packedArguments = new TreeSet<>(this.packedArguments);
+        packedArguments.addAll(other.packedArguments);
+        return new MethodSummary(owner, name, descriptor, isStatic, returnsPos || other.returnsPos, packedArguments);
+    }
+
+    /**
+     * @return The same summary for an inherited method that gets called through a subclass
+     */
+    public MethodSummary withOwner(String owner){
+        return new MethodSummary(owner, name, descriptor, isStatic, returnsPos, packedArguments);
+    }
+
+    public MethodInfo toMethodInfo(){
+        return new MethodInfo(owner, name, descriptor, isStatic, returnsPos, packedArguments);
+    }
+
+    public JsonObject toJson(){
+        JsonObject json = new JsonObject();
+        json.addProperty("returns_pos", returnsPos);
+
+        JsonArray args = new JsonArray();
+        for(int argument : new TreeSet<>(packedArguments)){
+            args.add(argument);
+        }
+        json.add("blockpos_args", args);
+
+        if(isStatic) json.addProperty("static", true);
+        return json;
+    }
+}
@@ -0,0 +1,506 @@
+package me.salamander.why.v2.summary;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.BasicSourceValue;
+import me.salamander.why.v2.IndexSet;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.SourceAnalysis;
+import me.salamander.why.v2.classpath.ClassNodeCache;
+import me.salamander.why.v2.classpath.ClassPath;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds out which methods of a jar take or return packed block positions so that they don't have to be added to the config by hand.
+ * <br>
+ * Every method with a long in its descriptor gets analyzed. Its summary says which of its long arguments get used as packed positions and whether
+ * it returns one. Since that depends on the summaries of the methods it calls, summaries get recomputed in rounds until nothing changes anymore.
+ * A round only revisits the callers of methods whose summary changed in the round before. Everything starts out from the methods that are already
+ * in the config, such as {@code BlockPos.unpackLongX}, {@code BlockPos.asLong} and {@code BlockPos.offset}
+ * <br>
+ * A virtual call gets rewritten to the expanded method whatever the class of the receiver is, so a method and everything that overrides it, through
+ * superclasses or interfaces, have to agree. They all get the join of their summaries, including abstract declarations. Members of a family that
+ * also holds a config method get the config's entry. A family is left alone when it contains a native method, a method of a class from outside the
+ * jar, a method that couldn't be analyzed, or a class whose supertypes can't be found. Classes outside the jar are read from the class path, so the
+ * jar's libraries should be on it
+ * <br>
+ * Arguments: {@code <jar> <output config>}. Run the transformer with {@code -Dwhy.config=<output config>} to use the result
+ */
+public class SummaryPass {
+    private final Map<String, MethodInfo> configMethods;
+    private final Map<String, String> superClasses = new HashMap<>();
+    private final Map<String, List<String>> interfaces = new HashMap<>();
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    //The overridable methods with a long in their descriptor declared by each class, as name and descriptor. Includes abstract and native ones
+    private final Map<String, Set<String>> virtualMethods = new HashMap<>();
+    //Methods whose descriptor can't be changed because they are native or come from outside the jar
+    private final Set<String> fixed = new HashSet<>();
+
+    //Every method that overrides or is overridden by another one, mapped to all the methods of that family
+    private final Map<String, Set<String>> families = new HashMap<>();
+    //Methods that never get a summary, either because their family can't be changed or because the config already covers it
+    private final Set<String> unsummarized = ConcurrentHashMap.newKeySet();
+
+    //Calls through a subclass, mapped to the method that actually gets called
+    private final Map<String, String> aliases = new HashMap<>();
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private int rounds = 0;
+
+    /**
+     * @param configMethods The methods from the config. These are never summarized since the config knows better
+     */
+    public SummaryPass(Map<String, MethodInfo> configMethods){
+        this.configMethods = configMethods;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.out.println("Usage: SummaryPass <jar> <output config>");
+            return;
+        }
+
+        long start = System.nanoTime();
+        JsonObject config = Main.loadConfig();
+        SummaryPass pass = new SummaryPass(Main.readMethodInfo(config));
+        int numClasses = pass.addJar(Path.of(args[0]));
+        long read = System.nanoTime();
+
+        Map<String, MethodSummary> summaries = pass.run();
+        long done = System.nanoTime();
+
+        System.out.printf("Read %d classes in %.1f ms%n", numClasses, (read - start) / 1e6);
+        System.out.printf("Found %d packed methods out of %d candidates in %d rounds, %.1f ms (%d methods couldn't be analyzed)%n",
+                summaries.size(), pass.candidates.size(), pass.rounds, (done - read) / 1e6, pass.failures.get());
+
+        Files.writeString(Path.of(args[1]), new GsonBuilder().setPrettyPrinting().create().toJson(pass.createConfig(config, summaries)));
+    }
+
+    /**
+     * Reads every class of a jar in parallel through a {@link ClassPath}. Only the methods that could take or return a packed position are kept
+     * around. Every class is read exactly once, so they don't go through a {@link ClassNodeCache}
+     * @return The number of classes read
+     */
+    public int addJar(Path jar) throws IOException {
+        try(ClassPath classPath = ClassPath.of(List.of(jar))){
+            Set<String> classNames = classPath.getClassNames();
+            classNames.parallelStream().forEach(className -> {
+                try {
+                    ClassNode classNode = new CandidateClassNode();
+                    new ClassReader(classPath.getClassBytes(className)).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                    addClass(classNode);
+                }catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return classNames.size();
+        }
+    }
+
+    public synchronized void addClass(ClassNode classNode){
+        addDeclarations(classNode);
+
+        for(MethodNode method : classNode.methods){
+            if(method.instructions.size() == 0 || !hasLong(method.desc)) continue;
+
+            String key = classNode.name + "#" + method.name + " " + method.desc;
+            if(configMethods.containsKey(key)) continue;
+
+            candidates.put(key, new Candidate(classNode.name, method, key, (method.access & Opcodes.ACC_STATIC) != 0));
+        }
+    }
+
+    /**
+     * Computes summaries until they stop changing
+     * @return The non-trivial summaries, including ones for calls to inherited methods through a subclass, sorted by key
+     */
+    public Map<String, MethodSummary> run(){
+        buildFamilies();
+        Map<String, Set<Candidate>> callers = buildCallGraph();
+
+        Map<String, List<String>> aliasesOf = new HashMap<>();
+        aliases.forEach((alias, target) -> aliasesOf.computeIfAbsent(getTarget(alias), k -> new ArrayList<>()).add(alias));
+
+        //A method of a family that couldn't be analyzed takes the whole family out, and everything that was computed from its summaries is redone
+        Set<String> failedFamilies = ConcurrentHashMap.newKeySet();
+        Map<String, MethodSummary> summaries;
+        do {
+            failedFamilies.forEach(unsummarized::add);
+            failedFamilies.clear();
+            summaries = computeSummaries(callers, aliasesOf, failedFamilies);
+        }while(!failedFamilies.isEmpty());
+
+        Map<String, MethodSummary> result = new TreeMap<>(summaries);
+        for(String alias : aliases.keySet()){
+            MethodSummary summary = summaries.get(getTarget(alias));
+            if(summary != null) result.put(alias, summary.withOwner(getOwner(alias)));
+        }
+        return result;
+    }
+
+    private Map<String, MethodSummary> computeSummaries(Map<String, Set<Candidate>> callers, Map<String, List<String>> aliasesOf, Set<String> failedFamilies){
+        Map<String, MethodInfo> known = new HashMap<>(configMethods);
+        for(String alias : aliases.keySet()){
+            MethodInfo info = configMethods.get(getTarget(alias));
+            if(info != null) known.put(alias, info);
+        }
+
+        //Each round only reads the summaries of the round before so the order methods are processed in doesn't matter
+        Map<String, MethodSummary> summaries = new ConcurrentHashMap<>();
+        Collection<Candidate> dirty = candidates.values();
+        while(!dirty.isEmpty()){
+            List<MethodSummary> changed = dirty.parallelStream().map(candidate -> update(candidate, known, summaries, failedFamilies)).filter(Objects::nonNull).toList();
+            if(!failedFamilies.isEmpty()) return summaries;
+
+            Set<Candidate> next = new HashSet<>();
+            for(MethodSummary summary : changed){
+                Set<String> family = families.get(summary.getKey());
+                if(family == null){
+                    publish(summary, known, callers, aliasesOf, next);
+                    continue;
+                }
+
+                //Summaries only grow, so the join does too and every method of the family ends up with the same one
+                MethodSummary joined = summary;
+                for(String member : family){
+                    joined = joined.merge(summaries.get(member));
+                }
+                for(String member : family){
+                    MethodSummary memberSummary = joined.withOwner(getOwner(member));
+                    if(!member.equals(summary.getKey()) && memberSummary.equals(summaries.get(member))) continue;
+
+                    summaries.put(member, memberSummary);
+                    publish(memberSummary, known, callers, aliasesOf, next);
+                }
+            }
+
+            dirty = next;
+            rounds++;
+        }
+        return summaries;
+    }
+
+    private static void publish(MethodSummary summary, Map<String, MethodInfo> known, Map<String, Set<Candidate>> callers, Map<String, List<String>> aliasesOf, Set<Candidate> next){
+        known.put(summary.getKey(), summary.toMethodInfo());
+        for(String alias : aliasesOf.getOrDefault(summary.getKey(), List.of())){
+            known.put(alias, summary.toMethodInfo());
+        }
+        next.addAll(callers.getOrDefault(summary.getKey(), Set.of()));
+    }
+
+    /**
+     * @return A copy of the config with the summaries added to it. Aliases of methods that were already in the config get the same entry
+     */
+    public JsonObject createConfig(JsonObject config, Map<String, MethodSummary> summaries){
+        JsonObject originalMethods = config.get("method_info").getAsJsonObject();
+
+        Map<String, JsonObject> methods = new TreeMap<>();
+        originalMethods.entrySet().forEach(entry -> methods.put(entry.getKey(), entry.getValue().getAsJsonObject()));
+        for(String alias : aliases.keySet()){
+            String target = getTarget(alias);
+            if(originalMethods.has(target)) methods.put(alias, originalMethods.get(target).getAsJsonObject());
+        }
+        summaries.forEach((key, summary) -> methods.put(key, summary.toJson()));
+
+        JsonObject methodInfo = new JsonObject();
+        methods.forEach(methodInfo::add);
+
+        JsonObject newConfig = config.deepCopy();
+        newConfig.add("method_info", methodInfo);
+        return newConfig;
+    }
+
+    /**
+     * @return Which candidates call each method, by the key of the called method
+     */
+    private Map<String, Set<Candidate>> buildCallGraph(){
+        Map<String, Set<Candidate>> callers = new HashMap<>();
+        for(Candidate candidate : candidates.values()){
+            for(AbstractInsnNode instruction : candidate.method.instructions){
+                if(!(instruction instanceof MethodInsnNode methodCall) || !hasLong(methodCall.desc)) continue;
+
+                String callee = resolve(methodCall.owner, methodCall.name, methodCall.desc);
+                if(callee != null && !configMethods.containsKey(callee)){
+                    callers.computeIfAbsent(callee, k -> new HashSet<>()).add(candidate);
+                }
+            }
+        }
+        return callers;
+    }
+
+    /**
+     * Groups every overridable method with the methods of the same name and descriptor in its supertypes. Families with a config method get aliased
+     * to it, and families that can't be changed are marked as such
+     */
+    private void buildFamilies(){
+        Map<String, String> parents = new HashMap<>();
+        Set<String> incomplete = new HashSet<>();
+        for(String className : List.copyOf(virtualMethods.keySet())){
+            Set<String> supertypes = new LinkedHashSet<>();
+            boolean complete = collectSupertypes(className, supertypes);
+
+            for(String method : virtualMethods.get(className)){
+                String key = className + "#" + method;
+                parents.putIfAbsent(key, key);
+                if(!complete) incomplete.add(key);
+
+                for(String supertype : supertypes){
+                    if(virtualMethods.getOrDefault(supertype, Set.of()).contains(method)){
+                        String other = supertype + "#" + method;
+                        parents.putIfAbsent(other, other);
+                        parents.put(findRoot(parents, key), findRoot(parents, other));
+                    }
+                }
+            }
+        }
+
+        Map<String, Set<String>> byRoot = new HashMap<>();
+        for(String key : parents.keySet()){
+            byRoot.computeIfAbsent(findRoot(parents, key), k -> new TreeSet<>()).add(key);
+        }
+        for(Set<String> family : byRoot.values()){
+            String configured = family.stream().filter(configMethods::containsKey).findFirst().orElse(null);
+            if(configured != null){
+                for(String member : family){
+                    if(configMethods.containsKey(member)) continue;
+                    aliases.put(member, configured);
+                    unsummarized.add(member);
+                }
+            }else if(family.stream().anyMatch(member -> fixed.contains(member) || incomplete.contains(member))){
+                unsummarized.addAll(family);
+            }
+
+            if(family.size() > 1){
+                for(String member : family){
+                    families.put(member, family);
+                }
+            }
+        }
+    }
+
+    private static String findRoot(Map<String, String> parents, String key){
+        String root = key;
+        while(!parents.get(root).equals(root)) root = parents.get(root);
+        parents.put(key, root);
+        return root;
+    }
+
+    /**
+     * Adds all superclasses and interfaces of the class, reading the ones from outside the jar from the class path
+     * @return Whether all of them could be found
+     */
+    private boolean collectSupertypes(String className, Set<String> supertypes){
+        boolean complete = true;
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(className);
+        while(!toVisit.isEmpty()){
+            String current = toVisit.poll();
+            if(!superClasses.containsKey(current) && !readExternal(current)){
+                complete = false;
+                continue;
+            }
+
+            String superName = superClasses.get(current);
+            if(superName != null && supertypes.add(superName)) toVisit.add(superName);
+            for(String interfaceName : interfaces.getOrDefault(current, List.of())){
+                if(supertypes.add(interfaceName)) toVisit.add(interfaceName);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Reads the declarations of a class that isn't part of the jar from the {@link ClassNodeCache#system() shared cache}. None of its methods can
+     * be changed
+     * @return Whether the class was found
+     */
+    private boolean readExternal(String className){
+        ClassNode classNode;
+        try {
+            classNode = ClassNodeCache.system().get(className);
+        }catch (IllegalArgumentException | UncheckedIOException e){
+            return false;
+        }
+
+        addDeclarations(classNode);
+        for(String method : virtualMethods.getOrDefault(className, Set.of())){
+            fixed.add(className + "#" + method);
+        }
+        return true;
+    }
+
+    private void addDeclarations(ClassNode classNode){
+        superClasses.put(classNode.name, classNode.superName);
+        interfaces.put(classNode.name, classNode.interfaces);
+
+        for(MethodNode method : classNode.methods){
+            if(!hasLong(method.desc) || (method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0 || method.name.equals("<init>")) continue;
+
+            virtualMethods.computeIfAbsent(classNode.name, k -> new HashSet<>()).add(method.name + " " + method.desc);
+            if((method.access & Opcodes.ACC_NATIVE) != 0) fixed.add(classNode.name + "#" + method.name + " " + method.desc);
+        }
+    }
+
+    /**
+     * @return The config method or candidate an alias stands for
+     */
+    private String getTarget(String key){
+        String target = key;
+        while(aliases.containsKey(target)) target = aliases.get(target);
+        return target;
+    }
+
+    private static String getOwner(String key){
+        return key.substring(0, key.indexOf('#'));
+    }
+
+    /**
+     * Looks for the method in the class and its superclasses, then in all of their interfaces like the JVM does, which finds default methods and
+     * abstract declarations
+     * @return The key of the method that gets called or null if it isn't declared anywhere the pass knows about
+     */
+    private String resolve(String owner, String name, String desc){
+        String callKey = owner + "#" + name + " " + desc;
+        Deque<String> superInterfaces = new ArrayDeque<>();
+        for(String current = owner; current != null; current = superClasses.get(current)){
+            String key = current + "#" + name + " " + desc;
+            if(isDeclared(current, key, name + " " + desc)){
+                if(!key.equals(callKey)) aliases.put(callKey, key);
+                return key;
+            }
+            superInterfaces.addAll(interfaces.getOrDefault(current, List.of()));
+        }
+
+        Set<String> visited = new HashSet<>();
+        while(!superInterfaces.isEmpty()){
+            String current = superInterfaces.poll();
+            if(!visited.add(current)) continue;
+
+            String key = current + "#" + name + " " + desc;
+            if(isDeclared(current, key, name + " " + desc)){
+                aliases.put(callKey, key);
+                return key;
+            }
+            superInterfaces.addAll(interfaces.getOrDefault(current, List.of()));
+        }
+        return null;
+    }
+
+    private boolean isDeclared(String className, String key, String method){
+        return candidates.containsKey(key) || configMethods.containsKey(key) || virtualMethods.getOrDefault(className, Set.of()).contains(method);
+    }
+
+    /**
+     * Recomputes the summary of a method
+     * @param failedFamilies Gets the family of the method if it has one and the method couldn't be analyzed
+     * @return The new summary or null if it didn't change
+     */
+    private MethodSummary update(Candidate candidate, Map<String, MethodInfo> known, Map<String, MethodSummary> summaries, Set<String> failedFamilies){
+        if(unsummarized.contains(candidate.key)) return null;
+
+        MethodSummary summary;
+        try {
+            summary = summarize(candidate, known);
+        }catch (AnalyzerException | RuntimeException e){
+            failures.incrementAndGet();
+            failedFamilies.addAll(families.getOrDefault(candidate.key, Set.of()));
+            return null;
+        }
+
+        //Summaries only ever grow, which makes sure this terminates
+        MethodSummary old = summaries.get(candidate.key);
+        summary = summary.merge(old);
+        if(summary.isTrivial() || summary.equals(old)) return null;
+
+        summaries.put(candidate.key, summary);
+        return summary;
+    }
+
+    private static MethodSummary summarize(Candidate candidate, Map<String, MethodInfo> known) throws AnalyzerException {
+        MethodNode method = candidate.method;
+        SourceAnalysis analysis = AnalysisEngine.get().analyze(candidate.owner, method, AnalysisEngine.Mode.SPARSE);
+        AbstractInsnNode[] instructions = method.instructions.toArray();
+        Set<Integer> expandedVariables = Main.getExpandedVariables(analysis, instructions, known);
+
+        //Long arguments whose variable gets expanded are packed
+        Set<Integer> packedArguments = new TreeSet<>();
+        Type[] argumentTypes = Type.getArgumentTypes(method.desc);
+        int var = candidate.isStatic ? 0 : 1;
+        for(int argument = 0; argument < argumentTypes.length; argument++){
+            if(argumentTypes[argument].getSort() == Type.LONG && expandedVariables.contains(var)){
+                packedArguments.add(argument);
+            }
+            var += argumentTypes[argument].getSize();
+        }
+
+        boolean returnsPos = Type.getReturnType(method.desc).getSort() == Type.LONG && returnsPackedPos(analysis, instructions, expandedVariables, known);
+
+        return new MethodSummary(candidate.owner, method.name, method.desc, candidate.isStatic, returnsPos, packedArguments);
+    }
+
+    /**
+     * @return Whether any of the returned values comes from an expanded variable or a method that returns a packed position
+     */
+    private static boolean returnsPackedPos(SourceAnalysis analysis, AbstractInsnNode[] instructions, Set<Integer> expandedVariables, Map<String, MethodInfo> known){
+        for(int i = 0; i < instructions.length; i++){
+            if(instructions[i].getOpcode() != Opcodes.LRETURN || !analysis.isReachable(i)) continue;
+
+            BasicSourceValue returned = analysis.getStack(i, analysis.getStackSize(i) - 1);
+
+            IndexSet localVars = returned.getLocalVars();
+            for(int var = localVars.nextSetBit(0); var >= 0; var = localVars.nextSetBit(var + 1)){
+                if(expandedVariables.contains(var)) return true;
+            }
+
+            IndexSet source = returned.getSource();
+            for(int emitter = source.nextSetBit(0); emitter >= 0; emitter = source.nextSetBit(emitter + 1)){
+                if(instructions[emitter] instanceof MethodInsnNode methodCall){
+                    MethodInfo methodInfo = known.get(methodCall.owner + "#" + methodCall.name + " " + methodCall.desc);
+                    if(methodInfo != null && methodInfo.returnsPackedBlockPos()) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasLong(String descriptor){
+        return descriptor.indexOf('J') != -1 && (Type.getReturnType(descriptor).getSort() == Type.LONG
+                || Arrays.stream(Type.getArgumentTypes(descriptor)).anyMatch(type -> type.getSort() == Type.LONG));
+    }
+
+    /**
+     * Doesn't bother building the methods that can't be candidates. Abstract and native ones are kept since other methods can override them
+     */
+    private static class CandidateClassNode extends ClassNode {
+        CandidateClassNode(){
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if(!hasLong(descriptor)) return null;
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+    }
+
+    private record Candidate(String owner, MethodNode method, String key, boolean isStatic) {}
+}
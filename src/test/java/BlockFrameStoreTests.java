@@ -0,0 +1,178 @@
+import me.salamander.why.v2.BasicBlocks;
+import me.salamander.why.v2.BasicSourceInterpreter;
+import me.salamander.why.v2.BasicSourceValue;
+import me.salamander.why.v2.BlockFrameStore;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockFrameStoreTests {
+    private static final String CLASS_NAME = "test/Blocks";
+
+    @Test
+    public void testReplayedFramesMatchAnalyzer() throws AnalyzerException {
+        MethodNode method = createMethod();
+        BasicSourceInterpreter interpreter = new BasicSourceInterpreter(Opcodes.ASM9);
+        interpreter.setInstructions(method.instructions);
+        Frame<BasicSourceValue>[] frames = new Analyzer<>(interpreter).analyze(CLASS_NAME, method);
+        BlockFrameStore store = new BlockFrameStore(method, frames, interpreter.buildDefUseTable());
+
+        //Forwards mostly reuses the last rebuilt frame, backwards always starts over from the entry of a block
+        List<Integer> order = new ArrayList<>();
+        for(int i = 0; i < frames.length; i++) order.add(i);
+        for(int i = frames.length - 1; i >= 0; i--) order.add(i);
+
+        for(int i : order){
+            assertEquals(store.isReachable(i), frames[i] != null);
+            if(frames[i] == null) continue;
+
+            Frame<BasicSourceValue> replayed = store.getFrame(i);
+            assertEquals(replayed.getLocals(), frames[i].getLocals());
+            for(int local = 0; local < frames[i].getLocals(); local++){
+                assertEquals(replayed.getLocal(local), frames[i].getLocal(local));
+            }
+            assertEquals(replayed.getStackSize(), frames[i].getStackSize());
+            for(int stack = 0; stack < frames[i].getStackSize(); stack++){
+                assertEquals(replayed.getStack(stack), frames[i].getStack(stack));
+            }
+        }
+    }
+
+    @Test
+    public void testLeaders(){
+        MethodNode method = createMethod();
+        InsnList instructions = method.instructions;
+        BasicBlocks blocks = BasicBlocks.of(method);
+
+        List<LabelNode> targets = new ArrayList<>();
+        List<Integer> afterSwitches = new ArrayList<>();
+        for(AbstractInsnNode instruction : instructions){
+            if(instruction instanceof TableSwitchInsnNode tableSwitch){
+                targets.add(tableSwitch.dflt);
+                targets.addAll(tableSwitch.labels);
+                afterSwitches.add(instructions.indexOf(instruction) + 1);
+            }else if(instruction instanceof LookupSwitchInsnNode lookupSwitch){
+                targets.add(lookupSwitch.dflt);
+                targets.addAll(lookupSwitch.labels);
+                afterSwitches.add(instructions.indexOf(instruction) + 1);
+            }
+        }
+        for(TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks){
+            targets.add(tryCatchBlock.handler);
+        }
+        assertEquals(afterSwitches.size(), 2);
+        assertEquals(targets.size(), 7);
+
+        for(LabelNode target : targets){
+            assertTrue(isLeader(blocks, instructions.indexOf(target)));
+        }
+        for(int index : afterSwitches){
+            assertTrue(isLeader(blocks, index));
+        }
+
+        //Instructions that can throw inside the try block don't end their block
+        for(AbstractInsnNode instruction : instructions){
+            if(instruction.getOpcode() == Opcodes.INVOKESTATIC){
+                assertFalse(isLeader(blocks, instructions.indexOf(instruction)));
+                assertFalse(isLeader(blocks, instructions.indexOf(instruction) + 1));
+            }
+        }
+        assertEquals(blocks.getEnd(blocks.getNumBlocks() - 1), instructions.size());
+    }
+
+    private static boolean isLeader(BasicBlocks blocks, int index){
+        return blocks.getStart(blocks.getBlockOf(index)) == index;
+    }
+
+    /**
+     * <pre>
+     * static int classify(long pos, int kind) {
+     *     int result;
+     *     switch(kind) { case 0: result = (int) pos; break; case 1: result = 1; break; default: result = -1; }
+     *     switch(result) { case 1: result = 10; break; case 1000: result = 20; break; default: }
+     *     try { result = Math.addExact(result, 1); } catch(ArithmeticException e) { result = 0; }
+     *     return result;
+     * }
+     * </pre>
+     */
+    private static MethodNode createMethod(){
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_STATIC, "classify", "(JI)I", null, null);
+        method.visitCode();
+
+        Label case0 = new Label();
+        Label case1 = new Label();
+        Label otherKind = new Label();
+        Label classified = new Label();
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitTableSwitchInsn(0, 1, otherKind, case0, case1);
+        method.visitLabel(case0);
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitInsn(Opcodes.L2I);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitJumpInsn(Opcodes.GOTO, classified);
+        method.visitLabel(case1);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitJumpInsn(Opcodes.GOTO, classified);
+        method.visitLabel(otherKind);
+        method.visitInsn(Opcodes.ICONST_M1);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitLabel(classified);
+
+        Label small = new Label();
+        Label big = new Label();
+        Label scaled = new Label();
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitLookupSwitchInsn(scaled, new int[]{1, 1000}, new Label[]{small, big});
+        method.visitLabel(small);
+        method.visitIntInsn(Opcodes.BIPUSH, 10);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitJumpInsn(Opcodes.GOTO, scaled);
+        method.visitLabel(big);
+        method.visitIntInsn(Opcodes.BIPUSH, 20);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitLabel(scaled);
+
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label handler = new Label();
+        Label end = new Label();
+        method.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/ArithmeticException");
+        method.visitLabel(tryStart);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "addExact", "(II)I", false);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitLabel(tryEnd);
+        method.visitJumpInsn(Opcodes.GOTO, end);
+        method.visitLabel(handler);
+        method.visitVarInsn(Opcodes.ASTORE, 4);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitLabel(end);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitInsn(Opcodes.IRETURN);
+
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(classNode, 0);
+        return classNode.methods.get(0);
+    }
+}
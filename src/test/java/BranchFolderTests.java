@@ -0,0 +1,94 @@
+import me.salamander.why.v2.BranchFolder;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BranchFolderTests {
+    @Test
+    public void testRepeatedSentinelCheck(){
+        //if(x == Integer.MAX_VALUE) return 0; if(x == Integer.MAX_VALUE) return 1; return 2;
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "test", "(I)I", null, null);
+        Label first = new Label();
+        Label second = new Label();
+        method.visitLdcInsn(Integer.MAX_VALUE);
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitJumpInsn(Opcodes.IF_ICMPEQ, first);
+        method.visitLdcInsn(Integer.MAX_VALUE);
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitJumpInsn(Opcodes.IF_ICMPEQ, second);
+        method.visitInsn(Opcodes.ICONST_2);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(first);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(second);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(2, 1);
+
+        assertEquals(BranchFolder.fold(method), 1);
+        assertEquals(count(method, Opcodes.IF_ICMPEQ), 1);
+        assertEquals(count(method, Opcodes.ICONST_1), 0);
+        assertEquals(count(method, Opcodes.IRETURN), 2);
+    }
+
+    @Test
+    public void testUnpackedCoordinateIsNeverSentinel(){
+        //int y = BlockPos.unpackLongY(pos); if(y != Integer.MAX_VALUE) return 1; return 0;
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "test", "(J)I", null, null);
+        Label notSentinel = new Label();
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongY", "(J)I", false);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitLdcInsn(Integer.MAX_VALUE);
+        method.visitJumpInsn(Opcodes.IF_ICMPNE, notSentinel);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(notSentinel);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(2, 3);
+
+        assertEquals(BranchFolder.fold(method), 1);
+        assertEquals(count(method, Opcodes.IF_ICMPNE), 0);
+        assertEquals(count(method, Opcodes.GOTO), 1);
+        assertEquals(count(method, Opcodes.ICONST_0), 0);
+        assertEquals(count(method, Opcodes.LDC), 0);
+    }
+
+    @Test
+    public void testLoopIsKept(){
+        //int i = 0; while(i < 10) i++; return i;
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "test", "()I", null, null);
+        Label condition = new Label();
+        Label end = new Label();
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 0);
+        method.visitLabel(condition);
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitIntInsn(Opcodes.BIPUSH, 10);
+        method.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        method.visitIincInsn(0, 1);
+        method.visitJumpInsn(Opcodes.GOTO, condition);
+        method.visitLabel(end);
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(2, 1);
+
+        assertEquals(BranchFolder.fold(method), 0);
+        assertEquals(count(method, Opcodes.IF_ICMPGE), 1);
+    }
+
+    private static int count(MethodNode method, int opcode){
+        int count = 0;
+        for(AbstractInsnNode instruction : method.instructions){
+            if(instruction.getOpcode() == opcode) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,102 @@
+import me.salamander.why.v2.classpath.ClassHierarchyIndex;
+import me.salamander.why.v2.classpath.HierarchyClassWriter;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassHierarchyIndexTests {
+    @Test
+    public void testCommonSuperClass() throws IOException {
+        ClassHierarchyIndex index = createIndex();
+        Path file = Files.createTempDirectory("hierarchy").resolve("hierarchy.whyh");
+        index.write(file);
+
+        for(ClassHierarchyIndex hierarchy : List.of(index, ClassHierarchyIndex.read(file))){
+            assertEquals(hierarchy.getCommonSuperClass("test/B", "test/C"), "test/A");
+            assertEquals(hierarchy.getCommonSuperClass("test/B", "test/A"), "test/A");
+            assertEquals(hierarchy.getCommonSuperClass("test/B", "java/lang/Runnable"), "java/lang/Runnable");
+            assertEquals(hierarchy.getCommonSuperClass("test/I", "test/B"), "java/lang/Object");
+            assertEquals(hierarchy.getCommonSuperClass("test/B", "test/D"), "java/lang/Object");
+
+            //The JDK classes that are extended are read too
+            assertTrue(hierarchy.contains("java/util/ArrayList"));
+            assertEquals(hierarchy.getCommonSuperClass("test/D", "java/util/List"), "java/util/List");
+            assertEquals(hierarchy.getCommonSuperClass("test/D", "java/util/AbstractList"), "java/util/AbstractList");
+
+            //Nothing refers to LinkedList so it isn't in the index, and it never gets loaded to find out
+            assertThrows(TypeNotPresentException.class, () -> hierarchy.getCommonSuperClass("test/D", "java/util/LinkedList"));
+        }
+    }
+
+    @Test
+    public void testRequirePrebuilt(){
+        //Neither why.hierarchy nor the bundled index exist when the tests run, and the agent mustn't fall back to the class path then
+        assertNull(System.getProperty("why.hierarchy"));
+        assertThrows(IllegalStateException.class, ClassHierarchyIndex::requirePrebuilt);
+    }
+
+    @Test
+    public void testComputesFramesFromIndex() throws IOException {
+        ClassWriter classWriter = new HierarchyClassWriter(createIndex(), ClassWriter.COMPUTE_FRAMES);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Frames", null, "java/lang/Object", null);
+
+        //static Object pick(boolean b) { Object value = b ? (B) null : (C) null; return value; }
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_STATIC, "pick", "(Z)Ljava/lang/Object;", null, null);
+        Label other = new Label();
+        Label end = new Label();
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitJumpInsn(Opcodes.IFEQ, other);
+        method.visitInsn(Opcodes.ACONST_NULL);
+        method.visitTypeInsn(Opcodes.CHECKCAST, "test/B");
+        method.visitJumpInsn(Opcodes.GOTO, end);
+        method.visitLabel(other);
+        method.visitInsn(Opcodes.ACONST_NULL);
+        method.visitTypeInsn(Opcodes.CHECKCAST, "test/C");
+        method.visitLabel(end);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(classNode, ClassReader.EXPAND_FRAMES);
+        FrameNode last = null;
+        for(AbstractInsnNode instruction : classNode.methods.get(0).instructions){
+            if(instruction instanceof FrameNode frame) last = frame;
+        }
+        assertNotNull(last);
+        assertEquals(last.stack, List.of("test/A"));
+    }
+
+    private static ClassHierarchyIndex createIndex() throws IOException {
+        return ClassHierarchyIndex.of(List.of(
+                createClass("test/A", "java/lang/Object", false, "java/lang/Runnable"),
+                createClass("test/B", "test/A", false),
+                createClass("test/C", "test/A", false),
+                createClass("test/I", "java/lang/Object", true),
+                createClass("test/D", "java/util/ArrayList", false, "test/I")
+        ));
+    }
+
+    private static byte[] createClass(String name, String superName, boolean isInterface, String... interfaces){
+        int access = Opcodes.ACC_PUBLIC | (isInterface ? Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT : 0);
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(Opcodes.V16, access, name, null, superName, interfaces);
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+import me.salamander.why.v2.classpath.ClassNodeCache;
+import me.salamander.why.v2.classpath.ClassPath;
+import me.salamander.why.v2.classpath.JarClassSource;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassPathTests {
+    @Test
+    public void testStoredAndDeflatedEntries() throws IOException {
+        Path jar = createJar();
+        try(JarClassSource source = JarClassSource.open(jar)){
+            for(int i = 0; i < 10; i++){
+                String name = "test/Class" + i;
+                assertArrayEquals(createClass(name), source.readBytes(name + ".class"));
+            }
+            assertNull(source.read("test/Missing.class"));
+
+            //Stored entries are views of the mapping
+            ByteBuffer stored = source.read("test/Class0.class");
+            assertTrue(stored.isReadOnly());
+            assertFalse(stored.hasArray());
+        }finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        Path jar = createJar();
+        try(ClassPath classPath = ClassPath.of(List.of(jar))){
+            assertTrue(classPath.contains("test/Class3"));
+            assertFalse(classPath.contains("test/Missing"));
+
+            ClassNodeCache cache = new ClassNodeCache(classPath, 4, ClassReader.SKIP_DEBUG);
+            ClassNode first = cache.get("test/Class0");
+            assertEquals("test/Class0", first.name);
+            assertSame(first, cache.get("test/Class0"));
+
+            //The least recently used classes get evicted once there are more than 4
+            for(int i = 1; i < 10; i++) cache.get("test/Class" + i);
+            assertEquals(4, cache.size());
+            assertNotSame(first, cache.get("test/Class0"));
+
+            //Classes that aren't in any of the jars come from the system class loader
+            assertEquals("java/lang/Object", classPath.createClassNode("java/lang/Object", 0).name);
+        }finally {
+            Files.delete(jar);
+        }
+    }
+
+    private static Path createJar() throws IOException {
+        Path jar = Files.createTempFile("classes", ".jar");
+        try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))){
+            for(int i = 0; i < 10; i++){
+                String name = "test/Class" + i;
+                byte[] data = createClass(name);
+
+                ZipEntry entry = new ZipEntry(name + ".class");
+                if(i % 2 == 0){
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static byte[] createClass(String name){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        classNode.visitField(Opcodes.ACC_PUBLIC, "value", "J", null, null);
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+}
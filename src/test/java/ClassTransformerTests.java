@@ -0,0 +1,62 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.ClassTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassTransformerTests {
+    @Test
+    public void testParallelMatchesSequential(){
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        ClassNode sequential = createClass();
+        new ClassTransformer(context, null).transform(sequential);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ClassNode parallel = createClass();
+            new ClassTransformer(context, pool).transform(parallel);
+
+            assertEquals(parallel.methods.size(), sequential.methods.size());
+            assertArrayEquals(toBytes(parallel), toBytes(sequential));
+        }finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ClassNode createClass(){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Positions", null, "java/lang/Object", null);
+
+        //static int sum<i>(long pos) { return BlockPos.unpackLongX(pos) + BlockPos.unpackLongZ(pos) + i; }
+        for(int i = 0; i < 32; i++){
+            MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "sum" + i, "(J)I", null, null);
+            method.visitCode();
+            method.visitVarInsn(Opcodes.LLOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongX", "(J)I", false);
+            method.visitVarInsn(Opcodes.LLOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongZ", "(J)I", false);
+            method.visitInsn(Opcodes.IADD);
+            method.visitIntInsn(Opcodes.BIPUSH, i);
+            method.visitInsn(Opcodes.IADD);
+            method.visitInsn(Opcodes.IRETURN);
+            method.visitMaxs(4, 2);
+            method.visitEnd();
+        }
+        return classNode;
+    }
+
+    private static byte[] toBytes(ClassNode classNode){
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+}
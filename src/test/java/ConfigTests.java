@@ -0,0 +1,93 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.config.BinaryConfig;
+import me.salamander.why.v2.config.Remaps;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConfigTests {
+    @Test
+    public void testContextRoundTrip() throws IOException {
+        TransformContext parsed = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryConfig.writeContext(out, parsed);
+        TransformContext compiled = BinaryConfig.readContext(new ByteArrayInputStream(out.toByteArray()), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        assertEquals(compiled.getMethodInfo().keySet(), parsed.getMethodInfo().keySet());
+        for(Map.Entry<String, MethodInfo> entry : parsed.getMethodInfo().entrySet()){
+            MethodInfo expected = entry.getValue();
+            MethodInfo actual = compiled.getMethodInfo(entry.getKey());
+            assertEquals(actual.returnsPackedBlockPos(), expected.returnsPackedBlockPos());
+            assertEquals(actual.getExpandedIndices(), expected.getExpandedIndices());
+            assertEquals(actual.getNumArgs(), expected.getNumArgs());
+            assertEquals(actual.getNewOwner(), expected.getNewOwner());
+            assertEquals(actual.getNewName(), expected.getNewName());
+            assertEquals(actual.getNewDesc(), expected.getNewDesc());
+        }
+        for(int axis = 0; axis < 3; axis++){
+            assertEquals(compiled.getUnpackingMethod(axis), parsed.getUnpackingMethod(axis));
+        }
+        assertEquals(compiled.getOwners(), parsed.getOwners());
+
+        //The same config always compiles to the same bytes
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        BinaryConfig.writeContext(again, compiled);
+        assertArrayEquals(again.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void testRemapsRoundTrip() throws IOException {
+        //There is no remaps.bin on the test class path, so this parses remaps.json
+        List<Remaps.ClassRemap> parsed = Remaps.load();
+        assertFalse(parsed.isEmpty());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryConfig.writeRemaps(out, parsed);
+        assertEquals(BinaryConfig.readRemaps(new ByteArrayInputStream(out.toByteArray())), parsed);
+    }
+
+    @Test
+    public void testLargeContext() throws IOException {
+        //More entries than an unsigned short can count, like a config summarized from a whole jar
+        TransformContext parsed = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        Map<String, MethodInfo> methodInfo = new HashMap<>();
+        for(int i = 0; i < 70000; i++){
+            methodInfo.put("test/Owner#m" + i + " (J)I", new MethodInfo("test/Owner", "m" + i, "(J)I", true, false, List.of(0)));
+        }
+        String[] unpackingMethods = new String[3];
+        for(int axis = 0; axis < 3; axis++){
+            unpackingMethods[axis] = parsed.getUnpackingMethod(axis);
+        }
+        TransformContext large = new TransformContext(methodInfo, unpackingMethods, AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryConfig.writeContext(out, large);
+        TransformContext compiled = BinaryConfig.readContext(new ByteArrayInputStream(out.toByteArray()), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        assertEquals(compiled.getMethodInfo().size(), 70000);
+        MethodInfo last = compiled.getMethodInfo("test/Owner#m69999 (J)I");
+        assertNotNull(last);
+        assertEquals(last.getExpandedIndices(), Set.of(0));
+        assertEquals(last.getNewDesc(), "(III)I");
+        assertEquals(compiled.getUnpackingMethod(2), parsed.getUnpackingMethod(2));
+    }
+
+    @Test
+    public void testRejectsOtherFiles(){
+        byte[] json = "{\"method_info\": {}}".getBytes();
+        assertThrows(IOException.class, () -> BinaryConfig.readContext(new ByteArrayInputStream(json), AnalysisEngine.Mode.BLOCK_FRAMES));
+        assertThrows(IOException.class, () -> BinaryConfig.readRemaps(new ByteArrayInputStream(json)));
+    }
+}
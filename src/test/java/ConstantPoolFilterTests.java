@@ -0,0 +1,72 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.ConstantPoolFilter;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConstantPoolFilterTests {
+    private static final TransformContext CONTEXT = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+    @Test
+    public void testConfigMethodsAreFound(){
+        ConstantPoolFilter filter = new ConstantPoolFilter(CONTEXT);
+
+        assertTrue(filter.mayTransform(createClass("test/A", "net/minecraft/util/math/BlockPos", "unpackLongX", "(J)I")));
+        assertTrue(filter.mayTransform(createClass("test/A", "net/minecraft/util/math/BlockPos", "offset", "(JLnet/minecraft/util/math/Direction;)J")));
+
+        //Mentioning a config class isn't enough, the method has to match too
+        assertFalse(filter.mayTransform(createClass("test/A", "net/minecraft/util/math/BlockPos", "getX", "()I")));
+        assertFalse(filter.mayTransform(createClass("test/A", "net/minecraft/util/math/BlockPos", "unpackLongX", "(I)I")));
+        assertFalse(filter.mayTransform(createClass("test/A", "test/Other", "unpackLongX", "(J)I")));
+
+        //Classes that own config methods are always looked at
+        assertTrue(filter.mayTransform(createClass("net/minecraft/util/math/BlockPos", "test/Other", "run", "()V")));
+    }
+
+    @Test
+    public void testMethodsWithoutConfigCalls(){
+        MethodNode plain = createMethod("test/Other", "unpackLongX", "(J)I");
+        assertFalse(Main.mayTransform(CONTEXT, "test/A", plain));
+        assertTrue(Main.mayTransform(CONTEXT, "test/A", createMethod("net/minecraft/util/math/BlockPos", "unpackLongY", "(J)I")));
+
+        //Methods that are in the config themselves are always transformed
+        assertTrue(Main.mayTransform(CONTEXT, "net/minecraft/world/chunk/light/ChunkBlockLightProvider", renamed(plain, "getPropagatedLevel", "(JJI)I")));
+    }
+
+    private static byte[] createClass(String name, String owner, String methodName, String descriptor){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        classNode.methods.add(createMethod(owner, methodName, descriptor));
+
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+
+    private static MethodNode createMethod(String owner, String name, String descriptor){
+        //static void call() { 1L; 2.0; owner.name(...); } with the wide constants in front of the method ref in the constant pool
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "call", "()V", null, null);
+        method.visitCode();
+        method.visitLdcInsn(1234567890123L);
+        method.visitInsn(Opcodes.POP2);
+        method.visitLdcInsn(2.5);
+        method.visitInsn(Opcodes.POP2);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, owner, name, descriptor, false);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(2, 0);
+        method.visitEnd();
+        return method;
+    }
+
+    private static MethodNode renamed(MethodNode method, String name, String descriptor){
+        method.name = name;
+        method.desc = descriptor;
+        return method;
+    }
+}
@@ -0,0 +1,30 @@
+import me.salamander.why.v2.DefUseTable;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefUseTableTests {
+    @Test
+    public void testBuild(){
+        DefUseTable.Builder builder = new DefUseTable.Builder();
+        builder.add(3, 7);
+        builder.add(0, 2);
+        builder.add(3, 5);
+        builder.add(3, 7);
+        builder.add(0, 2);
+
+        DefUseTable table = builder.build(8);
+        assertEquals(table.getNumInstructions(), 8);
+
+        assertEquals(table.getConsumerCount(0), 1);
+        assertEquals(table.getConsumer(0, 0), 2);
+
+        assertEquals(table.getConsumerCount(1), 0);
+
+        assertEquals(table.getConsumerCount(3), 2);
+        assertEquals(table.getConsumer(3, 0), 5);
+        assertEquals(table.getConsumer(3, 1), 7);
+        assertTrue(table.isConsumedBy(3, 7));
+        assertFalse(table.isConsumedBy(3, 6));
+    }
+}
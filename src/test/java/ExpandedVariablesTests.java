@@ -0,0 +1,100 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.SourceAnalysis;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpandedVariablesTests {
+    private static final String CLASS_NAME = "test/Expansion";
+
+    @Test
+    public void testPropagation() throws AnalyzerException {
+        Map<String, MethodInfo> methodInfo = Map.of(
+                "test/Pos#pack (III)J", new MethodInfo("test/Pos", "pack", "(III)J", true, true, List.of()),
+                "test/Pos#getX (J)I", new MethodInfo("test/Pos", "getX", "(J)I", true, false, List.of(0))
+        );
+
+        MethodNode method = createMethod();
+        for(AnalysisEngine.Mode mode : AnalysisEngine.Mode.values()){
+            SourceAnalysis analysis = AnalysisEngine.get().analyze(CLASS_NAME, method, mode);
+            Set<Integer> expanded = Main.getExpandedVariables(analysis, method.instructions.toArray(), methodInfo);
+
+            //4 through the return value, 6 and 8 by being stored from it, 10 by being compared with 8, 0 by being stored into 10 and 2 as an argument.
+            //12 and 14 only ever hold sums of 12, which never meets a packed position
+            assertEquals(expanded, Set.of(0, 2, 4, 6, 8, 10), mode.toString());
+        }
+    }
+
+    /**
+     * <pre>
+     * static int expand(long a, long b) {
+     *     long packed = Pos.pack(1, 2, 3);
+     *     long copy = packed;
+     *     long copyOfCopy = copy;
+     *     long other = a;
+     *     long unrelated = 1;
+     *     long sum = unrelated + unrelated;
+     *     if(copyOfCopy == other) return 1;
+     *     return Pos.getX(b);
+     * }
+     * </pre>
+     */
+    private static MethodNode createMethod(){
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_STATIC, "expand", "(JJ)I", null, null);
+        method.visitCode();
+
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.ICONST_2);
+        method.visitInsn(Opcodes.ICONST_3);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "test/Pos", "pack", "(III)J", false);
+        method.visitVarInsn(Opcodes.LSTORE, 4);
+        method.visitVarInsn(Opcodes.LLOAD, 4);
+        method.visitVarInsn(Opcodes.LSTORE, 6);
+        method.visitVarInsn(Opcodes.LLOAD, 6);
+        method.visitVarInsn(Opcodes.LSTORE, 8);
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitVarInsn(Opcodes.LSTORE, 10);
+        method.visitInsn(Opcodes.LCONST_1);
+        method.visitVarInsn(Opcodes.LSTORE, 12);
+        method.visitVarInsn(Opcodes.LLOAD, 12);
+        method.visitVarInsn(Opcodes.LLOAD, 12);
+        method.visitInsn(Opcodes.LADD);
+        method.visitVarInsn(Opcodes.LSTORE, 14);
+
+        Label different = new Label();
+        method.visitVarInsn(Opcodes.LLOAD, 8);
+        method.visitVarInsn(Opcodes.LLOAD, 10);
+        method.visitInsn(Opcodes.LCMP);
+        method.visitJumpInsn(Opcodes.IFNE, different);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(different);
+        method.visitVarInsn(Opcodes.LLOAD, 2);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "test/Pos", "getX", "(J)I", false);
+        method.visitInsn(Opcodes.IRETURN);
+
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(classNode, 0);
+        return classNode.methods.get(0);
+    }
+}
@@ -0,0 +1,112 @@
+import me.salamander.why.debug.LocalVariableMapper;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.FrameRemapper;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameRemapperTests {
+    private static final String CLASS_NAME = "test/Frames";
+
+    @Test
+    public void testExpandedLongBecomesThreeInts(){
+        //static void method(long packed, long other, int value) with a frame that still has all three
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "method", "(JJI)V", null, null);
+        Label label = new Label();
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ILOAD, 4);
+        method.visitJumpInsn(Opcodes.IFEQ, label);
+        method.visitLabel(label);
+        method.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(1, 5);
+
+        FrameRemapper.expandFrames(CLASS_NAME, method);
+        FrameNode frame = getFrames(method).get(0);
+        assertEquals(frame.type, Opcodes.F_NEW);
+        assertEquals(frame.local, List.of(Opcodes.LONG, Opcodes.LONG, Opcodes.INTEGER));
+
+        LocalVariableMapper mapper = new LocalVariableMapper();
+        mapper.addTransformedParameter(0);
+        mapper.generate();
+        FrameRemapper.remapFrames(CLASS_NAME, method, mapper, false);
+
+        assertEquals(frame.local, List.of(Opcodes.INTEGER, Opcodes.INTEGER, Opcodes.INTEGER, Opcodes.LONG, Opcodes.INTEGER));
+        assertEquals(method.maxLocals, 6);
+        assertEquals(method.maxStack, 1);
+    }
+
+    @Test
+    public void testTransformedClassVerifies() throws ReflectiveOperationException {
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        byte[] transformed = new JarTransformer(context, List.of(), 1).transformClass(CLASS_NAME, createClass());
+        assertNotNull(transformed);
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(transformed).accept(classNode, 0);
+        MethodNode check = classNode.methods.stream().filter(method -> method.desc.equals("(IIII)I")).findFirst().orElseThrow();
+        assertEquals(check.maxLocals, 5);
+        assertFalse(getFrames(check).isEmpty());
+
+        //Loading the class runs the verifier on the frames that were written
+        Class<?> loaded = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define(){
+                return defineClass(CLASS_NAME.replace('/', '.'), transformed, 0, transformed.length);
+            }
+        }.define();
+        Method method = loaded.getDeclaredMethod("check", int.class, int.class, int.class, int.class);
+        method.setAccessible(true);
+        assertEquals(method.invoke(null, 1, 2, 3, 5), 7);
+        assertEquals(method.invoke(null, 1, 2, 3, 0), 0);
+    }
+
+    private static List<FrameNode> getFrames(MethodNode method){
+        List<FrameNode> frames = new ArrayList<>();
+        for(AbstractInsnNode instruction : method.instructions){
+            if(instruction instanceof FrameNode frame) frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static byte[] createClass(){
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+
+        //static int check(long pos, int bound) { int result = 0; if(bound > 0) result = BlockPos.unpackLongY(pos) + bound; return result; }
+        var method = classWriter.visitMethod(Opcodes.ACC_STATIC, "check", "(JI)I", null, null);
+        Label end = new Label();
+        method.visitCode();
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitJumpInsn(Opcodes.IFLE, end);
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongY", "(J)I", false);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitInsn(Opcodes.IADD);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+        method.visitLabel(end);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,105 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.plan.IncrementalIndex;
+import me.salamander.why.v2.plan.IncrementalTransformer;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalTransformerTests {
+    private static final String CLASS_NAME = "test/Incremental";
+    private static final String OTHER_CLASS_NAME = "test/Unrelated";
+
+    @Test
+    public void testUnchangedClassesAreReused() throws IOException {
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        byte[] original = TestClasses.createCheckAndLevel(CLASS_NAME, 0);
+        byte[] expected = new JarTransformer(context, List.of(), 1).transformClass(CLASS_NAME, original);
+
+        IncrementalTransformer first = new IncrementalTransformer(context, IncrementalIndex.empty(TransformCache.codeDigest()), List.of());
+        assertArrayEquals(expected, first.transformClass(CLASS_NAME, original));
+        assertNull(first.transformClass(OTHER_CLASS_NAME, createUnrelatedClass()));
+        assertEquals(first.getAnalyzedMethods(), 2);
+
+        //Nothing changed, so nothing is analyzed or even replayed
+        IncrementalTransformer second = new IncrementalTransformer(context, roundTrip(first.getIndex()), List.of());
+        assertArrayEquals(expected, second.transformClass(CLASS_NAME, original));
+        assertNull(second.transformClass(OTHER_CLASS_NAME, createUnrelatedClass()));
+        assertEquals(second.getReusedClasses(), 2);
+        assertEquals(second.getRebuiltClasses(), 0);
+        assertEquals(second.getAnalyzedMethods(), 0);
+    }
+
+    @Test
+    public void testConfigChangeOnlyAnalyzesDependents() throws IOException {
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.BLOCK_FRAMES);
+        byte[] original = TestClasses.createCheckAndLevel(CLASS_NAME, 0);
+
+        IncrementalTransformer first = new IncrementalTransformer(context, IncrementalIndex.empty(TransformCache.codeDigest()), List.of());
+        first.transformClass(CLASS_NAME, original);
+
+        //Only the second argument of getPropagatedLevel stays packed, which only level() consults
+        JsonObject changedConfig = config.deepCopy();
+        JsonArray args = new JsonArray();
+        args.add(1);
+        changedConfig.getAsJsonObject("method_info").getAsJsonObject("net/minecraft/world/chunk/light/ChunkBlockLightProvider#getPropagatedLevel (JJI)I").add("blockpos_args", args);
+        TransformContext changedContext = TransformContext.fromConfig(changedConfig, AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        IncrementalIndex index = roundTrip(first.getIndex());
+        assertTrue(index.changedMethods(IncrementalIndex.summarize(changedContext)).contains("net/minecraft/world/chunk/light/ChunkBlockLightProvider#getPropagatedLevel (JJI)I"));
+
+        IncrementalTransformer second = new IncrementalTransformer(changedContext, index, List.of());
+        byte[] expected = new JarTransformer(changedContext, List.of(), 1).transformClass(CLASS_NAME, original);
+        assertArrayEquals(expected, second.transformClass(CLASS_NAME, original));
+        assertEquals(second.getRebuiltClasses(), 1);
+        assertEquals(second.getAnalyzedMethods(), 1);
+        assertEquals(second.getReplayedMethods(), 1);
+    }
+
+    @Test
+    public void testChangedMethodIsAnalyzedAgain() throws IOException {
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        IncrementalTransformer first = new IncrementalTransformer(context, IncrementalIndex.empty(TransformCache.codeDigest()), List.of());
+        first.transformClass(CLASS_NAME, TestClasses.createCheckAndLevel(CLASS_NAME, 0));
+
+        //Only the body of check() is different
+        byte[] changed = TestClasses.createCheckAndLevel(CLASS_NAME, 1);
+        IncrementalTransformer second = new IncrementalTransformer(context, roundTrip(first.getIndex()), List.of());
+        byte[] expected = new JarTransformer(context, List.of(), 1).transformClass(CLASS_NAME, changed);
+        assertArrayEquals(expected, second.transformClass(CLASS_NAME, changed));
+        assertEquals(second.getAnalyzedMethods(), 1);
+        assertEquals(second.getReplayedMethods(), 1);
+    }
+
+    private static IncrementalIndex roundTrip(IncrementalIndex index) throws IOException {
+        Path file = Files.createTempDirectory("incremental").resolve("index.whyi");
+        index.write(file);
+        return IncrementalIndex.read(file);
+    }
+
+    private static byte[] createUnrelatedClass(){
+        ClassNode classNode = TestClasses.createClassNode(OTHER_CLASS_NAME);
+        MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "value", "()I", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(1, 0);
+        method.visitEnd();
+        return TestClasses.write(classNode);
+    }
+}
@@ -0,0 +1,37 @@
+import me.salamander.why.v2.IndexSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexSetTests {
+    @Test
+    public void testUnion(){
+        IndexSet a = IndexSet.of(1, 70);
+        IndexSet b = IndexSet.of(3);
+
+        IndexSet union = a.union(b);
+        assertArrayEquals(union.toArray(), new int[]{1, 3, 70});
+        assertEquals(union, IndexSet.of(70, 3, 1));
+        assertEquals(union.hashCode(), IndexSet.of(70, 3, 1).hashCode());
+    }
+
+    @Test
+    public void testUnionReturnsExistingInstance(){
+        IndexSet a = IndexSet.of(1, 2, 200);
+
+        assertSame(a.union(IndexSet.of(200)), a);
+        assertSame(a.union(IndexSet.EMPTY), a);
+        assertSame(IndexSet.of(2).union(a), a);
+    }
+
+    @Test
+    public void testNextSetBit(){
+        IndexSet set = IndexSet.of(0, 63, 64, 130);
+        assertEquals(set.nextSetBit(0), 0);
+        assertEquals(set.nextSetBit(1), 63);
+        assertEquals(set.nextSetBit(65), 130);
+        assertEquals(set.nextSetBit(131), -1);
+        assertEquals(set.size(), 4);
+        assertFalse(set.contains(65));
+    }
+}
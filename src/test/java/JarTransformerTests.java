@@ -0,0 +1,119 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.MethodInfo;
+import me.salamander.why.v2.TransformContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarTransformerTests {
+    @Test
+    public void testEntriesKeepTheirOrder() throws IOException, InterruptedException {
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for(int i = 0; i < 40; i++){
+            entries.put("test/Positions" + i + ".class", TestClasses.createUnpacking("test/Positions" + i, "getX", "unpackLongX"));
+            entries.put("test/Plain" + i + ".class", TestClasses.createPlain("test/Plain" + i, "getX"));
+            entries.put("data/file" + i + ".txt", ("file " + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path input = Files.createTempFile("input", ".jar");
+        Path output = Files.createTempFile("output", ".jar");
+        try {
+            try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))){
+                for(Map.Entry<String, byte[]> entry : entries.entrySet()){
+                    out.putNextEntry(new ZipEntry(entry.getKey()));
+                    out.write(entry.getValue());
+                    out.closeEntry();
+                }
+            }
+
+            JarTransformer.Stats stats = new JarTransformer(context, List.of(), 3).transform(input, output);
+            assertEquals(120, stats.entries());
+            assertEquals(80, stats.classes());
+            assertEquals(40, stats.transformed());
+
+            Map<String, byte[]> result = new LinkedHashMap<>();
+            try(ZipInputStream in = new ZipInputStream(Files.newInputStream(output))){
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) result.put(entry.getName(), in.readAllBytes());
+            }
+
+            assertEquals(new ArrayList<>(entries.keySet()), new ArrayList<>(result.keySet()));
+            for(String name : entries.keySet()){
+                if(name.startsWith("test/Positions")){
+                    ClassNode classNode = new ClassNode();
+                    new ClassReader(result.get(name)).accept(classNode, 0);
+                    assertTrue(classNode.methods.stream().anyMatch(method -> method.desc.equals("(III)I")));
+                }else{
+                    assertArrayEquals(entries.get(name), result.get(name));
+                }
+            }
+        }finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void testErrorsKeepTheOriginal() throws IOException {
+        //Every call to unpackLongX throws an Error, like ASM does when a method is too deep for it
+        TransformContext config = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        Map<String, MethodInfo> methodInfo = new HashMap<>(config.getMethodInfo());
+        String unpackX = TestClasses.BLOCK_POS + "#unpackLongX (J)I";
+        methodInfo.put(unpackX, new MethodInfo(TestClasses.BLOCK_POS, "unpackLongX", "(J)I", true, false, List.of(0)){
+            @Override
+            public boolean returnsPackedBlockPos() {
+                throw new StackOverflowError();
+            }
+        });
+        String[] unpackingMethods = {config.getUnpackingMethod(0), config.getUnpackingMethod(1), config.getUnpackingMethod(2)};
+        TransformContext context = new TransformContext(methodInfo, unpackingMethods, AnalysisEngine.Mode.BLOCK_FRAMES);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("test/Exploding.class", TestClasses.createUnpacking("test/Exploding", "getX", "unpackLongX"));
+        entries.put("test/Positions.class", TestClasses.createUnpacking("test/Positions", "getY", "unpackLongY"));
+        entries.put("data/file.txt", "file".getBytes(StandardCharsets.UTF_8));
+
+        Path input = Files.createTempFile("input", ".jar");
+        Path output = Files.createTempFile("output", ".jar");
+        try {
+            try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))){
+                for(Map.Entry<String, byte[]> entry : entries.entrySet()){
+                    out.putNextEntry(new ZipEntry(entry.getKey()));
+                    out.write(entry.getValue());
+                    out.closeEntry();
+                }
+            }
+
+            //With a single worker, an error that ended it would leave the reader and the writer waiting forever
+            IOException e = assertThrows(IOException.class, () -> new JarTransformer(context, List.of(), 1).transform(input, output));
+            assertTrue(e.getCause() instanceof StackOverflowError);
+
+            Map<String, byte[]> result = new LinkedHashMap<>();
+            try(ZipInputStream in = new ZipInputStream(Files.newInputStream(output))){
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) result.put(entry.getName(), in.readAllBytes());
+            }
+            assertEquals(new ArrayList<>(result.keySet()), new ArrayList<>(entries.keySet()));
+            assertArrayEquals(result.get("test/Exploding.class"), entries.get("test/Exploding.class"));
+            assertFalse(Arrays.equals(result.get("test/Positions.class"), entries.get("test/Positions.class")));
+        }finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import me.salamander.why.v2.AnalysisBudget;
+import me.salamander.why.v2.MethodBridges;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodBridgesTests {
+    @Test
+    public void testBridgeToOriginal(){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Light", null, "java/lang/Object", null);
+
+        //int getLevel(long pos, int i, long other) that failed to transform
+        MethodNode original = (MethodNode) classNode.visitMethod(Opcodes.ACC_PRIVATE, "getLevel", "(JIJ)I", null, null);
+        original.visitInsn(Opcodes.ICONST_0);
+        original.visitInsn(Opcodes.IRETURN);
+        original.visitMaxs(1, 6);
+
+        //A transformed method that calls the 3-int version of it
+        MethodNode caller = new MethodNode(Opcodes.ACC_PUBLIC, "caller", "()I", null, null);
+        caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "test/Light", "getLevel", "(IIIIJ)I", false));
+
+        List<MethodNode> bridges = MethodBridges.createMissingBridges(classNode, List.of(caller));
+        assertEquals(bridges.size(), 1);
+
+        MethodNode bridge = bridges.get(0);
+        assertEquals(bridge.name, "getLevel");
+        assertEquals(bridge.desc, "(IIIIJ)I");
+        assertEquals(bridge.maxLocals, 7);
+
+        MethodInsnNode call = null;
+        int packs = 0;
+        for(AbstractInsnNode instruction : bridge.instructions){
+            if(instruction instanceof MethodInsnNode methodCall){
+                if(methodCall.name.equals("asLong")) packs++;
+                else call = methodCall;
+            }
+        }
+        assertEquals(packs, 1);
+        assertNotNull(call);
+        assertEquals(call.getOpcode(), Opcodes.INVOKESPECIAL);
+        assertEquals(call.desc, "(JIJ)I");
+    }
+
+    @Test
+    public void testBudget(){
+        AnalysisBudget budget = new AnalysisBudget(0, 3);
+        budget.tick();
+        budget.tick();
+        budget.tick();
+        assertThrows(AnalysisBudget.Exceeded.class, budget::tick);
+    }
+}
@@ -0,0 +1,78 @@
+import me.salamander.why.v2.output.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutputSinkTests {
+    @Test
+    public void testJarKeepsOrderAndContents() throws IOException {
+        Path jar = Files.createTempDirectory("sink").resolve("out/test.jar");
+        List<byte[]> contents = new ArrayList<>();
+        Random random = new Random(0);
+
+        try(JarSink sink = new JarSink(jar, 4)){
+            sink.write("test/", new byte[0]);
+            for(int i = 0; i < 200; i++){
+                //Every other entry can't be compressed and gets stored
+                byte[] data = new byte[random.nextInt(4096)];
+                if(i % 2 == 0) random.nextBytes(data);
+                contents.add(data);
+                sink.writeClass("test/Class" + i, data);
+            }
+        }
+
+        try(ZipFile zip = new ZipFile(jar.toFile())){
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            assertEquals(entries.size(), 201);
+            assertEquals(entries.get(0).getName(), "test/");
+            for(int i = 0; i < 200; i++){
+                ZipEntry entry = entries.get(i + 1);
+                assertEquals(entry.getName(), "test/Class" + i + ".class");
+                try(InputStream in = zip.getInputStream(entry)){
+                    assertArrayEquals(contents.get(i), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws IOException {
+        MemorySink memory = new MemorySink();
+        try(WriteBehindSink sink = new WriteBehindSink(memory)){
+            for(int i = 0; i < 1000; i++){
+                sink.writeClass("test/Class" + i, new byte[]{(byte) i});
+            }
+        }
+        assertEquals(memory.size(), 1000);
+        assertArrayEquals(new byte[]{(byte) 999}, memory.getClass("test/Class999"));
+    }
+
+    @Test
+    public void testFailuresAreReported() throws IOException {
+        //A file where a directory has to be created makes every write fail
+        Path blocker = Files.createTempFile("sink", ".tmp");
+        WriteBehindSink sink = new WriteBehindSink(new DirectorySink(blocker));
+        sink.writeClass("test/Class", new byte[1]);
+        assertThrows(IOException.class, sink::close);
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("sink");
+        try(DirectorySink sink = new DirectorySink(directory)){
+            sink.writeClass("test/nested/Class", new byte[]{1, 2, 3});
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(directory.resolve("test/nested/Class.class")));
+    }
+}
@@ -0,0 +1,77 @@
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.plan.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlanTests {
+    private static final String CLASS_NAME = "test/Positions";
+
+    @Test
+    public void testReplayMatchesTransformation() throws IOException {
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.fromSystemProperties());
+        byte[] original = TestClasses.createCheckAndLevel(CLASS_NAME, 0);
+
+        ClassPlan plan = new PlanCompiler(context, List.of()).compile(CLASS_NAME, original);
+        assertNotNull(plan);
+        assertEquals(plan.methods().size(), 2);
+        assertTrue(plan.methods().stream().anyMatch(method -> !method.folds().isEmpty()));
+        assertTrue(plan.methods().stream().anyMatch(method -> method.expandedVariables().length == 2));
+
+        //The plan survives being written and read again
+        Path file = Files.createTempFile("plans", ".whyp");
+        new PlanFile(PlanFile.configHash(config), TransformCache.codeDigest(), Map.of(CLASS_NAME, plan)).write(file);
+        PlanReplayer replayer = PlanReplayer.load(context, config, file, List.of());
+        assertEquals(replayer.getPlans().size(), 1);
+
+        byte[] expected = new JarTransformer(context, List.of(), 1).transformClass(CLASS_NAME, original);
+        assertArrayEquals(expected, replayer.transformClass(CLASS_NAME, original));
+    }
+
+    @Test
+    public void testOutdatedMethodPlansFallBack() throws IOException {
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.fromSystemProperties());
+        byte[] original = TestClasses.createCheckAndLevel(CLASS_NAME, 0);
+        ClassPlan plan = new PlanCompiler(context, List.of()).compile(CLASS_NAME, original);
+
+        //Plans whose checksum doesn't match the method are ignored and the method is transformed from scratch
+        List<MethodPlan> outdated = plan.methods().stream()
+                .map(method -> new MethodPlan(method.name(), method.descriptor(), ~method.checksum(), new int[0], List.of(), List.of(), List.of()))
+                .collect(Collectors.toList());
+        ClassPlan outdatedPlan = new ClassPlan(CLASS_NAME, plan.checksum(), outdated);
+        PlanReplayer replayer = new PlanReplayer(context, new PlanFile(0, TransformCache.codeDigest(), Map.of(CLASS_NAME, outdatedPlan)), List.of());
+
+        byte[] expected = new JarTransformer(context, List.of(), 1).transformClass(CLASS_NAME, original);
+        assertArrayEquals(expected, replayer.transformClass(CLASS_NAME, original));
+    }
+
+    @Test
+    public void testPlansFromOtherTransformerAreIgnored() throws IOException {
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.fromSystemProperties());
+        ClassPlan plan = new PlanCompiler(context, List.of()).compile(CLASS_NAME, TestClasses.createCheckAndLevel(CLASS_NAME, 0));
+
+        Path file = Files.createTempFile("plans", ".whyp");
+        new PlanFile(PlanFile.configHash(config), new byte[]{1, 2, 3}, Map.of(CLASS_NAME, plan)).write(file);
+        PlanFile read = PlanFile.read(file);
+        assertEquals(read.size(), 1);
+        assertTrue(read.matchesCode(new byte[]{1, 2, 3}));
+        assertFalse(read.matchesCode(TransformCache.codeDigest()));
+
+        assertEquals(PlanReplayer.load(context, config, file, List.of()).getPlans().size(), 0);
+    }
+}
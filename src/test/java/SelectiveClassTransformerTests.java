@@ -0,0 +1,90 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.ClassTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.SelectiveClassTransformer;
+import me.salamander.why.v2.TransformContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SelectiveClassTransformerTests {
+    @Test
+    public void testOnlyTargetsAreTransformed(){
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        ClassTransformer transformer = new ClassTransformer(context, null);
+
+        byte[] transformed = new SelectiveClassTransformer(transformer).transform(createClass());
+        assertNotNull(transformed);
+        ClassNode selective = read(transformed);
+
+        //The untouched method is copied as it was, including its far too big max stack, and doesn't get a copy
+        MethodNode plain = find(selective, "plain", "(I)I");
+        assertNotNull(plain);
+        assertEquals(plain.maxStack, 100);
+        assertNull(find(selective, "plain3int", "(I)I"));
+        assertEquals(selective.methods.size(), 3);
+
+        //The target is transformed just like it is when the whole class is
+        ClassNode full = read(createClass());
+        transformer.transform(full);
+        assertEquals(opcodes(find(full, "get", "(III)I")), opcodes(find(selective, "get", "(III)I")));
+    }
+
+    @Test
+    public void testClassesWithoutTargetsAreUnchanged(){
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Plain", null, "java/lang/Object", null);
+        addPlainMethod(classNode);
+
+        assertNull(new SelectiveClassTransformer(new ClassTransformer(context, null)).transform(TestClasses.write(classNode)));
+    }
+
+    private static byte[] createClass(){
+        ClassNode classNode = TestClasses.createClassNode("test/Positions");
+        TestClasses.addUnpacking(classNode, "get", "unpackLongX");
+        addPlainMethod(classNode);
+        return TestClasses.write(classNode);
+    }
+
+    private static void addPlainMethod(ClassNode classNode){
+        //static int plain(int x) { return x + 1; }
+        MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "plain", "(I)I", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IADD);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(100, 1);
+        method.visitEnd();
+    }
+
+    private static MethodNode find(ClassNode classNode, String name, String descriptor){
+        for(MethodNode method : classNode.methods){
+            if(method.name.equals(name) && method.desc.equals(descriptor)) return method;
+        }
+        return null;
+    }
+
+    private static List<Integer> opcodes(MethodNode method){
+        List<Integer> opcodes = new ArrayList<>();
+        for(AbstractInsnNode instruction : method.instructions){
+            if(instruction.getOpcode() != -1) opcodes.add(instruction.getOpcode());
+        }
+        return opcodes;
+    }
+
+    private static ClassNode read(byte[] bytes){
+        ClassNode classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, 0);
+        return classNode;
+    }
+}
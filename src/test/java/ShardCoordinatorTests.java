@@ -0,0 +1,83 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.service.ShardCoordinator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardCoordinatorTests {
+    @Test
+    public void testDeadWorkerGetsReplaced() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("shards");
+        Map<String, byte[]> classes = createJar(directory.resolve("positions.jar"));
+
+        //The first worker dies before reading anything, the ones after it work
+        ShardCoordinator.Stats stats = new ShardCoordinator(firstWorkerFails(directory, "exit 1"), 2, 3).run(List.of(directory.resolve("positions.jar")), directory.resolve("out"));
+        assertEquals(7, stats.shards());
+        assertEquals(20, stats.transformed());
+        assertEquals(1, stats.restarts());
+        assertTransformed(classes, directory.resolve("out").resolve("positions.jar"));
+    }
+
+    @Test
+    public void testHungWorkerGetsReplaced() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("shards");
+        Map<String, byte[]> classes = createJar(directory.resolve("positions.jar"));
+
+        //The first worker never answers, so it is killed once its shard times out and the shard goes to the next one
+        ShardCoordinator.Stats stats = new ShardCoordinator(firstWorkerFails(directory, "exec sleep 600"), 1, 3, 5000).run(List.of(directory.resolve("positions.jar")), directory.resolve("out"));
+        assertEquals(7, stats.shards());
+        assertEquals(20, stats.transformed());
+        assertEquals(1, stats.restarts());
+        assertTransformed(classes, directory.resolve("out").resolve("positions.jar"));
+    }
+
+    /**
+     * @param failure What the first worker does instead of starting, as a shell command
+     */
+    private static List<String> firstWorkerFails(Path directory, String failure){
+        Path marker = directory.resolve("failed");
+        String java = ShardCoordinator.defaultWorkerCommand(List.of(), List.of()).stream().map(argument -> "'" + argument + "'").collect(Collectors.joining(" "));
+        return List.of("sh", "-c", "if mkdir '" + marker + "' 2>/dev/null; then " + failure + "; fi; exec " + java);
+    }
+
+    private static Map<String, byte[]> createJar(Path jar) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for(int i = 0; i < 20; i++){
+            classes.put("test/Positions" + i + ".class", TestClasses.createUnpacking("test/Positions" + i, "getX", "unpackLongX"));
+        }
+        try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))){
+            for(Map.Entry<String, byte[]> entry : classes.entrySet()){
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return classes;
+    }
+
+    private static void assertTransformed(Map<String, byte[]> classes, Path output) throws IOException {
+        JarTransformer local = new JarTransformer(TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.fromSystemProperties()), List.of(), 1);
+        try(ZipInputStream in = new ZipInputStream(Files.newInputStream(output))){
+            List<String> names = new ArrayList<>();
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null){
+                names.add(entry.getName());
+                String className = entry.getName().substring(0, entry.getName().length() - ".class".length());
+                assertArrayEquals(local.transformClass(className, classes.get(entry.getName())), in.readAllBytes());
+            }
+            assertEquals(new ArrayList<>(classes.keySet()), names);
+        }
+    }
+}
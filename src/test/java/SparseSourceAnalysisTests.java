@@ -0,0 +1,184 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.BasicSourceValue;
+import me.salamander.why.v2.DefUseTable;
+import me.salamander.why.v2.SourceAnalysis;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparseSourceAnalysisTests {
+    private static final String CLASS_NAME = "test/Longs";
+
+    @Test
+    public void testMatchesFrameAnalysis() throws AnalyzerException {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(createClass()).accept(classNode, 0);
+        assertEquals(classNode.methods.size(), 4);
+
+        for(MethodNode method : classNode.methods){
+            SourceAnalysis frames = AnalysisEngine.get().analyze(CLASS_NAME, method, AnalysisEngine.Mode.FULL_FRAMES);
+            SourceAnalysis sparse = AnalysisEngine.get().analyze(CLASS_NAME, method, AnalysisEngine.Mode.SPARSE);
+            assertSameFacts(method, frames, sparse);
+        }
+    }
+
+    /**
+     * The sparse analysis only knows about longs, so for every long the frames have on the stack, it has to know the same sources and variables,
+     * and every instruction that emits a long has to have the same consumers
+     */
+    private static void assertSameFacts(MethodNode method, SourceAnalysis frames, SourceAnalysis sparse){
+        DefUseTable frameDefUse = frames.getDefUse();
+        DefUseTable sparseDefUse = sparse.getDefUse();
+        Set<Integer> longEmitters = new HashSet<>();
+        int longsCompared = 0;
+
+        for(int i = 0; i < method.instructions.size(); i++){
+            String where = method.name + " instruction " + i;
+            assertEquals(sparse.isReachable(i), frames.isReachable(i), where);
+            if(!frames.isReachable(i)) continue;
+            assertEquals(sparse.getStackSize(i), frames.getStackSize(i), where);
+
+            int consumed = getConsumedValues(method, i);
+            for(int stackIndex = frames.getStackSize(i) - consumed; stackIndex < frames.getStackSize(i); stackIndex++){
+                BasicSourceValue expected = frames.getStack(i, stackIndex);
+                if(!Type.LONG_TYPE.equals(expected.getType())) continue;
+
+                BasicSourceValue actual = sparse.getStack(i, stackIndex);
+                assertEquals(actual.getSource(), expected.getSource(), where);
+                assertEquals(actual.getLocalVars(), expected.getLocalVars(), where);
+                for(int source : expected.getSource().toArray()) longEmitters.add(source);
+                longsCompared++;
+            }
+        }
+        assertTrue(longsCompared > 0, method.name);
+
+        for(int def : longEmitters){
+            assertEquals(sparseDefUse.getConsumerCount(def), frameDefUse.getConsumerCount(def), method.name + " instruction " + def);
+            for(int n = 0; n < frameDefUse.getConsumerCount(def); n++){
+                assertTrue(sparseDefUse.isConsumedBy(def, frameDefUse.getConsumer(def, n)), method.name + " instruction " + def);
+            }
+        }
+    }
+
+    /**
+     * @return How many values the instruction takes off the stack, for the instructions used in {@link #createClass()}
+     */
+    private static int getConsumedValues(MethodNode method, int index){
+        int opcode = method.instructions.get(index).getOpcode();
+        return switch (opcode) {
+            case Opcodes.LSTORE, Opcodes.LRETURN, Opcodes.IFEQ, Opcodes.IFNE, Opcodes.IRETURN, Opcodes.L2I, Opcodes.INVOKESTATIC, Opcodes.ASTORE -> 1;
+            case Opcodes.LCMP, Opcodes.LADD, Opcodes.IF_ICMPLT -> 2;
+            default -> 0;
+        };
+    }
+
+    private static byte[] createClass(){
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+
+        //static long pick(long a, long b, boolean first) { long result; if(first) result = a; else result = b; return result; }
+        MethodVisitor pick = classWriter.visitMethod(Opcodes.ACC_STATIC, "pick", "(JJZ)J", null, null);
+        Label other = new Label();
+        Label end = new Label();
+        pick.visitCode();
+        pick.visitVarInsn(Opcodes.ILOAD, 4);
+        pick.visitJumpInsn(Opcodes.IFEQ, other);
+        pick.visitVarInsn(Opcodes.LLOAD, 0);
+        pick.visitVarInsn(Opcodes.LSTORE, 5);
+        pick.visitJumpInsn(Opcodes.GOTO, end);
+        pick.visitLabel(other);
+        pick.visitVarInsn(Opcodes.LLOAD, 2);
+        pick.visitVarInsn(Opcodes.LSTORE, 5);
+        pick.visitLabel(end);
+        pick.visitVarInsn(Opcodes.LLOAD, 5);
+        pick.visitInsn(Opcodes.LRETURN);
+        pick.visitMaxs(0, 0);
+        pick.visitEnd();
+
+        //static int same(long a, long b) { long x = a; long y = x; return y == b ? 1 : 0; }
+        MethodVisitor same = classWriter.visitMethod(Opcodes.ACC_STATIC, "same", "(JJ)I", null, null);
+        Label different = new Label();
+        same.visitCode();
+        same.visitVarInsn(Opcodes.LLOAD, 0);
+        same.visitVarInsn(Opcodes.LSTORE, 4);
+        same.visitVarInsn(Opcodes.LLOAD, 4);
+        same.visitVarInsn(Opcodes.LSTORE, 6);
+        same.visitVarInsn(Opcodes.LLOAD, 6);
+        same.visitVarInsn(Opcodes.LLOAD, 2);
+        same.visitInsn(Opcodes.LCMP);
+        same.visitJumpInsn(Opcodes.IFNE, different);
+        same.visitInsn(Opcodes.ICONST_1);
+        same.visitInsn(Opcodes.IRETURN);
+        same.visitLabel(different);
+        same.visitInsn(Opcodes.ICONST_0);
+        same.visitInsn(Opcodes.IRETURN);
+        same.visitMaxs(0, 0);
+        same.visitEnd();
+
+        //static long guarded(long a) { long result = a; try { result = Long.reverse(result); } catch(RuntimeException e) { result = a; } return result; }
+        MethodVisitor guarded = classWriter.visitMethod(Opcodes.ACC_STATIC, "guarded", "(J)J", null, null);
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label handler = new Label();
+        Label after = new Label();
+        guarded.visitCode();
+        guarded.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/RuntimeException");
+        guarded.visitVarInsn(Opcodes.LLOAD, 0);
+        guarded.visitVarInsn(Opcodes.LSTORE, 2);
+        guarded.visitLabel(tryStart);
+        guarded.visitVarInsn(Opcodes.LLOAD, 2);
+        guarded.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "reverse", "(J)J", false);
+        guarded.visitVarInsn(Opcodes.LSTORE, 2);
+        guarded.visitLabel(tryEnd);
+        guarded.visitJumpInsn(Opcodes.GOTO, after);
+        guarded.visitLabel(handler);
+        guarded.visitVarInsn(Opcodes.ASTORE, 4);
+        guarded.visitVarInsn(Opcodes.LLOAD, 0);
+        guarded.visitVarInsn(Opcodes.LSTORE, 2);
+        guarded.visitLabel(after);
+        guarded.visitVarInsn(Opcodes.LLOAD, 2);
+        guarded.visitInsn(Opcodes.LRETURN);
+        guarded.visitMaxs(0, 0);
+        guarded.visitEnd();
+
+        //static long sum(long a, int n) { long sum = a; for(int i = 0; i < n; i++) sum = sum + a; return sum; }
+        MethodVisitor sum = classWriter.visitMethod(Opcodes.ACC_STATIC, "sum", "(JI)J", null, null);
+        Label condition = new Label();
+        Label body = new Label();
+        sum.visitCode();
+        sum.visitVarInsn(Opcodes.LLOAD, 0);
+        sum.visitVarInsn(Opcodes.LSTORE, 3);
+        sum.visitInsn(Opcodes.ICONST_0);
+        sum.visitVarInsn(Opcodes.ISTORE, 5);
+        sum.visitJumpInsn(Opcodes.GOTO, condition);
+        sum.visitLabel(body);
+        sum.visitVarInsn(Opcodes.LLOAD, 3);
+        sum.visitVarInsn(Opcodes.LLOAD, 0);
+        sum.visitInsn(Opcodes.LADD);
+        sum.visitVarInsn(Opcodes.LSTORE, 3);
+        sum.visitIincInsn(5, 1);
+        sum.visitLabel(condition);
+        sum.visitVarInsn(Opcodes.ILOAD, 5);
+        sum.visitVarInsn(Opcodes.ILOAD, 2);
+        sum.visitJumpInsn(Opcodes.IF_ICMPLT, body);
+        sum.visitVarInsn(Opcodes.LLOAD, 3);
+        sum.visitInsn(Opcodes.LRETURN);
+        sum.visitMaxs(0, 0);
+        sum.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,191 @@
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.summary.MethodSummary;
+import me.salamander.why.v2.summary.SummaryPass;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SummaryPassTests {
+    @Test
+    public void testSummaries(){
+        ClassNode a = new ClassNode();
+        a.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/A", null, "java/lang/Object", null);
+
+        //static int x(long pos) { return BlockPos.unpackLongX(pos); }
+        MethodNode x = method(a, Opcodes.ACC_STATIC, "x", "(J)I");
+        x.visitVarInsn(Opcodes.LLOAD, 0);
+        x.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongX", "(J)I", false);
+        x.visitInsn(Opcodes.IRETURN);
+
+        //static int callsX(int i, long notPacked, long pos) { return x(pos); }
+        MethodNode callsX = method(a, Opcodes.ACC_STATIC, "callsX", "(IJJ)I");
+        callsX.visitVarInsn(Opcodes.LLOAD, 3);
+        callsX.visitMethodInsn(Opcodes.INVOKESTATIC, "test/A", "x", "(J)I", false);
+        callsX.visitInsn(Opcodes.IRETURN);
+
+        //long pos(BlockPos pos) { long packed = pos.asLong(); return packed; }
+        MethodNode pos = method(a, 0, "pos", "(Lnet/minecraft/util/math/BlockPos;)J");
+        pos.visitVarInsn(Opcodes.ALOAD, 1);
+        pos.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "net/minecraft/util/math/BlockPos", "asLong", "()J", false);
+        pos.visitVarInsn(Opcodes.LSTORE, 2);
+        pos.visitVarInsn(Opcodes.LLOAD, 2);
+        pos.visitInsn(Opcodes.LRETURN);
+
+        //static long plain(long l) { return l; }
+        MethodNode plain = method(a, Opcodes.ACC_STATIC, "plain", "(J)J");
+        plain.visitVarInsn(Opcodes.LLOAD, 0);
+        plain.visitInsn(Opcodes.LRETURN);
+
+        ClassNode b = new ClassNode();
+        b.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/B", null, "test/A", null);
+
+        //static int callsInherited(long pos) { return B.callsX(0, 0L, pos); }
+        MethodNode callsInherited = method(b, Opcodes.ACC_STATIC, "callsInherited", "(J)I");
+        callsInherited.visitInsn(Opcodes.ICONST_0);
+        callsInherited.visitInsn(Opcodes.LCONST_0);
+        callsInherited.visitVarInsn(Opcodes.LLOAD, 0);
+        callsInherited.visitMethodInsn(Opcodes.INVOKESTATIC, "test/B", "callsX", "(IJJ)I", false);
+        callsInherited.visitInsn(Opcodes.IRETURN);
+
+        ClassNode i = new ClassNode();
+        i.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "test/I", null, "java/lang/Object", null);
+
+        //default int y(long pos) { return BlockPos.unpackLongY(pos); }
+        MethodNode y = method(i, Opcodes.ACC_PUBLIC, "y", "(J)I");
+        y.visitVarInsn(Opcodes.LLOAD, 1);
+        y.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongY", "(J)I", false);
+        y.visitInsn(Opcodes.IRETURN);
+
+        ClassNode c = new ClassNode();
+        c.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/C", null, "test/B", new String[]{"test/I"});
+
+        //int callsDefault(long pos) { return this.y(pos); }
+        MethodNode callsDefault = method(c, Opcodes.ACC_PUBLIC, "callsDefault", "(J)I");
+        callsDefault.visitVarInsn(Opcodes.ALOAD, 0);
+        callsDefault.visitVarInsn(Opcodes.LLOAD, 1);
+        callsDefault.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "test/C", "y", "(J)I", false);
+        callsDefault.visitInsn(Opcodes.IRETURN);
+
+        SummaryPass pass = new SummaryPass(Main.readMethodInfo(Main.loadConfig()));
+        pass.addClass(a);
+        pass.addClass(b);
+        pass.addClass(i);
+        pass.addClass(c);
+        Map<String, MethodSummary> summaries = pass.run();
+
+        assertEquals(summaries.get("test/A#x (J)I").packedArguments(), Set.of(0));
+        assertEquals(summaries.get("test/A#callsX (IJJ)I").packedArguments(), Set.of(2));
+        assertEquals(summaries.get("test/B#callsX (IJJ)I").packedArguments(), Set.of(2));
+        assertEquals(summaries.get("test/B#callsInherited (J)I").packedArguments(), Set.of(0));
+
+        MethodSummary posSummary = summaries.get("test/A#pos (Lnet/minecraft/util/math/BlockPos;)J");
+        assertTrue(posSummary.returnsPos());
+        assertFalse(posSummary.isStatic());
+
+        assertNull(summaries.get("test/A#plain (J)J"));
+
+        //Default methods are found through the interfaces of the class and its superclasses
+        assertEquals(summaries.get("test/C#y (J)I").packedArguments(), Set.of(0));
+        assertEquals(summaries.get("test/C#callsDefault (J)I").packedArguments(), Set.of(0));
+    }
+
+    @Test
+    public void testOverrideFamilies(){
+        ClassNode base = new ClassNode();
+        base.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Base", null, "java/lang/Object", null);
+
+        //int get(long pos) { return (int) pos; }
+        MethodNode baseGet = method(base, Opcodes.ACC_PUBLIC, "get", "(J)I");
+        baseGet.visitVarInsn(Opcodes.LLOAD, 1);
+        baseGet.visitInsn(Opcodes.L2I);
+        baseGet.visitInsn(Opcodes.IRETURN);
+
+        ClassNode sub = new ClassNode();
+        sub.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Sub", null, "test/Base", null);
+
+        //int get(long pos) { return BlockPos.unpackLongX(pos); }
+        MethodNode subGet = method(sub, Opcodes.ACC_PUBLIC, "get", "(J)I");
+        subGet.visitVarInsn(Opcodes.LLOAD, 1);
+        subGet.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongX", "(J)I", false);
+        subGet.visitInsn(Opcodes.IRETURN);
+
+        ClassNode shape = new ClassNode();
+        shape.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "test/Shape", null, "java/lang/Object", null);
+        shape.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "z", "(J)I", null, null);
+
+        ClassNode box = new ClassNode();
+        box.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, "test/Box", null, "java/lang/Object", new String[]{"test/Shape", "java/util/function/LongPredicate"});
+
+        //int z(long pos) { return BlockPos.unpackLongZ(pos); }
+        MethodNode boxZ = method(box, Opcodes.ACC_PUBLIC, "z", "(J)I");
+        boxZ.visitVarInsn(Opcodes.LLOAD, 1);
+        boxZ.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongZ", "(J)I", false);
+        boxZ.visitInsn(Opcodes.IRETURN);
+
+        //boolean test(long pos) { return BlockPos.unpackLongX(pos) != 0; }
+        MethodNode boxTest = method(box, Opcodes.ACC_PUBLIC, "test", "(J)Z");
+        boxTest.visitVarInsn(Opcodes.LLOAD, 1);
+        boxTest.visitMethodInsn(Opcodes.INVOKESTATIC, "net/minecraft/util/math/BlockPos", "unpackLongX", "(J)I", false);
+        boxTest.visitInsn(Opcodes.IRETURN);
+
+        //static int callsShape(Shape shape, long pos) { return shape.z(pos); }
+        MethodNode callsShape = method(box, Opcodes.ACC_STATIC, "callsShape", "(Ltest/Shape;J)I");
+        callsShape.visitVarInsn(Opcodes.ALOAD, 0);
+        callsShape.visitVarInsn(Opcodes.LLOAD, 1);
+        callsShape.visitMethodInsn(Opcodes.INVOKEINTERFACE, "test/Shape", "z", "(J)I", true);
+        callsShape.visitInsn(Opcodes.IRETURN);
+
+        SummaryPass pass = new SummaryPass(Main.readMethodInfo(Main.loadConfig()));
+        pass.addClass(base);
+        pass.addClass(sub);
+        pass.addClass(shape);
+        pass.addClass(box);
+        Map<String, MethodSummary> summaries = pass.run();
+
+        //A call to Base.get might reach Sub.get, so both have to be rewritten the same way
+        assertEquals(summaries.get("test/Base#get (J)I").packedArguments(), Set.of(0));
+        assertEquals(summaries.get("test/Sub#get (J)I").packedArguments(), Set.of(0));
+
+        //The abstract declaration gets the summary of its implementation, which interface calls resolve to
+        assertEquals(summaries.get("test/Shape#z (J)I").packedArguments(), Set.of(0));
+        assertEquals(summaries.get("test/Box#callsShape (Ltest/Shape;J)I").packedArguments(), Set.of(1));
+
+        //LongPredicate.test is called by the JDK, which can't be rewritten
+        assertNull(summaries.get("test/Box#test (J)Z"));
+    }
+
+    @Test
+    public void testAddJar() throws IOException {
+        Path jar = Files.createTempFile("summaries", ".jar");
+        try {
+            try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))){
+                out.putNextEntry(new ZipEntry("test/Jarred.class"));
+                out.write(TestClasses.createUnpacking("test/Jarred", "x", "unpackLongX"));
+                out.closeEntry();
+            }
+
+            SummaryPass pass = new SummaryPass(Main.readMethodInfo(Main.loadConfig()));
+            assertEquals(pass.addJar(jar), 1);
+            assertEquals(pass.run().get("test/Jarred#x (J)I").packedArguments(), Set.of(0));
+        }finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    private static MethodNode method(ClassNode owner, int access, String name, String descriptor){
+        MethodNode method = (MethodNode) owner.visitMethod(access, name, descriptor, null, null);
+        method.visitCode();
+        method.visitMaxs(8, 8);
+        return method;
+    }
+}
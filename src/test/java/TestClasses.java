@@ -0,0 +1,110 @@
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Classes for the tests to transform. They are written without computing frames or maximums, so they hold exactly the instructions given here
+ */
+public class TestClasses {
+    public static final String BLOCK_POS = "net/minecraft/util/math/BlockPos";
+
+    /**
+     * A class with one method: {@code static int <methodName>(long pos) { return BlockPos.<unpacker>(pos); }}
+     */
+    public static byte[] createUnpacking(String className, String methodName, String unpacker){
+        ClassNode classNode = createClassNode(className);
+        addUnpacking(classNode, methodName, unpacker);
+        return write(classNode);
+    }
+
+    /**
+     * A class with one method that never refers to the config: {@code static int <methodName>(long pos) { return (int) pos; }}
+     */
+    public static byte[] createPlain(String className, String methodName){
+        ClassNode classNode = createClassNode(className);
+        MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, methodName, "(J)I", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitInsn(Opcodes.L2I);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(2, 2);
+        method.visitEnd();
+        return write(classNode);
+    }
+
+    /**
+     * A class with a method that can have branches folded and one that calls a config method with packed arguments:
+     * <pre>
+     * static int check(long pos) { int y = BlockPos.unpackLongY(pos); if(y == Integer.MAX_VALUE) return 0; if(y == Integer.MAX_VALUE) return 1; return 2 + offset; }
+     * static int level(ChunkBlockLightProvider provider, long source, long target) { return provider.getPropagatedLevel(source, target, 0); }
+     * </pre>
+     * @param offset Changes the body of check() without touching level()
+     */
+    public static byte[] createCheckAndLevel(String className, int offset){
+        ClassNode classNode = createClassNode(className);
+
+        MethodNode check = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "check", "(J)I", null, null);
+        Label first = new Label();
+        Label second = new Label();
+        check.visitCode();
+        check.visitVarInsn(Opcodes.LLOAD, 0);
+        check.visitMethodInsn(Opcodes.INVOKESTATIC, BLOCK_POS, "unpackLongY", "(J)I", false);
+        check.visitVarInsn(Opcodes.ISTORE, 2);
+        check.visitVarInsn(Opcodes.ILOAD, 2);
+        check.visitLdcInsn(Integer.MAX_VALUE);
+        check.visitJumpInsn(Opcodes.IF_ICMPEQ, first);
+        check.visitVarInsn(Opcodes.ILOAD, 2);
+        check.visitLdcInsn(Integer.MAX_VALUE);
+        check.visitJumpInsn(Opcodes.IF_ICMPEQ, second);
+        check.visitLdcInsn(2 + offset);
+        check.visitInsn(Opcodes.IRETURN);
+        check.visitLabel(first);
+        check.visitInsn(Opcodes.ICONST_0);
+        check.visitInsn(Opcodes.IRETURN);
+        check.visitLabel(second);
+        check.visitInsn(Opcodes.ICONST_1);
+        check.visitInsn(Opcodes.IRETURN);
+        check.visitMaxs(2, 3);
+        check.visitEnd();
+
+        MethodNode level = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, "level", "(Lnet/minecraft/world/chunk/light/ChunkBlockLightProvider;JJ)I", null, null);
+        level.visitCode();
+        level.visitVarInsn(Opcodes.ALOAD, 0);
+        level.visitVarInsn(Opcodes.LLOAD, 1);
+        level.visitVarInsn(Opcodes.LLOAD, 3);
+        level.visitInsn(Opcodes.ICONST_0);
+        level.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "net/minecraft/world/chunk/light/ChunkBlockLightProvider", "getPropagatedLevel", "(JJI)I", false);
+        level.visitInsn(Opcodes.IRETURN);
+        level.visitMaxs(6, 5);
+        level.visitEnd();
+
+        return write(classNode);
+    }
+
+    public static ClassNode createClassNode(String className){
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V16, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null);
+        return classNode;
+    }
+
+    /**
+     * Adds {@code static int <methodName>(long pos) { return BlockPos.<unpacker>(pos); }}
+     */
+    public static void addUnpacking(ClassNode classNode, String methodName, String unpacker){
+        MethodNode method = (MethodNode) classNode.visitMethod(Opcodes.ACC_STATIC, methodName, "(J)I", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.LLOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, BLOCK_POS, unpacker, "(J)I", false);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(2, 2);
+        method.visitEnd();
+    }
+
+    public static byte[] write(ClassNode classNode){
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.agent.LoadTimeStats;
+import me.salamander.why.v2.agent.TransformAgent;
+import me.salamander.why.v2.cache.TransformCache;
+import me.salamander.why.v2.output.JarSink;
+import me.salamander.why.v2.output.MemorySink;
+import me.salamander.why.v2.plan.IncrementalIndex;
+import me.salamander.why.v2.plan.IncrementalTransformer;
+import me.salamander.why.v2.plan.PrecomputedClasses;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransformAgentTests {
+    @Test
+    public void testTransformsWhileLoading(){
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        JarTransformer transformer = new JarTransformer(context, List.of(), 1);
+        MemorySink dump = new MemorySink();
+        TransformAgent agent = new TransformAgent(transformer, null, new LoadTimeStats(0), dump);
+        ClassLoader loader = getClass().getClassLoader();
+
+        byte[] original = TestClasses.createUnpacking("test/Loaded", "y", "unpackLongY");
+        byte[] transformed = agent.transform(loader, "test/Loaded", null, null, original);
+        assertNotNull(transformed);
+        assertArrayEquals(transformer.transformClass("test/Loaded", original), transformed);
+        assertArrayEquals(transformed, dump.getClass("test/Loaded"));
+
+        assertNull(agent.transform(loader, "test/Unrelated", null, null, TestClasses.createPlain("test/Unrelated", "y")));
+        //The transformer's own classes and classes from the bootstrap loader are never looked at
+        assertNull(agent.transform(loader, "me/salamander/why/Loaded", null, null, TestClasses.createUnpacking("me/salamander/why/Loaded", "y", "unpackLongY")));
+        assertNull(agent.transform(null, "test/Loaded", null, null, original));
+
+        List<LoadTimeStats.ClassTiming> timings = agent.getStats().getTimings();
+        assertEquals(timings.size(), 2);
+        assertTrue(timings.get(0).transformed());
+        assertFalse(timings.get(1).transformed());
+        assertTrue(agent.getStats().report(10).contains("test/Loaded"));
+    }
+
+    @Test
+    public void testNoticesConfigOwners(){
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        TransformAgent agent = new TransformAgent(new JarTransformer(context, List.of(), 1), null, new LoadTimeStats(0), null);
+        ClassLoader loader = getClass().getClassLoader();
+
+        //BlockPos under its intermediary name isn't one of the config's classes
+        agent.transform(loader, "net/minecraft/class_2338", null, null, TestClasses.createPlain("net/minecraft/class_2338", "y"));
+        assertFalse(agent.hasLoadedConfigOwner());
+
+        agent.transform(loader, TestClasses.BLOCK_POS, null, null, TestClasses.createPlain(TestClasses.BLOCK_POS, "y"));
+        assertTrue(agent.hasLoadedConfigOwner());
+    }
+
+    @Test
+    public void testPrecomputedClassesSkipAnalysis() throws IOException {
+        TransformContext context = TransformContext.fromConfig(Main.loadConfig(), AnalysisEngine.Mode.BLOCK_FRAMES);
+        JarTransformer transformer = new JarTransformer(context, List.of(), 1);
+        byte[] original = TestClasses.createUnpacking("test/Loaded", "y", "unpackLongY");
+
+        Path directory = Files.createTempDirectory("aot");
+        Path input = directory.resolve("game.jar");
+        try(JarSink sink = new JarSink(input, 1)){
+            sink.writeClass("test/Loaded", original);
+            sink.writeClass("test/Unrelated", TestClasses.createPlain("test/Unrelated", "y"));
+        }
+        Path output = directory.resolve("precomputed.jar");
+        new IncrementalTransformer(context, IncrementalIndex.empty(TransformCache.codeDigest()), List.of()).transform(input, output, true);
+
+        PrecomputedClasses precomputed;
+        try(InputStream in = Files.newInputStream(output)){
+            precomputed = PrecomputedClasses.read(in);
+        }
+        assertEquals(precomputed.size(), 1);
+
+        TransformAgent agent = new TransformAgent(transformer, precomputed, new LoadTimeStats(0), null);
+        ClassLoader loader = getClass().getClassLoader();
+        assertArrayEquals(transformer.transformClass("test/Loaded", original), agent.transform(loader, "test/Loaded", null, null, original));
+        assertTrue(agent.getStats().getTimings().get(0).precomputed());
+
+        //A class that isn't exactly the one the precomputed class was made from gets transformed while loading
+        byte[] other = createClassWithField("test/Loaded");
+        assertNotNull(agent.transform(loader, "test/Loaded", null, null, other));
+        assertFalse(agent.getStats().getTimings().get(1).precomputed());
+    }
+
+    private static byte[] createClassWithField(String name){
+        ClassNode classNode = TestClasses.createClassNode(name);
+        TestClasses.addUnpacking(classNode, "y", "unpackLongY");
+        classNode.visitField(Opcodes.ACC_STATIC, "extra", "I", null, null);
+        return TestClasses.write(classNode);
+    }
+}
@@ -0,0 +1,57 @@
+import com.google.gson.JsonObject;
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.cache.TransformCache;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransformCacheTests {
+    @Test
+    public void testHitsSkipTheTransformation() throws IOException {
+        JsonObject config = Main.loadConfig();
+        TransformContext context = TransformContext.fromConfig(config, AnalysisEngine.Mode.fromSystemProperties());
+        TransformCache cache = TransformCache.create(Files.createTempDirectory("cache"), Main.loadConfigBytes());
+
+        byte[] positions = TestClasses.createUnpacking("test/Positions", "get", "unpackLongX");
+        byte[] transformed = new JarTransformer(context, List.of(), 1, cache).transformClass("test/Positions", positions);
+        assertNotNull(transformed);
+
+        //A new transformer with the same inputs finds the entry and produces the same bytes
+        String key = cache.key("test/Positions", positions);
+        assertArrayEquals(transformed, cache.get(key).toBytes());
+        assertArrayEquals(transformed, new JarTransformer(context, List.of(), 1, cache).transformClass("test/Positions", positions));
+
+        //Whatever is in the entry is returned without transforming anything
+        byte[] marker = {1, 2, 3};
+        cache.put(key, marker);
+        assertArrayEquals(marker, new JarTransformer(context, List.of(), 1, cache).transformClass("test/Positions", positions));
+
+        //A different class or config gives a different key
+        assertNotEquals(key, cache.key("test/Positions", TestClasses.createUnpacking("test/Positions", "get", "unpackLongZ")));
+        JsonObject otherConfig = config.deepCopy();
+        otherConfig.addProperty("comment", "changed");
+        assertNotEquals(key, TransformCache.create(Path.of("unused"), otherConfig.toString().getBytes(StandardCharsets.UTF_8)).key("test/Positions", positions));
+    }
+
+    @Test
+    public void testUnchangedClasses() throws IOException {
+        TransformCache cache = TransformCache.create(Files.createTempDirectory("cache"), Main.loadConfigBytes());
+        String key = cache.key("test/Plain", new byte[]{0});
+        assertNull(cache.get(key));
+
+        cache.put(key, null);
+        TransformCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertFalse(entry.transformed());
+        assertNull(entry.toBytes());
+    }
+}
@@ -0,0 +1,93 @@
+import me.salamander.why.v2.AnalysisEngine;
+import me.salamander.why.v2.JarTransformer;
+import me.salamander.why.v2.Main;
+import me.salamander.why.v2.TransformContext;
+import me.salamander.why.v2.service.TransformClient;
+import me.salamander.why.v2.service.TransformDaemon;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransformDaemonTests {
+    @Test
+    public void testConcurrentClients() throws Exception {
+        AnalysisEngine.Mode mode = AnalysisEngine.Mode.fromSystemProperties();
+        byte[] positions = TestClasses.createUnpacking("test/Positions", "getX", "unpackLongX");
+        byte[] expected = new JarTransformer(TransformContext.fromConfig(Main.loadConfig(), mode), List.of(), 1).transformClass("test/Positions", positions);
+        assertNotNull(expected);
+
+        Path socket = Files.createTempDirectory("daemon").resolve("daemon.sock");
+        ExecutorService clients = Executors.newFixedThreadPool(3);
+        try(TransformDaemon daemon = new TransformDaemon(Main.loadConfig(), mode, 3)){
+            //Warming up mustn't touch the output of the rest of the process
+            PrintStream out = System.out;
+            daemon.warmUp(5);
+            assertSame(System.out, out);
+            daemon.start(UnixDomainSocketAddress.of(socket));
+
+            List<Future<?>> results = new ArrayList<>();
+            for(int i = 0; i < 3; i++){
+                results.add(clients.submit(() -> {
+                    try(TransformClient client = TransformClient.connect(UnixDomainSocketAddress.of(socket))){
+                        for(int j = 0; j < 10; j++){
+                            assertArrayEquals(expected, client.transform("test/Positions", positions));
+                            assertNull(client.transform("test/Plain", TestClasses.createPlain("test/Plain", "getX")));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> result : results) result.get();
+        }finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testOversizedRequestsFail() throws IOException {
+        byte[] positions = TestClasses.createUnpacking("test/Positions", "getX", "unpackLongX");
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(requests);
+
+        //Too long an override gets skipped along with its class, the request after it is answered as usual, and a negative length ends the connection
+        writeRequest(out, new byte[TransformDaemon.MAX_OVERRIDE_LENGTH + 1], positions.length);
+        out.write(positions);
+        writeRequest(out, new byte[0], positions.length);
+        out.write(positions);
+        writeRequest(out, new byte[0], -1);
+        writeRequest(out, new byte[0], positions.length);
+        out.write(positions);
+
+        ByteArrayOutputStream answers = new ByteArrayOutputStream();
+        try(TransformDaemon daemon = new TransformDaemon(Main.loadConfig(), AnalysisEngine.Mode.fromSystemProperties(), 1)){
+            daemon.serve(new ByteArrayInputStream(requests.toByteArray()), answers);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(answers.toByteArray()));
+        assertEquals(in.readInt(), TransformDaemon.FAILED);
+        assertTrue(in.readUTF().startsWith("The config override is"));
+        assertEquals(in.readInt(), TransformDaemon.TRANSFORMED);
+        in.readFully(new byte[in.readInt()]);
+        assertEquals(in.readInt(), TransformDaemon.FAILED);
+        assertEquals(in.readUTF(), "Invalid class length -1");
+        assertEquals(in.available(), 0);
+    }
+
+    private static void writeRequest(DataOutputStream out, byte[] override, int classLength) throws IOException {
+        out.writeInt(TransformDaemon.TRANSFORM);
+        out.writeUTF("test/Positions");
+        out.writeInt(override.length);
+        out.write(override);
+        out.writeInt(classLength);
+    }
+}